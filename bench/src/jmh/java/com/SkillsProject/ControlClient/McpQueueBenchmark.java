@@ -0,0 +1,116 @@
+/* Benchmark of the message queue of the master control program.
+ *
+ * Producer threads, one per simulated device server, each send bursts of messages with a short pause between
+ * bursts, so the servers' bursts arrive at the same time. The score is bursts per second. The latency from a
+ * message being queued until the control loop has acted on it, and the messages dropped on a full queue, are
+ * printed when the trial ends.
+ * The idle benchmark counts the CPU time the control loop uses while no messages arrive, which the spinning stack
+ * it replaced spent a whole core on: its "loopCpuNanos" result is the nanoseconds of CPU per second.
+ */
+
+package com.SkillsProject.ControlClient;
+
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 2, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class McpQueueBenchmark {
+	private static final int BURST = 200;
+
+	private MasterControlProgram mcp;
+	private Thread loop;
+	private PrintStream console;
+
+	//The CPU time of the control loop thread.
+	@State(Scope.Thread)
+	@AuxCounters(AuxCounters.Type.OPERATIONS)
+	public static class LoopCpu {
+		public long loopCpuNanos;
+
+		@Setup(Level.Iteration)
+		public void reset() {
+			loopCpuNanos = 0;
+		}
+	}
+
+	@Setup
+	public void setup() {
+		//The control loop prints every message it handles.
+		console = System.out;
+		System.setOut(new PrintStream(OutputStream.nullOutputStream()));
+		mcp = new MasterControlProgram(null);
+		loop = new Thread(mcp, "MCP");
+		loop.start();
+	}
+
+	@TearDown
+	public void tearDown() throws InterruptedException {
+		mcp.shutdownMCP();
+		loop.join();
+		System.setOut(console);
+		LatencyStats latency = mcp.latencyStats();
+		if (latency.count() > 0) {
+			System.out.println(String.format("%d messages, latency p50 %.1f us, p99 %.1f us, max %.1f us, %d dropped",
+					latency.count(), latency.percentileMicros(50), latency.percentileMicros(99), latency.maxMicros(),
+					mcp.droppedMessages.get()));
+		}
+	}
+
+	@Benchmark
+	@Threads(1)
+	public void oneServer() throws InterruptedException {
+		burst();
+	}
+
+	@Benchmark
+	@Threads(6)
+	public void sixServers() throws InterruptedException {
+		burst();
+	}
+
+	@Benchmark
+	@Threads(12)
+	public void twelveServers() throws InterruptedException {
+		burst();
+	}
+
+	//Checks the CPU time of the waiting control loop every 100 ms.
+	@Benchmark
+	@Threads(1)
+	public void idle(LoopCpu cpu) throws InterruptedException {
+		ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+		long before = threads.getThreadCpuTime(loop.getId());
+		Thread.sleep(100);
+		cpu.loopCpuNanos += threads.getThreadCpuTime(loop.getId()) - before;
+	}
+
+	private void burst() throws InterruptedException {
+		for (int message = 0; message < BURST; message++) {
+			mcp.enqueue(new String[] {"ChangeControlState", "2"});
+		}
+		Thread.sleep(2);
+	}
+}
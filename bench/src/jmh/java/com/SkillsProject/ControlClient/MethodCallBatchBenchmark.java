@@ -0,0 +1,192 @@
+/* Benchmark of sending skill calls one per Call request and in batches.
+ *
+ * The device server is simulated: it handles up to "serverThreads" Call requests at once and queues the rest, the way
+ * a server handles requests on a pool of threads. A request costs a fixed time for the round trip and the request
+ * itself ("requestMicros") plus a small time for each call in it ("callMicros"). A call to the slow skill takes
+ * "slowMillis" on top, and its request returns only once it's done. The batcher sends calls slower than 10 ms alone
+ * and runs at most 4 senders for the server.
+ * The callers make calls either each with its own request the way UaClient.call(objectId, methodId, ...) sends them
+ * ("unbatched"), or through the MethodCallBatcher with the given linger. The score is calls per second.
+ *
+ * "oneCaller", "eightCallers" and "thirtyTwoCallers" only call fast skills. In the "mixed" groups one caller keeps
+ * calling the slow skill next to 7 or 31 callers of fast skills, so the score of the fast callers shows whether their calls
+ * wait for the slow ones. The calls per request are printed when the trial ends.
+ */
+
+package com.SkillsProject.ControlClient;
+
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Group;
+import org.openjdk.jmh.annotations.GroupThreads;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.prosysopc.ua.client.UaClient;
+import com.prosysopc.ua.stack.builtintypes.NodeId;
+import com.prosysopc.ua.stack.builtintypes.StatusCode;
+import com.prosysopc.ua.stack.builtintypes.Variant;
+import com.prosysopc.ua.stack.core.CallMethodRequest;
+import com.prosysopc.ua.stack.core.CallMethodResult;
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 2, time = 1)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class MethodCallBatchBenchmark {
+	//"unbatched" sends every call on its own, a number is the linger of the batcher in microseconds.
+	@Param({"unbatched", "0", "250"})
+	public String lingerMicros;
+
+	@Param({"1000"})
+	public long requestMicros;
+
+	@Param({"50"})
+	public long callMicros;
+
+	@Param({"20"})
+	public long slowMillis;
+
+	@Param({"4"})
+	public int serverThreads;
+
+	private final NodeId skillId = new NodeId(2, "BeltServer_BeltSensPause");
+	private final NodeId methodId = new NodeId(2, "BeltServer_BeltSensPause_Reset");
+	private final NodeId slowSkillId = new NodeId(2, "MainServer_MainDispense");
+	private final NodeId slowMethodId = new NodeId(2, "MainServer_MainDispense_Start");
+	private UaClient client;
+	private SimulatedServer server;
+	private MethodCallBatcher batcher;
+	private final AtomicLong calls = new AtomicLong();
+
+	//The simulated server, counting the requests it handled.
+	private static final class SimulatedServer implements MethodCallBatcher.Transport {
+		final long requestNanos;
+		final long callNanos;
+		final long slowNanos;
+		final NodeId slowMethodId;
+		final Semaphore threads;
+		final AtomicLong requests = new AtomicLong();
+
+		SimulatedServer(int threads, long requestNanos, long callNanos, long slowNanos, NodeId slowMethodId) {
+			this.threads = new Semaphore(threads, true);
+			this.requestNanos = requestNanos;
+			this.callNanos = callNanos;
+			this.slowNanos = slowNanos;
+			this.slowMethodId = slowMethodId;
+		}
+
+		@Override
+		public CallMethodResult[] call(UaClient client, CallMethodRequest[] callRequests) throws InterruptedException {
+			requests.incrementAndGet();
+			long nanos = requestNanos + callRequests.length * callNanos;
+			for (CallMethodRequest request: callRequests) {
+				if (slowMethodId.equals(request.getMethodId())) {
+					nanos += slowNanos;
+				}
+			}
+			threads.acquire();
+			try {
+				LockSupport.parkNanos(nanos);
+			} finally {
+				threads.release();
+			}
+			CallMethodResult[] results = new CallMethodResult[callRequests.length];
+			for (int x = 0; x < results.length; x++) {
+				results[x] = new CallMethodResult(StatusCode.GOOD, null, null, new Variant[] {new Variant(true)});
+			}
+			return results;
+		}
+	}
+
+	@Setup
+	public void setup() throws Exception {
+		client = new UaClient("opc.tcp://localhost:52520/OPCUA/BenchServer");
+		server = new SimulatedServer(serverThreads, TimeUnit.MICROSECONDS.toNanos(requestMicros), TimeUnit.MICROSECONDS.toNanos(callMicros),
+				TimeUnit.MILLISECONDS.toNanos(slowMillis), slowMethodId);
+		if (!lingerMicros.equals("unbatched")) {
+			batcher = new MethodCallBatcher(server, 32, TimeUnit.MICROSECONDS.toNanos(Long.parseLong(lingerMicros)),
+					TimeUnit.MILLISECONDS.toNanos(10), 4);
+		}
+	}
+
+	@TearDown
+	public void tearDown() {
+		if (batcher != null) {
+			batcher.close();
+		}
+		long requests = server.requests.get();
+		System.out.println(String.format("%.2f calls per request", requests == 0 ? 0 : calls.get() / (double) requests));
+	}
+
+	@Benchmark
+	@Threads(1)
+	public Object oneCaller() throws Exception {
+		return call(skillId, methodId);
+	}
+
+	@Benchmark
+	@Threads(8)
+	public Object eightCallers() throws Exception {
+		return call(skillId, methodId);
+	}
+
+	@Benchmark
+	@Threads(32)
+	public Object thirtyTwoCallers() throws Exception {
+		return call(skillId, methodId);
+	}
+
+	@Benchmark
+	@Group("mixedEight")
+	@GroupThreads(7)
+	public Object fast() throws Exception {
+		return call(skillId, methodId);
+	}
+
+	@Benchmark
+	@Group("mixedEight")
+	@GroupThreads(1)
+	public Object slow() throws Exception {
+		return call(slowSkillId, slowMethodId);
+	}
+
+	@Benchmark
+	@Group("mixedThirtyTwo")
+	@GroupThreads(31)
+	public Object fastOfThirtyTwo() throws Exception {
+		return call(skillId, methodId);
+	}
+
+	@Benchmark
+	@Group("mixedThirtyTwo")
+	@GroupThreads(1)
+	public Object slowOfThirtyTwo() throws Exception {
+		return call(slowSkillId, slowMethodId);
+	}
+
+	//Makes one call, however the case sends it.
+	private Object call(NodeId objectId, NodeId method) throws Exception {
+		calls.incrementAndGet();
+		if (batcher == null) {
+			return server.call(client, new CallMethodRequest[] {new CallMethodRequest(objectId, method, new Variant[] {new Variant("")})});
+		}
+		return batcher.call(client, objectId, method, new Variant(""));
+	}
+}
@@ -0,0 +1,89 @@
+/* Benchmark of running product orders with the recipe engine.
+ *
+ * The device servers are simulated: a started skill reports Completed after a fixed execute time and Ready right
+ * after it, the way the PLC simulator's skills do. Orders of MakeProductOne are kept running with 1, 10
+ * and 100 orders at once, every completed order replaced by a new one, and the score is the products per hour.
+ * The devices limit it to one product per device per execute time. A run without execute time measures how many
+ * orders the engine itself can run.
+ */
+
+package com.SkillsProject.ControlClient;
+
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.SkillsProject.Common.CallType;
+import com.SkillsProject.Common.SkillState;
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.HOURS)
+@Warmup(iterations = 2, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class RecipeEngineBenchmark {
+	private static final String RECIPE = "MakeProductOne";
+
+	@Param({"1", "10", "100"})
+	public int orders;
+
+	@Param({"10", "0"})
+	public long skillMillis;
+
+	private ScheduledExecutorService plcs;
+	private RecipeEngine engine;
+	private long completed = 0;
+
+	@Setup
+	public void setup() throws Exception {
+		plcs = Executors.newScheduledThreadPool(4);
+		engine = new RecipeEngine(RecipeBook.load(), (server, deviceSet, skill, callType, argument) -> {
+			if (callType == CallType.START) {
+				//The servers report the device set of the skill even when the recipe doesn't name it.
+				String reported = deviceSet.isEmpty() ? "Set_" + server : deviceSet;
+				plcs.schedule(() -> {
+					engine.onStateChange(server, reported, skill, SkillState.COMPLETED);
+					engine.onStateChange(server, reported, skill, SkillState.READY);
+				}, skillMillis, TimeUnit.MILLISECONDS);
+			}
+		}, 4);
+		for (int x = 0; x < orders; x++) {
+			engine.submit(RECIPE);
+		}
+	}
+
+	@TearDown
+	public void tearDown() {
+		engine.close();
+		plcs.shutdownNow();
+	}
+
+	//Waits for the next order to complete and replaces it with a new one.
+	@Benchmark
+	public long product() {
+		while (engine.completedOrders() <= completed) {
+			if (engine.failedOrders() > 0) {
+				throw new IllegalStateException(engine.failedOrders() + " orders failed");
+			}
+			LockSupport.parkNanos(50000);
+		}
+		completed++;
+		engine.submit(RECIPE);
+		return completed;
+	}
+}
@@ -0,0 +1,74 @@
+/* A device server set up for the benchmarks.
+ *
+ * Initializes the server the same way ModularServerMain does, but without asking the user for anything.
+ * The Skill Bridge ports are ephemeral so several benchmarks can run on one machine. The server is not started
+ * since the benchmarks call the node manager directly.
+ */
+
+package com.SkillsProject.ModularServer;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import com.prosysopc.ua.server.UaServer;
+
+public class BenchServer extends ModularServerMain {
+	//The device sets of the combined server.
+	private static final List<String> COMBINED_SETS = List.of("Belt_1", "Belt_2", "BeltGripper_1", "BeltGripper_2",
+			"JackSledge_1", "JackSledge_2", "VirtualReactionVessel");
+
+	//Creates a server of the given type. The address space is only built when asked for.
+	public static BenchServer create(String type, boolean buildAddressSpace) throws Exception {
+		return create(type, null, 0, buildAddressSpace);
+	}
+	//Creates a server of a type of the given device model, building its device sets with the given number of threads.
+	//The default model and parallelism (one thread) are used when they are null and 0.
+	public static BenchServer create(String type, DeviceModel model, int buildParallelism, boolean buildAddressSpace) throws Exception {
+		serverType = type;
+		APP_NAME = "BenchServer";
+		port = Integer.getInteger("bench.port", 52599);
+		httpsPort = port + 1;
+		BenchServer server = new BenchServer();
+		server.initializeServer(port, httpsPort, APP_NAME);
+		server.serverNodeManager = new ModularNodeManager(server.myServer, ModularNodeManager.NAMESPACE, serverType);
+		server.serverNodeManager.promptBridgePorts = false;
+		if (model != null) {
+			server.serverNodeManager.deviceModel = model;
+		}
+		if (buildParallelism > 0) {
+			server.serverNodeManager.buildParallelism = buildParallelism;
+		}
+		List<String> deviceSets = List.of(type);
+		if (model != null && model.getServer(type) != null && model.getServer(type).isCombined()) {
+			deviceSets = new ArrayList<String>(model.getServer(type).deviceSets.keySet());
+		} else if (type.equals("CombinedServer")) {
+			deviceSets = COMBINED_SETS;
+		}
+		for (String deviceSet: deviceSets) {
+			server.serverNodeManager.bridgePorts.put(deviceSet, 0);
+		}
+		if (buildAddressSpace) {
+			server.serverNodeManager.addListener(server.myNodeManagerListener);
+			server.serverNodeManager.createAddressSpace();
+		}
+		return server;
+	}
+
+	public ModularNodeManager nodeManager() {
+		return serverNodeManager;
+	}
+	public UaServer uaServer() {
+		return myServer;
+	}
+
+	public void close() {
+		if (serverNodeManager.spaceServer != null) {
+			serverNodeManager.spaceServer.close();
+		}
+		if (serverNodeManager.stateIngest != null) {
+			serverNodeManager.stateIngest.close();
+		}
+		serverNodeManager.lazyNodes.close();
+		serverNodeManager.callExecutor().shutdownNow();
+	}
+}
@@ -0,0 +1,111 @@
+/* Benchmark of sending skill events to clients.
+ *
+ * Measures the three sendEvent variants of the node manager on the address space of a combined server, which go
+ * through the SkillEventEmitter, next to the implementation they replaced. The replaced one created a new
+ * MyStateEvent node with its names and message text for every event and is kept here for comparison.
+ * Run with "-prof gc" for the bytes allocated per event.
+ */
+
+package com.SkillsProject.ModularServer;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.SkillsProject.Common.CallResult;
+import com.SkillsProject.Common.CallType;
+import com.prosysopc.ua.StatusException;
+import com.prosysopc.ua.stack.builtintypes.ByteString;
+import com.prosysopc.ua.stack.builtintypes.DateTime;
+import com.prosysopc.ua.stack.builtintypes.LocalizedText;
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class EventBenchmark {
+	private static final String[] STATES = {"Ready", "Executing", "Suspended", "Executing", "Completed"};
+	private static final String[] SKILLS = {"BeltSensPause", "BeltRunWOPause", "GripGripAndHold", "JnSBtSOne"};
+	//The device sets of the skills above.
+	private static final String[] DEVICE_SETS = {"Belt_1", "Belt_2", "BeltGripper_1", "JackSledge_1"};
+
+	private BenchServer server;
+	private ModularNodeManager nodeManager;
+	private DeviceEventManagerListener eventIds;
+	private int next = 0;
+
+	@Setup
+	public void setup() throws Exception {
+		server = BenchServer.create("CombinedServer", true);
+		nodeManager = server.nodeManager();
+		eventIds = new DeviceEventManagerListener();
+	}
+
+	@TearDown
+	public void tearDown() {
+		server.close();
+	}
+
+	@Benchmark
+	public void stateChange() throws StatusException {
+		int x = next++;
+		nodeManager.sendEvent(DEVICE_SETS[x % SKILLS.length], SKILLS[x % SKILLS.length], STATES[x % STATES.length]);
+	}
+
+	@Benchmark
+	public void legacyStateChange() throws StatusException {
+		int x = next++;
+		legacyStateChange(nodeManager, eventIds, SKILLS[x % SKILLS.length], STATES[x % STATES.length]);
+	}
+
+	@Benchmark
+	public void callReturn() throws StatusException {
+		nodeManager.sendEvent("BeltGripper_1", "GripGripAndHold", CallType.START.name(), CallResult.OK.name());
+	}
+
+	@Benchmark
+	public void legacyCallReturn() throws StatusException {
+		legacyCallReturn(nodeManager, eventIds, "GripGripAndHold", CallType.START.name(), CallResult.OK.name());
+	}
+
+	@Benchmark
+	public void serverMessage() throws StatusException {
+		nodeManager.sendEvent("Benchmark message");
+	}
+
+	//The sendEvent implementations the event emitter replaced.
+	static void legacyStateChange(ModularNodeManager nodeManager, DeviceEventManagerListener eventIds, String skillName,
+			String stateString) throws StatusException {
+		MyStateEvent newEvent = legacyEvent(nodeManager);
+		newEvent.setMessage(new LocalizedText("StateChange;"+skillName+";"+stateString));
+		newEvent.setMachineNameVariable(skillName);
+		final DateTime time = DateTime.currentTime();
+		ByteString newEventId = eventIds.getNextUserEventId();
+		newEvent.triggerEvent(time, time, newEventId);
+	}
+	static void legacyCallReturn(ModularNodeManager nodeManager, DeviceEventManagerListener eventIds, String skillName,
+			String callType, String callResult) throws StatusException {
+		MyStateEvent newEvent = legacyEvent(nodeManager);
+		newEvent.setMessage(new LocalizedText("CallReturn;"+skillName+";"+callType+";"+callResult));
+		newEvent.setMachineNameVariable(skillName);
+		final DateTime time = DateTime.currentTime();
+		ByteString newEventId = eventIds.getNextUserEventId();
+		newEvent.triggerEvent(time, time, newEventId);
+	}
+	//createStateEvent is what the old sendEvent did to create its event node.
+	private static MyStateEvent legacyEvent(ModularNodeManager nodeManager) throws StatusException {
+		return nodeManager.createStateEvent();
+	}
+}
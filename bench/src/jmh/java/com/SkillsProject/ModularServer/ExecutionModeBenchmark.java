@@ -0,0 +1,208 @@
+/* Benchmark of concurrent skill calls through the method listener of a device server, in each execution mode.
+ *
+ * Builds a BeltServer in the execution mode of the run and connects a simulated PLC to its Skill Bridge, which
+ * answers every CALL with an OK CALLRET after a fixed round trip time. A pool of threads standing in for the SDK's
+ * worker threads ("workers") makes a burst of START calls of one skill through the MethodDispatcher the way the SDK
+ * does, and the time until the PLC has answered every call is measured.
+ *
+ * "onCall" goes through the method listener, which waits for the answer on the worker by default and returns once a
+ * call is sent with asyncSkillCalls on, so without it the calls queue behind the workers. "blocking" sends the same
+ * calls with Bridge.sendSkillCall, which waits for the answer without the listener around it. The simulated PLC never reports a state, so the skill stays Ready for every call.
+ *
+ * Virtual threads need Java 21. On older versions the VIRTUAL results are measured on the platform fallback.
+ */
+
+package com.SkillsProject.ModularServer;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.SkillsProject.Common.CallType;
+import com.prosysopc.ua.nodes.UaNode;
+import com.prosysopc.ua.stack.builtintypes.DiagnosticInfo;
+import com.prosysopc.ua.stack.builtintypes.NodeId;
+import com.prosysopc.ua.stack.builtintypes.StatusCode;
+import com.prosysopc.ua.stack.builtintypes.Variant;
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ExecutionModeBenchmark {
+	private static final String DEVICE_SET = "BeltServer";
+	private static final String SKILL = "BeltSensPause";
+
+	@Param({"SELECTOR", "PLATFORM", "VIRTUAL"})
+	public ExecutionMode mode;
+
+	@Param({"64", "1000"})
+	public int calls;
+
+	@Param({"false", "true"})
+	public boolean asyncSkillCalls;
+
+	@Param({"16"})
+	public int workers;
+
+	@Param({"50"})
+	public long roundTripMillis;
+
+	private BenchServer server;
+	private ModularNodeManager nodeManager;
+	private Bridge bridge;
+	private SimulatedPlc plc;
+	private ExecutorService workerPool;
+	private UaNode skill;
+	private NodeId methodId;
+	private PrintStream console;
+
+	//Answers every CALL with an OK CALLRET after the round trip time, echoing the request id of the call.
+	private static final class SimulatedPlc implements Runnable {
+		final Socket socket;
+		final BufferedReader in;
+		final OutputStream out;
+		final long roundTripMillis;
+		final ScheduledExecutorService answers = Executors.newScheduledThreadPool(1);
+		final AtomicLong answered = new AtomicLong();
+
+		SimulatedPlc(int port, long roundTripMillis) throws IOException {
+			this.roundTripMillis = roundTripMillis;
+			socket = new Socket("localhost", port);
+			socket.setTcpNoDelay(true);
+			in = new BufferedReader(new InputStreamReader(socket.getInputStream(), StandardCharsets.US_ASCII));
+			out = socket.getOutputStream();
+			write("BenchPLC;INIT;REQID");
+			String ret = in.readLine();
+			if (ret == null || !ret.contains(";RET;OK;REQID")) {
+				throw new IOException("The Skill Bridge didn't enable request ids: " + ret);
+			}
+			Thread reader = new Thread(this, "SimulatedPlc");
+			reader.setDaemon(true);
+			reader.start();
+		}
+
+		@Override
+		public void run() {
+			try {
+				String line;
+				while ((line = in.readLine()) != null) {
+					String[] fields = line.split(";");
+					if (fields.length >= 5 && fields[1].equals("CALL")) {
+						String answer = fields[0] + ";CALLRET;" + fields[2] + ";OK;" + fields[4];
+						answers.schedule(() -> {
+							write(answer);
+							answered.incrementAndGet();
+						}, roundTripMillis, TimeUnit.MILLISECONDS);
+					}
+				}
+			} catch (IOException e) {
+				//Closed at the end of the trial.
+			}
+		}
+
+		synchronized void write(String packet) {
+			try {
+				out.write((packet + "\n").getBytes(StandardCharsets.US_ASCII));
+				out.flush();
+			} catch (IOException e) {
+				//Closed at the end of the trial.
+			}
+		}
+
+		void close() throws IOException {
+			answers.shutdownNow();
+			socket.close();
+		}
+	}
+
+	@Setup
+	public void setup() throws Exception {
+		//The bridge and the method listener print about every call.
+		console = System.out;
+		System.setOut(new PrintStream(OutputStream.nullOutputStream()));
+		server = BenchServer.create(DEVICE_SET, false);
+		nodeManager = server.nodeManager();
+		nodeManager.executionMode = mode;
+		nodeManager.asyncSkillCalls = asyncSkillCalls;
+		nodeManager.addListener(server.myNodeManagerListener);
+		nodeManager.createAddressSpace();
+		skill = nodeManager.getSkill(DEVICE_SET, SKILL);
+		methodId = new NodeId(nodeManager.getNamespaceIndex(), skill.getNodeId().getValue() + "_" + CallType.START.methodSuffix);
+		plc = new SimulatedPlc(nodeManager.spaceServer.getBridgePort(DEVICE_SET), roundTripMillis);
+		long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+		while ((bridge = nodeManager.getBridge(DEVICE_SET)) == null) {
+			if (System.nanoTime() > deadline) {
+				throw new IllegalStateException("The simulated PLC didn't connect to the Skill Bridge");
+			}
+			Thread.sleep(10);
+		}
+		workerPool = Executors.newFixedThreadPool(workers);
+	}
+
+	@TearDown
+	public void tearDown() throws IOException {
+		workerPool.shutdownNow();
+		plc.close();
+		server.close();
+		System.setOut(console);
+	}
+
+	@Benchmark
+	public long onCall() throws Exception {
+		return burst(() -> nodeManager.methodDispatcher.onCall(null, skill.getNodeId(), skill, methodId, null,
+				new Variant[] {new Variant("bench")}, new StatusCode[1], new DiagnosticInfo[1], new Variant[1]));
+	}
+
+	@Benchmark
+	public long blocking() throws Exception {
+		return burst(() -> bridge.sendSkillCall(SKILL, CallType.START, "bench", bridge.deadline()));
+	}
+
+	//Makes the calls on the workers at once and waits until the PLC has answered all of them.
+	private long burst(Callable<Boolean> call) throws Exception {
+		long answered = plc.answered.get() + calls;
+		List<Future<Boolean>> results = new ArrayList<Future<Boolean>>(calls);
+		for (int x = 0; x < calls; x++) {
+			results.add(workerPool.submit(call));
+		}
+		for (Future<Boolean> result: results) {
+			if (!result.get()) {
+				throw new IllegalStateException("A call was not handled");
+			}
+		}
+		while (plc.answered.get() < answered) {
+			LockSupport.parkNanos(100000);
+		}
+		return answered;
+	}
+}
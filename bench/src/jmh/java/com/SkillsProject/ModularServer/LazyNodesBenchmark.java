@@ -0,0 +1,134 @@
+/* Benchmark of the lazy mode of the node manager (see LazyNodes) against building everything at startup.
+ *
+ * Plants of 700 and 10,000 generated stations without skill bridges (see ModelLoadBenchmark) are built with one
+ * thread per processor. Building a plant of 10,000 stations eagerly takes most of the heap, so it's only built
+ * lazily. The browse benchmark measures a client browsing one station in a hundred of a lazily built plant.
+ * JMH measures time only, so the heap in use after each build and browse is printed with the iteration results.
+ */
+
+package com.SkillsProject.ModularServer;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.prosysopc.ua.stack.builtintypes.NodeId;
+
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 1)
+@Measurement(iterations = 3)
+@Fork(value = 1, jvmArgsAppend = "-Xmx8g")
+public class LazyNodesBenchmark {
+	//A plant with a new server for every invocation, built by the benchmark or already in the setup.
+	public abstract static class Plant {
+		DeviceModel model;
+		BenchServer server;
+
+		abstract int stations();
+		abstract boolean lazy();
+		boolean builtInSetup() {
+			return false;
+		}
+
+		@Setup(Level.Trial)
+		public void setupModel() {
+			model = DeviceModelLoader.parse("stations=" + stations(), ModelLoadBenchmark.stations(stations(), false));
+		}
+
+		@Setup(Level.Invocation)
+		public void setupServer() throws Exception {
+			server = StartupBenchmark.prepare(model, Runtime.getRuntime().availableProcessors(), lazy());
+			if (builtInSetup()) {
+				server.nodeManager().createAddressSpace();
+			}
+		}
+
+		@TearDown(Level.Invocation)
+		public void closeServer() {
+			System.out.println(String.format("%s build of %d stations: %.1f MB of heap in use", lazy() ? "Lazy" : "Eager",
+					stations(), usedHeapMB()));
+			server.close();
+		}
+	}
+
+	@State(Scope.Benchmark)
+	public static class EagerPlant extends Plant {
+		@Param({"700"})
+		public int stations;
+
+		@Override
+		int stations() {
+			return stations;
+		}
+		@Override
+		boolean lazy() {
+			return false;
+		}
+	}
+
+	@State(Scope.Benchmark)
+	public static class LazyPlant extends Plant {
+		@Param({"700", "10000"})
+		public int stations;
+
+		@Override
+		int stations() {
+			return stations;
+		}
+		@Override
+		boolean lazy() {
+			return true;
+		}
+	}
+
+	@State(Scope.Benchmark)
+	public static class BuiltLazyPlant extends LazyPlant {
+		@Override
+		boolean builtInSetup() {
+			return true;
+		}
+	}
+
+	@Benchmark
+	public void eager(EagerPlant plant) throws Exception {
+		plant.server.nodeManager().createAddressSpace();
+	}
+
+	@Benchmark
+	public void lazy(LazyPlant plant) throws Exception {
+		plant.server.nodeManager().createAddressSpace();
+	}
+
+	//A client browsing one station in a hundred.
+	@Benchmark
+	public int browse1Percent(BuiltLazyPlant plant) {
+		LazyNodes lazyNodes = plant.server.nodeManager().lazyNodes;
+		int visited = 0;
+		for (NodeId nodeId: lazyNodes.nodeIds()) {
+			if (nodeId.hashCode() % 100 == 0) {
+				lazyNodes.visit(nodeId);
+				visited++;
+			}
+		}
+		return visited;
+	}
+
+	private static double usedHeapMB() {
+		System.gc();
+		Runtime runtime = Runtime.getRuntime();
+		return (runtime.totalMemory() - runtime.freeMemory()) / (1024.0 * 1024.0);
+	}
+}
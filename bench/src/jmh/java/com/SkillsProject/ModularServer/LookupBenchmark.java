@@ -0,0 +1,149 @@
+/* Benchmark of the node lookups used while building the address space and handling calls.
+ *
+ * getSubType searches the subtypes of a type and getSubObject the references of a node for a browse name.
+ * Both scan every reference of the node, so they are measured on the real type tree and DeviceSet of a combined
+ * server as well as on synthetic parents with a growing number of children, where the target is the last child.
+ * The same lookups are measured through the NodeIndex the node manager fills while building the address space,
+ * along with the skill state lookup the Skill Bridge makes before every call.
+ */
+
+package com.SkillsProject.ModularServer;
+
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.prosysopc.ua.nodes.UaNode;
+import com.prosysopc.ua.nodes.UaReference;
+import com.prosysopc.ua.nodes.UaType;
+import com.prosysopc.ua.server.nodes.UaObjectNode;
+import com.prosysopc.ua.stack.builtintypes.NodeId;
+import com.prosysopc.ua.stack.core.Identifiers;
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class LookupBenchmark {
+	private BenchServer server;
+	private ModularNodeManager nodeManager;
+	private UaType baseObjectType;
+	private UaNode deviceSet;
+	private UaNode skill;
+
+	//A synthetic parent with the given number of children, looked up by the name of the last one.
+	@State(Scope.Benchmark)
+	public static class Children {
+		@Param({"10", "100", "1000"})
+		public int children;
+
+		UaObjectNode parent;
+		NodeIndex index;
+		String target;
+
+		@Setup
+		public void setup(LookupBenchmark lookups) {
+			ModularNodeManager nodeManager = lookups.nodeManager;
+			int ns = nodeManager.getNamespaceIndex();
+			parent = new UaObjectNode(nodeManager, new NodeId(ns, "BenchParent" + children), "BenchParent" + children, Locale.ENGLISH);
+			for (int x = 0; x < children; x++) {
+				String name = "BenchChild" + children + "_" + x;
+				parent.addReference(new UaObjectNode(nodeManager, new NodeId(ns, name), name, Locale.ENGLISH), Identifiers.HasComponent, false);
+			}
+			target = "BenchChild" + children + "_" + (children - 1);
+			index = new NodeIndex();
+			for (UaReference ref: parent.getReferences(Identifiers.HasComponent, false)) {
+				index.putChild(parent, ref.getTargetNode().getBrowseName().getName(), ref.getTargetNode());
+			}
+		}
+	}
+
+	@Setup
+	public void setup() throws Exception {
+		server = BenchServer.create("CombinedServer", true);
+		nodeManager = server.nodeManager();
+		baseObjectType = server.uaServer().getNodeManagerRoot().getType(Identifiers.BaseObjectType);
+		for (UaReference comp: server.uaServer().getNodeManagerRoot().getObjectsFolder().getReferences(Identifiers.Organizes, false)) {
+			if (comp.getTargetNode().getBrowseName().getName().equals("DeviceSet")) {
+				deviceSet = comp.getTargetNode();
+			}
+		}
+		skill = nodeManager.getSkill("JackSledge_2", "JnSStBTwo");
+	}
+
+	@TearDown
+	public void tearDown() {
+		server.close();
+	}
+
+	@Benchmark
+	public UaNode getSubTypeTopologyElement() {
+		return ModularNodeManager.getSubType(baseObjectType, "TopologyElementType");
+	}
+
+	@Benchmark
+	public UaNode getSubTypeSkillObject() {
+		return ModularNodeManager.getSubType(baseObjectType, "SkillObjectType");
+	}
+
+	@Benchmark
+	public UaNode indexGetSubTypeTopologyElement() {
+		return nodeManager.nodeIndex.getSubType(baseObjectType, "TopologyElementType");
+	}
+
+	@Benchmark
+	public UaNode indexGetSubTypeSkillObject() {
+		return nodeManager.nodeIndex.getSubType(baseObjectType, "SkillObjectType");
+	}
+
+	@Benchmark
+	public UaNode getSubObjectDeviceSet() {
+		return ModularNodeManager.getSubObject(deviceSet, "JackSledge_2_Set");
+	}
+
+	@Benchmark
+	public UaNode getSubObjectChildren(Children children) {
+		return ModularNodeManager.getSubObject(children.parent, children.target);
+	}
+
+	@Benchmark
+	public UaNode indexGetChild(Children children) {
+		return children.index.getChild(children.parent, children.target);
+	}
+
+	//The skill state lookup of the Skill Bridge, before and after the index.
+	@Benchmark
+	public UaNode skillStateScan() {
+		return scanReferences(skill, "JnSStBTwo_SkillState");
+	}
+
+	@Benchmark
+	public Object skillStateIndex() {
+		return nodeManager.getSkillState("JackSledge_2", "JnSStBTwo");
+	}
+
+	//The reference scan the Skill Bridge used to find the state property of a skill.
+	static UaNode scanReferences(UaNode baseObject, String targetName) {
+		for (UaReference ref: baseObject.getReferences()) {
+			UaNode target = ref.getTargetNode();
+			if (target.getBrowseName().getName().contains(targetName)) {
+				return target;
+			}
+		}
+		return null;
+	}
+}
@@ -0,0 +1,119 @@
+/* Benchmark of dispatching a method call to the method listeners.
+ *
+ * The linear case is how the server used to dispatch: every method had its own listener on the method manager, which
+ * offered a call to the listeners in turn until one of them handled it, each listener comparing the called method
+ * with its own first. The listeners no longer do that themselves, so the comparison is made here. The dispatcher case goes through the
+ * MethodDispatcher that createMethod registers the handlers with now. Both dispatch calls to the first, middle
+ * and last of N methods.
+ * No Skill Bridge is connected, so the calls take the "bridge not ready" path and the cost is the dispatch itself.
+ * The console output of the listeners is discarded while measuring.
+ */
+
+package com.SkillsProject.ModularServer;
+
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.SkillsProject.Common.CallType;
+import com.prosysopc.ua.server.CallableListener;
+import com.prosysopc.ua.server.nodes.PlainMethod;
+import com.prosysopc.ua.stack.builtintypes.DiagnosticInfo;
+import com.prosysopc.ua.stack.builtintypes.NodeId;
+import com.prosysopc.ua.stack.builtintypes.StatusCode;
+import com.prosysopc.ua.stack.builtintypes.Variant;
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class MethodDispatchBenchmark {
+	private static final CallType[] CALL_TYPES = CallType.values();
+
+	@Param({"10", "100", "1000"})
+	public int methods;
+
+	@Param({"first", "middle", "last"})
+	public String position;
+
+	private BenchServer server;
+	private PrintStream console;
+	private List<CallableListener> listeners;
+	private List<NodeId> listenerMethods;
+	private MethodDispatcher dispatcher;
+	private PlainMethod target;
+	private final Variant[] inputs = {new Variant("bench")};
+	private final StatusCode[] inputResults = new StatusCode[1];
+	private final DiagnosticInfo[] inputDiagnostics = new DiagnosticInfo[1];
+	private final Variant[] outputs = new Variant[1];
+
+	@Setup
+	public void setup() throws Exception {
+		server = BenchServer.create("BeltServer", false);
+		ModularNodeManager nodeManager = server.nodeManager();
+		int ns = nodeManager.getNamespaceIndex();
+		listeners = new ArrayList<CallableListener>(methods);
+		listenerMethods = new ArrayList<NodeId>(methods);
+		List<PlainMethod> created = new ArrayList<PlainMethod>(methods);
+		dispatcher = new MethodDispatcher();
+		for (int x = 0; x < methods; x++) {
+			MethodRoute route = MethodRoute.skill("BenchSet", "BenchSkill" + (x / CALL_TYPES.length), CALL_TYPES[x % CALL_TYPES.length]);
+			PlainMethod method = new PlainMethod(nodeManager, new NodeId(ns, "Bench_" + methods + "_" + route.methodName),
+					route.methodName, Locale.ENGLISH);
+			created.add(method);
+			listeners.add(new ModularDeviceMethodManagerListener(nodeManager, route));
+			listenerMethods.add(method.getNodeId());
+			dispatcher.register(method.getNodeId(), listeners.get(x));
+		}
+		target = created.get(position.equals("first") ? 0 : position.equals("middle") ? methods / 2 : methods - 1);
+		console = System.out;
+		System.setOut(new PrintStream(OutputStream.nullOutputStream()));
+	}
+
+	@TearDown
+	public void tearDown() {
+		System.setOut(console);
+		server.close();
+	}
+
+	@Benchmark
+	public long linear() throws Exception {
+		return dispatch(listeners, listenerMethods, target, inputs, inputResults, inputDiagnostics, outputs);
+	}
+
+	@Benchmark
+	public boolean dispatcher() throws Exception {
+		return dispatcher.onCall(null, null, null, target.getNodeId(), target, inputs, inputResults, inputDiagnostics, outputs);
+	}
+
+	//Offers the call to every listener until one handles it, the way the method manager does.
+	//A listener only handles the calls of its own method.
+	static long dispatch(List<CallableListener> listeners, List<NodeId> listenerMethods, PlainMethod target, Variant[] inputs,
+			StatusCode[] inputResults, DiagnosticInfo[] inputDiagnostics, Variant[] outputs) throws Exception {
+		NodeId methodId = target.getNodeId();
+		for (int x = 0; x < listeners.size(); x++) {
+			if (listenerMethods.get(x).equals(methodId) && listeners.get(x).onCall(null, null, null, methodId, target, inputs, inputResults, inputDiagnostics, outputs)) {
+				return x;
+			}
+		}
+		return -1;
+	}
+}
@@ -0,0 +1,102 @@
+/* Benchmark of loading the device model at startup.
+ *
+ * Compares parsing and validating the model file against reading the binary snapshot DeviceModelLoader keeps
+ * of it. Measured on the ENaS model and on generated models with many station types, each a copy of the
+ * BeltandGripperServer, to see how the two scale with the size of the plant.
+ */
+
+package com.SkillsProject.ModularServer;
+
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ModelLoadBenchmark {
+	//"enas" is the model of the ENaS demonstrator, a number the stations of a generated model.
+	@Param({"enas", "7", "70", "700"})
+	public String model;
+
+	private byte[] content;
+	private DeviceModelLoader loader;
+
+	@Setup
+	public void setup() throws Exception {
+		if (model.equals("enas")) {
+			try (InputStream in = DeviceModelLoader.class.getResourceAsStream(DeviceModelLoader.DEFAULT_MODEL)) {
+				content = DeviceModelLoader.readAll(in);
+			}
+		} else {
+			content = stations(Integer.parseInt(model));
+		}
+		loader = new DeviceModelLoader(Files.createTempDirectory("modelbench"));
+		//The first load writes the snapshot, every load after it reads the snapshot.
+		loader.load("bench", content);
+	}
+
+	@Benchmark
+	public int parse() throws Exception {
+		return DeviceModelLoader.parse("bench", content).size();
+	}
+
+	@Benchmark
+	public int snapshot() throws Exception {
+		DeviceModel loaded = loader.load("bench", content);
+		if (!loader.isLoadedFromCache()) {
+			throw new IllegalStateException("The snapshot was not used");
+		}
+		return loaded.size();
+	}
+
+	//A model with the given number of station types and a combined server with one device set of each.
+	static byte[] stations(int count) {
+		return stations(count, true);
+	}
+	//Without bridges the model can be built for plants with more stations than the machine has ports.
+	static byte[] stations(int count, boolean bridges) {
+		StringBuilder model = new StringBuilder();
+		for (int x = 0; x < count; x++) {
+			model.append("server Station").append(x).append('\n')
+				.append("\tplc Controller\n")
+				.append(bridges ? "\tbridge SkillBridgeNode\n" : "")
+				.append("\tdevice Belt ConveyorDevice\n")
+				.append("\tdevice PistonGripper ManipulatorDevice\n")
+				.append("\tdevice OpticalSensor SensorComponent\n")
+				.append("\tdevice Gripper GrippingComponent parent=PistonGripper\n")
+				.append("\tdevice MotorBelt BeltComponent parent=Belt\n")
+				.append("\tdevice HorzPiston PistonComponent parent=PistonGripper\n")
+				.append("\tdevice PistonGripperSensors SensorComponent parent=PistonGripper\n")
+				.append("\tsoftware DeviceSkills SoftwareComponent sets=false\n")
+				.append("\tvariable MotorOutput out parent=Belt links=MotorBelt,Controller\n")
+				.append("\tvariable Grip out parent=PistonGripper links=Gripper,Controller\n")
+				.append("\tvariable Top in parent=PistonGripper links=PistonGripperSensors,Controller\n")
+				.append("\tvariable SomethingBySensor in parent=OpticalSensor\n")
+				.append("\tmethod ReportCapabilities parent=Controller\n")
+				.append("\tskill BeltPauseOnSensor BeltSensPause parent=DeviceSkills\n")
+				.append("\tskill GripperGripAndHold GripGripAndHold parent=DeviceSkills\n\n");
+		}
+		model.append("server CombinedServer\n");
+		for (int x = 0; x < count; x++) {
+			model.append("\tset Station_").append(x).append(" Station").append(x).append('\n');
+		}
+		return model.toString().getBytes(StandardCharsets.UTF_8);
+	}
+}
@@ -0,0 +1,117 @@
+/* Benchmark of the companion specification NodeSets the device server loads at startup.
+ *
+ * Measures how fast a streaming XML parser reads through the DI and PLC NodeSets before and after NodeSetCache
+ * compacts them, as a measure of the parsing the SDK does when loading them. "resolveCold" measures what every start
+ * after the first pays for the cached copy instead: a new NodeSetCache finding and checking the copy written by an
+ * earlier start, with the copies checked in this process forgotten first. The main of this class prints the size of
+ * each NodeSet before and after compacting.
+ */
+
+package com.SkillsProject.ModularServer;
+
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.net.URI;
+import java.net.URL;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamReader;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.prosysopc.ua.types.di.server.DiServerInformationModel;
+import com.prosysopc.ua.types.plc.server.PlcServerInformationModel;
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class NodeSetBenchmark {
+	@Param({"di", "plc"})
+	public String nodeSet;
+
+	private URL url;
+	private byte[] original;
+	private byte[] compacted;
+	private XMLInputFactory factory;
+	private Path cacheDir;
+
+	@Setup
+	public void setup() throws Exception {
+		url = nodeSet(nodeSet);
+		original = read(url);
+		compacted = NodeSetCache.compact(original);
+		factory = XMLInputFactory.newInstance();
+		cacheDir = Files.createTempDirectory("nodesetbench");
+		//The first start writes the copy, every start after it only checks it.
+		new NodeSetCache(cacheDir).resolve(url);
+	}
+
+	@Benchmark
+	public long parseOriginal() throws Exception {
+		return parse(factory, original);
+	}
+
+	@Benchmark
+	public long parseCompacted() throws Exception {
+		return parse(factory, compacted);
+	}
+
+	@Benchmark
+	public URI resolveCold() throws Exception {
+		NodeSetCache.forgetResolved();
+		return new NodeSetCache(cacheDir).resolve(url);
+	}
+
+	//Prints the size of the NodeSets before and after compacting.
+	public static void main(String[] args) throws Exception {
+		for (String name: new String[] {"di", "plc"}) {
+			byte[] content = read(nodeSet(name));
+			System.out.println(String.format("%s: %.1f KB, compacted %.1f KB", name, content.length / 1024.0,
+					NodeSetCache.compact(content).length / 1024.0));
+		}
+	}
+
+	private static URL nodeSet(String name) {
+		if (name.equals("di")) {
+			return DiServerInformationModel.class.getResource("Opc.Ua.Di.NodeSet2.xml");
+		}
+		return PlcServerInformationModel.class.getResource("Opc.Ua.Plc.NodeSet2.xml");
+	}
+
+	private static byte[] read(URL url) throws Exception {
+		try (InputStream in = url.openStream()) {
+			return DeviceModelLoader.readAll(in);
+		}
+	}
+
+	//Reads through a document and returns the number of events.
+	private static long parse(XMLInputFactory factory, byte[] content) throws Exception {
+		XMLStreamReader reader = factory.createXMLStreamReader(new ByteArrayInputStream(content));
+		long events = 0;
+		try {
+			while (reader.hasNext()) {
+				reader.next();
+				events++;
+			}
+		} finally {
+			reader.close();
+		}
+		return events;
+	}
+}
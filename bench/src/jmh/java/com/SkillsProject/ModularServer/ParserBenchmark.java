@@ -0,0 +1,172 @@
+/* Benchmark of the Skill Bridge packet parsing.
+ *
+ * Compares the split based parsing the Skill Bridge used to do (decode the line, split it on semicolons
+ * and compare the fields as strings) against the SkillBridgeParser working on the socket bytes.
+ * The packets are a mix of UPDATE and CALLRET packets as a PLC under load sends them, parsed in turn.
+ * The same packets are also parsed as binary frames. The main of this class prints the bytes sent per packet
+ * for both encodings, which don't need measuring.
+ *
+ * Each benchmark runs in two forks with a fixed heap, so a lucky or unlucky JIT compilation of one fork doesn't
+ * decide the result. Run it with "-prof gc" to see the bytes allocated per packet, which is the point of the byte
+ * parser: gradle jmh -Pbench=ParserBenchmark -PbenchProfilers=gc
+ */
+
+package com.SkillsProject.ModularServer;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.SkillsProject.Common.CallResult;
+
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 2, jvmArgsAppend = {"-Xms1g", "-Xmx1g"})
+public class ParserBenchmark {
+	private static final String[] PACKETS = {
+			"BeltSensPause;UPDATE;Executing;0",
+			"BeltRunWOPause;UPDATE;Ready;0",
+			"GripGripAndHold;CALLRET;START;OK;1042",
+			"GripGripPutDown;UPDATE;Suspended;0",
+			"JnSBtSOne;CALLRET;STOP;FAILED",
+			"JnSStBTwo;UPDATE;Stopped;0",
+			"BeltSensPause;CALLRET;RESET;OK;77",
+			"JnSBtSTwo;UPDATE;Executing;12"
+	};
+
+	private byte[][] lines;
+	private byte[][] frames;
+	private SkillBridgeParser parser;
+	private int next = 0;
+
+	@Setup
+	public void setup() {
+		//All packets are kept as they arrive from the socket.
+		lines = lines();
+		parser = new SkillBridgeParser();
+		frames = new byte[PACKETS.length][];
+		for (int x = 0; x < PACKETS.length; x++) {
+			frames[x] = toFrame(parser, lines[x]);
+		}
+	}
+
+	@Benchmark
+	public int splitParse() {
+		return splitParse(lines[next++ & 7]);
+	}
+
+	@Benchmark
+	public int byteParser() {
+		return byteParse(parser, lines[next++ & 7]);
+	}
+
+	@Benchmark
+	public int binaryFrame() {
+		return frameParse(parser, frames[next++ & 7]);
+	}
+
+	//Prints the bytes sent per packet as text and as binary frames.
+	public static void main(String[] args) {
+		byte[][] lines = lines();
+		SkillBridgeParser parser = new SkillBridgeParser();
+		int textBytes = 0;
+		int frameBytes = 0;
+		for (byte[] line: lines) {
+			textBytes += line.length + System.lineSeparator().length();
+			frameBytes += toFrame(parser, line).length;
+		}
+		System.out.println("Text packets: " + (double) textBytes / PACKETS.length + " bytes per packet");
+		System.out.println("Binary frames: " + (double) frameBytes / PACKETS.length + " bytes per packet");
+	}
+
+	private static byte[][] lines() {
+		byte[][] lines = new byte[PACKETS.length][];
+		for (int x = 0; x < PACKETS.length; x++) {
+			lines[x] = PACKETS[x].getBytes(StandardCharsets.US_ASCII);
+		}
+		return lines;
+	}
+
+	//The parsing path used before the byte parser.
+	static int splitParse(byte[] line) {
+		String input = new String(line, 0, line.length, StandardCharsets.US_ASCII);
+		String[] data = input.split(";");
+		switch (data[1]) {
+			case "UPDATE":
+				return data[0].hashCode() + data[2].hashCode();
+			case "CALLRET":
+				int result = 0;
+				if (data[3].contentEquals("FAILED")) {
+					result = -1;
+				}
+				else if (data[3].contentEquals("OK")) {
+					result = 1;
+				}
+				switch (data[2]) {
+					case "START":
+						return data[0].hashCode() + result;
+					case "STOP":
+						return data[0].hashCode() + 2 * result;
+					default:
+						return data[0].hashCode() + 3 * result + (data.length > 4 ? Integer.parseInt(data[4]) : 0);
+				}
+			default:
+				return 0;
+		}
+	}
+
+	static int byteParse(SkillBridgeParser parser, byte[] line) {
+		if (!parser.parse(line, 0, line.length)) {
+			return 0;
+		}
+		return consume(parser);
+	}
+
+	static int frameParse(SkillBridgeParser parser, byte[] frame) {
+		if (!parser.parseFrame(frame, BinaryFrame.HEADER_SIZE, BinaryFrame.HEADER_SIZE + BinaryFrame.bodyLength(frame, 0, frame.length))) {
+			return 0;
+		}
+		return consume(parser);
+	}
+
+	private static int consume(SkillBridgeParser parser) {
+		switch (parser.packetType()) {
+			case UPDATE:
+				return parser.skillName().hashCode() + parser.state().hashCode();
+			case CALLRET:
+				int result = parser.callResult() == CallResult.OK ? 1 : -1;
+				return parser.skillName().hashCode() + (parser.callType().ordinal() + 1) * result + Math.max(parser.requestId(), 0);
+			default:
+				return 0;
+		}
+	}
+
+	//Encodes a text packet as the binary frame carrying the same information.
+	private static byte[] toFrame(SkillBridgeParser parser, byte[] line) {
+		parser.parse(line, 0, line.length);
+		ByteBuffer frame;
+		if (parser.packetType() == PacketType.UPDATE) {
+			frame = BinaryFrame.update(parser.skillName(), parser.state());
+		}
+		else {
+			frame = BinaryFrame.callReturn(parser.skillName(), parser.callType(), parser.callResult(), Math.max(parser.requestId(), 0));
+		}
+		byte[] bytes = new byte[frame.remaining()];
+		frame.get(bytes);
+		return bytes;
+	}
+}
@@ -0,0 +1,70 @@
+/* Benchmark of building the address space of a device server at startup.
+ *
+ * Builds combined servers of 7, 70 and 700 generated stations (see ModelLoadBenchmark) with the device sets built
+ * one after another (the default) and with the opt-in parallel build on one thread per processor ("0" threads), and
+ * measures the time createAddressSpace takes. Every invocation builds a new server, the server is set up and closed outside the measurement.
+ * LazyNodesBenchmark compares building everything with the lazy mode of the node manager.
+ */
+
+package com.SkillsProject.ModularServer;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+@Fork(1)
+public class StartupBenchmark {
+	@Param({"7", "70", "700"})
+	public int stations;
+
+	@Param({"1", "0"})
+	public int threads;
+
+	private DeviceModel model;
+	private BenchServer server;
+
+	@Setup(Level.Trial)
+	public void setupModel() {
+		model = DeviceModelLoader.parse("stations=" + stations, ModelLoadBenchmark.stations(stations));
+	}
+
+	@Setup(Level.Invocation)
+	public void setupServer() throws Exception {
+		server = prepare(model, threads > 0 ? threads : Runtime.getRuntime().availableProcessors(), false);
+	}
+
+	@TearDown(Level.Invocation)
+	public void closeServer() {
+		server.close();
+	}
+
+	@Benchmark
+	public void createAddressSpace() throws Exception {
+		server.nodeManager().createAddressSpace();
+	}
+
+	//A server of the model's combined server, ready to build its address space.
+	static BenchServer prepare(DeviceModel model, int threads, boolean lazy) throws Exception {
+		BenchServer server = BenchServer.create("CombinedServer", model, threads, false);
+		server.nodeManager().lazyNodes = new LazyNodes(server.nodeManager(), lazy);
+		server.nodeManager().addListener(server.myNodeManagerListener);
+		return server;
+	}
+}
@@ -0,0 +1,9 @@
+/* The results a PLC can report for a skill call in a CALLRET packet.
+ */
+
+package com.SkillsProject.Common;
+
+public enum CallResult {
+	OK,
+	FAILED
+}
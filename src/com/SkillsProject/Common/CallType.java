@@ -0,0 +1,21 @@
+/* The commands that can be sent to a skill over the Skill Bridge.
+ *
+ * The enum name is the keyword used in the CALL and CALLRET packets.
+ * The method suffix is the ending of the OPC UA method that invokes the command, e.g. BeltSensPause_Start.
+ */
+
+package com.SkillsProject.Common;
+
+public enum CallType {
+	START("Start"),
+	STOP("Stop"),
+	SUSPEND("Suspend"),
+	RESUME("Resume"),
+	RESET("Reset");
+	
+	public final String methodSuffix;
+	
+	CallType(String methodSuffix) {
+		this.methodSuffix = methodSuffix;
+	}
+}
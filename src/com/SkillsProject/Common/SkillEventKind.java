@@ -0,0 +1,29 @@
+/* The kinds of events a device server sends, published in the MyEventKind field of the skill events.
+ * The message prefix is the first field of the event's message text.
+ */
+
+package com.SkillsProject.Common;
+
+public enum SkillEventKind {
+	UNKNOWN(0, ""),
+	STATE_CHANGE(1, "StateChange"),
+	CALL_RETURN(2, "CallReturn"),
+	SERVER_MESSAGE(3, "ServerMessage");
+
+	public final int code;
+	public final String messagePrefix;
+
+	SkillEventKind(int code, String messagePrefix) {
+		this.code = code;
+		this.messagePrefix = messagePrefix;
+	}
+
+	public static SkillEventKind of(int code) {
+		for (SkillEventKind kind: values()) {
+			if (kind.code == code) {
+				return kind;
+			}
+		}
+		return UNKNOWN;
+	}
+}
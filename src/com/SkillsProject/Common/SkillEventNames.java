@@ -0,0 +1,32 @@
+/* The names the device servers publish their skills and skill events under, shared by the server and the clients.
+ *
+ * The skill nodes and the MyStateEvent type with its typed fields live in the server's own namespace. The clients
+ * look the namespace up by its URI and select the fields by their browse names, so both sides use these constants.
+ */
+
+package com.SkillsProject.Common;
+
+public final class SkillEventNames {
+	//The namespace URI of the device servers.
+	public static final String NAMESPACE = "SkillsThesisNamespace";
+	//The browse name of the skill event type under BaseEventType.
+	public static final String STATE_EVENT_TYPE = "MyStateEvent";
+
+	//The browse names of the typed fields of the skill events.
+	public static final String MACHINE_NAME = "MyMachineName";
+	public static final String STATE_NUMBER = "MyStateNumber";
+	public static final String EVENT_KIND = "MyEventKind";
+	public static final String CALL_TYPE = "MyCallType";
+	public static final String CALL_RESULT = "MyCallResult";
+	public static final String SEQUENCE_NUMBER = "MySequenceNumber";
+	//The state text as the PLC reported it, for states that have no number, e.g. "Resetting".
+	public static final String STATE_TEXT = "MyStateText";
+	//The device set of the skill, which tells apart the skills of the same name on a combined server.
+	public static final String DEVICE_SET = "MyDeviceSet";
+	//All the typed fields, in the order the event emitter and the clients use them.
+	public static final String[] FIELD_NAMES = {EVENT_KIND, MACHINE_NAME, STATE_NUMBER, CALL_TYPE,
+			CALL_RESULT, SEQUENCE_NUMBER, STATE_TEXT, DEVICE_SET};
+
+	private SkillEventNames() {
+	}
+}
@@ -0,0 +1,66 @@
+/* The states of a skill, as reported by the PLC in UPDATE packets.
+ *
+ * The number is sent in the MyStateNumber field of the skill events so clients don't have to read the state from
+ * the message text. A reported state is matched by its whole name, ignoring case, against the names the PLC reports
+ * and the PackML names of the same states, e.g. "Executing" and "Execute" are both EXECUTING.
+ * The transient PackML states, e.g. "Stopping" or "Resetting", have no number and are UNKNOWN, so nothing takes
+ * them for the state they lead to. Their name still reaches the clients as the state text.
+ */
+
+package com.SkillsProject.Common;
+
+public enum SkillState {
+	UNKNOWN(0, "Unknown"),
+	READY(1, "Ready", "Idle"),
+	EXECUTING(2, "Executing", "Execute"),
+	SUSPENDED(3, "Suspended"),
+	STOPPED(4, "Stopped"),
+	COMPLETED(5, "Completed", "Complete");
+
+	public final int number;
+	//The name the PLC reports the state with.
+	public final String displayName;
+	//The other names of the state, the PackML one if it differs.
+	private final String[] aliases;
+
+	SkillState(int number, String displayName, String... aliases) {
+		this.number = number;
+		this.displayName = displayName;
+		this.aliases = aliases;
+	}
+
+	//The state of a reported name, UNKNOWN for a name that isn't one of the numbered states.
+	public static SkillState of(String state) {
+		if (state != null) {
+			for (SkillState skillState: values()) {
+				if (skillState.matches(state)) {
+					return skillState;
+				}
+			}
+		}
+		return UNKNOWN;
+	}
+	public static SkillState of(int number) {
+		for (SkillState skillState: values()) {
+			if (skillState.number == number) {
+				return skillState;
+			}
+		}
+		return UNKNOWN;
+	}
+
+	private boolean matches(String state) {
+		if (this == UNKNOWN) {
+			return false;
+		}
+		if (displayName.equalsIgnoreCase(state)) {
+			return true;
+		}
+		for (String alias: aliases) {
+			if (alias.equalsIgnoreCase(state)) {
+				return true;
+			}
+		}
+		return false;
+	}
+}
@@ -20,18 +20,24 @@ import java.util.HashMap;
 import java.util.List;
 import java.util.Locale;
 import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import com.SkillsProject.Common.CallType;
+import com.SkillsProject.Common.SkillEventNames;
 import com.prosysopc.ua.ApplicationIdentity;
 import com.prosysopc.ua.ContentFilterBuilder;
 import com.prosysopc.ua.SecureIdentityException;
 import com.prosysopc.ua.ServiceException;
 import com.prosysopc.ua.StatusException;
-import com.prosysopc.ua.client.AddressSpace;
 import com.prosysopc.ua.client.MonitoredEventItem;
 import com.prosysopc.ua.client.ServerStatusListener;
 import com.prosysopc.ua.client.Subscription;
@@ -59,6 +65,7 @@ import com.prosysopc.ua.stack.core.EventFilter;
 import com.prosysopc.ua.stack.core.Identifiers;
 import com.prosysopc.ua.stack.core.ReferenceDescription;
 import com.prosysopc.ua.stack.core.SimpleAttributeOperand;
+import com.prosysopc.ua.stack.core.StatusCodes;
 import com.prosysopc.ua.stack.transport.security.SecurityMode;
 
 public class ControlClientMain {
@@ -72,6 +79,8 @@ public class ControlClientMain {
 		protected final QualifiedName[] eventFieldNames =
 		      {new QualifiedName("EventType"), new QualifiedName("Message"), new QualifiedName("SourceName"),
 		          new QualifiedName("Time"), new QualifiedName("Severity"), new QualifiedName("ActiveState/Id")};
+	//The typed fields of the skill events are selected after the base event fields, see SkillEventFields.
+	protected final int skillEventFieldOffset = eventFieldNames.length;
 	
 	//Maps of things
 	protected Map<Integer, UaClient> multiClientMap = new HashMap <Integer, UaClient>();
@@ -82,17 +91,24 @@ public class ControlClientMain {
 	//protected List<String> monitoredItems = new ArrayList<String>();
 	//Other variables and things
 	protected int sessionCount = 0;
+	//How many servers are connected to and subscribed at the same time, and how long startup waits for them.
+	protected static final int CONNECT_PARALLELISM = Integer.getInteger("controlclient.connectParallelism", 8);
+	protected static final long SETUP_TIMEOUT_SECONDS = Long.getLong("controlclient.setupTimeoutSeconds", 15);
 	protected int serverCount;
 	protected MasterControlProgram MCP = new MasterControlProgram(this);
 	protected Thread MCPThread = new Thread(MCP);
 	final PkiDirectoryCertificateStore certStore = new PkiDirectoryCertificateStore();
-	protected EventFilter baseFilter;
 	protected static Boolean autopilot;
 	
+	//The NodeIds looked up on the servers, so subscribing and calling skills don't browse for them again.
+	protected NodeResolutionCache resolutions = new NodeResolutionCache();
+	//Sends the skill calls of each server in batches, one Call request for all the calls queued at the time.
+	protected MethodCallBatcher methodCalls = new MethodCallBatcher();
+	
 	//Listener and monitor objects
 	protected controlEventListener myEventListener = new controlEventListener(this);
 	protected UaClientListener myClientListener = new controlClientListener();
-	protected ServerStatusListener myServerStatusListener = new controlServerStatusListener();
+	protected ServerStatusListener myServerStatusListener = new controlServerStatusListener(resolutions);
 	//protected SubscriptionAliveListener subAliveListener = new mySubAliveListener();
 	//protected SubscriptionNotificationListener subListener = new mySubListener();
 	//TODO: MonitoredDataItemListener
@@ -203,21 +219,27 @@ public class ControlClientMain {
 		}
 	}
 	protected void autoLoop() throws ServiceException, StatusException, ServiceResultException {
-		//Do all the connecting an initial nonsense.
-		for(Map.Entry<Integer, UaClient> entry: multiClientMap.entrySet()) {
-			connect(entry.getValue());
-		}
-		//Monitor the servers for events
-		subToServerEvents();
+		//Do all the connecting an initial nonsense, and monitor the servers for events.
+		connectAndSubscribe();
 		
 		//Pass clients to control program
 		MCP.passClients();
+		//The recipes run by the control program call the skills of the servers directly.
+		//A few calls per server can wait on the same batch, see MethodCallBatcher.
+		try {
+			MCP.setRecipes(new RecipeEngine(RecipeBook.load(), this::invokeSkill, 4 * multiClientMap.size()));
+			System.out.println("Recipes: " + MCP.recipes.recipes().names());
+		} catch (IOException | IllegalArgumentException e) {
+			System.out.println("The recipes could not be loaded: " + e.getMessage());
+			logger.error("The recipes could not be loaded: " + e);
+		}
 		
 		//Handle user inputs over the program as well as the general looping through of it.
 		do {
 			System.out.println ("input \"Test\" to shut down. \n"
 					+ "Input \"Boop\" to shut down just the control worker thread. \n"
-					+ "Input \"SkillRecipe,MakeProductOne\" or \"SkillRecipe;MakeProductTwo\" to activate skill recipes.");
+					+ "Input \"SkillRecipe,MakeProductOne\" or \"SkillRecipe;MakeProductTwo\" to activate skill recipes.\n"
+					+ "Input \"SkillRecipe;MakeProductOne;5\" to start several orders of a recipe.");
 			try {
 				String action = readInput();
 				if (action.toLowerCase().equals("test")) {
@@ -228,7 +250,7 @@ public class ControlClientMain {
 				else if (action.toLowerCase().equals("boop")){
 					MCP.userInput("Shutdown");
 				}
-				else if (action.replaceAll("[() ]", "").split(",").length == 2 || action.replaceAll("[() ]", "").split(";").length == 3) {
+				else if (action.replaceAll("[() ]", "").split("[;,]").length == 2 || action.replaceAll("[() ]", "").split("[;,]").length == 3) {
 					MCP.userInput(action);
 				}
 				else {
@@ -242,6 +264,9 @@ public class ControlClientMain {
 		for(Map.Entry<Integer, UaClient> entry: multiClientMap.entrySet()) {
 			disconnect(entry.getValue());
 		}
+		logger.info("Node resolution: " + resolutions);
+		logger.info("Method calls: " + methodCalls);
+		methodCalls.close();
 		//In case something happened and the loop broke out somehow unintentionally.
 		MCP.shutdownMCP();
 	}
@@ -251,26 +276,21 @@ public class ControlClientMain {
 		//2: Select a skill on the server
 		int manualState=1;
 		UaClient tmpClient = null;
-		AddressSpace tmpSpace = null;
-		List<ReferenceDescription> refDescs = null;
 		List<UaMethod> skillMethods = null;
-		ArrayList<ReferenceDescription> skillRefs = null;
+		List<ReferenceDescription> skillRefs = null;
 		NamespaceTable tmpTable = null;
 		UaObjectNode tmpNode;
-		NodeId tmpId = null;
 		NodeId skillId = null;
 		UaMethod methodToCall = null;
 		
 		for(Map.Entry<Integer, UaClient> entry: multiClientMap.entrySet()) {
-			//Connect to the chosen server
 			tmpClient = entry.getValue();
-			connect(tmpClient);
 			tmpClient.getAddressSpace().setMaxReferencesPerNode(1000);
 			tmpClient.getAddressSpace().setReferenceTypeId(Identifiers.HierarchicalReferences);
 		}
 		
-		//Subscribe for events
-		subToServerEvents();
+		//Connect to the servers and subscribe for events
+		connectAndSubscribe();
 		
 		System.out.println("Enter commands for manual control as a string.");
 		do {
@@ -328,39 +348,10 @@ public class ControlClientMain {
 								//Connect to the chosen server
 								tmpClient = multiClientMap.get(Integer.parseInt(action));
 								
-								//Browse the address space to get the namespace table and device skills
-								tmpSpace = tmpClient.getAddressSpace();
-								refDescs = tmpSpace.browse(Identifiers.ObjectsFolder);
-								tmpTable = tmpSpace.getNamespaceTable();
-								//System.out.println("con1");
-								//Iterate to find the device Set
-								for(ReferenceDescription tempRef:refDescs) {
-									//System.out.println(tempRef.getBrowseName());
-									if(tempRef.getDisplayName().getText().equals("DeviceSet")) {
-										tmpId = tmpTable.toNodeId(tempRef.getNodeId());
-									}
-								}
-								//System.out.println("con2");
-								//Iterate again to find Device Skills
-								refDescs = tmpSpace.browse(tmpId);
-								for(ReferenceDescription tempRef:refDescs) {
-									//System.out.println(tempRef.getBrowseName());
-									if(tempRef.getDisplayName().getText().contains("DeviceSkills")) {
-										tmpId = tmpTable.toNodeId(tempRef.getNodeId());
-									}
-								}
-								//System.out.println("con3");
-								//Get refs from DeviceSkills to build list of skills
-								skillRefs = new ArrayList<ReferenceDescription>();
-								refDescs = tmpSpace.browse(tmpId);
-								for(ReferenceDescription tempRef:refDescs) {
-									//System.out.println(tempRef.getBrowseName());
-									//System.out.println(tempRef.getNodeClass());
-									if(tempRef.getNodeClass().toString().equals("Object")) {
-										skillRefs.add(tempRef);
-									}
-								}
-								//System.out.println("con4");
+								//Get the namespace table and the skills under the DeviceSkills of the server.
+								//The skills are only browsed the first time the server is selected.
+								tmpTable = tmpClient.getNamespaceTable();
+								skillRefs = resolutions.skillRefs(tmpClient);
 								//Set the state
 								manualState = 2;
 							} catch(NumberFormatException e) {
@@ -386,7 +377,7 @@ public class ControlClientMain {
 									//tmpId = tmpTable.toNodeId(tempRef.getNodeId());
 									//skillId = tmpId;
 									skillId = tmpTable.toNodeId(tempRef.getNodeId());
-									skillMethods = tmpSpace.getMethods(skillId);
+									skillMethods = resolutions.methods(tmpClient, skillId);
 								}
 							}
 							//tmpId = tmpTable.toNodeId(skillRefs.get(Integer.parseInt(action)).getNodeId());
@@ -415,9 +406,7 @@ public class ControlClientMain {
 							String UserArgumentString = readInput();
 							
 							//Variant[] outputs = tmpClient.call(skillId,methodToCall.getNodeId());
-							Variant[] outputs = tmpClient.call(tmpClient.getAddressSpace().getNode(
-									tmpTable.toExpandedNodeId(skillId)).getNodeId(),tmpClient.getAddressSpace().getNode(
-											tmpTable.toExpandedNodeId(testId)).getNodeId(), new Variant(UserArgumentString));
+							Variant[] outputs = tmpClient.call(skillId, testId, new Variant(UserArgumentString));
 							System.out.println("Method output: " + outputs[0]);
 							break;
 						default:
@@ -477,30 +466,17 @@ public class ControlClientMain {
 			clientNumAddMap.put(x, readInput());
 		}
 	}
-	//Fetche the event type from the OPC UA server address space by traversing it.
+	//The event type the base event fields are selected from: BaseEventType, if the server has the skill events.
+	//The lookup is cached, see NodeResolutionCache.
 	protected NodeId getEventType(UaClient client) throws ServiceException, StatusException, ServiceResultException {
-		client.getAddressSpace().setMaxReferencesPerNode(1000);
-		AddressSpace servSpace = client.getAddressSpace();
-		List<ReferenceDescription> topList = servSpace.browse(Identifiers.TypesFolder);
-		for (ReferenceDescription refX: topList) {
-			if (refX.getBrowseName().getName().equals("EventTypes")) {
-				List<ReferenceDescription> evTypeRefs = servSpace.browse(refX.getNodeId());
-				for (ReferenceDescription refY: evTypeRefs) {
-					if(refY.getBrowseName().getName().equals("BaseEventType")) {
-						List<ReferenceDescription> baseEventTypeRefs = servSpace.browse(refY.getNodeId());
-						for (ReferenceDescription refZ: baseEventTypeRefs) {
-							if (refZ.getBrowseName().getName().equals("MyStateEvent")) {
-								NamespaceTable table = client.getNamespaceTable();
-								NodeId targetId = table.toNodeId(refY.getNodeId());
-								System.out.println("Found NodeId: " + targetId);
-								return targetId;
-							}
-						}
-					}
-				}
-			}
+		return resolutions.stateEventType(client) != null ? Identifiers.BaseEventType : null;
+	}
+	//Finds the MyStateEvent type under BaseEventType.
+	protected NodeId getStateEventType(UaClient client, NodeId baseEventTypeId) throws ServiceException, StatusException, ServiceResultException {
+		if (baseEventTypeId == null) {
+			return null;
 		}
-		return null;
+		return resolutions.stateEventType(client);
 	}
 	protected EventFilter buildEventFilter(UaClient client) throws ServiceException, StatusException, ServiceResultException {
 		//Build the configuraiton variables for requesting event fiels and information from the server.
@@ -509,7 +485,7 @@ public class ControlClientMain {
 		UnsignedInteger evAttId = Attributes.Value;
 		NodeId eventTypeId = getEventType(client);
 		String indexRange = null;
-		SimpleAttributeOperand[] selectClauses = new SimpleAttributeOperand[this.eventFieldNames.length+1];
+		SimpleAttributeOperand[] selectClauses = new SimpleAttributeOperand[this.eventFieldNames.length+SkillEventNames.FIELD_NAMES.length];
 		for (int x=0; x<this.eventFieldNames.length;x++) {
 			if (this.eventFieldNames[x].getName().contains("/")) {
 				 browsePath = new QualifiedName[] {this.eventFieldNames[x]};
@@ -524,52 +500,123 @@ public class ControlClientMain {
 			}
 			selectClauses[x] = new SimpleAttributeOperand(eventTypeId, browsePath, evAttId, indexRange);
 		}
+		//Select the typed fields of the skill events so the listeners don't have to parse the message text.
+		NodeId stateEventTypeId = getStateEventType(client, eventTypeId);
+		int serverNs = client.getNamespaceTable().getIndex(SkillEventNames.NAMESPACE);
+		for (int x=0; x<SkillEventNames.FIELD_NAMES.length; x++) {
+			browsePath = new QualifiedName[] {new QualifiedName(serverNs, SkillEventNames.FIELD_NAMES[x])};
+			selectClauses[skillEventFieldOffset+x] = new SimpleAttributeOperand(stateEventTypeId != null ? stateEventTypeId : eventTypeId,
+					browsePath, evAttId, indexRange);
+		}
 		EventFilter filter = new EventFilter();
 		filter.setSelectClauses(selectClauses);
 		return filter;
 	}
+	//Connects to every server and subscribes to its events, several servers at a time.
+	//Waits up to the setup timeout and then carries on with the servers that are ready. A server that is slow or
+	//down doesn't hold the others up, its setup keeps going in the background and reports when it's done.
+	protected void connectAndSubscribe() {
+		long start = System.nanoTime();
+		List<ServerSetup> setups = new ArrayList<ServerSetup>();
+		ExecutorService pool = Executors.newFixedThreadPool(Math.max(1, Math.min(CONNECT_PARALLELISM, multiClientMap.size())), runnable -> {
+			Thread thread = new Thread(runnable, "ServerSetup");
+			thread.setDaemon(true);
+			return thread;
+		});
+		List<Future<?>> tasks = new ArrayList<Future<?>>();
+		for (Map.Entry<Integer, UaClient> entry: multiClientMap.entrySet()) {
+			ServerSetup setup = new ServerSetup(entry.getKey(), entry.getValue().getAddress().toString());
+			setups.add(setup);
+			tasks.add(pool.submit(() -> setUpServer(setup, entry.getValue())));
+		}
+		pool.shutdown();
+		long deadline = start + TimeUnit.SECONDS.toNanos(SETUP_TIMEOUT_SECONDS);
+		for (Future<?> task: tasks) {
+			try {
+				task.get(Math.max(0, deadline - System.nanoTime()), TimeUnit.NANOSECONDS);
+			} catch (TimeoutException e) {
+				break;
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				break;
+			} catch (ExecutionException e) {
+				//setUpServer records its own failures.
+			}
+		}
+		int ready = 0;
+		StringBuilder report = new StringBuilder();
+		for (ServerSetup setup: setups) {
+			report.append(String.format("%n\t")).append(setup);
+			ready += setup.succeeded() ? 1 : 0;
+		}
+		String summary = String.format("%d of %d servers ready in %.1f ms:", ready, setups.size(), (System.nanoTime() - start) / 1e6);
+		System.out.println(summary + report);
+		logger.info(summary + report);
+	}
+	//Connects to one server and subscribes to its events, recording how long each part takes.
+	protected void setUpServer(ServerSetup setup, UaClient client) {
+		try {
+			long begin = System.nanoTime();
+			connect(client);
+			setup.connectMillis = (System.nanoTime() - begin) / 1e6;
+			if (!client.isConnected()) {
+				setup.error = "not connected";
+				return;
+			}
+			begin = System.nanoTime();
+			subscribeServer(setup.server, client);
+			setup.subscribeMillis = (System.nanoTime() - begin) / 1e6;
+		} catch (Exception e) {
+			setup.error = e.toString();
+			logger.error("Setting up server " + setup.server + " failed: " + e);
+		} finally {
+			setup.done = true;
+			if (!setup.succeeded()) {
+				System.out.println("Server " + setup.server + " is not available: " + setup.error);
+			}
+			logger.info("Server setup " + setup);
+		}
+	}
 	//Subscribes to server events so the server can communicate 
 	//Called after connecting to all the servers as this just handles each one at once.
 	protected void subToServerEvents() throws ServiceException, StatusException, ServiceResultException {
-		AddressSpace servSpace;
-		//NamespaceTable addTable;
 		for (Map.Entry<Integer,UaClient> entry: multiClientMap.entrySet()) {
-			this.baseFilter = buildEventFilter(entry.getValue()); 
-			entry.getValue().getAddressSpace().setMaxReferencesPerNode(1000);
-			servSpace = entry.getValue().getAddressSpace();
-			List<ReferenceDescription> topList = servSpace.browse(Identifiers.ObjectsFolder);
-			for (ReferenceDescription ref: topList) {
-				//System.out.println("Ref: " + ref);
-				if(ref.getBrowseName().getName().equals("Server")) {
-					//addTable = servSpace.getNamespaceTable();
-					//subItems(addTable.toNodeId(ref.getNodeId()));
-					subItems(ref.getNodeId(), entry.getKey());
-					System.out.println("Found server " + ref.getNodeId() + " for " + entry.getValue().getAddress());
-					System.out.println(servSpace.getClient() + "  vs.  " + entry.getValue());
-				}
-			}
+			subscribeServer(entry.getKey(), entry.getValue());
 		}
 	}
+	//Subscribes to the events of the Server object of one server. Each server gets a filter of its own event types.
+	protected void subscribeServer(int index, UaClient client) throws ServiceException, StatusException, ServiceResultException {
+		EventFilter filter = buildEventFilter(client);
+		//The Server object has a well-known NodeId, there is no need to browse for it.
+		subItems(Identifiers.Server, index, filter);
+		System.out.println("Found server " + Identifiers.Server + " for " + client.getAddress());
+	}
 	//Subscribes to items based on nodeId or ExpandedNodeId provided.
-	protected void subItems(NodeId nodeId, int subIndex) throws ServiceException, StatusException {
-		MonitoredEventItem eventItem = new MonitoredEventItem(nodeId, this.baseFilter);
+	protected void subItems(NodeId nodeId, int subIndex, EventFilter filter) throws ServiceException, StatusException {
+		MonitoredEventItem eventItem = new MonitoredEventItem(nodeId, filter);
 		eventItem.setEventListener(myEventListener);
 		subMap.get(subIndex).addItem(eventItem);
 		System.out.println("Subbing to node: " + nodeId);
 	}
-	protected void subItems(ExpandedNodeId nodeId, int subIndex) throws ServiceException, StatusException {
-		MonitoredEventItem eventItem = new MonitoredEventItem(nodeId, this.baseFilter);
+	protected void subItems(ExpandedNodeId nodeId, int subIndex, EventFilter filter) throws ServiceException, StatusException {
+		MonitoredEventItem eventItem = new MonitoredEventItem(nodeId, filter);
 		eventItem.setEventListener(myEventListener);
 		subMap.get(subIndex).addItem(eventItem);
 		System.out.println("Subbing to node: " + nodeId);
 	}
+	//Numbers the sessions, servers are connected to from several threads.
+	private synchronized int nextSessionNumber() {
+		return ++this.sessionCount;
+	}
 	//Handles conneting to an individual server based on the "client" structure.
 	protected void connect(UaClient client) {
 		if (!client.isConnected()) {
 			try {
 				client.setSessionName(String.format("%s@%s Session%d", APP_NAME, 
-						ApplicationIdentity.getActualHostNameWithoutDomain(), ++this.sessionCount));
+						ApplicationIdentity.getActualHostNameWithoutDomain(), nextSessionNumber()));
 				client.connect();
+				//Nodes cached from an earlier session may not match the new one.
+				resolutions.invalidate(client);
 				System.out.println("Connected to server: " +client.getAddress());
 				logger.info("Connecting client: " + APP_NAME + " to server: " +client.getAddress());
 				try {
@@ -584,6 +631,39 @@ public class ControlClientMain {
 			}
 		}
 	}
+	//The number of the server a monitored event item belongs to, -1 if it isn't one of ours.
+	protected int serverOf(MonitoredEventItem monitoredItem) {
+		for (Map.Entry<Integer, Subscription> entry: subMap.entrySet()) {
+			if (entry.getValue() == monitoredItem.getSubscription()) {
+				return entry.getKey();
+			}
+		}
+		return -1;
+	}
+	//Calls a skill method of a server for the recipe engine, e.g. BeltSensPause_Start.
+	//The skill is looked up under the DeviceSkills of the server, or of its device sets on a combined server, the
+	//first time it's called. An empty device set takes the first device set with the skill. A call to a method the server no longer knows looks the skill up again once.
+	//The call goes out with the other calls queued for the server, see MethodCallBatcher.
+	protected void invokeSkill(int server, String deviceSet, String skill, CallType callType, String argument) throws Exception {
+		UaClient client = multiClientMap.get(server);
+		if (client == null) {
+			throw new IllegalArgumentException("No server " + server);
+		}
+		NodeId[] ids = resolutions.skillMethod(client, deviceSet, skill, callType);
+		Variant[] outputs;
+		try {
+			outputs = methodCalls.call(client, ids[0], ids[1], new Variant(argument));
+		} catch (StatusException e) {
+			UnsignedInteger status = e.getStatusCode().getValue();
+			if (!StatusCodes.Bad_NodeIdUnknown.equals(status) && !StatusCodes.Bad_MethodInvalid.equals(status)) {
+				throw e;
+			}
+			resolutions.invalidateSkill(client, deviceSet, skill);
+			ids = resolutions.skillMethod(client, deviceSet, skill, callType);
+			outputs = methodCalls.call(client, ids[0], ids[1], new Variant(argument));
+		}
+		logger.debug("Called " + skill + "_" + callType.methodSuffix + " on server " + server + ": " + (outputs.length > 0 ? outputs[0] : ""));
+	}
 	//Disconnects from the specific server.
 	protected void disconnect(UaClient client) {
 		client.disconnect();
@@ -0,0 +1,60 @@
+/* Latency statistics of the messages handled by the master control program.
+ *
+ * Keeps the count, mean and maximum of every recorded latency, and the most recent samples in a ring for the
+ * percentiles. Recorded by the control loop, read by any thread.
+ */
+
+package com.SkillsProject.ControlClient;
+
+import java.util.Arrays;
+
+public class LatencyStats {
+	private final long[] samples;
+	private long count = 0;
+	private long totalNanos = 0;
+	private long maxNanos = 0;
+
+	public LatencyStats(int sampleCount) {
+		this.samples = new long[sampleCount];
+	}
+
+	public synchronized void record(long nanos) {
+		samples[(int) (count % samples.length)] = nanos;
+		count++;
+		totalNanos += nanos;
+		maxNanos = Math.max(maxNanos, nanos);
+	}
+
+	public synchronized long count() {
+		return count;
+	}
+	public synchronized double meanMicros() {
+		return count == 0 ? 0 : totalNanos / (count * 1e3);
+	}
+	public synchronized double maxMicros() {
+		return maxNanos / 1e3;
+	}
+	//The percentile of the recent samples, e.g. 99 for the 99th percentile.
+	public synchronized double percentileMicros(double percentile) {
+		int size = (int) Math.min(count, samples.length);
+		if (size == 0) {
+			return 0;
+		}
+		long[] sorted = Arrays.copyOf(samples, size);
+		Arrays.sort(sorted);
+		int index = (int) Math.ceil(percentile / 100.0 * size) - 1;
+		return sorted[Math.max(0, Math.min(size - 1, index))] / 1e3;
+	}
+
+	public synchronized void reset() {
+		count = 0;
+		totalNanos = 0;
+		maxNanos = 0;
+	}
+
+	@Override
+	public String toString() {
+		return String.format("%d messages, mean %.1f us, p50 %.1f us, p99 %.1f us, max %.1f us", count(), meanMicros(),
+				percentileMicros(50), percentileMicros(99), maxMicros());
+	}
+}
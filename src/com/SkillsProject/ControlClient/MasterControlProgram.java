@@ -3,9 +3,18 @@ package com.SkillsProject.ControlClient;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
-import java.util.Stack;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.SkillsProject.Common.SkillEventKind;
+import com.SkillsProject.Common.SkillState;
 import com.prosysopc.ua.ServiceException;
 import com.prosysopc.ua.client.AddressSpaceException;
 import com.prosysopc.ua.client.MonitoredEventItem;
@@ -17,14 +26,45 @@ import com.prosysopc.ua.stack.builtintypes.QualifiedName;
 import com.prosysopc.ua.stack.builtintypes.Variant;
 
 public class MasterControlProgram implements Runnable{
+	private static final Logger logger = LoggerFactory.getLogger(MasterControlProgram.class);
+	//Size of the message queue, set with the "controlclient.mcpQueueCapacity" system property.
+	public static final int QUEUE_CAPACITY = Integer.getInteger("controlclient.mcpQueueCapacity", 4096);
+	//The most messages handled before the device state machines are stepped.
+	public static final int MAX_BATCH = 64;
+	//How long an event waits for room in a full queue before it's dropped.
+	private static final long OFFER_TIMEOUT_MILLIS = 1000;
+	//Queued by shutdownMCP to wake the control loop up so it can stop.
+	private static final QueuedMessage POISON = new QueuedMessage(-1, new String[] {"Shutdown"});
+	
+	//A message, the number of the server it came from (-1 for user input) and when it was queued.
+	static final class QueuedMessage {
+		final int server;
+		final String[] message;
+		final long queuedNanos;
+		
+		QueuedMessage(int server, String[] message) {
+			this.server = server;
+			this.message = message;
+			this.queuedNanos = System.nanoTime();
+		}
+	}
+	
 	protected ControlClientMain base;
 	protected QualifiedName[] fieldNames;
-	protected Stack<String[]> messageQueue = new Stack<String[]>();
+	//Messages from the event listeners and the user, handled in the order they arrive.
+	//The control loop sleeps on the queue while it's empty.
+	protected BlockingQueue<QueuedMessage> messageQueue = new ArrayBlockingQueue<QueuedMessage>(QUEUE_CAPACITY);
 	protected int currentState;
 	protected Map<UaClient,Integer> deviceStates = new HashMap<UaClient,Integer>();
-	protected Boolean shutdown = false;
+	protected volatile boolean shutdown = false;
+	//Time from a message being queued until the control loop has acted on it.
+	protected final LatencyStats latency = new LatencyStats(8192);
+	//Messages dropped because the queue stayed full.
+	protected final AtomicLong droppedMessages = new AtomicLong();
 	protected int maxState = 5;
 	protected String currentRecipe="none";
+	//Runs the product orders, advanced by the skill events. Null until the recipes are loaded.
+	protected volatile RecipeEngine recipes;
 	
 	//List of variables for state transition conditions that've been met.
 	
@@ -33,20 +73,50 @@ public class MasterControlProgram implements Runnable{
 		this.currentState = 1;
 	}
 	
-	//Pushes messages in array form into a stack.
+	//Queues messages in array form for the control loop.
 	public void passEvent(MonitoredEventItem monitoredItem, Variant[] eventFields) throws ServiceException, AddressSpaceException {
 		System.out.println("MCP - Event Listened to: " + monitoredItem.getNodeId() + " Length: " + eventFields.length);
-		String[] message = eventFields[1].toString().replaceAll("[() ]", "").split(";");
+		String[] message = SkillEventFields.of(eventFields, base.skillEventFieldOffset, eventFields[1]).toMessage();
 		System.out.println("Message: " + Arrays.toString(message));
-		messageQueue.push(message);
+		enqueue(base.serverOf(monitoredItem), message);
 	}
+	//User inputs separate their fields with ";" or ",", e.g. "SkillRecipe,MakeProductOne".
 	public void userInput(String userInput) {
-		String[] message = userInput.replaceAll("[() ]", "").split(";");
+		String[] message = userInput.replaceAll("[() ]", "").split("[;,]");
 		System.out.println("Message: " + Arrays.toString(message));
-		messageQueue.push(message);
+		enqueue(message);
 	}
+	public void setRecipes(RecipeEngine recipes) {
+		this.recipes = recipes;
+	}
+	//Waits a while for room when the queue is full, so a burst of events slows the listeners down instead of being lost.
+	//Returns false if the message was dropped.
+	boolean enqueue(String[] message) {
+		return enqueue(-1, message);
+	}
+	boolean enqueue(int server, String[] message) {
+		if (shutdown) {
+			return false;
+		}
+		try {
+			if (messageQueue.offer(new QueuedMessage(server, message), OFFER_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS)) {
+				return true;
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		droppedMessages.incrementAndGet();
+		logger.warn("MCP queue full, dropped message " + Arrays.toString(message));
+		return false;
+	}
+	//Stops the control loop once it has handled the messages it has taken from the queue.
 	public void shutdownMCP() {
 		shutdown=true;
+		//Wakes the loop up if it's waiting. When the queue is full the loop sees the flag after its batch instead.
+		messageQueue.offer(POISON);
+	}
+	public LatencyStats latencyStats() {
+		return latency;
 	}
 	
 	public void passClients() {
@@ -64,45 +134,75 @@ public class MasterControlProgram implements Runnable{
 		// TODO Auto-generated method stub
 		
 		//Variable declarations for the control loop
-		String[] message;
+		List<QueuedMessage> batch = new ArrayList<QueuedMessage>(MAX_BATCH);
+		boolean stop = false;
 		
 		//The control loop itself.
+		//Sleeps until a message arrives, then handles everything queued so far in one batch.
 		do {		
-			//Check if there are messages in the queue, parse properly.
-			if (!messageQueue.empty()) {
-				message = messageQueue.pop();
+			batch.clear();
+			try {
+				batch.add(messageQueue.take());
+			} catch (InterruptedException e) {
+				System.out.println("Main control loop interrupted.");
+				break;
+			}
+			messageQueue.drainTo(batch, MAX_BATCH - 1);
+			for (QueuedMessage queued: batch) {
+				String[] message = queued.message;
+				if (queued == POISON) {
+					stop = true;
+					break;
+				}
 				System.out.println("MESSAGE FROM ANOTHER THREAD: " + Arrays.toString(message));
 				if (message[0].equals("Shutdown")) {
 					//Shutdown command received
+					stop = true;
 					break;
 				}
 				else if (message[0].equals("ChangeControlState")) {
 					//Check that the state is valid, if is transition, else report bad state.
-					if (Integer.parseInt(message[1]) >= 1 && Integer.parseInt(message[1]) <= maxState) {
-						currentState = Integer.parseInt(message[1]);
-					}
-					else {
+					try {
+						if (Integer.parseInt(message[1]) >= 1 && Integer.parseInt(message[1]) <= maxState) {
+							currentState = Integer.parseInt(message[1]);
+						}
+						else {
+							System.out.println("Invalid target state");
+						}
+					} catch (RuntimeException e) {
 						System.out.println("Invalid target state");
 					}
 				}
-				else if(message[0].equals("SkillRecipe")) {
-					if(currentRecipe.equals("none")) {
+				else if(message[0].equals("SkillRecipe") && message.length > 1) {
+					//Starts the given number of orders of the recipe, one by default.
+					if (recipes != null) {
+						try {
+							int count = message.length > 2 ? Integer.parseInt(message[2]) : 1;
+							for (int x = 0; x < count; x++) {
+								recipes.submit(message[1]);
+							}
+							currentRecipe=message[1];
+						} catch (IllegalArgumentException e) {
+							System.out.println("Invalid recipe order: " + e.getMessage());
+						}
+					}
+					else if(currentRecipe.equals("none")) {
 						currentRecipe=message[1];
 					}
 				}
-				else {
-					continue;
+				else if (recipes != null && queued.server >= 0 && message.length >= 3
+						&& message[0].equals(SkillEventKind.STATE_CHANGE.messagePrefix)) {
+					recipes.onStateChange(queued.server, message.length > 3 ? message[3] : "", message[1], SkillState.of(message[2]));
 				}
-			}/*
-			else {
-				System.out.println("Nothing in queue.");
-				try {
-					Thread.sleep(5000);
-				} catch (InterruptedException e) {
-					// TODO Auto-generated catch block
-					e.printStackTrace();
+				else if (recipes != null && queued.server >= 0 && message.length >= 4
+						&& message[0].equals(SkillEventKind.CALL_RETURN.messagePrefix)) {
+					recipes.onCallReturn(queued.server, message.length > 4 ? message[4] : "", message[1], message[2], message[3]);
 				}
-			}*/
+				latency.record(System.nanoTime() - queued.queuedNanos);
+			}
+			if (stop) {
+				break;
+			}
 			
 			//Control state transition checks
 			//The states of the control logic itself
@@ -122,6 +222,11 @@ public class MasterControlProgram implements Runnable{
 				}
 			}
 		}while(!shutdown);
-		System.out.println("Main control loop shut down.");
+		if (recipes != null) {
+			System.out.println("Recipes: " + recipes);
+			recipes.close();
+		}
+		System.out.println("Main control loop shut down. Message latency: " + latency);
+		logger.info("Main control loop shut down. Message latency: " + latency + ", dropped: " + droppedMessages.get());
 	}
 }
@@ -0,0 +1,368 @@
+/* Sends the method calls of the control client to the device servers in batches.
+ *
+ * Every UaClient.call(objectId, methodId, ...) is a round trip of its own, so resetting one skill and starting
+ * another on the same server took two. Calls given to the batcher are queued per server instead, and a sender sends
+ * the queued calls of a server together as one Call service request with a CallMethodRequest for each. The first
+ * call queued on a server starts a sender, which waits a short while ("controlclient.callBatchLingerMicros", 250 by
+ * default, 0 sends at once) so calls made at nearly the same moment share its request, and then takes the queued
+ * calls. A call made after that starts a new sender, so a server can have several requests on their way and no call
+ * waits for the answer of an earlier request, e.g. behind a slow skill. A server has at most
+ * "controlclient.callSendersPerServer" senders (4 by default), which keeps the threads bounded under load: once a
+ * server has all of them the calls stay queued, and a sender takes them when its request returns. A request carries
+ * at most "controlclient.callBatchSize" calls (32 by default), more queued calls go out side by side if the server
+ * has a sender to spare.
+ *
+ * A request returns when the last call in it is done, so a slow method would hold up the calls sharing its request.
+ * Only a request of a single call tells how long its method takes: a method whose call alone took longer than
+ * "controlclient.callSlowMicros" (10000 by default) is called in a request of its own from then on, until such a
+ * call returns in time again. The methods of a slow request of several calls are each called alone once to find the
+ * slow one, and the fast ones are batched again after that.
+ *
+ * The results come back in the order of the requests and complete the future of each call: with the output
+ * arguments, or with a StatusException of the call's own status code when the server refused that call. A failed
+ * Call service request fails every call in it.
+ */
+
+package com.SkillsProject.ControlClient;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.prosysopc.ua.StatusException;
+import com.prosysopc.ua.client.UaClient;
+import com.prosysopc.ua.stack.builtintypes.NodeId;
+import com.prosysopc.ua.stack.builtintypes.StatusCode;
+import com.prosysopc.ua.stack.builtintypes.Variant;
+import com.prosysopc.ua.stack.core.CallMethodRequest;
+import com.prosysopc.ua.stack.core.CallMethodResult;
+import com.prosysopc.ua.stack.core.StatusCodes;
+
+public class MethodCallBatcher {
+	private static final Logger logger = LoggerFactory.getLogger(MethodCallBatcher.class);
+
+	public static final String BATCH_SIZE_PROPERTY = "controlclient.callBatchSize";
+	public static final String LINGER_PROPERTY = "controlclient.callBatchLingerMicros";
+	public static final String SLOW_PROPERTY = "controlclient.callSlowMicros";
+	public static final String SENDERS_PROPERTY = "controlclient.callSendersPerServer";
+	//How long close() waits for the requests on their way.
+	private static final long CLOSE_WAIT_SECONDS = 5;
+
+	//Sends one Call service request to a server. UaClient.call in the client, simulated in the benchmark.
+	public interface Transport {
+		CallMethodResult[] call(UaClient client, CallMethodRequest[] requests) throws Exception;
+	}
+
+	//A method call waiting for its batch to be sent.
+	private static final class PendingMethodCall {
+		final CallMethodRequest request;
+		//Sent in a request of its own, because the method is slow or is to be measured.
+		final boolean alone;
+		final CompletableFuture<Variant[]> future = new CompletableFuture<Variant[]>();
+
+		PendingMethodCall(CallMethodRequest request, boolean alone) {
+			this.request = request;
+			this.alone = alone;
+		}
+	}
+
+	//The queued calls of one server and its senders. At most one sender at a time waits for calls to share its request.
+	private final class ServerCalls {
+		final UaClient client;
+		final ArrayDeque<PendingMethodCall> pending = new ArrayDeque<PendingMethodCall>();
+		int activeSenders = 0;
+		boolean lingering = false;
+
+		ServerCalls(UaClient client) {
+			this.client = client;
+		}
+
+		//Queues a call and starts a sender for it, unless one is waiting for calls or the server has all its senders.
+		void queue(PendingMethodCall call) {
+			boolean start;
+			synchronized (this) {
+				pending.add(call);
+				start = !lingering && activeSenders < maxSenders;
+				if (start) {
+					activeSenders++;
+					lingering = true;
+				}
+			}
+			if (start) {
+				start(true);
+			}
+		}
+
+		//A sender: sends the queued calls until there are none left. Only a sender started by a call lingers.
+		void send(boolean linger) {
+			if (linger && lingerNanos > 0) {
+				LockSupport.parkNanos(lingerNanos);
+			}
+			List<PendingMethodCall> batch;
+			while ((batch = next(linger)) != null) {
+				MethodCallBatcher.this.send(client, batch);
+				linger = false;
+			}
+		}
+
+		//Takes the calls of the next request, null when there are none and the sender ends.
+		//Starts another sender for the calls left over if the server has one to spare.
+		private List<PendingMethodCall> next(boolean lingered) {
+			List<PendingMethodCall> batch;
+			boolean startAnother;
+			synchronized (this) {
+				if (lingered) {
+					//Calls from now on start a sender of their own instead of waiting for this request.
+					lingering = false;
+				}
+				if (pending.isEmpty() || closed) {
+					activeSenders--;
+					batch = null;
+					startAnother = false;
+				} else {
+					batch = new ArrayList<PendingMethodCall>(Math.min(pending.size(), maxBatch));
+					PendingMethodCall first = pending.poll();
+					batch.add(first);
+					while (!first.alone && !pending.isEmpty() && !pending.peek().alone && batch.size() < maxBatch) {
+						batch.add(pending.poll());
+					}
+					startAnother = !pending.isEmpty() && activeSenders < maxSenders;
+					if (startAnother) {
+						activeSenders++;
+					}
+				}
+			}
+			if (batch == null) {
+				//The calls queued while closing are failed by close(), or here if they came after it.
+				if (closed) {
+					failClosed(drain());
+				}
+				return null;
+			}
+			if (startAnother) {
+				start(false);
+			}
+			return batch;
+		}
+
+		private void start(boolean linger) {
+			try {
+				senders.execute(() -> send(linger));
+			} catch (RejectedExecutionException e) {
+				//Closed while the call was queued.
+				synchronized (this) {
+					activeSenders--;
+					if (linger) {
+						lingering = false;
+					}
+				}
+				failClosed(drain());
+			}
+		}
+
+		synchronized List<PendingMethodCall> drain() {
+			List<PendingMethodCall> dropped = new ArrayList<PendingMethodCall>(pending);
+			pending.clear();
+			return dropped;
+		}
+	}
+
+	private final Transport transport;
+	private final int maxBatch;
+	private final long lingerNanos;
+	private final long slowNanos;
+	private final int maxSenders;
+	//Bounded by the number of servers times maxSenders, a server never runs more senders than that.
+	private final ExecutorService senders;
+	private final Map<UaClient, ServerCalls> servers = new ConcurrentHashMap<UaClient, ServerCalls>();
+	//The methods whose last call alone was slow.
+	private final Set<NodeId> slowMethods = ConcurrentHashMap.newKeySet();
+	//The methods that shared a slow request, called alone once to measure them.
+	private final Set<NodeId> unmeasuredMethods = ConcurrentHashMap.newKeySet();
+	private volatile boolean closed = false;
+	private final AtomicLong calls = new AtomicLong();
+	private final AtomicLong requests = new AtomicLong();
+	private final AtomicLong sentCalls = new AtomicLong();
+	private final AtomicLong failedCalls = new AtomicLong();
+	private final AtomicLong largestBatch = new AtomicLong();
+
+	//Sends through UaClient.call with the batch size, linger, slow call time and senders of the system properties.
+	public MethodCallBatcher() {
+		this((client, requests) -> client.call(requests), Integer.getInteger(BATCH_SIZE_PROPERTY, 32),
+				TimeUnit.MICROSECONDS.toNanos(Long.getLong(LINGER_PROPERTY, 250)),
+				TimeUnit.MICROSECONDS.toNanos(Long.getLong(SLOW_PROPERTY, 10000)), Integer.getInteger(SENDERS_PROPERTY, 4));
+	}
+
+	public MethodCallBatcher(Transport transport, int maxBatch, long lingerNanos, long slowNanos, int maxSenders) {
+		this.transport = transport;
+		this.maxBatch = Math.max(1, maxBatch);
+		this.lingerNanos = Math.max(0, lingerNanos);
+		this.slowNanos = slowNanos;
+		this.maxSenders = Math.max(1, maxSenders);
+		this.senders = Executors.newCachedThreadPool(runnable -> {
+			Thread thread = new Thread(runnable, "MethodCalls");
+			thread.setDaemon(true);
+			return thread;
+		});
+	}
+
+	//Queues a method call on a server. The future completes with the output arguments of the call.
+	public CompletableFuture<Variant[]> submit(UaClient client, NodeId objectId, NodeId methodId, Variant... inputArguments) {
+		boolean alone = slowMethods.contains(methodId) || unmeasuredMethods.remove(methodId);
+		PendingMethodCall call = new PendingMethodCall(new CallMethodRequest(objectId, methodId, inputArguments), alone);
+		calls.incrementAndGet();
+		if (closed) {
+			fail(call, new StatusException("The method call batcher is closed.", StatusCodes.Bad_Shutdown));
+			return call.future;
+		}
+		servers.computeIfAbsent(client, key -> new ServerCalls(key)).queue(call);
+		return call.future;
+	}
+
+	//Calls a method and waits for its batch. Throws the StatusException of a refused call.
+	public Variant[] call(UaClient client, NodeId objectId, NodeId methodId, Variant... inputArguments) throws Exception {
+		try {
+			return submit(client, objectId, methodId, inputArguments).get();
+		} catch (ExecutionException e) {
+			if (e.getCause() instanceof Exception) {
+				throw (Exception) e.getCause();
+			}
+			throw e;
+		}
+	}
+
+	//Sends one batch and hands every call its own result.
+	private void send(UaClient client, List<PendingMethodCall> batch) {
+		CallMethodRequest[] callRequests = new CallMethodRequest[batch.size()];
+		for (int x = 0; x < callRequests.length; x++) {
+			callRequests[x] = batch.get(x).request;
+		}
+		requests.incrementAndGet();
+		sentCalls.addAndGet(callRequests.length);
+		largestBatch.accumulateAndGet(callRequests.length, Math::max);
+		CallMethodResult[] results;
+		long started = System.nanoTime();
+		try {
+			results = transport.call(client, callRequests);
+			measure(callRequests, System.nanoTime() - started);
+		} catch (Exception e) {
+			logger.warn("A batch of " + callRequests.length + " method calls to " + client.getAddress() + " failed: " + e);
+			for (PendingMethodCall call: batch) {
+				fail(call, e);
+			}
+			return;
+		}
+		for (int x = 0; x < batch.size(); x++) {
+			PendingMethodCall call = batch.get(x);
+			if (results == null || x >= results.length || results[x] == null) {
+				fail(call, new StatusException("The server returned no result for the call.", StatusCodes.Bad_UnexpectedError));
+				continue;
+			}
+			StatusCode status = results[x].getStatusCode();
+			if (status != null && status.isBad()) {
+				fail(call, new StatusException("The call of " + call.request.getMethodId() + " failed" + inputErrors(results[x]),
+						status.getValue()));
+			} else {
+				Variant[] outputs = results[x].getOutputArguments();
+				call.future.complete(outputs != null ? outputs : new Variant[0]);
+			}
+		}
+	}
+
+	//A request of a single call measures its method: slow, it's called alone from now on, in time, it's batched again.
+	//A slow request of several calls doesn't tell which of them was slow, so each of its methods is called alone once.
+	private void measure(CallMethodRequest[] callRequests, long nanos) {
+		boolean slow = nanos > slowNanos;
+		if (callRequests.length == 1) {
+			if (slow) {
+				slowMethods.add(callRequests[0].getMethodId());
+			} else {
+				slowMethods.remove(callRequests[0].getMethodId());
+			}
+		} else if (slow) {
+			for (CallMethodRequest request: callRequests) {
+				unmeasuredMethods.add(request.getMethodId());
+			}
+		}
+	}
+
+	//The input arguments the server refused, if it said which.
+	private static String inputErrors(CallMethodResult result) {
+		StatusCode[] inputResults = result.getInputArgumentResults();
+		if (inputResults == null) {
+			return "";
+		}
+		StringBuilder errors = new StringBuilder();
+		for (int x = 0; x < inputResults.length; x++) {
+			if (inputResults[x] != null && inputResults[x].isBad()) {
+				errors.append(errors.length() == 0 ? ", input arguments: " : ", ").append(x).append(" ").append(inputResults[x]);
+			}
+		}
+		return errors.toString();
+	}
+
+	private void failClosed(List<PendingMethodCall> dropped) {
+		for (PendingMethodCall pending: dropped) {
+			fail(pending, new StatusException("The method call batcher is closed.", StatusCodes.Bad_Shutdown));
+		}
+	}
+
+	private void fail(PendingMethodCall call, Exception error) {
+		failedCalls.incrementAndGet();
+		call.future.completeExceptionally(error);
+	}
+
+	public long calls() {
+		return calls.get();
+	}
+	public long requests() {
+		return requests.get();
+	}
+	public long failedCalls() {
+		return failedCalls.get();
+	}
+	//Mean calls per Call service request.
+	public double meanBatch() {
+		long sent = requests.get();
+		return sent == 0 ? 0 : sentCalls.get() / (double) sent;
+	}
+
+	@Override
+	public String toString() {
+		return String.format("%d method calls in %d requests, %.2f calls per request, at most %d, %d failed", calls.get(),
+				requests.get(), meanBatch(), largestBatch.get(), failedCalls.get());
+	}
+
+	//Stops the senders. The queued calls and the calls made afterwards fail with Bad_Shutdown, the requests on their
+	//way are given a while to return.
+	public void close() {
+		closed = true;
+		for (ServerCalls server: servers.values()) {
+			failClosed(server.drain());
+		}
+		senders.shutdown();
+		try {
+			if (!senders.awaitTermination(CLOSE_WAIT_SECONDS, TimeUnit.SECONDS)) {
+				logger.warn("Method calls still on their way after " + CLOSE_WAIT_SECONDS + " s, interrupting them");
+				senders.shutdownNow();
+			}
+		} catch (InterruptedException e) {
+			senders.shutdownNow();
+			Thread.currentThread().interrupt();
+		}
+	}
+}
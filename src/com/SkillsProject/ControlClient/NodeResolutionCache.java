@@ -0,0 +1,385 @@
+/* Remembers the NodeIds the control client looks up on the device servers, so the same browse isn't repeated.
+ *
+ * Subscribing to a server needs the type of its skill events, and calling a skill needs the skill object and its
+ * method under the DeviceSkills of the server. These used to be found by browsing down from the root folders on
+ * every subscription and every call. Now every server is looked up once:
+ *   - The fixed paths, the MyStateEvent type under BaseEventType and the DeviceSet under the Objects folder, are
+ *     translated together in one TranslateBrowsePathsToNodeIds request.
+ *   - The DeviceSkills objects under the DeviceSet, or under the device sets of a combined server, are browsed once.
+ *   - A skill and all five of its methods are translated in one request the first time the skill is used.
+ *     On a combined server the skill can be asked for by its device set, since device sets can share skill names.
+ *
+ * The names in the paths are qualified with the namespace URIs of the device server and the DI model, so they are
+ * turned into indexes through the namespace table of the session. The entries of a server are dropped when it
+ * reconnects, since the new session may have another namespace table, and when the server reports a model change.
+ * A call that fails because its method is gone, e.g. evicted by a server in lazy mode, drops just that skill.
+ */
+
+package com.SkillsProject.ControlClient;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.SkillsProject.Common.CallType;
+import com.SkillsProject.Common.SkillEventNames;
+import com.prosysopc.ua.ServiceException;
+import com.prosysopc.ua.StatusException;
+import com.prosysopc.ua.client.AddressSpace;
+import com.prosysopc.ua.client.UaClient;
+import com.prosysopc.ua.nodes.UaMethod;
+import com.prosysopc.ua.stack.builtintypes.NodeId;
+import com.prosysopc.ua.stack.builtintypes.QualifiedName;
+import com.prosysopc.ua.stack.builtintypes.UnsignedInteger;
+import com.prosysopc.ua.stack.builtintypes.Variant;
+import com.prosysopc.ua.stack.common.NamespaceTable;
+import com.prosysopc.ua.stack.common.ServiceResultException;
+import com.prosysopc.ua.stack.core.BrowsePath;
+import com.prosysopc.ua.stack.core.BrowsePathResult;
+import com.prosysopc.ua.stack.core.BrowsePathTarget;
+import com.prosysopc.ua.stack.core.Identifiers;
+import com.prosysopc.ua.stack.core.ReferenceDescription;
+import com.prosysopc.ua.stack.core.RelativePath;
+import com.prosysopc.ua.stack.core.RelativePathElement;
+
+public class NodeResolutionCache {
+	private static final Logger logger = LoggerFactory.getLogger(NodeResolutionCache.class);
+
+	//The namespace of the DI companion specification, which defines the DeviceSet.
+	public static final String DI_NAMESPACE = "http://opcfoundation.org/UA/DI/";
+	//The device sets of a combined server are objects named after the device set with this suffix.
+	private static final String SET_SUFFIX = "_Set";
+
+	//What is known about the address space of one server.
+	private static final class ServerEntry {
+		boolean fixedResolved = false;
+		//Null when the server has no such node.
+		NodeId stateEventType;
+		NodeId deviceSet;
+		//The DeviceSkills objects and the device set each is under, empty for a single server's. Null until browsed.
+		Map<NodeId, String> skillContainers;
+		//The skills listed by the manual loop, null until browsed.
+		List<ReferenceDescription> skillRefs;
+		//The skill objects by name, and their methods by method name, e.g. BeltSensPause_Start.
+		//A skill asked for by its device set has the device set in front, e.g. Belt_1/BeltSensPause_Start.
+		final Map<String, NodeId> skills = new ConcurrentHashMap<String, NodeId>();
+		final Map<String, NodeId> methods = new ConcurrentHashMap<String, NodeId>();
+		//The methods of a skill object as listed by the manual loop.
+		final Map<NodeId, List<UaMethod>> skillMethods = new ConcurrentHashMap<NodeId, List<UaMethod>>();
+	}
+
+	private final Map<UaClient, ServerEntry> entries = new ConcurrentHashMap<UaClient, ServerEntry>();
+	private final AtomicLong hits = new AtomicLong();
+	private final AtomicLong translateRequests = new AtomicLong();
+	private final AtomicLong browses = new AtomicLong();
+	private final AtomicLong invalidations = new AtomicLong();
+
+	//Drops everything known about a server, e.g. after it reconnected or changed its model.
+	public void invalidate(UaClient client) {
+		if (client != null && entries.remove(client) != null) {
+			invalidations.incrementAndGet();
+			logger.info("Dropped the cached nodes of " + client.getAddress());
+		}
+	}
+
+	//Drops a skill of a device set of a server so its nodes are looked up again.
+	public void invalidateSkill(UaClient client, String deviceSet, String skill) {
+		ServerEntry entry = entries.get(client);
+		if (entry == null) {
+			return;
+		}
+		String skillKey = skillKey(deviceSet, skill);
+		NodeId skillId = entry.skills.remove(skillKey);
+		for (CallType callType: CallType.values()) {
+			entry.methods.remove(skillKey + "_" + callType.methodSuffix);
+		}
+		if (skillId != null) {
+			entry.skillMethods.remove(skillId);
+		}
+	}
+
+	//Whether the event type field of an event is one of the model change events.
+	public static boolean isModelChange(Variant eventType) {
+		Object value = eventType == null ? null : eventType.getValue();
+		return Identifiers.GeneralModelChangeEventType.equals(value) || Identifiers.BaseModelChangeEventType.equals(value)
+				|| Identifiers.SemanticChangeEventType.equals(value);
+	}
+
+	//The MyStateEvent type of a server, null if it doesn't have one.
+	public NodeId stateEventType(UaClient client) throws ServiceException, StatusException, ServiceResultException {
+		return fixed(client).stateEventType;
+	}
+
+	//The DeviceSet of a server, null if it doesn't have one.
+	public NodeId deviceSet(UaClient client) throws ServiceException, StatusException, ServiceResultException {
+		return fixed(client).deviceSet;
+	}
+
+	//The skill object and the method of a skill call, {skillId, methodId}.
+	//The skill is looked up under the DeviceSkills of the device set, or under all of them if the device set is empty.
+	//Throws IllegalArgumentException when the server has no such skill or method.
+	public NodeId[] skillMethod(UaClient client, String deviceSet, String skill, CallType callType) throws Exception {
+		String skillKey = skillKey(deviceSet, skill);
+		String methodName = skillKey + "_" + callType.methodSuffix;
+		ServerEntry entry = entry(client);
+		NodeId skillId = entry.skills.get(skillKey);
+		NodeId methodId = entry.methods.get(methodName);
+		if (skillId != null && methodId != null) {
+			hits.incrementAndGet();
+			return new NodeId[] {skillId, methodId};
+		}
+		synchronized (entry) {
+			skillId = entry.skills.get(skillKey);
+			if (skillId == null) {
+				skillId = resolveSkill(client, entry, deviceSet, skill);
+			}
+			if (skillId == null) {
+				throw new IllegalArgumentException("Server " + client.getAddress() + " has no skill " + skillKey);
+			}
+			methodId = entry.methods.get(methodName);
+			if (methodId == null) {
+				//The methods of a lazy server only exist once the skill is browsed.
+				for (UaMethod method: methods(client, entry, skillId)) {
+					entry.methods.put(skillKey(deviceSet, method.getBrowseName().getName()), method.getNodeId());
+				}
+				methodId = entry.methods.get(methodName);
+			}
+			if (methodId == null) {
+				throw new IllegalArgumentException("Skill " + skillKey + " of server " + client.getAddress() + " has no method " + methodName);
+			}
+			return new NodeId[] {skillId, methodId};
+		}
+	}
+
+	//The skill objects of a server, as listed by the manual loop.
+	public List<ReferenceDescription> skillRefs(UaClient client) throws ServiceException, StatusException, ServiceResultException {
+		ServerEntry entry = entry(client);
+		synchronized (entry) {
+			if (entry.skillRefs == null) {
+				NamespaceTable table = client.getNamespaceTable();
+				List<ReferenceDescription> refs = new ArrayList<ReferenceDescription>();
+				for (NodeId container: skillContainers(client, entry).keySet()) {
+					for (ReferenceDescription ref: browse(client, container)) {
+						if (ref.getNodeClass().toString().equals("Object")) {
+							refs.add(ref);
+							entry.skills.put(ref.getBrowseName().getName(), table.toNodeId(ref.getNodeId()));
+						}
+					}
+				}
+				entry.skillRefs = Collections.unmodifiableList(refs);
+			} else {
+				hits.incrementAndGet();
+			}
+			return entry.skillRefs;
+		}
+	}
+
+	//The methods of a skill object, as listed by the manual loop.
+	public List<UaMethod> methods(UaClient client, NodeId skillId) throws Exception {
+		ServerEntry entry = entry(client);
+		synchronized (entry) {
+			return methods(client, entry, skillId);
+		}
+	}
+
+	private List<UaMethod> methods(UaClient client, ServerEntry entry, NodeId skillId) throws Exception {
+		List<UaMethod> methods = entry.skillMethods.get(skillId);
+		if (methods != null) {
+			hits.incrementAndGet();
+			return methods;
+		}
+		browses.incrementAndGet();
+		methods = Collections.unmodifiableList(new ArrayList<UaMethod>(client.getAddressSpace().getMethods(skillId)));
+		entry.skillMethods.put(skillId, methods);
+		return methods;
+	}
+
+	private ServerEntry entry(UaClient client) {
+		return entries.computeIfAbsent(client, key -> new ServerEntry());
+	}
+
+	//Translates the fixed paths of a server in one request.
+	private ServerEntry fixed(UaClient client) throws ServiceException, StatusException, ServiceResultException {
+		return fixed(client, entry(client));
+	}
+
+	private ServerEntry fixed(UaClient client, ServerEntry entry) throws ServiceException, StatusException, ServiceResultException {
+		synchronized (entry) {
+			if (entry.fixedResolved) {
+				hits.incrementAndGet();
+				return entry;
+			}
+			NamespaceTable table = client.getNamespaceTable();
+			NodeId[] found = translate(client, new BrowsePath[] {
+					path(Identifiers.BaseEventType, name(table, SkillEventNames.NAMESPACE, SkillEventNames.STATE_EVENT_TYPE)),
+					path(Identifiers.ObjectsFolder, name(table, DI_NAMESPACE, "DeviceSet"))});
+			entry.stateEventType = found[0];
+			entry.deviceSet = found[1];
+			if (entry.deviceSet == null) {
+				//Servers that don't list the DI namespace, found the way the client always did.
+				for (ReferenceDescription ref: browse(client, Identifiers.ObjectsFolder)) {
+					if (ref.getDisplayName().getText().equals("DeviceSet")) {
+						entry.deviceSet = table.toNodeId(ref.getNodeId());
+					}
+				}
+			}
+			entry.fixedResolved = true;
+			logger.info("Resolved the nodes of " + client.getAddress() + ": state event type " + entry.stateEventType
+					+ ", DeviceSet " + entry.deviceSet);
+			return entry;
+		}
+	}
+
+	//The DeviceSkills objects of a server and the device sets they are under. A single server has one right under the
+	//DeviceSet, a combined server one under each of its device sets, which are named after the device set, e.g. Belt_1_Set.
+	private Map<NodeId, String> skillContainers(UaClient client, ServerEntry entry) throws ServiceException, StatusException, ServiceResultException {
+		if (entry.skillContainers != null) {
+			return entry.skillContainers;
+		}
+		NodeId deviceSet = fixed(client, entry).deviceSet;
+		Map<NodeId, String> containers = new LinkedHashMap<NodeId, String>();
+		if (deviceSet != null) {
+			NamespaceTable table = client.getNamespaceTable();
+			Map<NodeId, String> sets = new LinkedHashMap<NodeId, String>();
+			for (ReferenceDescription ref: browse(client, deviceSet)) {
+				if (!ref.getNodeClass().toString().equals("Object")) {
+					continue;
+				}
+				String name = ref.getDisplayName().getText();
+				if (name.contains("DeviceSkills")) {
+					containers.put(table.toNodeId(ref.getNodeId()), "");
+				} else {
+					sets.put(table.toNodeId(ref.getNodeId()), name.endsWith(SET_SUFFIX) ? name.substring(0, name.length() - SET_SUFFIX.length()) : name);
+				}
+			}
+			if (containers.isEmpty()) {
+				for (Map.Entry<NodeId, String> set: sets.entrySet()) {
+					for (ReferenceDescription ref: browse(client, set.getKey())) {
+						if (ref.getNodeClass().toString().equals("Object") && ref.getDisplayName().getText().contains("DeviceSkills")) {
+							containers.put(table.toNodeId(ref.getNodeId()), set.getValue());
+						}
+					}
+				}
+			}
+		}
+		entry.skillContainers = Collections.unmodifiableMap(containers);
+		return entry.skillContainers;
+	}
+
+	//Translates the skill and its methods under every DeviceSkills of the device set in one request. The first
+	//DeviceSkills with the skill is used. An empty device set searches every DeviceSkills, and the DeviceSkills of a
+	//single server is searched for any device set. Returns the skill object, null if no DeviceSkills has it.
+	private NodeId resolveSkill(UaClient client, ServerEntry entry, String deviceSet, String skill) throws ServiceException, StatusException, ServiceResultException {
+		List<NodeId> containers = new ArrayList<NodeId>();
+		for (Map.Entry<NodeId, String> container: skillContainers(client, entry).entrySet()) {
+			if (deviceSet.isEmpty() || container.getValue().isEmpty() || container.getValue().equals(deviceSet)) {
+				containers.add(container.getKey());
+			}
+		}
+		if (containers.isEmpty()) {
+			return null;
+		}
+		NamespaceTable table = client.getNamespaceTable();
+		QualifiedName skillName = name(table, SkillEventNames.NAMESPACE, skill);
+		CallType[] callTypes = CallType.values();
+		int perContainer = 1 + callTypes.length;
+		BrowsePath[] paths = new BrowsePath[containers.size() * perContainer];
+		for (int x = 0; x < containers.size(); x++) {
+			paths[x * perContainer] = path(containers.get(x), skillName);
+			for (int y = 0; y < callTypes.length; y++) {
+				paths[x * perContainer + 1 + y] = path(containers.get(x), skillName,
+						name(table, SkillEventNames.NAMESPACE, skill + "_" + callTypes[y].methodSuffix));
+			}
+		}
+		NodeId[] found = translate(client, paths);
+		for (int x = 0; x < containers.size(); x++) {
+			NodeId skillId = found[x * perContainer];
+			if (skillId == null) {
+				continue;
+			}
+			String skillKey = skillKey(deviceSet, skill);
+			entry.skills.put(skillKey, skillId);
+			for (int y = 0; y < callTypes.length; y++) {
+				NodeId methodId = found[x * perContainer + 1 + y];
+				if (methodId != null) {
+					entry.methods.put(skillKey + "_" + callTypes[y].methodSuffix, methodId);
+				}
+			}
+			return skillId;
+		}
+		return null;
+	}
+
+	//The name a skill or method is cached under, with the device set in front if one was asked for.
+	private static String skillKey(String deviceSet, String name) {
+		return deviceSet.isEmpty() ? name : deviceSet + "/" + name;
+	}
+
+	//Translates browse paths in one request. A path that doesn't lead to exactly one node gives null.
+	private NodeId[] translate(UaClient client, BrowsePath[] paths) throws ServiceException, ServiceResultException {
+		NodeId[] found = new NodeId[paths.length];
+		List<BrowsePath> request = new ArrayList<BrowsePath>();
+		List<Integer> requestIndex = new ArrayList<Integer>();
+		for (int x = 0; x < paths.length; x++) {
+			if (paths[x] != null) {
+				request.add(paths[x]);
+				requestIndex.add(x);
+			}
+		}
+		if (request.isEmpty()) {
+			return found;
+		}
+		translateRequests.incrementAndGet();
+		BrowsePathResult[] results = client.translateBrowsePathsToNodeIds(request.toArray(new BrowsePath[0]));
+		NamespaceTable table = client.getNamespaceTable();
+		for (int x = 0; x < results.length && x < request.size(); x++) {
+			BrowsePathTarget[] targets = results[x].getTargets();
+			if (!results[x].getStatusCode().isGood() || targets == null || targets.length != 1) {
+				continue;
+			}
+			UnsignedInteger remaining = targets[0].getRemainingPathIndex();
+			if (remaining == null || remaining.equals(UnsignedInteger.MAX_VALUE)) {
+				found[requestIndex.get(x)] = table.toNodeId(targets[0].getTargetId());
+			}
+		}
+		return found;
+	}
+
+	private List<ReferenceDescription> browse(UaClient client, NodeId nodeId) throws ServiceException, StatusException {
+		browses.incrementAndGet();
+		AddressSpace space = client.getAddressSpace();
+		space.setMaxReferencesPerNode(1000);
+		return space.browse(nodeId);
+	}
+
+	//A path of hierarchical references from a node, null if a name couldn't be qualified.
+	private static BrowsePath path(NodeId start, QualifiedName... names) {
+		RelativePathElement[] elements = new RelativePathElement[names.length];
+		for (int x = 0; x < names.length; x++) {
+			if (names[x] == null) {
+				return null;
+			}
+			elements[x] = new RelativePathElement(Identifiers.HierarchicalReferences, false, true, names[x]);
+		}
+		return new BrowsePath(start, new RelativePath(elements));
+	}
+
+	//A name in a namespace of the server, null if the server doesn't have the namespace.
+	private static QualifiedName name(NamespaceTable table, String namespaceUri, String name) {
+		int index = table.getIndex(namespaceUri);
+		return index < 0 ? null : new QualifiedName(index, name);
+	}
+
+	@Override
+	public String toString() {
+		return String.format("%d servers cached, %d hits, %d translate requests, %d browses, %d invalidations",
+				entries.size(), hits.get(), translateRequests.get(), browses.get(), invalidations.get());
+	}
+}
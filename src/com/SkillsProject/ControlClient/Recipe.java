@@ -0,0 +1,126 @@
+/* A product recipe: the skills that make one product and the order they have to run in.
+ *
+ * Every step starts a skill of one device server. A step can name the steps it has to wait for, and steps that
+ * don't wait for each other run at the same time. The steps form a directed acyclic graph, which is checked when
+ * the recipe is built. Recipes are read from a recipe file by RecipeBook and run by RecipeEngine.
+ */
+
+package com.SkillsProject.ControlClient;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+public final class Recipe {
+	//A skill to start as part of the recipe.
+	public static final class Step {
+		public final String id;
+		//The number of the device server in the control client, as entered at startup.
+		public final int server;
+		//The device set of the skill on a combined server, e.g. Belt_1. Empty to use whichever device set has the skill.
+		public final String deviceSet;
+		//The skill as the PLC knows it, e.g. BeltSensPause.
+		public final String skill;
+		//Passed to the Start method of the skill.
+		public final String argument;
+		//The ids of the steps that have to complete first.
+		public final List<String> after;
+
+		public Step(String id, int server, String deviceSet, String skill, String argument, List<String> after) {
+			this.id = id;
+			this.server = server;
+			this.deviceSet = deviceSet != null ? deviceSet : "";
+			this.skill = skill;
+			this.argument = argument != null ? argument : "";
+			this.after = Collections.unmodifiableList(new ArrayList<String>(after));
+		}
+
+		@Override
+		public String toString() {
+			return id + " (" + (deviceSet.isEmpty() ? "" : deviceSet + "/") + skill + " on server " + server + ")";
+		}
+	}
+
+	public final String name;
+	//The steps in the order they were listed.
+	public final List<Step> steps;
+	//For every step the indexes of the steps waiting for it, and how many steps it waits for.
+	final int[][] dependants;
+	final int[] dependencyCount;
+	//The steps nothing has to complete before.
+	final int[] roots;
+
+	//Throws IllegalArgumentException if a step waits for an unknown step, an id is used twice or the steps form a cycle.
+	public Recipe(String name, List<Step> steps) {
+		if (steps.isEmpty()) {
+			throw new IllegalArgumentException("Recipe " + name + " has no steps");
+		}
+		this.name = name;
+		this.steps = Collections.unmodifiableList(new ArrayList<Step>(steps));
+		Map<String, Integer> index = new HashMap<String, Integer>();
+		for (int x = 0; x < steps.size(); x++) {
+			if (index.put(steps.get(x).id, x) != null) {
+				throw new IllegalArgumentException("Recipe " + name + " has two steps " + steps.get(x).id);
+			}
+		}
+		List<List<Integer>> waiting = new ArrayList<List<Integer>>();
+		for (int x = 0; x < steps.size(); x++) {
+			waiting.add(new ArrayList<Integer>());
+		}
+		dependencyCount = new int[steps.size()];
+		for (int x = 0; x < steps.size(); x++) {
+			for (String after: steps.get(x).after) {
+				Integer dependency = index.get(after);
+				if (dependency == null) {
+					throw new IllegalArgumentException("Step " + steps.get(x).id + " of recipe " + name + " waits for unknown step " + after);
+				}
+				waiting.get(dependency).add(x);
+				dependencyCount[x]++;
+			}
+		}
+		dependants = new int[steps.size()][];
+		List<Integer> rootList = new ArrayList<Integer>();
+		for (int x = 0; x < steps.size(); x++) {
+			dependants[x] = waiting.get(x).stream().mapToInt(Integer::intValue).toArray();
+			if (dependencyCount[x] == 0) {
+				rootList.add(x);
+			}
+		}
+		roots = rootList.stream().mapToInt(Integer::intValue).toArray();
+		checkAcyclic();
+	}
+
+	//Removes the steps without waiting dependencies one by one. Steps left over wait for each other in a cycle.
+	private void checkAcyclic() {
+		int[] remaining = dependencyCount.clone();
+		List<Integer> free = new ArrayList<Integer>();
+		for (int root: roots) {
+			free.add(root);
+		}
+		int removed = 0;
+		while (!free.isEmpty()) {
+			int step = free.remove(free.size() - 1);
+			removed++;
+			for (int dependant: dependants[step]) {
+				if (--remaining[dependant] == 0) {
+					free.add(dependant);
+				}
+			}
+		}
+		if (removed < steps.size()) {
+			List<String> cycle = new ArrayList<String>();
+			for (int x = 0; x < steps.size(); x++) {
+				if (remaining[x] > 0) {
+					cycle.add(steps.get(x).id);
+				}
+			}
+			throw new IllegalArgumentException("The steps " + cycle + " of recipe " + name + " wait for each other");
+		}
+	}
+
+	public int size() {
+		return steps.size();
+	}
+}
@@ -0,0 +1,140 @@
+/* The recipes the control client can make, read from a recipe file.
+ *
+ * The recipe file is read from the path in the "controlclient.recipes" system property, or from the ENaS.recipes
+ * file next to the control client classes when the property isn't set. See that file for the format.
+ */
+
+package com.SkillsProject.ControlClient;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+public final class RecipeBook {
+	public static final String PROPERTY = "controlclient.recipes";
+	public static final String DEFAULT_RECIPES = "ENaS.recipes";
+
+	private final Map<String, Recipe> recipes;
+
+	public RecipeBook(Map<String, Recipe> recipes) {
+		this.recipes = Collections.unmodifiableMap(new LinkedHashMap<String, Recipe>(recipes));
+	}
+
+	//Loads the recipe file of the system property, or the default recipes.
+	public static RecipeBook load() throws IOException {
+		String path = System.getProperty(PROPERTY);
+		if (path != null) {
+			return parse(path, new String(Files.readAllBytes(Paths.get(path)), StandardCharsets.UTF_8));
+		}
+		try (InputStream in = RecipeBook.class.getResourceAsStream(DEFAULT_RECIPES)) {
+			if (in == null) {
+				throw new IOException("The default recipes " + DEFAULT_RECIPES + " were not found, set " + PROPERTY);
+			}
+			ByteArrayOutputStream content = new ByteArrayOutputStream();
+			byte[] buffer = new byte[8192];
+			for (int read = in.read(buffer); read >= 0; read = in.read(buffer)) {
+				content.write(buffer, 0, read);
+			}
+			return parse(DEFAULT_RECIPES, new String(content.toByteArray(), StandardCharsets.UTF_8));
+		}
+	}
+
+	//Parses and validates a recipe file. Mistakes in the file are reported with their line number.
+	public static RecipeBook parse(String source, String content) {
+		Map<String, Recipe> recipes = new LinkedHashMap<String, Recipe>();
+		String name = null;
+		int nameLine = 0;
+		List<Recipe.Step> steps = new ArrayList<Recipe.Step>();
+		String[] lines = content.split("\r?\n");
+		for (int x = 0; x < lines.length; x++) {
+			String line = lines[x];
+			int comment = line.indexOf('#');
+			if (comment >= 0) {
+				line = line.substring(0, comment);
+			}
+			line = line.trim();
+			if (line.isEmpty()) {
+				continue;
+			}
+			String where = source + ":" + (x+1) + ": ";
+			String[] tokens = line.split("\\s+");
+			if (tokens[0].equals("recipe")) {
+				if (tokens.length != 2) {
+					throw new IllegalArgumentException(where + "A recipe is given as \"recipe <name>\"");
+				}
+				add(recipes, name, steps, source + ":" + nameLine + ": ");
+				name = tokens[1];
+				nameLine = x+1;
+				if (recipes.containsKey(name)) {
+					throw new IllegalArgumentException(where + "Recipe " + name + " is listed twice");
+				}
+				steps = new ArrayList<Recipe.Step>();
+			} else if (tokens[0].equals("step")) {
+				if (name == null) {
+					throw new IllegalArgumentException(where + "A step has to follow a recipe line");
+				}
+				steps.add(step(tokens, where));
+			} else {
+				throw new IllegalArgumentException(where + "Unknown line " + tokens[0]);
+			}
+		}
+		add(recipes, name, steps, source + ":" + nameLine + ": ");
+		return new RecipeBook(recipes);
+	}
+
+	//step <id> <server> <skill> [after=<id>,...] [arg=<argument>] [set=<device set>]
+	private static Recipe.Step step(String[] tokens, String where) {
+		if (tokens.length < 4) {
+			throw new IllegalArgumentException(where + "A step is given as \"step <id> <server> <skill> [after=<id>,...] [arg=<argument>] [set=<device set>]\"");
+		}
+		int server;
+		try {
+			server = Integer.parseInt(tokens[2]);
+		} catch (NumberFormatException e) {
+			throw new IllegalArgumentException(where + "The server of step " + tokens[1] + " is not a number: " + tokens[2]);
+		}
+		List<String> after = new ArrayList<String>();
+		String argument = "";
+		String deviceSet = "";
+		for (int x = 4; x < tokens.length; x++) {
+			if (tokens[x].startsWith("after=")) {
+				after.addAll(Arrays.asList(tokens[x].substring(6).split(",")));
+			} else if (tokens[x].startsWith("arg=")) {
+				argument = tokens[x].substring(4);
+			} else if (tokens[x].startsWith("set=")) {
+				deviceSet = tokens[x].substring(4);
+			} else {
+				throw new IllegalArgumentException(where + "Unknown option " + tokens[x]);
+			}
+		}
+		return new Recipe.Step(tokens[1], server, deviceSet, tokens[3], argument, after);
+	}
+
+	private static void add(Map<String, Recipe> recipes, String name, List<Recipe.Step> steps, String where) {
+		if (name == null) {
+			return;
+		}
+		try {
+			recipes.put(name, new Recipe(name, steps));
+		} catch (IllegalArgumentException e) {
+			throw new IllegalArgumentException(where + e.getMessage());
+		}
+	}
+
+	public Recipe get(String name) {
+		return recipes.get(name);
+	}
+	public Set<String> names() {
+		return recipes.keySet();
+	}
+}
@@ -0,0 +1,318 @@
+/* Runs product orders of the recipes in a RecipeBook on the device servers.
+ *
+ * Every order is one product made by one recipe, and any number of orders can run at once. A step of an order
+ * becomes ready when the steps it waits for have completed, and is then queued on its device, the skill of a
+ * device set of a server it starts. A step that names no device set uses the skill of whichever device set has it,
+ * which is only unambiguous when one device set of the server has the skill. Each device runs one step at a time and takes the queued steps of all orders in the order
+ * they became ready, so steps on different devices run in parallel and the line is only limited by the devices.
+ *
+ * The engine is advanced by the skill events of the device servers, passed on by the master control program:
+ *   Completed     the running step is done and the steps waiting for it become ready. The skill becomes Ready
+ *                 again by itself, a reset is only accepted from Stopped.
+ *   Ready         the skill can take the next queued step.
+ *   Stopped       the running step was stopped, its order fails. The skill is reset.
+ *   CallReturn    a failed Start fails the order of the running step, the skill takes the next step.
+ * The skill methods are called on a small thread pool so a slow server never holds up the events of the others.
+ * A failed order runs its already started steps to the end but starts no new ones.
+ */
+
+package com.SkillsProject.ControlClient;
+
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.SkillsProject.Common.CallResult;
+import com.SkillsProject.Common.CallType;
+import com.SkillsProject.Common.SkillState;
+
+public class RecipeEngine {
+	private static final Logger logger = LoggerFactory.getLogger(RecipeEngine.class);
+
+	//Calls a skill method of a device server.
+	public interface SkillInvoker {
+		void invoke(int server, String deviceSet, String skill, CallType callType, String argument) throws Exception;
+	}
+
+	private enum DeviceState {
+		//Can start the next queued step.
+		IDLE,
+		//Running a step until the skill reports Completed or Stopped.
+		RUNNING,
+		//Done with a step, waiting for the skill to report Ready.
+		FINISHING
+	}
+
+	//A product being made.
+	private static final class Order {
+		final long id;
+		final Recipe recipe;
+		//For every step the number of steps it still waits for.
+		final int[] waiting;
+		final long startNanos = System.nanoTime();
+		int completed = 0;
+		boolean failed = false;
+
+		Order(long id, Recipe recipe) {
+			this.id = id;
+			this.recipe = recipe;
+			this.waiting = recipe.dependencyCount.clone();
+		}
+	}
+
+	//A ready step of an order.
+	private static final class Task {
+		final Order order;
+		final int step;
+
+		Task(Order order, int step) {
+			this.order = order;
+			this.step = step;
+		}
+
+		Recipe.Step step() {
+			return order.recipe.steps.get(step);
+		}
+	}
+
+	//A skill of a device set of a device server and the steps queued on it.
+	private static final class Device {
+		final int server;
+		//Empty when the recipe doesn't name the device set.
+		final String deviceSet;
+		final String skill;
+		final ArrayDeque<Task> queue = new ArrayDeque<Task>();
+		DeviceState state = DeviceState.IDLE;
+		Task running = null;
+
+		Device(int server, String deviceSet, String skill) {
+			this.server = server;
+			this.deviceSet = deviceSet;
+			this.skill = skill;
+		}
+	}
+
+	private final RecipeBook book;
+	private final SkillInvoker invoker;
+	private final ExecutorService calls;
+	private final Map<String, Device> devices = new HashMap<String, Device>();
+	private final Map<Long, Order> orders = new HashMap<Long, Order>();
+	private long nextOrderId = 1;
+	private long completedOrders = 0;
+	private long failedOrders = 0;
+	private long completedOrderNanos = 0;
+	private long firstOrderNanos = 0;
+
+	public RecipeEngine(RecipeBook book, SkillInvoker invoker, int callThreads) {
+		this.book = book;
+		this.invoker = invoker;
+		this.calls = Executors.newFixedThreadPool(Math.max(1, callThreads), runnable -> {
+			Thread thread = new Thread(runnable, "RecipeCalls");
+			thread.setDaemon(true);
+			return thread;
+		});
+	}
+
+	public RecipeBook recipes() {
+		return book;
+	}
+
+	//Starts an order of a recipe. Returns the order's id. Throws IllegalArgumentException for unknown recipes.
+	public synchronized long submit(String recipeName) {
+		Recipe recipe = book.get(recipeName);
+		if (recipe == null) {
+			throw new IllegalArgumentException("Unknown recipe " + recipeName + ", the recipes are " + book.names());
+		}
+		Order order = new Order(nextOrderId++, recipe);
+		if (firstOrderNanos == 0) {
+			firstOrderNanos = order.startNanos;
+		}
+		orders.put(order.id, order);
+		logger.info("Order " + order.id + " of " + recipe.name + " started");
+		for (int root: recipe.roots) {
+			ready(order, root);
+		}
+		return order.id;
+	}
+
+	//A skill of a device set of a server reported a new state.
+	public synchronized void onStateChange(int server, String deviceSet, String skill, SkillState state) {
+		Device device = device(server, deviceSet, skill);
+		if (device == null) {
+			return;
+		}
+		switch (state) {
+			case COMPLETED:
+				if (device.state == DeviceState.RUNNING) {
+					Task task = finish(device, false);
+					complete(task);
+				}
+				break;
+			case STOPPED:
+				if (device.state == DeviceState.RUNNING) {
+					Task task = finish(device, true);
+					fail(task.order, "step " + task.step() + " was stopped");
+				}
+				break;
+			case READY:
+				if (device.state == DeviceState.FINISHING) {
+					device.state = DeviceState.IDLE;
+					dispatch(device);
+				}
+				break;
+			default:
+				break;
+		}
+	}
+
+	//A skill of a device set of a server reported the result of a call.
+	public synchronized void onCallReturn(int server, String deviceSet, String skill, String callType, String callResult) {
+		Device device = device(server, deviceSet, skill);
+		if (device != null && CallType.START.name().equals(callType) && CallResult.FAILED.name().equals(callResult)) {
+			startFailed(device, device.running, "the PLC refused the start");
+		}
+	}
+
+	//Marks the running step of a device finished, resetting the skill if it was stopped.
+	private Task finish(Device device, boolean reset) {
+		Task task = device.running;
+		device.running = null;
+		device.state = DeviceState.FINISHING;
+		if (reset) {
+			call(device, CallType.RESET, "", null);
+		}
+		return task;
+	}
+
+	private synchronized void startFailed(Device device, Task task, String reason) {
+		if (task == null || device.running != task) {
+			return;
+		}
+		device.running = null;
+		device.state = DeviceState.IDLE;
+		fail(task.order, "step " + task.step() + " could not start: " + reason);
+		dispatch(device);
+	}
+
+	//Queues a step on its device.
+	private void ready(Order order, int step) {
+		Recipe.Step recipeStep = order.recipe.steps.get(step);
+		String key = key(recipeStep.server, recipeStep.deviceSet, recipeStep.skill);
+		Device device = devices.get(key);
+		if (device == null) {
+			device = new Device(recipeStep.server, recipeStep.deviceSet, recipeStep.skill);
+			devices.put(key, device);
+		}
+		device.queue.add(new Task(order, step));
+		dispatch(device);
+	}
+
+	//Starts the next queued step of a free device, skipping the steps of failed orders.
+	private void dispatch(Device device) {
+		while (device.state == DeviceState.IDLE && !device.queue.isEmpty()) {
+			Task task = device.queue.poll();
+			if (task.order.failed) {
+				continue;
+			}
+			device.state = DeviceState.RUNNING;
+			device.running = task;
+			call(device, CallType.START, task.step().argument, task);
+		}
+	}
+
+	private void call(Device device, CallType callType, String argument, Task task) {
+		calls.execute(() -> {
+			try {
+				invoker.invoke(device.server, device.deviceSet, device.skill, callType, argument);
+			} catch (Exception e) {
+				if (callType == CallType.START) {
+					startFailed(device, task, e.toString());
+				} else {
+					logger.warn("Calling " + callType + " on " + device.skill + " of server " + device.server + " failed: " + e);
+				}
+			}
+		});
+	}
+
+	//A step of an order completed, the steps waiting only for it become ready.
+	private void complete(Task task) {
+		Order order = task.order;
+		if (order.failed) {
+			return;
+		}
+		order.completed++;
+		for (int dependant: order.recipe.dependants[task.step]) {
+			if (--order.waiting[dependant] == 0) {
+				ready(order, dependant);
+			}
+		}
+		if (order.completed == order.recipe.size()) {
+			orders.remove(order.id);
+			completedOrders++;
+			long nanos = System.nanoTime() - order.startNanos;
+			completedOrderNanos += nanos;
+			logger.info(String.format("Order %d of %s completed in %.1f s", order.id, order.recipe.name, nanos / 1e9));
+		}
+	}
+
+	private void fail(Order order, String reason) {
+		if (order.failed) {
+			return;
+		}
+		order.failed = true;
+		orders.remove(order.id);
+		failedOrders++;
+		System.out.println("Order " + order.id + " of " + order.recipe.name + " failed: " + reason);
+		logger.warn("Order " + order.id + " of " + order.recipe.name + " failed: " + reason);
+	}
+
+	//The device of an event. Events of a skill no step names the device set of go to the device without one.
+	private Device device(int server, String deviceSet, String skill) {
+		Device device = devices.get(key(server, deviceSet, skill));
+		if (device == null && !deviceSet.isEmpty()) {
+			device = devices.get(key(server, "", skill));
+		}
+		return device;
+	}
+
+	private static String key(int server, String deviceSet, String skill) {
+		return server + ":" + deviceSet + ":" + skill;
+	}
+
+	public synchronized int activeOrders() {
+		return orders.size();
+	}
+	public synchronized long completedOrders() {
+		return completedOrders;
+	}
+	public synchronized long failedOrders() {
+		return failedOrders;
+	}
+	//Mean time from starting an order to its last step completing.
+	public synchronized double meanOrderMillis() {
+		return completedOrders == 0 ? 0 : completedOrderNanos / (completedOrders * 1e6);
+	}
+	//Completed products per hour since the first order was started.
+	public synchronized double productsPerHour() {
+		if (firstOrderNanos == 0) {
+			return 0;
+		}
+		double hours = (System.nanoTime() - firstOrderNanos) / 3.6e12;
+		return hours <= 0 ? 0 : completedOrders / hours;
+	}
+
+	@Override
+	public synchronized String toString() {
+		return String.format("%d orders running, %d completed, %d failed, %.0f products per hour", orders.size(),
+				completedOrders, failedOrders, productsPerHour());
+	}
+
+	public void close() {
+		calls.shutdownNow();
+	}
+}
@@ -0,0 +1,31 @@
+/* How connecting to one device server and subscribing to its events went, for the startup report of the control client.
+ */
+
+package com.SkillsProject.ControlClient;
+
+class ServerSetup {
+	final int server;
+	final String address;
+	double connectMillis = 0;
+	double subscribeMillis = 0;
+	//Null while the setup is running or when it succeeded.
+	String error = null;
+	volatile boolean done = false;
+
+	ServerSetup(int server, String address) {
+		this.server = server;
+		this.address = address;
+	}
+
+	boolean succeeded() {
+		return done && error == null;
+	}
+
+	@Override
+	public String toString() {
+		//Read done first, the other fields are only settled once it's set.
+		String result = !done ? "still setting up" : error != null ? "failed: " + error : "ok";
+		return String.format("%2d %-40s connect %8.1f ms, subscribe %8.1f ms, %s", server, address, connectMillis,
+				subscribeMillis, result);
+	}
+}
@@ -0,0 +1,113 @@
+/* The typed fields of a skill event received from a device server.
+ *
+ * The event filter of the control client selects the MyStateEvent fields (see SkillEventNames.FIELD_NAMES) after the
+ * base event fields, so the event kind, skill, state and call result are read straight from the field values.
+ * Servers that don't publish the typed fields leave them empty, in which case the message text is parsed instead.
+ * A state without a number, e.g. "Resetting", is passed on with the state text the PLC reported, taken from the
+ * MyStateText field or, from servers without it, from the message text.
+ * The device set tells apart the skills of the same name on a combined server. It's empty from servers without it.
+ */
+
+package com.SkillsProject.ControlClient;
+
+import com.SkillsProject.Common.SkillEventKind;
+import com.SkillsProject.Common.SkillState;
+import com.prosysopc.ua.stack.builtintypes.LocalizedText;
+import com.prosysopc.ua.stack.builtintypes.Variant;
+
+public class SkillEventFields {
+	public final SkillEventKind kind;
+	public final String machineName;
+	//The device set of the skill, empty if the server doesn't publish it.
+	public final String deviceSet;
+	public final SkillState state;
+	//The state as the PLC reported it, empty if the server doesn't publish it.
+	public final String stateText;
+	public final String callType;
+	public final String callResult;
+	public final long sequenceNumber;
+	//The message text of the event, only parsed when the typed fields are missing.
+	private final Variant message;
+
+	private SkillEventFields(SkillEventKind kind, String machineName, String deviceSet, SkillState state, String stateText,
+			String callType, String callResult, long sequenceNumber, Variant message) {
+		this.kind = kind;
+		this.machineName = machineName;
+		this.deviceSet = deviceSet;
+		this.state = state;
+		this.stateText = stateText;
+		this.callType = callType;
+		this.callResult = callResult;
+		this.sequenceNumber = sequenceNumber;
+		this.message = message;
+	}
+
+	//Reads the typed fields starting at the offset. The message is the Message field of the base event fields.
+	public static SkillEventFields of(Variant[] eventFields, int offset, Variant message) {
+		return new SkillEventFields(SkillEventKind.of((int) number(eventFields, offset)), string(eventFields, offset+1),
+				string(eventFields, offset+7), SkillState.of((int) number(eventFields, offset+2)), string(eventFields, offset+6),
+				string(eventFields, offset+3), string(eventFields, offset+4), number(eventFields, offset+5), message);
+	}
+
+	//The name of the state, the reported text for a state without a number.
+	public String stateName() {
+		if (state != SkillState.UNKNOWN) {
+			return state.displayName;
+		}
+		if (!stateText.isEmpty()) {
+			return stateText;
+		}
+		//The message text of a state change is StateChange;skill;state.
+		String[] fields = messageText().split(";");
+		return fields.length > 2 ? fields[2] : state.displayName;
+	}
+
+	//The event as the message array the master control program handles, e.g. {StateChange, BeltSensPause, Executing, Belt_1}.
+	//The device set comes last so the fields before it are the same as in the message text.
+	public String[] toMessage() {
+		switch (kind) {
+			case STATE_CHANGE:
+				return new String[] {kind.messagePrefix, machineName, stateName(), deviceSet};
+			case CALL_RETURN:
+				return new String[] {kind.messagePrefix, machineName, callType, callResult, deviceSet};
+			default:
+				return messageText().replaceAll("[() ]", "").split(";");
+		}
+	}
+
+	private String skillText() {
+		return deviceSet.isEmpty() ? machineName : deviceSet + "/" + machineName;
+	}
+	private String messageText() {
+		if (message == null || message.getValue() == null) {
+			return "";
+		}
+		Object value = message.getValue();
+		return value instanceof LocalizedText ? ((LocalizedText) value).getText() : value.toString();
+	}
+
+	private static long number(Variant[] fields, int index) {
+		if (index >= fields.length || fields[index] == null || !(fields[index].getValue() instanceof Number)) {
+			return 0;
+		}
+		return ((Number) fields[index].getValue()).longValue();
+	}
+	private static String string(Variant[] fields, int index) {
+		if (index >= fields.length || fields[index] == null || fields[index].getValue() == null) {
+			return "";
+		}
+		return fields[index].getValue().toString();
+	}
+
+	@Override
+	public String toString() {
+		switch (kind) {
+			case STATE_CHANGE:
+				return "#" + sequenceNumber + " " + skillText() + " state " + stateName();
+			case CALL_RETURN:
+				return "#" + sequenceNumber + " " + skillText() + " " + callType + " returned " + callResult;
+			default:
+				return "#" + sequenceNumber + " " + messageText();
+		}
+	}
+}
@@ -1,7 +1,5 @@
 package com.SkillsProject.ControlClient;
 
-import java.util.Arrays;
-
 import com.prosysopc.ua.ServiceException;
 import com.prosysopc.ua.client.AddressSpaceException;
 import com.prosysopc.ua.client.MonitoredEventItem;
@@ -25,12 +23,15 @@ public class controlEventListener implements MonitoredEventItemListener{
 	public void onEvent(MonitoredEventItem monitoredItem, Variant[] eventFields) {
 		//System.out.println("LISTENER - Event Listened to: " + monitoredItem.getNodeId() + ", length: " + eventFields.length);
 		try {
+			//A server that changed its model may have moved the nodes the client has cached.
+			if (eventFields.length > 0 && NodeResolutionCache.isModelChange(eventFields[0])) {
+				base.resolutions.invalidate(base.multiClientMap.get(base.serverOf(monitoredItem)));
+			}
 			if(autoRunOn) {
 				base.MCP.passEvent(monitoredItem, eventFields);
 			}
 			else {
-				String[] message = eventFields[1].toString().replaceAll("[() ]", "").split(";");
-				System.out.println("Message: " + Arrays.toString(message));
+				System.out.println("Event: " + SkillEventFields.of(eventFields, base.skillEventFieldOffset, eventFields[1]));
 			}
 		} catch (Exception e) {
 			System.out.println("Catch in listener. Something wrong. " + e);
@@ -8,6 +8,11 @@ import com.prosysopc.ua.stack.core.ServerState;
 import com.prosysopc.ua.stack.core.ServerStatusDataType;
 
 public class controlServerStatusListener implements ServerStatusListener {
+	private final NodeResolutionCache resolutions;
+
+	public controlServerStatusListener(NodeResolutionCache resolutions) {
+		this.resolutions = resolutions;
+	}
 
 	@Override
 	public void onShutdown(UaClient arg0, long arg1, LocalizedText arg2) {
@@ -17,8 +22,10 @@ public class controlServerStatusListener implements ServerStatusListener {
 
 	@Override
 	public void onStateChange(UaClient arg0, ServerState arg1, ServerState arg2) {
-		// TODO Auto-generated method stub
-
+		//A server coming back up may have restarted with another address space, so its cached nodes are dropped.
+		if (arg2 == ServerState.Running && arg1 != ServerState.Running) {
+			resolutions.invalidate(arg0);
+		}
 	}
 
 	@Override
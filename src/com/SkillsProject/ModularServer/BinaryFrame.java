@@ -0,0 +1,174 @@
+/* Binary framing of the Skill Bridge protocol.
+ *
+ * A PLC can opt into binary frames by listing BINARY as a feature in its text INIT packet. Once the server has
+ * answered with RET;OK;BINARY both sides send binary frames only. PLCs that don't ask for it keep using the text lines.
+ *
+ * Every frame starts with a two byte big endian length of the rest of the frame, followed by the opcode and the skill:
+ *   [u16 length][u8 opcode][u8 name length][name]
+ * The payload after the skill depends on the opcode:
+ *   INIT     nothing
+ *   RET      [u8 result]
+ *   CALL     [u8 call type][i32 request id][u8 parameter tag][parameter]
+ *   CALLRET  [u8 call type][u8 result][i32 request id]
+ *   UPDATE   [u8 state length][state]
+ * The opcode, call type and result are the ordinals of PacketType, CallType and CallResult, so the order of
+ * those enum constants is part of the protocol. A result of 0xFF means the PLC didn't report a known result.
+ * Request ids are always sent in binary mode.
+ *
+ * The start parameter of a CALL is typed. The tag tells how the value that follows is encoded:
+ *   NONE     nothing
+ *   STRING   [u16 length][UTF-8 bytes]
+ *   INT32    [i32]
+ *   INT64    [i64]
+ *   DOUBLE   [f64]
+ *   BOOLEAN  [u8 0 or 1]
+ */
+
+package com.SkillsProject.ModularServer;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+import com.SkillsProject.Common.CallResult;
+import com.SkillsProject.Common.CallType;
+
+public final class BinaryFrame {
+	//The INIT feature used to ask for binary frames.
+	public static final String FEATURE = "BINARY";
+	//Size of the length prefix.
+	public static final int HEADER_SIZE = 2;
+	//The largest frame body the length prefix can describe.
+	public static final int MAX_BODY = 0xFFFF;
+	//Result byte used when the result isn't a known call result.
+	public static final int UNKNOWN_RESULT = 0xFF;
+
+	//Parameter tags
+	public static final byte PARAM_NONE = 0;
+	public static final byte PARAM_STRING = 1;
+	public static final byte PARAM_INT32 = 2;
+	public static final byte PARAM_INT64 = 3;
+	public static final byte PARAM_DOUBLE = 4;
+	public static final byte PARAM_BOOLEAN = 5;
+
+	private BinaryFrame() {
+	}
+
+	//Returns the length of the frame body starting after the length prefix at buf[pos], or -1 if the prefix isn't complete yet.
+	public static int bodyLength(byte[] buf, int pos, int limit) {
+		if (limit - pos < HEADER_SIZE) {
+			return -1;
+		}
+		return ((buf[pos] & 0xFF) << 8) | (buf[pos+1] & 0xFF);
+	}
+
+	public static ByteBuffer init(String name) {
+		byte[] nameBytes = name(name);
+		ByteBuffer frame = start(PacketType.INIT, nameBytes, 0);
+		return finish(frame);
+	}
+
+	public static ByteBuffer ret(String name, boolean ok) {
+		byte[] nameBytes = name(name);
+		ByteBuffer frame = start(PacketType.RET, nameBytes, 1);
+		frame.put((byte) (ok ? CallResult.OK.ordinal() : CallResult.FAILED.ordinal()));
+		return finish(frame);
+	}
+
+	//The parameter is encoded according to its type, anything that isn't a string, number or boolean is sent as its string form.
+	public static ByteBuffer call(String skillName, CallType callType, int requestId, Object parameter) {
+		byte[] nameBytes = name(skillName);
+		byte[] stringParam = null;
+		int paramSize;
+		if (parameter == null) {
+			paramSize = 0;
+		}
+		else if (parameter instanceof Integer || parameter instanceof Short || parameter instanceof Byte) {
+			paramSize = 4;
+		}
+		else if (parameter instanceof Long) {
+			paramSize = 8;
+		}
+		else if (parameter instanceof Double || parameter instanceof Float) {
+			paramSize = 8;
+		}
+		else if (parameter instanceof Boolean) {
+			paramSize = 1;
+		}
+		else {
+			stringParam = parameter.toString().getBytes(StandardCharsets.UTF_8);
+			paramSize = 2 + stringParam.length;
+		}
+		ByteBuffer frame = start(PacketType.CALL, nameBytes, 1 + 4 + 1 + paramSize);
+		frame.put((byte) callType.ordinal());
+		frame.putInt(requestId);
+		if (parameter == null) {
+			frame.put(PARAM_NONE);
+		}
+		else if (stringParam != null) {
+			frame.put(PARAM_STRING);
+			frame.putShort((short) stringParam.length);
+			frame.put(stringParam);
+		}
+		else if (paramSize == 4) {
+			frame.put(PARAM_INT32);
+			frame.putInt(((Number) parameter).intValue());
+		}
+		else if (parameter instanceof Long) {
+			frame.put(PARAM_INT64);
+			frame.putLong((Long) parameter);
+		}
+		else if (parameter instanceof Boolean) {
+			frame.put(PARAM_BOOLEAN);
+			frame.put((byte) ((Boolean) parameter ? 1 : 0));
+		}
+		else {
+			frame.put(PARAM_DOUBLE);
+			frame.putDouble(((Number) parameter).doubleValue());
+		}
+		return finish(frame);
+	}
+
+	public static ByteBuffer callReturn(String skillName, CallType callType, CallResult result, int requestId) {
+		byte[] nameBytes = name(skillName);
+		ByteBuffer frame = start(PacketType.CALLRET, nameBytes, 1 + 1 + 4);
+		frame.put((byte) callType.ordinal());
+		frame.put((byte) (result != null ? result.ordinal() : UNKNOWN_RESULT));
+		frame.putInt(requestId);
+		return finish(frame);
+	}
+
+	public static ByteBuffer update(String skillName, String state) {
+		byte[] nameBytes = name(skillName);
+		byte[] stateBytes = name(state);
+		ByteBuffer frame = start(PacketType.UPDATE, nameBytes, 1 + stateBytes.length);
+		frame.put((byte) stateBytes.length);
+		frame.put(stateBytes);
+		return finish(frame);
+	}
+
+	//Allocates the frame and writes the length prefix, opcode and skill name.
+	private static ByteBuffer start(PacketType type, byte[] nameBytes, int payloadSize) {
+		int body = 1 + 1 + nameBytes.length + payloadSize;
+		if (body > MAX_BODY) {
+			throw new IllegalArgumentException("Skill Bridge frame too long: " + body + " bytes");
+		}
+		ByteBuffer frame = ByteBuffer.allocate(HEADER_SIZE + body);
+		frame.putShort((short) body);
+		frame.put((byte) type.ordinal());
+		frame.put((byte) nameBytes.length);
+		frame.put(nameBytes);
+		return frame;
+	}
+	private static ByteBuffer finish(ByteBuffer frame) {
+		frame.flip();
+		return frame;
+	}
+	//Names and states are ASCII and limited to 255 bytes by their length byte.
+	private static byte[] name(String name) {
+		byte[] bytes = name.getBytes(StandardCharsets.US_ASCII);
+		if (bytes.length > 255) {
+			throw new IllegalArgumentException("Name too long for a Skill Bridge frame: " + name);
+		}
+		return bytes;
+	}
+}
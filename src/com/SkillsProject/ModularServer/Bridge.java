@@ -7,334 +7,608 @@
  * structures were modified. Basic structure is similar otherwise.
  * 
  * The Skill Bridge module handles communication with the IEC-61499 implementatation running on the PLC via TCP packets.
- * The Skill Bridge handles sending messages via writing into the outbound buffer while parsing
- * messages from the server by reading from a buffered reader. 
+ * The Skill Bridge handles sending messages by queueing them for the TCP IO Server's selector loop while parsing
+ * messages from the PLC as the selector loop reads them from the socket channel.
+ * When the TCP IO Server hands over a blocking channel the bridge is served by its own reader thread instead, see
+ * serve(), and packets are written directly by the sending thread.
+ * One Skill Bridge exists per connected PLC and is registered under the device set it serves.
  * 
  * Public methods invoked by other server components handle sending messages to the server.
- * Parsing packets from the server invokes methods from the Node Manager.
+ * Parsing packets from the server invokes methods from the Node Manager. State updates and call return events
+ * are passed to the node manager's SkillStateIngest which applies them to the address space on its own thread.
+ * When its backlog is full the bridge pauses reading from the PLC until the ingest stage has caught up.
+ * 
+ * Packets are lines of semicolon separated fields:
+ *   name;INIT[;features]          -> name;RET;OK[;features]
+ *   name;CALL;type;param[;id]     <- name;CALLRET;type;result[;id]
+ *   name;UPDATE;state;returnData
+ * The request id is only sent when the PLC lists REQID as a feature in its INIT packet.
+ * This lets several calls be in flight over one connection, each matched to its own CALLRET.
+ * A PLC listing BINARY as a feature switches the connection to length prefixed binary frames after the RET packet.
+ * Binary frames always carry request ids and send typed start parameters, see BinaryFrame.
+ *
+ * The method listener sends skill calls with beginSkillCall, which returns once the call is sent. The CALLRET or the
+ * call timeout completes the future of the call later. The listener waits for it unless asyncSkillCalls is on, and
+ * the send functions below wait for the answer for other callers that want it.
  */
 
 package com.SkillsProject.ModularServer;
 
-import java.io.BufferedReader;
 import java.io.IOException;
-import java.io.InputStreamReader;
-import java.io.PrintWriter;
-import java.net.Socket;
-import java.util.Arrays;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
 import java.util.Map;
-import java.util.Map.Entry;
+import java.util.Queue;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import com.SkillsProject.Common.CallResult;
+import com.SkillsProject.Common.CallType;
+import com.SkillsProject.Common.SkillState;
 import com.prosysopc.ua.StatusException;
-import com.prosysopc.ua.nodes.UaNode;
-import com.prosysopc.ua.nodes.UaReference;
 import com.prosysopc.ua.server.nodes.PlainProperty;
-import com.prosysopc.ua.server.nodes.UaObjectNode;
 import com.prosysopc.ua.stack.core.StatusCodes;
 
-public class Bridge extends Thread {
+public class Bridge {
+	//Size of the inbound buffer. A single packet must fit in it.
+	private static final int BUFFER_SIZE = 8192;
+	
 	//variables for the bridge object.
-	private final Socket nxtSocket;
+	private final SocketChannel channel;
 	private final ModularNodeManager nodeManager;
-	private PrintWriter outBuffer;
-	private BufferedReader inBuffer;
-	private Boolean operateBridge = true;
-	private int startRet = 0;
-	private int suspendRet = 0;
-	private int resumeRet = 0;
-	private int stopRet = 0;
-	private int resetRet = 0;
+	private final String deviceSet;
+	private final TcpIOServer ioServer;
+	private SelectionKey key;
+	//True when the bridge has its own reader thread and writes directly to the channel.
+	private final boolean blocking;
+	private final Object writeLock = new Object();
+	private final ByteBuffer inBuffer = ByteBuffer.allocate(BUFFER_SIZE);
+	private final SkillBridgeParser parser = new SkillBridgeParser();
+	private final Queue<ByteBuffer> outQueue = new ConcurrentLinkedQueue<ByteBuffer>();
+	private volatile boolean operateBridge = true;
+	//Calls waiting for a CALLRET from the PLC, keyed by request id.
+	private final Map<Integer, PendingCall> pendingCalls = new ConcurrentHashMap<Integer, PendingCall>();
+	private final AtomicInteger nextRequestId = new AtomicInteger();
+	private volatile boolean requestIdsEnabled = false;
+	//Set once the PLC has negotiated binary frames. Guarded by outQueue when switching.
+	private volatile boolean binaryFrames = false;
+	private static volatile long defaultCallTimeoutMillis = 10000;
+	private volatile long callTimeoutMillis = defaultCallTimeoutMillis;
 	
 	//Set up the logger.
 	private static Logger logger = LoggerFactory.getLogger(Bridge.class);
 	
 	
-	public Bridge(Socket socket, ModularNodeManager nodeMan) {
-		this.nxtSocket = socket;
+	public Bridge(SocketChannel channel, ModularNodeManager nodeMan, String deviceSet, TcpIOServer ioServer) {
+		this.channel = channel;
 		this.nodeManager = nodeMan;
-		this.setName("SkillBridgeThread");
-		logger.info("SkillBridge Created");
+		this.deviceSet = deviceSet;
+		this.ioServer = ioServer;
+		this.blocking = channel.isBlocking();
+		logger.info("SkillBridge Created for " + deviceSet);
+	}
+	
+	void setKey(SelectionKey key) {
+		this.key = key;
+	}
+	public String getDeviceSet() {
+		return deviceSet;
 	}
 	
-	//The main loop for the skillbridge component
-	public void run() {
-		//Logging info
-		logger.debug("Skill Bridge started");
-		
+	//Called by the TCP IO Server when the channel has data to read.
+	//Reads what is available and parses every complete line or frame. Partial packets are kept for the next read.
+	//Returns false when the PLC has closed the connection.
+	//Pauses reading afterwards if the ingest stage's backlog is full.
+	boolean onReadable() throws IOException {
+		int read = channel.read(inBuffer);
+		if (read < 0) {
+			return false;
+		}
+		inBuffer.flip();
+		byte[] bytes = inBuffer.array();
+		int pos = inBuffer.position();
+		int limit = inBuffer.limit();
+		//The mode is checked for every packet since the INIT packet switches to binary frames mid buffer.
+		while (pos < limit) {
+			int next = binaryFrames ? readFrame(bytes, pos, limit) : readLine(bytes, pos, limit);
+			if (next < 0) {
+				break;
+			}
+			pos = next;
+		}
+		inBuffer.position(pos);
+		inBuffer.compact();
+		//A line that doesn't fit into the buffer can never be completed, drop it.
+		if (!inBuffer.hasRemaining()) {
+			logger.error("Skillbridge packet too long, discarding buffered data.");
+			inBuffer.clear();
+		}
+		if (operateBridge && nodeManager.stateIngest.isSaturated()) {
+			pauseReading();
+		}
+		return operateBridge;
+	}
+	//Stops reading from the PLC until the ingest stage has drained its backlog.
+	//A selector bridge drops its read interest, which the selector thread restores on resume. A blocking bridge
+	//waits on its own reader thread.
+	private void pauseReading() throws IOException {
+		if (!blocking) {
+			key.interestOps(key.interestOps() & ~SelectionKey.OP_READ);
+			nodeManager.stateIngest.resumeWhenDrained(() -> ioServer.resumeRead(key));
+			return;
+		}
+		CountDownLatch drained = new CountDownLatch(1);
+		nodeManager.stateIngest.resumeWhenDrained(drained::countDown);
 		try {
-			//Creating the buffers
-			outBuffer = new PrintWriter(nxtSocket.getOutputStream(),true);
-			inBuffer = new BufferedReader(new InputStreamReader(nxtSocket.getInputStream()));
-			String input;
-			
-			//Core loop for the skillbridge
-			while (operateBridge) {
-				// Wait for strings and try to not break things by checking that the string
-				// isn't null. Then parse that string by splitting it and using a switch.
-				if ((input = inBuffer.readLine()) != null) {
-					String[] data = input.split(";");
-					
-					//TODO REMOVE
-					//System.out.println("operate bridge shit: " + Arrays.toString(data));
-					
-					//Parse the type of packet.
-					switch (data[1]) {
-						case "INIT":
-							if (initStuff(data[0])) {
-								outBuffer.println(data[0] + ";RET;OK");
-							}
-							else {
-								outBuffer.println(data[0] + ";RET;FAILED");
-							}
-							break;
-						case "UPDATE":
-							updateSkill(data[0], data[2], data[3]);
-							break;
-						case "CALLRET":
-							callReturn(data[0], data[2], data[3]);
-							break;
-						default:
-							System.out.println("Skillbridge invalid formatted data: " + data);
-							logger.error("Skillbridge invalid data formatting: " + data);
-							break;
-					}
-				} else {
-					logger.error("Readline returned null");
-					System.out.println("Skillbridge readline returned null");
-					nodeManager.spaceServer.close();
-					break;
+			drained.await();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("Skill bridge of " + deviceSet + " interrupted while paused");
+		}
+	}
+	
+	//Reader loop of a blocking bridge, run by its own thread until the connection closes.
+	void serve() {
+		try {
+			while (operateBridge && onReadable()) {
+			}
+			logger.info("PLC closed the connection of " + deviceSet);
+		} catch (IOException e) {
+			if (operateBridge) {
+				logger.warn("Skill bridge error on " + deviceSet + ": " + e);
+			}
+		}
+		close();
+	}
+	
+	//Parses the line starting at pos. Returns the start of the next packet, or -1 if the line isn't complete.
+	private int readLine(byte[] bytes, int pos, int limit) {
+		for (int x = pos; x < limit; x++) {
+			if (bytes[x] == '\n') {
+				int lineEnd = x;
+				if (lineEnd > pos && bytes[lineEnd-1] == '\r') {
+					lineEnd--;
 				}
+				if (lineEnd > pos && parser.parse(bytes, pos, lineEnd)) {
+					handlePacket();
+				}
+				else if (lineEnd > pos) {
+					System.out.println("Skillbridge invalid formatted data: " + parser);
+					logger.error("Skillbridge invalid data formatting: " + parser);
+				}
+				return x + 1;
+			}
+		}
+		return -1;
+	}
+	//Parses the binary frame starting at pos. Returns the start of the next packet, or -1 if the frame isn't complete.
+	//Frames can't be resynchronized, so a frame that can never fit into the buffer closes the connection.
+	private int readFrame(byte[] bytes, int pos, int limit) throws IOException {
+		int length = BinaryFrame.bodyLength(bytes, pos, limit);
+		if (length < 0) {
+			return -1;
+		}
+		if (length > BUFFER_SIZE - BinaryFrame.HEADER_SIZE) {
+			throw new IOException("Skill Bridge frame of " + length + " bytes is too long");
+		}
+		int start = pos + BinaryFrame.HEADER_SIZE;
+		if (limit - start < length) {
+			return -1;
+		}
+		if (parser.parseFrame(bytes, start, start + length)) {
+			handlePacket();
+		}
+		else {
+			System.out.println("Skillbridge invalid binary frame: " + parser);
+			logger.error("Skillbridge invalid binary frame: " + parser);
+		}
+		return start + length;
+	}
+	
+	//Handles the packet the parser has just read.
+	private void handlePacket() {
+		try {
+			//Parse the type of packet.
+			switch (parser.packetType()) {
+				case INIT:
+					initStuff(parser.skillName(), parser.field(2));
+					break;
+				case UPDATE:
+					updateSkill(parser.skillName(), parser.state());
+					break;
+				case CALLRET:
+					callReturn(parser.skillName(), parser.callType(), parser.callResult(),
+							parser.callResult() == null ? parser.field(3) : null, parser.hasRequestId(), parser.requestId());
+					break;
+				default:
+					System.out.println("Skillbridge invalid formatted data: " + parser);
+					logger.error("Skillbridge invalid data formatting: " + parser);
+					break;
 			}
-			
 		} catch (Exception e) {
-			e.printStackTrace();
-			logger.warn("Skill bridge error: " + e);
-			nodeManager.spaceServer.close();
+			logger.warn("Skill bridge error while parsing " + parser + ": " + e);
+		}
+	}
+	
+	//Called by the TCP IO Server when the channel can be written to.
+	//Returns true once the outbound queue is empty.
+	boolean onWritable() throws IOException {
+		ByteBuffer buf;
+		while ((buf = outQueue.peek()) != null) {
+			channel.write(buf);
+			if (buf.hasRemaining()) {
+				return false;
+			}
+			outQueue.poll();
 		}
+		return true;
+	}
+	
+	//Queues a packet for the PLC. The actual write is done by the selector thread, or by the caller for a blocking bridge.
+	private void send(String packet) throws IOException {
+		send(ByteBuffer.wrap((packet + System.lineSeparator()).getBytes(StandardCharsets.US_ASCII)));
+	}
+	private void send(ByteBuffer frame) throws IOException {
+		if (!operateBridge) {
+			throw new IOException("Skill bridge of " + deviceSet + " is closed");
+		}
+		if (blocking) {
+			synchronized (writeLock) {
+				while (frame.hasRemaining()) {
+					channel.write(frame);
+				}
+			}
+			return;
+		}
+		outQueue.add(frame);
+		ioServer.requestWrite(key);
 	}
 	
 	//Handles response from controller.
-	//Checks if the result succeeded or failed.
-	private void callReturn (String name, String callType, String callResult) throws StatusException {
-		nodeManager.sendEvent(name,callType,callResult);
+	//Checks if the result succeeded or failed and completes the pending call.
+	//The call is matched by the echoed request id, or by skill and call type if the PLC didn't send one.
+	//The raw result text is only given when the result isn't a known call result.
+	private void callReturn (String name, CallType callType, CallResult callResult, String rawResult,
+			boolean hasRequestId, int requestId) {
+		nodeManager.stateIngest.submitCallReturn(deviceSet, name, callType, callResult != null ? callResult.name() : rawResult);
 		//System.out.println("Parsing call return : " + name + ", " + callType + ", " + callResult+".");
-		int tmpRes = 0;
-		if (callResult.contentEquals("FAILED")) {
-			tmpRes = -1;
+		PendingCall pending = null;
+		if (hasRequestId) {
+			if (requestId < 0) {
+				logger.error("Invalid request id in call return of " + name);
+			}
+			else {
+				pending = pendingCalls.remove(requestId);
+			}
 		}
-		else if (callResult.contentEquals("OK")) {
-			tmpRes = 1;
+		else {
+			pending = findPendingCall(name, callType);
+			if (pending != null) {
+				pendingCalls.remove(pending.requestId, pending);
+			}
 		}
-		switch (callType) {
-			case "START":
-				startRet = tmpRes;
-				break;
-			case "STOP":
-				stopRet = tmpRes;
-				break;
-			case "SUSPEND":
-				suspendRet = tmpRes;
-				break;
-			case "RESUME":
-				resumeRet = tmpRes;
-				break;
-			case "RESET":
-				resetRet = tmpRes;
-				break;
-			default:
-				System.out.println("INVALID CALL TYPE: " + callType);
-				logger.error("Invalid call type return: " + callType);
-				break;
+		if (pending == null) {
+			//Also the late answer of a call that timed out.
+			logger.debug("Call return without a pending call: " + name + ", " + callType);
+			return;
+		}
+		if (callResult == CallResult.OK) {
+			pending.future.complete(true);
+		}
+		else if (callResult == CallResult.FAILED) {
+			pending.future.completeExceptionally(new StatusException("Automatic execution active. Remote control disabled.",
+					StatusCodes.Bad_RequestNotAllowed));
+		}
+		else {
+			pending.future.completeExceptionally(new StatusException("Invalid call result from PLC: " + rawResult,
+					StatusCodes.Bad_UnexpectedError));
 		}
 	}
-	//Handles initialization.
-	//Currently a stub that is unused.
-	//May be updated in the future.
-	private boolean initStuff(String name) {
-		return true;
+	//Finds the oldest pending call of a skill and call type.
+	private PendingCall findPendingCall(String skillName, CallType callType) {
+		PendingCall oldest = null;
+		for (PendingCall pending: pendingCalls.values()) {
+			if (pending.matches(skillName, callType) && (oldest == null || pending.requestId < oldest.requestId)) {
+				oldest = pending;
+			}
+		}
+		return oldest;
 	}
-	
-	//Handles updating skill object current state variable.
-	private boolean updateSkill(String name, String CurrentState, String ReturnData) {
-		try {
-			if(nodeManager.spaceSkills.containsKey(name)) {
-				nodeManager.spaceSkills.get(name).getProperties()[0].setValue(CurrentState);
+	//Handles initialization and answers it with a RET packet.
+	//The PLC can list optional protocol features after the INIT keyword. The RET lists the features that were enabled.
+	//REQID: the PLC echoes the request id of a call back in its CALLRET.
+	//BINARY: both sides use binary frames after the RET packet. Binary frames always carry request ids.
+	//An INIT frame sent in binary mode keeps the connection in binary mode.
+	private void initStuff(String name, String features) throws IOException {
+		if (parser.isBinary()) {
+			send(BinaryFrame.ret(name, true));
+			logger.info("Skill bridge of " + deviceSet + " initialized by " + name + " in binary mode");
+			return;
+		}
+		boolean requestIds = false;
+		boolean binary = false;
+		if (features != null) {
+			for (String feature: features.split(",")) {
+				if (feature.equals("REQID")) {
+					requestIds = true;
+				}
+				else if (feature.equals(BinaryFrame.FEATURE)) {
+					binary = true;
+				}
 			}
-			nodeManager.sendEvent(name,CurrentState);
-		} catch (StatusException e) {
-			System.out.println("Issue with updating skill state.");
-			e.printStackTrace();
 		}
+		String enabled = binary ? ";REQID," + BinaryFrame.FEATURE : requestIds ? ";REQID" : "";
+		//Calls sent while switching modes must be encoded in the mode the PLC expects when they arrive.
+		synchronized (outQueue) {
+			send(name + ";RET;OK" + enabled);
+			requestIdsEnabled = requestIds || binary;
+			binaryFrames = binary;
+		}
+		logger.info("Skill bridge of " + deviceSet + " initialized by " + name + ", request ids: " + requestIdsEnabled
+				+ ", binary frames: " + binaryFrames);
+	}
+	
+	//Handles updating skill object current state variable.
+	//The state is written and the event sent by the ingest stage so the selector thread doesn't wait for the address space.
+	private boolean updateSkill(String name, String CurrentState) {
+		nodeManager.stateIngest.submitState(deviceSet, name, CurrentState);
 		return true;
 	}
 	
 	//Handles shutting down the Skillbridge
 	public void close() {
 		try {
-			nxtSocket.close();
-			inBuffer.close();
-			outBuffer.close();
 			operateBridge = false;
+			nodeManager.unregisterBridge(deviceSet, this);
+			if (key != null) {
+				key.cancel();
+			}
+			channel.close();
+			outQueue.clear();
 		} catch (IOException e) {
 			logger.error("Error closing down skillbridge");
 			logger.error("Error closing skillbridge: {}", e.getMessage());
 		}
+		failPendingCalls();
 	}
 	
-	//Functions for handling sending specific commands to trigger various transitions
-	public boolean sendStart(String skillName, String startParameter) throws Exception {
-		try {
-			//Reset wait for return
-			startRet = 0;
-			if(!this.getSubObject(nodeManager.spaceSkills.get(skillName),
-					skillName+"_SkillState").getCurrentValue().contains("Ready")) {
-				System.out.println("The skill is in an invalid state:" + this.getSubObject(nodeManager.spaceSkills.get(skillName),
-						skillName+"_SkillState").getCurrentValue());
-				return false;
+	//Fails every call still waiting for its CALLRET. The PLC can't answer them anymore once the connection is gone,
+	//so the method calls waiting on them return right away instead of waiting for their timeout.
+	private void failPendingCalls() {
+		int failed = 0;
+		for (PendingCall pending: pendingCalls.values()) {
+			if (pending.future.completeExceptionally(new StatusException("The connection to the PLC of " + deviceSet
+					+ " closed before the " + pending.callType + " call of " + pending.skillName + " was answered.",
+					StatusCodes.Bad_CommunicationError))) {
+				failed++;
 			}
-			//Send call to PLC
-			outBuffer.println(skillName+";CALL;START;"+startParameter);
-			//Wait for a response
-			do {
-				sleep(50);
-			} while (startRet == 0);
-			if (startRet <0) {
-				throw new StatusException("Automatic execution active. Remote control disabled.",
-						StatusCodes.Bad_RequestNotAllowed);
-			}
-			return true;
 		}
-		catch (Exception e) {
-			logger.error("Send start error: " + e);
-			throw e;
+		pendingCalls.clear();
+		if (failed > 0) {
+			logger.warn("Failed {} pending calls of {} because the connection closed", failed, deviceSet);
 		}
 	}
-	public boolean sendStop(String skillName, String startParameter) throws Exception {
-		try {
-			//Reset wait for return
-			stopRet = 0;
-			if(!this.getSubObject(nodeManager.spaceSkills.get(skillName),
-					skillName+"_SkillState").getCurrentValue().contains("Exec") &&
-					(!this.getSubObject(nodeManager.spaceSkills.get(skillName),
-							skillName+"_SkillState").getCurrentValue().contains("Suspend"))) {
-				System.out.println("The skill is in an invalid state:" + this.getSubObject(nodeManager.spaceSkills.get(skillName),
-						skillName+"_SkillState").getCurrentValue());
-				return false;
-			}
-			//Send call to PLC
-			outBuffer.println(skillName+";CALL;STOP;"+startParameter);
-			//Wait for a response
-			do {
-				sleep(50);
-			} while (stopRet == 0);
-			if (stopRet <0) {
-				throw new StatusException("Automatic execution active. Remote control disabled.",
-						StatusCodes.Bad_RequestNotAllowed);
+	
+	//Sets how long the blocking send functions wait for the PLC to answer a call.
+	public void setCallTimeout(long timeout, TimeUnit unit) {
+		this.callTimeoutMillis = unit.toMillis(timeout);
+	}
+	public long getCallTimeoutMillis() {
+		return callTimeoutMillis;
+	}
+	//Sets the call timeout used by bridges created after the call.
+	public static void setDefaultCallTimeout(long timeout, TimeUnit unit) {
+		defaultCallTimeoutMillis = unit.toMillis(timeout);
+	}
+	
+	//Asynchronous command sending.
+	//Sends the call to the PLC and returns a future which the CALLRET packet of the call completes.
+	//The future completes with true when the PLC accepted the call and exceptionally when it refused it.
+	//No state checks are made, the blocking functions below check the skill state first.
+	//With request ids any number of calls can be in flight at once.
+	//Without them the CALLRET can't be told apart, so only one call per skill and call type is allowed at a time.
+	//Binary frames send the parameter with its type, the text protocol sends its string form.
+	//The call is forgotten as soon as the future completes in any way, so cancelling the future abandons the call.
+	//If the connection closes first the future fails with Bad_CommunicationError.
+	public CompletableFuture<Boolean> sendCall(String skillName, CallType callType, Object parameter) {
+		PendingCall pending = new PendingCall(nextRequestId.incrementAndGet(), skillName, callType);
+		boolean withId = requestIdsEnabled;
+		synchronized (pendingCalls) {
+			if (!withId && findPendingCall(skillName, callType) != null) {
+				pending.future.completeExceptionally(new StatusException("A " + callType + " call is already in progress for " + skillName,
+						StatusCodes.Bad_TooManyOperations));
+				return pending.future;
 			}
-			return true;
+			pendingCalls.put(pending.requestId, pending);
 		}
-		catch (Exception e) {
-			logger.error("Send stop error: " + e);
-			throw e;
+		pending.future.whenComplete((result, error) -> pendingCalls.remove(pending.requestId, pending));
+		//close() may have failed the pending calls just before this one was added.
+		if (!operateBridge) {
+			pending.future.completeExceptionally(new StatusException("The connection to the PLC of " + deviceSet + " is closed.",
+					StatusCodes.Bad_CommunicationError));
+			return pending.future;
 		}
-	}
-	public boolean sendReset(String skillName, String startParameter) throws Exception {
 		try {
-			//Reset wait for return
-			resetRet = 0;
-			if(!this.getSubObject(nodeManager.spaceSkills.get(skillName),
-					skillName+"_SkillState").getCurrentValue().contains("Stop")) {
-				System.out.println("The skill is in an invalid state:" + this.getSubObject(nodeManager.spaceSkills.get(skillName),
-						skillName+"_SkillState").getCurrentValue());
-				return false;
-			}
-			//Send call to PLC
-			outBuffer.println(skillName+";CALL;RESET;"+startParameter);
-			//Wait for a reaponse
-			do {
-				sleep(50);
-			} while (resetRet == 0);
-			if (resetRet <0) {
-				throw new StatusException("Automatic execution active. Remote control disabled.",
-						StatusCodes.Bad_RequestNotAllowed);
+			synchronized (outQueue) {
+				if (binaryFrames) {
+					send(BinaryFrame.call(skillName, callType, pending.requestId, parameter));
+				}
+				else if (withId) {
+					send(skillName+";CALL;"+callType+";"+parameter+";"+pending.requestId);
+				}
+				else {
+					send(skillName+";CALL;"+callType+";"+parameter);
+				}
 			}
-			return true;
+		} catch (IOException | IllegalArgumentException e) {
+			pending.future.completeExceptionally(new StatusException(e.getMessage(), StatusCodes.Bad_CommunicationError));
 		}
-		catch (Exception e) {
-			logger.error("Send reset error: " + e);
-			throw e;
+		return pending.future;
+	}
+	
+	//Functions for handling sending specific commands to trigger various transitions
+	//Wait for the answer of the PLC for at most the call timeout of the bridge.
+	public boolean sendStart(String skillName, Object startParameter) throws Exception {
+		return sendStart(skillName, startParameter, deadline());
+	}
+	public boolean sendStop(String skillName, Object startParameter) throws Exception {
+		return sendStop(skillName, startParameter, deadline());
+	}
+	public boolean sendReset(String skillName, Object startParameter) throws Exception {
+		return sendReset(skillName, startParameter, deadline());
+	}
+	public boolean sendSuspend(String skillName, Object startParameter) throws Exception {
+		return sendSuspend(skillName, startParameter, deadline());
+	}
+	public boolean sendResume(String skillName, Object startParameter) throws Exception {
+		return sendResume(skillName, startParameter, deadline());
+	}
+	
+	//The same functions with a deadline from System.nanoTime(), so the time the method call has already
+	//spent on the server counts towards its timeout.
+	public boolean sendStart(String skillName, Object startParameter, long deadlineNanos) throws Exception {
+		return sendSkillCall(skillName, CallType.START, startParameter, deadlineNanos);
+	}
+	public boolean sendStop(String skillName, Object startParameter, long deadlineNanos) throws Exception {
+		return sendSkillCall(skillName, CallType.STOP, startParameter, deadlineNanos);
+	}
+	public boolean sendReset(String skillName, Object startParameter, long deadlineNanos) throws Exception {
+		return sendSkillCall(skillName, CallType.RESET, startParameter, deadlineNanos);
+	}
+	public boolean sendSuspend(String skillName, Object startParameter, long deadlineNanos) throws Exception {
+		return sendSkillCall(skillName, CallType.SUSPEND, startParameter, deadlineNanos);
+	}
+	public boolean sendResume(String skillName, Object startParameter, long deadlineNanos) throws Exception {
+		return sendSkillCall(skillName, CallType.RESUME, startParameter, deadlineNanos);
+	}
+	
+	//Sends the command of the call type and waits for the answer of the PLC.
+	public boolean sendSkillCall(String skillName, CallType callType, Object parameter, long deadlineNanos) throws Exception {
+		return sendCommand(skillName, callType, parameter, deadlineNanos, validStates(callType));
+	}
+	
+	//Sends the command of the call type without waiting for the answer, used by the method listener, which waits on
+	//the future or, with asyncSkillCalls on, lets the SDK's worker thread go as soon as the call is sent.
+	//Returns the future of the call, which fails with a TimeoutException if the PLC hasn't answered by the deadline,
+	//or null if the skill was in an invalid state. See callError for the status code of a failed future.
+	public CompletableFuture<Boolean> beginSkillCall(String skillName, CallType callType, Object parameter, long deadlineNanos)
+			throws StatusException {
+		return beginCommand(skillName, callType, parameter, deadlineNanos, validStates(callType));
+	}
+	
+	//The states a skill has to be in for a command to be sent. A transient state, e.g. Stopping, allows none.
+	private static SkillState[] validStates(CallType callType) {
+		switch (callType) {
+			case START:
+				return new SkillState[] {SkillState.READY};
+			case STOP:
+				return new SkillState[] {SkillState.EXECUTING, SkillState.SUSPENDED};
+			case SUSPEND:
+				return new SkillState[] {SkillState.EXECUTING};
+			case RESUME:
+				return new SkillState[] {SkillState.SUSPENDED};
+			case RESET:
+				return new SkillState[] {SkillState.STOPPED};
+			default:
+				throw new IllegalArgumentException("Unknown call type: " + callType);
 		}
 	}
-	public boolean sendSuspend(String skillName, String startParameter) throws Exception {
-		try {
-			//Reset wait for return
-			suspendRet = 0;
-			if(!this.getSubObject(nodeManager.spaceSkills.get(skillName),
-					skillName+"_SkillState").getCurrentValue().contains("Exec")) {
-				System.out.println("\n\nBad State: " + this.getSubObject(nodeManager.spaceSkills.get(skillName),skillName+"_SkillState").getCurrentValue());
-				return false;
-			}
-			//Send call to PLC
-			outBuffer.println(skillName+";CALL;SUSPEND;"+startParameter);
-			//Wait for a response
-			do {
-				sleep(50);
-			} while (suspendRet == 0);
-			if (suspendRet <0) {
-				throw new StatusException("Automatic execution active. Remote control disabled.",
-						StatusCodes.Bad_RequestNotAllowed);
-			}
-			return true;
+	
+	//The deadline of a call made now with the call timeout of the bridge.
+	public long deadline() {
+		return System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(callTimeoutMillis);
+	}
+	
+	//The status code a failed call future is reported to the client with.
+	//Refused calls and invalid results carry their own, a call the PLC didn't answer in time is Bad_Timeout.
+	public static StatusException callError(Throwable error, String skillName, CallType callType) {
+		if (error instanceof CompletionException || error instanceof ExecutionException) {
+			error = error.getCause();
 		}
-		catch (Exception e) {
-			logger.error("Send suspend error: " + e);
-			throw e;
+		if (error instanceof StatusException) {
+			return (StatusException) error;
+		}
+		if (error instanceof TimeoutException) {
+			return new StatusException("The PLC did not answer the " + callType + " call of " + skillName + " in time.",
+					StatusCodes.Bad_Timeout);
+		}
+		if (error instanceof CancellationException) {
+			return new StatusException("The " + callType + " call of " + skillName + " was cancelled.",
+					StatusCodes.Bad_RequestCancelledByClient);
+		}
+		return new StatusException("The " + callType + " call of " + skillName + " failed: " + error, StatusCodes.Bad_UnexpectedError);
+	}
+	
+	//Checks that the skill is in one of the valid states for the command and sends the call.
+	//Returns the future of the call, or null if the skill was in an invalid state.
+	//The future fails with a TimeoutException once the deadline passes, which abandons the call, a late CALLRET
+	//for it is only logged. The timer is a shared one of the JDK and no thread waits for the answer.
+	private CompletableFuture<Boolean> beginCommand(String skillName, CallType callType, Object parameter, long deadlineNanos,
+			SkillState... validStates) throws StatusException {
+		PlainProperty<String> stateProperty = nodeManager.getSkillState(deviceSet, skillName);
+		if (stateProperty == null) {
+			throw new StatusException("Unknown skill " + skillName + " in " + deviceSet, StatusCodes.Bad_NotFound);
 		}
+		String currentState = stateProperty.getCurrentValue();
+		SkillState skillState = SkillState.of(currentState);
+		boolean validState = false;
+		for (SkillState state: validStates) {
+			validState |= skillState == state;
+		}
+		if (!validState) {
+			logger.debug("The skill " + skillName + " is in an invalid state for " + callType + ": " + currentState);
+			return null;
+		}
+		long remaining = deadlineNanos - System.nanoTime();
+		if (remaining <= 0) {
+			throw new StatusException("The " + callType + " call of " + skillName + " timed out before it was sent.",
+					StatusCodes.Bad_Timeout);
+		}
+		//Send call to PLC, the CALLRET completes the future.
+		return sendCall(skillName, callType, parameter).orTimeout(remaining, TimeUnit.NANOSECONDS);
 	}
-	public boolean sendResume(String skillName, String startParameter) throws Exception {
+	
+	//Checks that the skill is in one of the valid states for the command, sends the call and waits for the PLC to answer.
+	//Returns false if the skill was in an invalid state.
+	//Throws Bad_Timeout if the deadline passes first and Bad_CommunicationError if the connection closes first.
+	private boolean sendCommand(String skillName, CallType callType, Object parameter, long deadlineNanos,
+			SkillState... validStates) throws Exception {
 		try {
-			//Reset wait for return
-			resumeRet = 0;
-			if(!this.getSubObject(nodeManager.spaceSkills.get(skillName),
-					skillName+"_SkillState").getCurrentValue().contains("Suspend")) {
-				System.out.println("The skill is in an invalid state:" + this.getSubObject(nodeManager.spaceSkills.get(skillName),
-						skillName+"_SkillState").getCurrentValue());
+			CompletableFuture<Boolean> pending = beginCommand(skillName, callType, parameter, deadlineNanos, validStates);
+			if (pending == null) {
 				return false;
 			}
-			//Send call to PLC
-			outBuffer.println(skillName+";CALL;RESUME;"+startParameter);
-			//Wait for a response
-			do {
-				sleep(50);
-			} while (resumeRet == 0);
-			if (resumeRet <0) {
-				throw new StatusException("Automatic execution active. Remote control disabled.",
-						StatusCodes.Bad_RequestNotAllowed);
+			try {
+				return pending.get();
+			} catch (InterruptedException e) {
+				pending.cancel(false);
+				Thread.currentThread().interrupt();
+				throw new StatusException("The " + callType + " call of " + skillName + " was interrupted.",
+						StatusCodes.Bad_RequestCancelledByClient);
 			}
-			return true;
+		}
+		catch (ExecutionException | CancellationException e) {
+			StatusException error = callError(e, skillName, callType);
+			logger.error("Send " + callType.methodSuffix.toLowerCase() + " error: " + error);
+			throw error;
 		}
 		catch (Exception e) {
-			logger.error("Send resume error: " + e);
+			logger.error("Send " + callType.methodSuffix.toLowerCase() + " error: " + e);
 			throw e;
 		}
 	}
-	
-	//Small utility function for fetching target subnodes
-	//Identical to similar function in ModularNodeManager. Reimplemented here for the sake of keeping both private.
-	  private PlainProperty<String> getSubObject(UaNode baseObject, String targetName) {
-		UaReference[] refs = baseObject.getReferences();
-			
-		for (UaReference tempRef:refs) {
-			UaNode target = tempRef.getTargetNode();
-			if (target.getBrowseName().getName().contains(targetName)) {
-				return (PlainProperty<String>) target;
-			}
-		}
-		logger.error("Failed to find target subnode.");
-		System.out.println("Failed to find target subnode.");
-		return null;
-	}
 }
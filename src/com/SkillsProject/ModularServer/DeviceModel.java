@@ -0,0 +1,122 @@
+/* The device model of the device servers: which devices, variables, methods and skills every server type has.
+ *
+ * Read from a model file by DeviceModelLoader, see ENaSDevices.model for the format. The node manager creates the
+ * address space of a server type by going through its nodes in order, so a parent is always created before its
+ * children. Combined servers have no nodes of their own, they list device sets of the other server types instead.
+ *
+ * The model is read once at startup and not changed after that.
+ */
+
+package com.SkillsProject.ModularServer;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+public final class DeviceModel {
+	//What a node of the model is created as.
+	public enum NodeKind {
+		PLC("plc"),
+		BRIDGE("bridge"),
+		DEVICE("device"),
+		SOFTWARE("software"),
+		VARIABLE("variable"),
+		METHOD("method"),
+		SKILL("skill");
+
+		//The keyword of the node in the model file.
+		public final String keyword;
+
+		NodeKind(String keyword) {
+			this.keyword = keyword;
+		}
+
+		static NodeKind of(String keyword) {
+			for (NodeKind kind: values()) {
+				if (kind.keyword.equals(keyword)) {
+					return kind;
+				}
+			}
+			return null;
+		}
+	}
+
+	//One node of a server type. Names are without the device set prefix the node manager adds.
+	public static final class Node {
+		public final NodeKind kind;
+		public final String name;
+		//The object type of devices and software components, the name the PLC knows a skill by.
+		public final String type;
+		//The node the node is created under, null for the device set itself.
+		public final String parent;
+		//Output variables are written by the PLC, input variables read by it.
+		public final boolean output;
+		//Whether a device or software component gets its own FuncGroup, ParameterSet and MethodSet.
+		public final boolean sets;
+		//Further nodes a variable is listed under, e.g. the component that drives it and the PLC.
+		public final List<String> links;
+
+		public Node(NodeKind kind, String name, String type, String parent, boolean output, boolean sets, List<String> links) {
+			this.kind = kind;
+			this.name = name;
+			this.type = type;
+			this.parent = parent;
+			this.output = output;
+			this.sets = sets;
+			this.links = Collections.unmodifiableList(new ArrayList<String>(links));
+		}
+
+		@Override
+		public String toString() {
+			return kind.keyword + " " + name;
+		}
+	}
+
+	//The nodes of a server type, or the device sets of a combined server.
+	public static final class ServerModel {
+		public final String type;
+		public final List<Node> nodes = new ArrayList<Node>();
+		//Device set name to server type, in the order they were listed.
+		public final Map<String, String> deviceSets = new LinkedHashMap<String, String>();
+
+		public ServerModel(String type) {
+			this.type = type;
+		}
+
+		public boolean isCombined() {
+			return !deviceSets.isEmpty();
+		}
+	}
+
+	private final Map<String, ServerModel> servers = new LinkedHashMap<String, ServerModel>();
+
+	//Returns the server type, adding it if it's new.
+	ServerModel addServer(String type) {
+		ServerModel server = servers.get(type);
+		if (server == null) {
+			server = new ServerModel(type);
+			servers.put(type, server);
+		}
+		return server;
+	}
+
+	public ServerModel getServer(String type) {
+		return servers.get(type);
+	}
+
+	public Set<String> getServerTypes() {
+		return Collections.unmodifiableSet(servers.keySet());
+	}
+
+	//The number of nodes over all server types.
+	public int size() {
+		int size = 0;
+		for (ServerModel server: servers.values()) {
+			size += server.nodes.size();
+		}
+		return size;
+	}
+}
@@ -0,0 +1,427 @@
+/* Loads the device model of the device servers from a model file.
+ *
+ * The model file is read from the path in the "modularserver.deviceModel" system property, or from the
+ * ENaSDevices.model file next to the server classes when the property isn't set. See that file for the format.
+ *
+ * Parsing and validating the model is only done when the model file has changed. The parsed model is written to a
+ * binary snapshot in the cache directory, named after the SHA-256 hash of the model file's content. On the next start
+ * the model file is only hashed, and if a snapshot with that hash exists the model is read from it as is. A changed
+ * model file has a different hash, so an old snapshot is never used for it. The cache directory is set with the
+ * "modularserver.modelCache" system property, "none" turns the cache off. Snapshots that can't be read or written
+ * are logged and the model file is parsed instead.
+ */
+
+package com.SkillsProject.ModularServer;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.SkillsProject.ModularServer.DeviceModel.Node;
+import com.SkillsProject.ModularServer.DeviceModel.NodeKind;
+import com.SkillsProject.ModularServer.DeviceModel.ServerModel;
+
+public final class DeviceModelLoader {
+	public static final String MODEL_PROPERTY = "modularserver.deviceModel";
+	public static final String CACHE_PROPERTY = "modularserver.modelCache";
+	public static final String DEFAULT_MODEL = "ENaSDevices.model";
+	//Object types the devices and software components can have, created by the node manager.
+	public static final List<String> OBJECT_TYPES = Arrays.asList("SkillBridge", "SoftwareComponent", "ConveyorDevice",
+			"ManipulatorDevice", "Iceblock", "BeltComponent", "PistonComponent", "GrippingComponent", "SensorComponent");
+
+	private static final Logger logger = LoggerFactory.getLogger(DeviceModelLoader.class);
+	//"SKMD", the start of every snapshot.
+	private static final int SNAPSHOT_MAGIC = 0x534B4D44;
+	//Changed whenever the snapshot layout changes, so snapshots of older versions are parsed again.
+	private static final int SNAPSHOT_VERSION = 1;
+
+	//Where the snapshots are kept, null when the cache is off.
+	private final Path cacheDir;
+	private boolean loadedFromCache = false;
+
+	public DeviceModelLoader(Path cacheDir) {
+		this.cacheDir = cacheDir;
+	}
+
+	//A loader with the cache directory of the system property.
+	public static DeviceModelLoader fromProperties() {
+		String dir = System.getProperty(CACHE_PROPERTY);
+		if (dir == null) {
+			return new DeviceModelLoader(Paths.get(System.getProperty("java.io.tmpdir"), "SkillsProjectModels"));
+		}
+		return new DeviceModelLoader(dir.trim().equalsIgnoreCase("none") ? null : Paths.get(dir.trim()));
+	}
+
+	//Loads the model file of the system property, or the default model.
+	public DeviceModel load() throws IOException {
+		String path = System.getProperty(MODEL_PROPERTY);
+		if (path != null) {
+			return load(path, Files.readAllBytes(Paths.get(path)));
+		}
+		try (InputStream in = DeviceModelLoader.class.getResourceAsStream(DEFAULT_MODEL)) {
+			if (in == null) {
+				throw new IOException("The default device model " + DEFAULT_MODEL + " was not found, set " + MODEL_PROPERTY);
+			}
+			return load(DEFAULT_MODEL, readAll(in));
+		}
+	}
+
+	//Loads a model from the snapshot of its content if there is one, otherwise parses it and writes the snapshot.
+	public DeviceModel load(String source, byte[] content) throws IOException {
+		long start = System.nanoTime();
+		byte[] hash = hash(content);
+		Path snapshot = cacheDir != null ? cacheDir.resolve(toHex(hash) + ".bin") : null;
+		if (snapshot != null && Files.isRegularFile(snapshot)) {
+			try {
+				DeviceModel model = readSnapshot(snapshot, hash);
+				loadedFromCache = true;
+				logger.info("Device model " + source + " loaded from " + snapshot + " in " + millis(start) + " ms");
+				return model;
+			} catch (IOException e) {
+				logger.warn("Device model snapshot " + snapshot + " can't be read, parsing the model again: " + e);
+			}
+		}
+		DeviceModel model = parse(source, content);
+		loadedFromCache = false;
+		if (snapshot != null) {
+			try {
+				writeSnapshot(model, snapshot, hash);
+			} catch (IOException e) {
+				logger.warn("Device model snapshot " + snapshot + " can't be written: " + e);
+			}
+		}
+		logger.info("Device model " + source + " parsed in " + millis(start) + " ms");
+		return model;
+	}
+
+	//True if the last model was read from a snapshot instead of parsed.
+	public boolean isLoadedFromCache() {
+		return loadedFromCache;
+	}
+
+	//Parses and validates a model file. Mistakes in the file are reported with their line number.
+	public static DeviceModel parse(String source, byte[] content) {
+		DeviceModel model = new DeviceModel();
+		ServerModel server = null;
+		//The nodes of the current server type by name, for checking the parents and links.
+		Map<String, Node> serverNodes = new HashMap<String, Node>();
+		String[] lines = new String(content, StandardCharsets.UTF_8).split("\r?\n");
+		for (int x = 0; x < lines.length; x++) {
+			String line = lines[x];
+			int comment = line.indexOf('#');
+			if (comment >= 0) {
+				line = line.substring(0, comment);
+			}
+			line = line.trim();
+			if (line.isEmpty()) {
+				continue;
+			}
+			String where = source + ":" + (x+1) + ": ";
+			String[] tokens = line.split("\\s+");
+			if (tokens.length < 2) {
+				throw new IllegalArgumentException(where + "expected a keyword and a name: " + line);
+			}
+			if (tokens[0].equals("server")) {
+				if (model.getServer(tokens[1]) != null) {
+					throw new IllegalArgumentException(where + "server type " + tokens[1] + " is defined twice");
+				}
+				server = model.addServer(tokens[1]);
+				serverNodes.clear();
+				continue;
+			}
+			if (server == null) {
+				throw new IllegalArgumentException(where + "\"server <type>\" has to come before the nodes of the server");
+			}
+			if (tokens[0].equals("set")) {
+				if (tokens.length != 3) {
+					throw new IllegalArgumentException(where + "expected \"set <name> <server type>\": " + line);
+				}
+				if (server.deviceSets.put(tokens[1], tokens[2]) != null) {
+					throw new IllegalArgumentException(where + "device set " + tokens[1] + " is listed twice");
+				}
+				continue;
+			}
+			Node node = parseNode(tokens, where, serverNodes);
+			serverNodes.put(node.name, node);
+			server.nodes.add(node);
+		}
+		validate(model, source);
+		return model;
+	}
+
+	private static Node parseNode(String[] tokens, String where, Map<String, Node> serverNodes) {
+		NodeKind kind = NodeKind.of(tokens[0]);
+		if (kind == null) {
+			throw new IllegalArgumentException(where + "unknown keyword " + tokens[0]);
+		}
+		String name = tokens[1];
+		if (serverNodes.containsKey(name)) {
+			throw new IllegalArgumentException(where + name + " is defined twice");
+		}
+		//The positional value after the name: the object type, the PLC's skill name or the variable direction.
+		String value = null;
+		String parent = null;
+		boolean sets = true;
+		List<String> links = new ArrayList<String>();
+		for (int x = 2; x < tokens.length; x++) {
+			int equals = tokens[x].indexOf('=');
+			if (equals < 0) {
+				if (value != null) {
+					throw new IllegalArgumentException(where + "unexpected " + tokens[x]);
+				}
+				value = tokens[x];
+				continue;
+			}
+			String key = tokens[x].substring(0, equals);
+			String attribute = tokens[x].substring(equals+1);
+			switch (key) {
+				case "parent":
+					parent = attribute;
+					break;
+				case "sets":
+					if (!attribute.equals("true") && !attribute.equals("false")) {
+						throw new IllegalArgumentException(where + "sets has to be true or false");
+					}
+					sets = Boolean.parseBoolean(attribute);
+					break;
+				case "links":
+					links.addAll(Arrays.asList(attribute.split(",")));
+					break;
+				default:
+					throw new IllegalArgumentException(where + "unknown attribute " + key);
+			}
+		}
+
+		switch (kind) {
+			case DEVICE:
+			case SOFTWARE:
+				if (!OBJECT_TYPES.contains(value)) {
+					throw new IllegalArgumentException(where + name + " needs one of the object types " + OBJECT_TYPES);
+				}
+				checkParent(where, name, parent, serverNodes, false, false, NodeKind.DEVICE, NodeKind.SOFTWARE);
+				break;
+			case VARIABLE:
+				if (!"in".equals(value) && !"out".equals(value)) {
+					throw new IllegalArgumentException(where + "variable " + name + " has to be in or out");
+				}
+				checkParent(where, name, parent, serverNodes, true, true, NodeKind.DEVICE, NodeKind.SOFTWARE, NodeKind.PLC);
+				for (String link: links) {
+					checkParent(where, name, link, serverNodes, true, true, NodeKind.DEVICE, NodeKind.SOFTWARE, NodeKind.PLC);
+				}
+				break;
+			case METHOD:
+				checkParent(where, name, parent, serverNodes, true, true, NodeKind.DEVICE, NodeKind.SOFTWARE, NodeKind.PLC);
+				break;
+			case SKILL:
+				if (value == null) {
+					throw new IllegalArgumentException(where + "skill " + name + " needs the name the PLC knows it by");
+				}
+				checkParent(where, name, parent, serverNodes, true, false, NodeKind.SOFTWARE);
+				break;
+			case PLC:
+			case BRIDGE:
+				if (value != null || parent != null) {
+					throw new IllegalArgumentException(where + kind.keyword + " " + name + " is always created under the device set");
+				}
+				if (kind == NodeKind.BRIDGE) {
+					for (Node other: serverNodes.values()) {
+						if (other.kind == NodeKind.BRIDGE) {
+							throw new IllegalArgumentException(where + "a server type can only have one skill bridge");
+						}
+					}
+				}
+				break;
+		}
+		if (kind != NodeKind.VARIABLE && !links.isEmpty()) {
+			throw new IllegalArgumentException(where + "only variables have links");
+		}
+		return new Node(kind, name, kind == NodeKind.VARIABLE ? null : value, parent, "out".equals(value), sets, links);
+	}
+
+	//Checks that a parent (or link) was defined before the node, is of a fitting kind and, when a variable or
+	//method is added to it, has the sets to hold it. A missing parent means the device set when that's allowed.
+	private static void checkParent(String where, String name, String parent, Map<String, Node> serverNodes,
+			boolean required, boolean needsSets, NodeKind... kinds) {
+		if (parent == null) {
+			if (required) {
+				throw new IllegalArgumentException(where + name + " needs a parent");
+			}
+			return;
+		}
+		Node parentNode = serverNodes.get(parent);
+		if (parentNode == null) {
+			throw new IllegalArgumentException(where + parent + " has to be defined before " + name);
+		}
+		if (!Arrays.asList(kinds).contains(parentNode.kind)) {
+			throw new IllegalArgumentException(where + parent + " (" + parentNode.kind.keyword + ") can't hold " + name);
+		}
+		if (needsSets && parentNode.kind != NodeKind.PLC && !parentNode.sets) {
+			throw new IllegalArgumentException(where + parent + " has no sets to hold " + name);
+		}
+	}
+
+	//Checks what can only be checked once the whole file is read, the device sets of the combined servers.
+	private static void validate(DeviceModel model, String source) {
+		for (String type: model.getServerTypes()) {
+			ServerModel server = model.getServer(type);
+			if (server.isCombined() && !server.nodes.isEmpty()) {
+				throw new IllegalArgumentException(source + ": server type " + type + " has both device sets and nodes");
+			}
+			for (Map.Entry<String, String> set: server.deviceSets.entrySet()) {
+				ServerModel setServer = model.getServer(set.getValue());
+				if (setServer == null || setServer.isCombined()) {
+					throw new IllegalArgumentException(source + ": device set " + set.getKey() + " of " + type
+							+ " has to be of a server type with nodes, not " + set.getValue());
+				}
+			}
+		}
+	}
+
+	//Snapshot layout: magic, version, content hash, then every server type with its device sets and nodes.
+	private static void writeSnapshot(DeviceModel model, Path snapshot, byte[] hash) throws IOException {
+		Files.createDirectories(snapshot.getParent());
+		//Written next to the snapshot first so a half written snapshot is never read.
+		Path temp = Files.createTempFile(snapshot.getParent(), "model", ".tmp");
+		try {
+			try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(temp)))) {
+				out.writeInt(SNAPSHOT_MAGIC);
+				out.writeInt(SNAPSHOT_VERSION);
+				out.writeInt(hash.length);
+				out.write(hash);
+				out.writeInt(model.getServerTypes().size());
+				for (String type: model.getServerTypes()) {
+					ServerModel server = model.getServer(type);
+					out.writeUTF(type);
+					out.writeInt(server.deviceSets.size());
+					for (Map.Entry<String, String> set: server.deviceSets.entrySet()) {
+						out.writeUTF(set.getKey());
+						out.writeUTF(set.getValue());
+					}
+					out.writeInt(server.nodes.size());
+					for (Node node: server.nodes) {
+						out.writeByte(node.kind.ordinal());
+						out.writeUTF(node.name);
+						writeNullable(out, node.type);
+						writeNullable(out, node.parent);
+						out.writeBoolean(node.output);
+						out.writeBoolean(node.sets);
+						out.writeInt(node.links.size());
+						for (String link: node.links) {
+							out.writeUTF(link);
+						}
+					}
+				}
+			}
+			try {
+				Files.move(temp, snapshot, StandardCopyOption.ATOMIC_MOVE);
+			} catch (AtomicMoveNotSupportedException e) {
+				Files.move(temp, snapshot, StandardCopyOption.REPLACE_EXISTING);
+			}
+		} finally {
+			Files.deleteIfExists(temp);
+		}
+	}
+
+	private static DeviceModel readSnapshot(Path snapshot, byte[] hash) throws IOException {
+		try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(snapshot)))) {
+			if (in.readInt() != SNAPSHOT_MAGIC || in.readInt() != SNAPSHOT_VERSION) {
+				throw new IOException("not a device model snapshot of version " + SNAPSHOT_VERSION);
+			}
+			byte[] snapshotHash = new byte[in.readInt()];
+			in.readFully(snapshotHash);
+			if (!Arrays.equals(hash, snapshotHash)) {
+				throw new IOException("snapshot of a different model");
+			}
+			DeviceModel model = new DeviceModel();
+			NodeKind[] kinds = NodeKind.values();
+			int serverCount = in.readInt();
+			for (int x = 0; x < serverCount; x++) {
+				ServerModel server = model.addServer(in.readUTF());
+				int setCount = in.readInt();
+				for (int y = 0; y < setCount; y++) {
+					server.deviceSets.put(in.readUTF(), in.readUTF());
+				}
+				int nodeCount = in.readInt();
+				for (int y = 0; y < nodeCount; y++) {
+					int kind = in.readByte();
+					if (kind < 0 || kind >= kinds.length) {
+						throw new IOException("unknown node kind " + kind);
+					}
+					String name = in.readUTF();
+					String type = readNullable(in);
+					String parent = readNullable(in);
+					boolean output = in.readBoolean();
+					boolean sets = in.readBoolean();
+					List<String> links = new ArrayList<String>();
+					int linkCount = in.readInt();
+					for (int z = 0; z < linkCount; z++) {
+						links.add(in.readUTF());
+					}
+					server.nodes.add(new Node(kinds[kind], name, type, parent, output, sets, links));
+				}
+			}
+			return model;
+		}
+	}
+
+	private static void writeNullable(DataOutputStream out, String value) throws IOException {
+		out.writeBoolean(value != null);
+		if (value != null) {
+			out.writeUTF(value);
+		}
+	}
+	private static String readNullable(DataInputStream in) throws IOException {
+		return in.readBoolean() ? in.readUTF() : null;
+	}
+
+	static byte[] hash(byte[] content) {
+		try {
+			return MessageDigest.getInstance("SHA-256").digest(content);
+		} catch (NoSuchAlgorithmException e) {
+			//Every Java platform has SHA-256.
+			throw new IllegalStateException(e);
+		}
+	}
+
+	static String toHex(byte[] bytes) {
+		StringBuilder hex = new StringBuilder(bytes.length*2);
+		for (byte b: bytes) {
+			hex.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+		}
+		return hex.toString();
+	}
+
+	static byte[] readAll(InputStream in) throws IOException {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		byte[] buffer = new byte[8192];
+		int read;
+		while ((read = in.read(buffer)) != -1) {
+			bytes.write(buffer, 0, read);
+		}
+		return bytes.toByteArray();
+	}
+
+	private static String millis(long start) {
+		return String.format("%.2f", (System.nanoTime() - start) / 1e6);
+	}
+}
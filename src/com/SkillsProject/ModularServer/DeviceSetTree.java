@@ -0,0 +1,34 @@
+/* The nodes created for one device set of the address space.
+ *
+ * The node manager builds the device sets of a combined server on several threads. Each build fills its own
+ * tree, and the trees are attached to the DeviceSet and merged into the node manager's maps one after another
+ * in the order of the device model.
+ */
+
+package com.SkillsProject.ModularServer;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import com.prosysopc.ua.nodes.UaMethod;
+import com.prosysopc.ua.nodes.UaNode;
+import com.prosysopc.ua.nodes.UaVariable;
+import com.prosysopc.ua.server.nodes.UaObjectNode;
+
+final class DeviceSetTree {
+	final String name;
+	//The node the device set's nodes are created under: its own organizing object, or the DeviceSet of a single server.
+	final UaNode topParent;
+	//Whether a skill bridge is created for the device set once the tree is attached.
+	boolean hasBridge = false;
+	//Nodes by full name, skills by the name the PLC knows them by.
+	final Map<String, UaObjectNode> objects = new LinkedHashMap<String, UaObjectNode>();
+	final Map<String, UaVariable> variables = new LinkedHashMap<String, UaVariable>();
+	final Map<String, UaMethod> methods = new LinkedHashMap<String, UaMethod>();
+	final Map<String, UaObjectNode> skills = new LinkedHashMap<String, UaObjectNode>();
+
+	DeviceSetTree(String name, UaNode topParent) {
+		this.name = name;
+		this.topParent = topParent;
+	}
+}
@@ -0,0 +1,139 @@
+/* How the device server runs the work that blocks while waiting for the PLCs.
+ *
+ * SELECTOR: every PLC connection is served by the TCP IO Server's single selector loop. Default.
+ * PLATFORM: every PLC connection gets its own reader thread doing blocking reads.
+ * VIRTUAL:  like PLATFORM but the reader threads are virtual threads, and so are the threads of the call executor.
+ *
+ * A skill method call waits for the PLC's answer on the SDK's worker thread by default. With asyncSkillCalls on it
+ * returns once it's sent, and what's left of it, such as handling the answer, runs on the executor of newExecutor,
+ * a fixed pool of platform threads or a virtual thread per task.
+ *
+ * Virtual threads need Java 21. They are looked up reflectively so the server still builds and runs on older
+ * Java versions, where VIRTUAL falls back to platform threads with a warning.
+ * The mode is chosen with the "modularserver.executionMode" system property.
+ */
+
+package com.SkillsProject.ModularServer;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+public enum ExecutionMode {
+	SELECTOR,
+	PLATFORM,
+	VIRTUAL;
+
+	public static final String PROPERTY = "modularserver.executionMode";
+	//Size of the platform thread pools, the same as a typical server worker pool.
+	public static final int PLATFORM_POOL_SIZE = 64;
+
+	private static final Logger logger = LoggerFactory.getLogger(ExecutionMode.class);
+	//Thread.ofVirtual() and Executors.newVirtualThreadPerTaskExecutor(), null when not available.
+	private static final Method OF_VIRTUAL = lookup(Thread.class, "ofVirtual");
+	private static final Method VIRTUAL_EXECUTOR = lookup(Executors.class, "newVirtualThreadPerTaskExecutor");
+
+	//Reads the mode from the system property, SELECTOR if it isn't set or is invalid.
+	public static ExecutionMode fromProperty() {
+		String value = System.getProperty(PROPERTY);
+		if (value == null) {
+			return SELECTOR;
+		}
+		try {
+			return valueOf(value.trim().toUpperCase());
+		} catch (IllegalArgumentException e) {
+			logger.warn("Unknown execution mode " + value + ", using " + SELECTOR);
+			return SELECTOR;
+		}
+	}
+
+	public static boolean virtualThreadsAvailable() {
+		return OF_VIRTUAL != null && VIRTUAL_EXECUTOR != null;
+	}
+
+	//True if every PLC connection is served by its own blocking reader thread.
+	public boolean threadPerConnection() {
+		return this != SELECTOR;
+	}
+	//True if the threads of this mode really are virtual threads.
+	public boolean usesVirtualThreads() {
+		return this == VIRTUAL && virtualThreadsAvailable();
+	}
+
+	//Creates an unstarted thread for long running work such as a connection reader.
+	public Thread newThread(Runnable task, String name) {
+		if (usesVirtualThreads()) {
+			try {
+				Object builder = OF_VIRTUAL.invoke(null);
+				builder = BuilderMethods.NAME.invoke(builder, name);
+				return (Thread) BuilderMethods.UNSTARTED.invoke(builder, task);
+			} catch (ReflectiveOperationException e) {
+				logger.warn("Failed to create a virtual thread, using a platform thread: " + e);
+			}
+		}
+		else if (this == VIRTUAL) {
+			warnFallback();
+		}
+		Thread thread = new Thread(task, name);
+		thread.setDaemon(true);
+		return thread;
+	}
+
+	//Creates an executor for short tasks that may block, such as handling the answer to a skill call.
+	//Virtual threads get a thread per task, platform threads share a fixed pool.
+	public ExecutorService newExecutor(String name) {
+		if (usesVirtualThreads()) {
+			try {
+				return (ExecutorService) VIRTUAL_EXECUTOR.invoke(null);
+			} catch (ReflectiveOperationException e) {
+				logger.warn("Failed to create a virtual thread executor, using platform threads: " + e);
+			}
+		}
+		else if (this == VIRTUAL) {
+			warnFallback();
+		}
+		AtomicInteger count = new AtomicInteger();
+		ThreadFactory factory = task -> {
+			Thread thread = new Thread(task, name + "-" + count.incrementAndGet());
+			thread.setDaemon(true);
+			return thread;
+		};
+		return Executors.newFixedThreadPool(PLATFORM_POOL_SIZE, factory);
+	}
+
+	private static void warnFallback() {
+		logger.warn("Virtual threads need Java 21, running " + VIRTUAL + " mode on platform threads");
+	}
+
+	private static Method lookup(Class<?> type, String name) {
+		try {
+			return type.getMethod(name);
+		} catch (NoSuchMethodException e) {
+			return null;
+		}
+	}
+
+	//The Thread.Builder methods, looked up from the public interface since the builder classes themselves aren't accessible.
+	private static final class BuilderMethods {
+		static final Method NAME;
+		static final Method UNSTARTED;
+		static {
+			Method name = null;
+			Method unstarted = null;
+			try {
+				Class<?> builder = Class.forName("java.lang.Thread$Builder");
+				name = builder.getMethod("name", String.class);
+				unstarted = builder.getMethod("unstarted", Runnable.class);
+			} catch (ReflectiveOperationException e) {
+				logger.warn("Thread builder not available: " + e);
+			}
+			NAME = name;
+			UNSTARTED = unstarted;
+		}
+	}
+}
@@ -0,0 +1,233 @@
+/* Creates the sub-nodes of devices and skills only when a client first browses them.
+ *
+ * Off by default, turned on with the "modularserver.lazyNodes" system property. In lazy mode the node manager
+ * creates devices, software components and skills as bare objects. The FuncGroup, ParameterSet and MethodSet
+ * of a device, its DI information and the five methods of a skill are remembered in a small descriptor instead.
+ * They are created the first time a client browses the object, which the SDK reports to this listener through
+ * onGetReferences. Heap use and startup time then grow with what clients actually look at, not with the size
+ * of the model.
+ *
+ * Sub-nodes that haven't been browsed or called for "modularserver.lazyEvictSeconds" seconds (300 by default, 0 never
+ * evicts) are deleted again, leaving only the descriptor. Devices holding variables or utility methods are created in
+ * full right away and never evicted, since those nodes reference their sets. The DI information is kept once created.
+ *
+ * Clients find the skill methods by browsing the skill object, which creates them. A client calling a method by a
+ * NodeId it kept from before the method was evicted has to browse the skill again.
+ */
+
+package com.SkillsProject.ModularServer;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.prosysopc.ua.StatusException;
+import com.prosysopc.ua.nodes.UaNode;
+import com.prosysopc.ua.nodes.UaReference;
+import com.prosysopc.ua.server.ServiceContext;
+import com.prosysopc.ua.stack.builtintypes.NodeId;
+import com.prosysopc.ua.stack.core.ViewDescription;
+
+public class LazyNodes extends serverNodeManagerListener {
+	public static final String PROPERTY = "modularserver.lazyNodes";
+	public static final String EVICT_PROPERTY = "modularserver.lazyEvictSeconds";
+	private static final Logger logger = LoggerFactory.getLogger(LazyNodes.class);
+
+	//What the deferred sub-nodes of an object are.
+	enum Kind {
+		//Sets and DI information of a device.
+		DEVICE,
+		//Sets and information of a software component.
+		SOFTWARE,
+		//The methods of a skill.
+		SKILL
+	}
+
+	//The descriptor of an object whose sub-nodes are created on demand.
+	static final class LazyNode {
+		final UaNode node;
+		final Kind kind;
+		//The full name of the object, and the skill name for skills.
+		final String name;
+		final String simpleName;
+		final String deviceSet;
+		//Whether the object has sets at all, otherwise only its information is deferred.
+		final boolean sets;
+		//The sub-nodes while they exist, null when only the descriptor is left.
+		List<NodeId> created = null;
+		boolean infoCreated = false;
+		boolean pinned = false;
+		volatile long lastVisit = 0;
+
+		LazyNode(UaNode node, Kind kind, String name, String simpleName, String deviceSet, boolean sets) {
+			this.node = node;
+			this.kind = kind;
+			this.name = name;
+			this.simpleName = simpleName;
+			this.deviceSet = deviceSet;
+			this.sets = sets;
+		}
+
+		boolean isMaterialized() {
+			return created != null;
+		}
+	}
+
+	private final ModularNodeManager nodeManager;
+	private final boolean enabled;
+	private final Map<NodeId, LazyNode> nodes = new ConcurrentHashMap<NodeId, LazyNode>();
+	private ScheduledExecutorService evictor;
+
+	public LazyNodes(ModularNodeManager nodeManager, boolean enabled) {
+		this.nodeManager = nodeManager;
+		this.enabled = enabled;
+	}
+
+	public static boolean enabledByProperty() {
+		return Boolean.getBoolean(PROPERTY);
+	}
+
+	public boolean isEnabled() {
+		return enabled;
+	}
+
+	//Adds the descriptor of an object created without its sub-nodes.
+	void add(UaNode node, Kind kind, String name, String simpleName, String deviceSet, boolean sets) {
+		nodes.put(node.getNodeId(), new LazyNode(node, kind, name, simpleName, deviceSet, sets));
+	}
+
+	//Creates the sub-nodes of an object for good, for objects other nodes are added to while building.
+	void pin(UaNode node) throws StatusException {
+		LazyNode lazy = node != null ? nodes.get(node.getNodeId()) : null;
+		if (lazy != null) {
+			synchronized (lazy) {
+				lazy.pinned = true;
+				materialize(lazy);
+			}
+		}
+	}
+
+	//Marks an object as used so its sub-nodes aren't evicted, e.g. when one of its methods is called.
+	public void touch(NodeId nodeId) {
+		LazyNode lazy = nodes.get(nodeId);
+		if (lazy != null) {
+			lazy.lastVisit = System.nanoTime();
+		}
+	}
+
+	//Creates the sub-nodes of an object if they don't exist. Returns false for objects without a descriptor.
+	public boolean visit(NodeId nodeId) throws StatusException {
+		LazyNode lazy = nodes.get(nodeId);
+		if (lazy == null) {
+			return false;
+		}
+		synchronized (lazy) {
+			lazy.lastVisit = System.nanoTime();
+			materialize(lazy);
+		}
+		return true;
+	}
+
+	private void materialize(LazyNode lazy) throws StatusException {
+		if (!lazy.isMaterialized()) {
+			lazy.created = nodeManager.materialize(lazy);
+			lazy.infoCreated = true;
+		}
+	}
+
+	//The SDK collects the references of a browsed node and passes them here before answering the client.
+	//A lazy object gets its sub-nodes now, and the references to them are added to the answer.
+	@Override
+	public void onGetReferences(ServiceContext serviceContext, ViewDescription viewDescription, NodeId nodeId,
+			UaNode node, List<UaReference> references) {
+		try {
+			if (!visit(nodeId) || node == null) {
+				return;
+			}
+			for (UaReference reference: node.getReferences()) {
+				if (!references.contains(reference)) {
+					references.add(reference);
+				}
+			}
+		} catch (StatusException e) {
+			logger.error("Failed to create the nodes of " + nodeId + ": " + e);
+		}
+	}
+
+	//Deletes the sub-nodes of the objects not visited within the given time. Returns the number of objects evicted.
+	public int evictIdle(long idleNanos) {
+		long now = System.nanoTime();
+		int evicted = 0;
+		for (LazyNode lazy: nodes.values()) {
+			if (!lazy.isMaterialized() || lazy.pinned || now - lazy.lastVisit < idleNanos) {
+				continue;
+			}
+			synchronized (lazy) {
+				if (!lazy.isMaterialized() || lazy.pinned || now - lazy.lastVisit < idleNanos) {
+					continue;
+				}
+				List<NodeId> created = lazy.created;
+				lazy.created = null;
+				try {
+					nodeManager.evict(lazy, created);
+					evicted++;
+				} catch (StatusException e) {
+					logger.warn("Failed to evict the nodes of " + lazy.name + ": " + e);
+				}
+			}
+		}
+		return evicted;
+	}
+
+	//Starts evicting idle sub-nodes every so often. Does nothing when lazy mode is off or eviction is turned off.
+	public void startEviction(long evictSeconds) {
+		if (!enabled || evictSeconds <= 0 || evictor != null) {
+			return;
+		}
+		final long idleNanos = TimeUnit.SECONDS.toNanos(evictSeconds);
+		evictor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+			Thread thread = new Thread(runnable, "LazyNodeEvictor");
+			thread.setDaemon(true);
+			return thread;
+		});
+		long period = Math.max(1, evictSeconds / 4);
+		evictor.scheduleWithFixedDelay(() -> {
+			int evicted = evictIdle(idleNanos);
+			if (evicted > 0) {
+				logger.debug("Evicted the sub-nodes of {} idle objects", evicted);
+			}
+		}, period, period, TimeUnit.SECONDS);
+	}
+
+	public void close() {
+		if (evictor != null) {
+			evictor.shutdownNow();
+		}
+	}
+
+	//The number of objects with a descriptor, and how many of them have their sub-nodes right now.
+	public int size() {
+		return nodes.size();
+	}
+	public int materializedCount() {
+		int count = 0;
+		for (LazyNode lazy: nodes.values()) {
+			if (lazy.isMaterialized()) {
+				count++;
+			}
+		}
+		return count;
+	}
+
+	//The descriptors of the objects, for the benchmarks.
+	List<NodeId> nodeIds() {
+		return new ArrayList<NodeId>(nodes.keySet());
+	}
+}
@@ -0,0 +1,54 @@
+/* The single call listener of the device server's method manager.
+ *
+ * The method manager offers every call to its listeners in turn until one of them handles it, so registering a
+ * listener per method made each call cost as much as the number of methods on the server.
+ * The dispatcher is registered once instead and finds the handler of a method from a map keyed by the method's NodeId.
+ * Handlers are added by the node manager as it creates the method nodes.
+ */
+
+package com.SkillsProject.ModularServer;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import com.prosysopc.ua.StatusException;
+import com.prosysopc.ua.nodes.UaMethod;
+import com.prosysopc.ua.nodes.UaNode;
+import com.prosysopc.ua.server.CallableListener;
+import com.prosysopc.ua.server.ServiceContext;
+import com.prosysopc.ua.stack.builtintypes.DiagnosticInfo;
+import com.prosysopc.ua.stack.builtintypes.NodeId;
+import com.prosysopc.ua.stack.builtintypes.StatusCode;
+import com.prosysopc.ua.stack.builtintypes.Variant;
+
+public class MethodDispatcher implements CallableListener {
+	private final Map<NodeId, CallableListener> handlers = new ConcurrentHashMap<NodeId, CallableListener>();
+
+	//Sets the handler of a method. Returns the handler it replaced, if any.
+	public CallableListener register(NodeId methodId, CallableListener handler) {
+		return handlers.put(methodId, handler);
+	}
+	public CallableListener unregister(NodeId methodId) {
+		return handlers.remove(methodId);
+	}
+	public CallableListener getHandler(NodeId methodId) {
+		return handlers.get(methodId);
+	}
+	public int size() {
+		return handlers.size();
+	}
+
+	//Passes the call on to the handler of the method.
+	//Methods without a handler are left for other listeners and the method manager itself.
+	@Override
+	public boolean onCall(ServiceContext serviceContext, NodeId objectId, UaNode object, NodeId methodId, UaMethod method,
+			Variant[] inputArguments, StatusCode[] inputArgumentResults, DiagnosticInfo[] inputArgumentDiagnosticInfos,
+			Variant[] outputs) throws StatusException {
+		CallableListener handler = handlers.get(methodId);
+		if (handler == null) {
+			return false;
+		}
+		return handler.onCall(serviceContext, objectId, object, methodId, method, inputArguments, inputArgumentResults,
+				inputArgumentDiagnosticInfos, outputs);
+	}
+}
@@ -0,0 +1,101 @@
+/* Where a method call goes, worked out once when the method node is created.
+ *
+ * Skill methods get their skill and call type straight from createSkillObject. Utility methods (ReportCapabilities,
+ * the PLC methods, ...) are recognized from the ending of their name. The method listener uses the route as is,
+ * so nothing has to be parsed from the browse name while a call is handled. Names made of several parts joined with
+ * underscores, like Belt_1_BeltPauseOnSensor_Start, are therefore never split.
+ */
+
+package com.SkillsProject.ModularServer;
+
+import com.SkillsProject.Common.CallType;
+
+public final class MethodRoute {
+	//What the method does when it's called.
+	public enum Command {
+		START(CallType.START),
+		STOP(CallType.STOP),
+		SUSPEND(CallType.SUSPEND),
+		RESUME(CallType.RESUME),
+		RESET(CallType.RESET),
+		REPORT_CAPABILITIES("ReportCapabilities"),
+		TOGGLE_SENSOR_REPORTING("ToggleSensorReporting"),
+		DISPENSE_MATERIAL("DispenseMaterial"),
+		START_PLC("StartPLC"),
+		STOP_PLC("StopPLC"),
+		RESET_PLC("ResetPLC"),
+		UNKNOWN("");
+
+		//The call sent to the skill over the Skill Bridge, null for the utility methods.
+		public final CallType callType;
+		//The ending of the method name.
+		public final String methodSuffix;
+
+		Command(CallType callType) {
+			this.callType = callType;
+			this.methodSuffix = callType.methodSuffix;
+		}
+		Command(String methodSuffix) {
+			this.callType = null;
+			this.methodSuffix = methodSuffix;
+		}
+
+		//The command of a utility method, recognized from the ending of its name.
+		static Command ofMethodName(String methodName) {
+			for (Command command: values()) {
+				if (command.callType == null && command != UNKNOWN && methodName.endsWith(command.methodSuffix)) {
+					return command;
+				}
+			}
+			return UNKNOWN;
+		}
+		static Command of(CallType callType) {
+			switch (callType) {
+				case START:
+					return START;
+				case STOP:
+					return STOP;
+				case SUSPEND:
+					return SUSPEND;
+				case RESUME:
+					return RESUME;
+				case RESET:
+					return RESET;
+				default:
+					throw new IllegalArgumentException("No command for the call type " + callType);
+			}
+		}
+	}
+
+	public final String deviceSet;
+	//The name of the skill the PLC knows, null for the utility methods.
+	public final String skillName;
+	public final Command command;
+	//The name the method is reported with.
+	public final String methodName;
+
+	private MethodRoute(String deviceSet, String skillName, Command command, String methodName) {
+		this.deviceSet = deviceSet;
+		this.skillName = skillName;
+		this.command = command;
+		this.methodName = methodName;
+	}
+
+	//The route of a skill method.
+	public static MethodRoute skill(String deviceSet, String skillName, CallType callType) {
+		return new MethodRoute(deviceSet, skillName, Command.of(callType), skillName + "_" + callType.methodSuffix);
+	}
+	//The route of a utility method.
+	public static MethodRoute utility(String deviceSet, String methodName) {
+		return new MethodRoute(deviceSet, null, Command.ofMethodName(methodName), methodName);
+	}
+
+	public boolean isSkillCall() {
+		return command.callType != null;
+	}
+
+	@Override
+	public String toString() {
+		return deviceSet + "/" + methodName + " (" + command + ")";
+	}
+}
@@ -1,165 +1,186 @@
 /* The method listener node handles the methods on the server which are invoked by clients.
  * Handles parsing if the method is valid, if it can be called and then implements
  * the functionality of the method in question.
- * 
+ *
  * In this case primarily focuses on communication with the IEC-61499 program over the Skill Bridge.
+ * Which skill and command a method stands for is decided when the method is created, see MethodRoute.
+ * A skill call returns to the client once the PLC has answered it, with Bad_Timeout, Bad_CommunicationError or
+ * Bad_RequestNotAllowed when the PLC didn't answer in time, the connection closed or the PLC refused the call.
+ * With asyncSkillCalls on (see ServerConfig) a call returns as soon as it's sent instead, the answer of the PLC is
+ * reported as a CallReturn event and the SDK's worker thread isn't kept waiting, see ModularNodeManager.callExecutor().
 */
 package com.SkillsProject.ModularServer;
 
 import org.slf4j.LoggerFactory;
 
-import java.util.Arrays;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
 import java.util.concurrent.TimeUnit;
 
 import org.slf4j.Logger;
+import com.SkillsProject.Common.CallResult;
+import com.SkillsProject.Common.CallType;
 import com.prosysopc.ua.StatusException;
 import com.prosysopc.ua.nodes.UaMethod;
 import com.prosysopc.ua.nodes.UaNode;
 import com.prosysopc.ua.server.CallableListener;
-import com.prosysopc.ua.server.NodeManagerUaNode;
 import com.prosysopc.ua.server.ServiceContext;
-import com.prosysopc.ua.server.nodes.PlainMethod;
 import com.prosysopc.ua.stack.builtintypes.DiagnosticInfo;
 import com.prosysopc.ua.stack.builtintypes.NodeId;
 import com.prosysopc.ua.stack.builtintypes.StatusCode;
+import com.prosysopc.ua.stack.builtintypes.UnsignedInteger;
 import com.prosysopc.ua.stack.builtintypes.Variant;
+import com.prosysopc.ua.stack.core.StatusCodes;
 
 public class ModularDeviceMethodManagerListener implements CallableListener{
 
 	private static Logger logger = LoggerFactory.getLogger(ModularDeviceMethodManagerListener.class);
-	private final UaNode myMethod;
 	private ModularNodeManager nodeMan;
+	//The skill, command and device set of the method.
+	private final MethodRoute route;
 
-	//Add the method node to handler
-	public ModularDeviceMethodManagerListener(UaNode myMethod, ModularNodeManager test) {
+	//The handler of one method, registered with the MethodDispatcher under the method's NodeId.
+	public ModularDeviceMethodManagerListener(ModularNodeManager test, MethodRoute route) {
 		super();
-		this.myMethod = myMethod;
 		this.nodeMan=test;
+		this.route = route;
+	}
+
+	public MethodRoute getRoute() {
+		return route;
 	}
 
 	//Primary method that is called when the client invokes one of the OPC UA Method objects.
-	//Parses which method is in question and invokes relevant address space methods.
+	//Invokes the command of the method's route. The MethodDispatcher only hands it the calls of its own method.
 	//Primarily for communicating with the IEC-61499 program over the skill bridge.
 	@Override
 	public boolean onCall(ServiceContext serviceContext, NodeId objectId, UaNode object, NodeId methodId, UaMethod method,
 		      final Variant[] inputArguments, final StatusCode[] inputArgumentResults,
 		      final DiagnosticInfo[] inputArgumentDiagnosticInfos, final Variant[] outputs) throws StatusException {
-				if (methodId.equals(myMethod.getNodeId())) {
-					logger.info("Method called: " + myMethod.getBrowseName() + ", Method ID: " + myMethod.getNodeId());
-					System.out.println("Method called: " + myMethod.getBrowseName().getName() + ", Method ID: " + myMethod.getNodeId());
-
-					//Temporarily here
-					String[] skillInfo = myMethod.getBrowseName().getName().split("_");
-					System.out.println("SkillInfo: " + Arrays.toString(skillInfo));
-					if(nodeMan.bridgeReady) {
-						//Parsing based solution instead of hard coded skill+method names
-						//First part is the method, the second is the skill that the call will be sent to.
-						logger.info("Skill method invoked: " + skillInfo[1] + ", For skill: " + skillInfo[0]);
-						switch (skillInfo[1]) {
-							case "Start":
-								try {
-									if(nodeMan.spaceBridge.sendStart(skillInfo[0], inputArguments[0].toString())) {
-										outputs[0] = new Variant(skillInfo[0] + " command "+ skillInfo[1] + " sent with input arguments: " + inputArguments[0].toString());
-									} else {
-										outputs[0] = new Variant("Failed to send command: " + skillInfo[1] + " due to an invalid state.");
-									}
-									return true;
-								} catch (Exception e) {
-									logger.error("Start method error: " + e);
-									e.printStackTrace();
-									outputs[0] = new Variant("Start method error: " + e);
-									return false;
-								}
-							case "Stop":
-								try {
-									if(nodeMan.spaceBridge.sendStop(skillInfo[0], inputArguments[0].toString())) {
-										outputs[0] = new Variant(skillInfo[0] + " command "+ skillInfo[1] + " sent with input arguments: " + inputArguments[0].toString());
-									} else {
-										outputs[0] = new Variant("Failed to send command: " + skillInfo[1] + " due to an invalid state.");
-									}
-									return true;
-								} catch (Exception e) {
-									logger.error("Stop method error: " + e);
-									e.printStackTrace();
-									outputs[0] = new Variant("Stop method error: " + e);
-									return false;
-								}
-							case "Suspend":
-								try {
-									if(nodeMan.spaceBridge.sendSuspend(skillInfo[0], inputArguments[0].toString())) {
-										outputs[0] = new Variant(skillInfo[0] + " command "+ skillInfo[1] + " sent with input arguments: " + inputArguments[0].toString());
-									} else {
-										outputs[0] = new Variant("Failed to send command: " + skillInfo[1] + " due to an invalid state.");
-									}
-									return true;
-								} catch (Exception e) {
-									logger.error("Suspend method error: " + e);
-									e.printStackTrace();
-									outputs[0] = new Variant("Suspend method error: " + e);
-									return false;
-								}
-							case "Resume":
-								try {
-									if(nodeMan.spaceBridge.sendResume(skillInfo[0], inputArguments[0].toString())) {
-										outputs[0] = new Variant(skillInfo[0] + " command "+ skillInfo[1] + " sent with input arguments: " + inputArguments[0].toString());
-									} else {
-										outputs[0] = new Variant("Failed to send command: " + skillInfo[1] + " due to an invalid state.");
-									}
-									return true;
-								} catch (Exception e) {
-									logger.error("Resume method error: " + e);
-									e.printStackTrace();
-									outputs[0] = new Variant("Resume method error: " + e);
-									return false;
-								}
-							case "Reset":
-								try {
-									if(nodeMan.spaceBridge.sendReset(skillInfo[0], inputArguments[0].toString())) {
-										outputs[0] = new Variant(skillInfo[0] + " command "+ skillInfo[1] + " sent with input arguments: " + inputArguments[0].toString());
-									} else {
-										outputs[0] = new Variant("Failed to send command: " + skillInfo[1] + " due to an invalid state.");
-									}
-									return true;
-								} catch (Exception e) {
-									logger.error("Reset method error: " + e);
-									e.printStackTrace();
-									outputs[0] = new Variant("Reset method error: " + e);
-									return false;
-								}
-							case "ReportCapabilities":
-								System.out.println("BAZINGA, It's a report. This isn't implemented yet.");
-								logger.debug("Unimplemented method called: " + skillInfo[1]);
-								outputs[0] = new Variant("Unimplemented Method called : ReportCapabilities");
-								return true;
-							case "ToggleSensorReporting":
-								System.out.println("BAZINGA, It's a report. This isn't implemented yet.");
-								logger.debug("Unimplemented method called: " + skillInfo[1]);
-								outputs[0] = new Variant("Unimplemented method called: ToggleSensorReporting");
-								return true;
+				logger.debug("Method called: {}", route);
+				//Keeps the methods of a lazily created skill from being evicted while they're in use.
+				nodeMan.lazyNodes.touch(objectId);
+				switch (route.command) {
+					case START:
+					case STOP:
+					case SUSPEND:
+					case RESUME:
+					case RESET:
+						return callSkill(inputArguments, outputs);
+					case REPORT_CAPABILITIES:
+					case TOGGLE_SENSOR_REPORTING:
+					case START_PLC:
+					case STOP_PLC:
+					case RESET_PLC:
+						logger.debug("Unimplemented method called: " + route.methodName);
+						outputs[0] = new Variant("Unimplemented method called: " + route.methodName);
+						return true;
+					case DISPENSE_MATERIAL:
+						//Dispensing takes three seconds.
+						if (nodeMan.asyncSkillCalls) {
+							//The end of it is announced with a server message.
+							outputs[0] = new Variant("Dispensing product");
+							CompletableFuture.delayedExecutor(3, TimeUnit.SECONDS, nodeMan.callExecutor()).execute(this::productDispensed);
+							return true;
 						}
-						//This shouldn't happen 
-						System.out.println("Switch for methods didn't fire. Method manager resolved in bad way.");
-						logger.error("The switch did a thing it's not meant to and the method resolved in an unintended way.");
-						return false;
-					} else if (skillInfo[1].equals("DispenseMaterial")) {
-						outputs[0] = new Variant("Product Dispensed");
 						try {
 							TimeUnit.SECONDS.sleep(3);
 						} catch (InterruptedException e) {
-							// TODO Auto-generated catch block
-							e.printStackTrace();
+							Thread.currentThread().interrupt();
 						}
+						outputs[0] = new Variant("Product Dispensed");
 						return true;
-					} else {
-						System.out.println("The SkillBridge isn't ready for some reason or your method was invalid.");
-						logger.error("SkillBridge is not ready for an unknown reason or your method was invalid.");
-						outputs[0] = new Variant("Skillbridge is not ready for a method, reason unknown.");
-						return true;
-					}
-						
+					default:
+						logger.error("No command is known for the method " + route.methodName + ", it can't be called.");
+						return false;
 				}
-				else {
-					return false;
+	}
+
+	//Sends the call of the method to its skill over the skill bridge of the device set.
+	//The input argument is passed on with its type so binary frames can send it typed.
+	//Returns once the PLC has answered, or once the call is sent with asyncSkillCalls on. Failed calls are reported to
+	//the client with their status code, a call the skill's state doesn't allow with Bad_InvalidState.
+	private boolean callSkill(Variant[] inputArguments, Variant[] outputs) throws StatusException {
+		Bridge bridge = nodeMan.getBridge(route.deviceSet);
+		if (bridge == null) {
+			logger.error("SkillBridge of " + route.deviceSet + " is not connected, " + route.methodName + " can't be called.");
+			outputs[0] = new Variant("Skillbridge is not ready for a method, reason unknown.");
+			return true;
+		}
+		//The call timeout of the bridge starts when the call arrives, not when it's sent to the PLC.
+		long deadline = bridge.deadline();
+		CallType callType = route.command.callType;
+		String suffix = callType.methodSuffix;
+		CompletableFuture<Boolean> pending;
+		try {
+			pending = bridge.beginSkillCall(route.skillName, callType, inputArguments[0].getValue(), deadline);
+			if (pending != null && pending.isCompletedExceptionally()) {
+				pending.getNow(false);
+			}
+		} catch (StatusException e) {
+			logger.error(suffix + " method error: " + e);
+			throw e;
+		} catch (CompletionException | CancellationException e) {
+			//Closed connections and calls already in progress are known before the call returns.
+			StatusException error = Bridge.callError(e, route.skillName, callType);
+			logger.error(suffix + " method error: " + error);
+			throw error;
+		}
+		if (pending == null) {
+			//A refused call is a failed call for the client, not an output to read.
+			logger.error(route.skillName + " can't " + suffix + " in its current state.");
+			throw new StatusException(route.skillName + " can't " + suffix + " in its current state.", StatusCodes.Bad_InvalidState);
+		}
+		if (!nodeMan.asyncSkillCalls) {
+			awaitAnswer(pending, callType);
+		} else {
+			pending.whenCompleteAsync((accepted, error) -> {
+				if (error != null) {
+					callFailed(Bridge.callError(error, route.skillName, callType));
 				}
+			}, nodeMan.callExecutor());
+		}
+		outputs[0] = new Variant(route.skillName + " command "+ suffix + " sent with input arguments: " + inputArguments[0].toString());
+		return true;
+	}
+
+	//Waits for the PLC to answer the call. A refused call, a timeout or a closed connection throws its status code.
+	private void awaitAnswer(CompletableFuture<Boolean> pending, CallType callType) throws StatusException {
+		try {
+			pending.get();
+		} catch (InterruptedException e) {
+			pending.cancel(false);
+			Thread.currentThread().interrupt();
+			throw new StatusException("The " + callType + " call of " + route.skillName + " was interrupted.",
+					StatusCodes.Bad_RequestCancelledByClient);
+		} catch (ExecutionException | CancellationException e) {
+			StatusException error = Bridge.callError(e, route.skillName, callType);
+			logger.error(callType.methodSuffix + " method error: " + error);
+			throw error;
+		}
+	}
+
+	//Handles a call that failed after it returned to the client, with asyncSkillCalls on.
+	//A refused call or an invalid result came with a CALLRET, which the bridge has already sent as a CallReturn event.
+	//A call the PLC didn't answer in time or at all gets a failed CallReturn event here, so clients waiting for the
+	//result of the call don't wait forever.
+	private void callFailed(StatusException error) {
+		logger.error(route.command.callType.methodSuffix + " method error: " + error);
+		UnsignedInteger status = error.getStatusCode().getValue();
+		if (StatusCodes.Bad_RequestNotAllowed.equals(status) || StatusCodes.Bad_UnexpectedError.equals(status)) {
+			return;
+		}
+		nodeMan.stateIngest.submitCallReturn(route.deviceSet, route.skillName, route.command.callType, CallResult.FAILED.name());
+	}
+
+	//Announces the end of dispensing to the clients.
+	private void productDispensed() {
+		try {
+			nodeMan.sendEvent("Product Dispensed by " + route.deviceSet);
+		} catch (StatusException e) {
+			logger.error("Failed to send the product dispensed message: " + e);
+		}
 	}
 }
@@ -9,14 +9,25 @@ package com.SkillsProject.ModularServer;
 import java.io.BufferedReader;
 import java.io.IOException;
 import java.io.InputStreamReader;
+import java.net.URI;
+import java.net.URL;
 import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Locale;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import com.SkillsProject.Common.CallType;
+import com.SkillsProject.Common.SkillEventNames;
 import com.prosysopc.ua.StatusException;
 import com.prosysopc.ua.UaBrowsePath;
 import com.prosysopc.ua.UaQualifiedName;
@@ -28,7 +39,6 @@ import com.prosysopc.ua.nodes.UaObjectType;
 import com.prosysopc.ua.nodes.UaReference;
 import com.prosysopc.ua.nodes.UaType;
 import com.prosysopc.ua.nodes.UaVariable;
-import com.prosysopc.ua.server.CallableListener;
 import com.prosysopc.ua.server.MethodManagerUaNode;
 import com.prosysopc.ua.server.ModellingRule;
 import com.prosysopc.ua.server.NodeManagerUaNode;
@@ -39,8 +49,6 @@ import com.prosysopc.ua.server.nodes.PlainProperty;
 import com.prosysopc.ua.server.nodes.PlainVariable;
 import com.prosysopc.ua.server.nodes.UaObjectNode;
 import com.prosysopc.ua.server.nodes.UaObjectTypeNode;
-import com.prosysopc.ua.stack.builtintypes.ByteString;
-import com.prosysopc.ua.stack.builtintypes.DateTime;
 import com.prosysopc.ua.stack.builtintypes.ExpandedNodeId;
 import com.prosysopc.ua.stack.builtintypes.LocalizedText;
 import com.prosysopc.ua.stack.builtintypes.NodeId;
@@ -48,6 +56,7 @@ import com.prosysopc.ua.stack.builtintypes.QualifiedName;
 import com.prosysopc.ua.stack.builtintypes.UnsignedInteger;
 import com.prosysopc.ua.stack.core.Argument;
 import com.prosysopc.ua.stack.core.Identifiers;
+import com.prosysopc.ua.stack.core.StatusCodes;
 import com.prosysopc.ua.types.opcua.server.BaseObjectTypeNode;
 import com.prosysopc.ua.types.opcua.server.FiniteStateMachineTypeNode;
 import com.prosysopc.ua.types.opcua.server.InitialStateTypeNode;
@@ -63,11 +72,10 @@ import com.prosysopc.ua.types.plc.server.PlcServerInformationModel;
 
 public class ModularNodeManager extends NodeManagerUaNode{
 	//Definitions and declarations.
-	public static final String NAMESPACE = "SkillsThesisNamespace";
+	public static final String NAMESPACE = SkillEventNames.NAMESPACE;
 	//public static final String NAMESPACE = "http://opcfoundation.org/UA/DI/";
 	private static final Logger logger = LoggerFactory.getLogger(ModularNodeManager.class);
 	private String serverType;
-	private CallableListener myDevicetMethodManagerListener;
 	private DeviceEventManagerListener myDeviceEventManagerListener = new DeviceEventManagerListener();
 	protected NodeManagerUaNode beltNodeManager;
 	UaServer server;
@@ -81,11 +89,40 @@ public class ModularNodeManager extends NodeManagerUaNode{
 	public Map<String,UaVariable> spaceVariables;
 	public Map<String,UaMethod> spaceMethods;
 	public Map<String, UaObjectNode> spaceSkills;
+	public Map<String, Map<String, UaObjectNode>> spaceDeviceSkills;
 	public TcpIOServer spaceServer;
-	//TODO: Update with multiple bridge functionality.
-	//public Map<String, Bridge> bridgeMap = new HashMap<String, Bridge>();
-	public Bridge spaceBridge;
-	public Boolean bridgeReady = false;
+	//Ports of the skill bridges given up front, keyed by device set. Used instead of asking the user.
+	public Map<String, Integer> bridgePorts = new HashMap<String, Integer>();
+	//When false device sets without a port in bridgePorts get the default port instead of asking the user.
+	public boolean promptBridgePorts = true;
+	//How the PLC connections are served, see ExecutionMode.
+	public ExecutionMode executionMode = ExecutionMode.fromProperty();
+	//Applies the skill states and events reported by the skill bridges.
+	public SkillStateIngest stateIngest;
+	//When true skill calls return to the client once sent instead of once the PLC has answered, see ServerConfig.
+	public boolean asyncSkillCalls = false;
+	//Runs what's left of a method call after the call has returned to the client, see callExecutor().
+	private ExecutorService callExecutor;
+	//Finds the handler of a method call by the method's NodeId. The only call listener of the method manager.
+	public MethodDispatcher methodDispatcher = new MethodDispatcher();
+	//Name lookups of the nodes created for the address space, filled while it's built.
+	public NodeIndex nodeIndex = new NodeIndex();
+	//The DeviceSet object all devices are organized under.
+	public UaNode deviceSetNode;
+	//Threads building the device sets of a combined server. The default of 1 builds them one after another.
+	//More threads create nodes concurrently through this node manager, which the SDK doesn't promise to be safe, so it's opt-in.
+	public int buildParallelism = Integer.getInteger("modularserver.buildParallelism", 1);
+	//Defers the sub-nodes of devices and skills until a client browses them, when lazy mode is on.
+	public LazyNodes lazyNodes = new LazyNodes(this, LazyNodes.enabledByProperty());
+	//Types the sets of lazy objects are created with, kept from building the address space.
+	private UaType lazyBaseObjectType;
+	private UaType lazyFuncGroupType;
+	//The devices of every server type. Loaded with DeviceModelLoader when the address space is created, unless set before.
+	public DeviceModel deviceModel;
+	//Sends the skill events to the clients.
+	public SkillEventEmitter eventEmitter = new SkillEventEmitter(this, myDeviceEventManagerListener);
+	//Registry of the connected skill bridges, keyed by the device set they serve.
+	public Map<String, Bridge> bridgeMap = new ConcurrentHashMap<String, Bridge>();
 	
 	public ModularNodeManager(UaServer inServ, String Uri, String serverType) {
 		super(inServ, Uri);
@@ -95,13 +132,36 @@ public class ModularNodeManager extends NodeManagerUaNode{
 		server.registerModel(DiServerInformationModel.MODEL);
 		server.registerModel(PlcServerInformationModel.MODEL);
 		try {
-			server.getAddressSpace().loadModel(DiServerInformationModel.class.getResource("Opc.Ua.Di.NodeSet2.xml").toURI());
-			server.getAddressSpace().loadModel(PlcServerInformationModel.class.getResource("Opc.Ua.Plc.NodeSet2.xml").toURI());
+			//Loaded from the compacted copies NodeSetCache keeps, the originals are only read to check the copies.
+			NodeSetCache nodeSetCache = NodeSetCache.fromProperty();
+			for (URL nodeSet: companionNodeSets()) {
+				loadNodeSet(nodeSetCache, nodeSet);
+			}
 		}catch(Exception e) {
 			System.out.println("Error in loading models: " + e);
 			logger.error("Error in loading models: " + e);
 		}
 	}
+	//The companion specification NodeSets every device server loads, DI first since PLC builds on it.
+	public static List<URL> companionNodeSets() {
+		return List.of(DiServerInformationModel.class.getResource("Opc.Ua.Di.NodeSet2.xml"),
+				PlcServerInformationModel.class.getResource("Opc.Ua.Plc.NodeSet2.xml"));
+	}
+	//Loads a NodeSet from its cached copy, and from the original if the SDK rejects the copy.
+	private void loadNodeSet(NodeSetCache nodeSetCache, URL nodeSet) throws Exception {
+		URI original = nodeSet.toURI();
+		URI uri = nodeSetCache.resolve(nodeSet);
+		if (uri.equals(original)) {
+			server.getAddressSpace().loadModel(original);
+			return;
+		}
+		try {
+			server.getAddressSpace().loadModel(uri);
+		} catch (Exception e) {
+			logger.warn("Failed to load the compacted NodeSet " + uri + ", loading the original: " + e);
+			server.getAddressSpace().loadModel(original);
+		}
+	}
 	@Override
 	protected void init() throws StatusException, UaNodeFactoryException {
 		super.init();
@@ -111,6 +171,12 @@ public class ModularNodeManager extends NodeManagerUaNode{
 	protected void createAddressSpace() throws StatusException {
 		//Set the event manager listener
 		this.getEventManager().setListener(myDeviceEventManagerListener);
+		//Register the method dispatcher. The method handlers are added to it as the methods are created.
+		((MethodManagerUaNode) this.getMethodManager()).addCallListener(methodDispatcher);
+		//In lazy mode browsing a device or skill creates its sub-nodes.
+		if (lazyNodes.isEnabled()) {
+			this.addListener(lazyNodes);
+		}
 		
 		//Get the namespace index for creating future NodeID objects.
 		int ns = getNamespaceIndex();
@@ -121,18 +187,10 @@ public class ModularNodeManager extends NodeManagerUaNode{
 		//Call function for creating the address space.
 		createAddressSpace(this.server, ns, typeMap, serverType);
 		
-		//Create the DeviceSet object.
-		final UaNode objFolder = server.getNodeManagerRoot().getObjectsFolder();
-		UaReference[] comps = objFolder.getReferences(Identifiers.Organizes,false);
-		UaNode deviceSet = null;
-		for (UaReference comp:comps) {
-			if (comp.getTargetNode().getBrowseName().getName().equals("DeviceSet")) {
-				deviceSet = comp.getTargetNode();
-			}
-		}
-		
 		//Finally, crate the state event node used for sending events.
-		createStateEventNode("StateEventTest", ns, deviceSet);
+		//The DeviceSet object was found while creating the address space.
+		createStateEventNode("StateEventTest", ns, deviceSetNode);
+		lazyNodes.startEviction(Long.getLong(LazyNodes.EVICT_PROPERTY, 300));
 		logger.info("Address space created");
 	}
 	
@@ -141,14 +199,15 @@ public class ModularNodeManager extends NodeManagerUaNode{
 	private Map<String, UaObjectType> createTypeNodes(UaServer server, int ns) throws StatusException {
 		//Retrieve various base types for easier access.
 		final UaType baseObjectType = server.getNodeManagerRoot().getType(Identifiers.BaseObjectType);
-		UaType topType = getSubType(baseObjectType, "TopologyElementType");
-		UaType compType = getSubType(topType, "ComponentType");
-		UaType deviceType = getSubType(compType, "DeviceType");
-		UaType softwareType = getSubType(compType,"SoftwareType");
+		UaType topType = nodeIndex.getSubType(baseObjectType, "TopologyElementType");
+		UaType compType = nodeIndex.getSubType(topType, "ComponentType");
+		UaType deviceType = nodeIndex.getSubType(compType, "DeviceType");
+		UaType softwareType = nodeIndex.getSubType(compType,"SoftwareType");
 		
 		//Create a list of the names of all types to be created.
-		List<String> typeNames = List.of("SkillBridge","SoftwareComponent", "ConveyorDevice", "ManipulatorDevice", "Iceblock"
-						, "BeltComponent", "PistonComponent", "GrippingComponent", "SensorComponent", "SkillObjectType");
+		//The device model can use all of them except the skill type.
+		List<String> typeNames = new ArrayList<String>(DeviceModelLoader.OBJECT_TYPES);
+		typeNames.add("SkillObjectType");
 		
 		//Loop through the list of types, using a switch-case to handle differing base types.
 		for (String name:typeNames) {
@@ -221,10 +280,12 @@ public class ModularNodeManager extends NodeManagerUaNode{
 		final UaType hasComponentRef = server.getNodeManagerRoot().getType(Identifiers.HasComponent);
 		UaType boolType = server.getNodeManagerRoot().getType(Identifiers.Boolean);
 		UaType folderType = server.getNodeManagerRoot().getType(Identifiers.FolderType);
-		UaType funcGroupType = getSubType(folderType, "FunctionalGroupType");
-		UaType hasInputsType = getSubType(hasComponentRef ,"HasInputVars");
-		UaType hasOutputsType = getSubType(hasComponentRef ,"HasOutputVars");
+		UaType funcGroupType = nodeIndex.getSubType(folderType, "FunctionalGroupType");
+		UaType hasInputsType = nodeIndex.getSubType(hasComponentRef ,"HasInputVars");
+		UaType hasOutputsType = nodeIndex.getSubType(hasComponentRef ,"HasOutputVars");
 		UaType organizesType = server.getNodeManagerRoot().getType(Identifiers.Organizes);
+		lazyBaseObjectType = baseObjectType;
+		lazyFuncGroupType = funcGroupType;
 		
 		//General address space creation prior to the creation of the devices.
 		//Get the objects folder to act as a parent.
@@ -237,436 +298,162 @@ public class ModularNodeManager extends NodeManagerUaNode{
 				deviceSet = comp.getTargetNode();
 			}
 		}
+		deviceSetNode = deviceSet;
 		//Make the device set the object folder's child in the hierarchy.
 		objFolder.addReference(deviceSet, Identifiers.Organizes, false);
 		objFolder.addReference(deviceSet, Identifiers.HasNotifier, false);
 		
-		//Create a list of servers to create and arrays to populate to iterate through for creation.
+		//The devices, variables, methods and skills of every server type come from the device model.
+		if (deviceModel == null) {
+			try {
+				deviceModel = DeviceModelLoader.fromProperties().load();
+			} catch (Exception e) {
+				System.out.println("The device model could not be loaded: " + e);
+				logger.error("The device model could not be loaded, no devices are created: " + e);
+				deviceModel = new DeviceModel();
+			}
+		}
+		DeviceModel.ServerModel serverModel = deviceModel.getServer(serverType);
+		
+		//Create a list of servers to create.
 		//In server list first part is the server name, the second is the server type.
-		Map<String, String> serverList = new HashMap<String, String>();
-		Map<String,String> parentList = new HashMap <String, String>();
-		Map<String,String> componentList = new HashMap <String, String>();
-		Map<String,String> skillList = new HashMap <String, String>();
+		Map<String, String> serverList = new LinkedHashMap<String, String>();
 		//Create a map of newly created device objects so that we can add them as parents down the line.
 		Map<String,UaObjectNode> createdObjects = new HashMap <String, UaObjectNode>();
 		Map<String,UaVariable> createdVariables = new HashMap <String, UaVariable>();
 		Map<String,UaMethod> createdMethods = new HashMap <String, UaMethod>();
 		Map<String, UaObjectNode> createdSkills = new HashMap <String, UaObjectNode>();
+		Map<String, Map<String, UaObjectNode>> createdDeviceSkills = new HashMap <String, Map<String, UaObjectNode>>();
 		
-		//For the sake of creating the combined server create a list of server address spaces to create.
-		if (serverType.equals("CombinedServer")) {
-			serverList.put("Belt_1", "BeltServer");
-			serverList.put("Belt_2", "BeltServer");
-			serverList.put("BeltGripper_1", "BeltandGripperServer");
-			serverList.put("BeltGripper_2", "BeltandGripperServer");
-			serverList.put("JackSledge_1", "JackandSledgeServer");
-			serverList.put("JackSledge_2", "JackandSledgeServer");
-			serverList.put("VirtualReactionVessel", "VirtualTankServer");
+		//A combined server creates a device set for each of the server types it lists.
+		if (serverModel == null) {
+			System.out.println("An attempt to create a server with an invalid type was made.");
+			logger.error("The device model has no server type " + serverType + ", it has " + deviceModel.getServerTypes());
+		} else if (serverModel.isCombined()) {
+			serverList.putAll(serverModel.deviceSets);
 		} else {
 			serverList.put(serverType, serverType);
 		}
+		final boolean combined = serverModel != null && serverModel.isCombined();
 		
-		//Create the topParent variable to target either a deviceSet or other organization object.
-		UaNode topParent = null;
-		
-		//Iterate through server list to create multiple servers if need be.
-		for (Map.Entry<String,String> serverInst: serverList.entrySet()) {
-		//If creating a singular server do nothing
-		//If creating a combined server create the subDeviceSets that organize/separate the subservers. 
-			if (serverType.equals("CombinedServer")) {
-				NodeId topParentId= new NodeId(ns, serverInst.getKey()+"_Set");
-				topParent = new UaObjectNode(this, topParentId, serverInst.getKey()+"_Set", Locale.ENGLISH);
-				deviceSet.addReference(topParent, Identifiers.Organizes, false);
-				deviceSet.addReference(topParent, Identifiers.HasNotifier, false);
-			}else {
-				topParent = deviceSet;
-			}
-
-		//Create a new map that will contain the name of the object and its type.
-		//Used to list out all the components of the address space model.
-		//This list will then be iterated in order to later create all the objects.
-		//Various things taken from addressspace models (see drive)
-		//Types:
-		//"SkillBridge","SoftwareComponent", "ConveyorDevice", "ManipulatorDevice", 
-		//"SkillStateMachine" ,"BeltComponent", "PistonComponent", "GrippingComponent", 
-		//"SensorComponent", Method, Variable
-			parentList.clear();
-			componentList.clear();
-			skillList.clear();
-			switch (serverInst.getValue()) {
-				case "BeltServer":
-					//Components: "BeltIceBlock", "Belt", "SkillBridge", "MotorBelt", "BeltMotionSkills", "BeltRFIDSensor"
-					//Vars: MotorOutput
-					//Methods: StartBelt, StopBelt
-					//Skill state machines:
-					parentList.put(serverInst.getKey()+"_BeltController", "PLC");
-					parentList.put(serverInst.getKey()+"_Belt", "ConveyorDevice");
-					parentList.put(serverInst.getKey()+"_SkillBridgeNode", "SkillBridge");
-					parentList.put(serverInst.getKey()+"_RFIDSensor", "SensorComponent");
-					parentList.put(serverInst.getKey()+"_OpticalSensor", "SensorComponent");
-					componentList.put(serverInst.getKey()+"_MotorBelt", "BeltComponent");
-					componentList.put(serverInst.getKey()+"_DeviceSkills", "SoftwareComponent");
-					componentList.put(serverInst.getKey()+"_MotorOutput", "outVar");
-					componentList.put(serverInst.getKey()+"_ReportCapabilities", "Method");
-					componentList.put(serverInst.getKey()+"_ToggleSensorReporting", "Method");
-					componentList.put(serverInst.getKey()+"_SomethingBySensor", "inVar");
-					skillList.put(serverInst.getKey()+"_BeltPauseOnSensor","BeltSensPause");
-					skillList.put(serverInst.getKey()+"_BeltRunWithoutPauses", "BeltRunWOPause");
-					break;
-				case "BeltandGripperServer":
-					//Components: "BeltGripperIceBlock", "SkillBridge", "Belt", "Grip", "MotorBelt", "BeltMotionSkills"
-					// cont: "PistonGripper", "HorzPiston", "Gripper", "PistonGripperSensors", "PistonGripperSkills", "RFIDSensor"
-					//Vars Out: MotorOutput
-					//Vars In: Top, Bottom, Grip
-					//Methods: StartBelt, StopBelt, PickAndHold, PutDown, PickAndPutDown
-					//Skill state machines:
-					parentList.put(serverInst.getKey()+"_BeltGripperController", "PLC");
-					parentList.put(serverInst.getKey()+"_SkillBridgeNode", "SkillBridge");
-					parentList.put(serverInst.getKey()+"_Belt", "ConveyorDevice");
-					parentList.put(serverInst.getKey()+"_PistonGripper", "ManipulatorDevice");
-					parentList.put(serverInst.getKey()+"_OpticalSensor", "SensorComponent");
-					parentList.put(serverInst.getKey()+"_RFIDSensor", "SensorComponent");
-					componentList.put(serverInst.getKey()+"_Gripper", "GrippingComponent");
-					componentList.put(serverInst.getKey()+"_MotorBelt", "BeltComponent");
-					componentList.put(serverInst.getKey()+"_HorzPiston", "PistonComponent");
-					componentList.put(serverInst.getKey()+"_PistonGripperSensors", "gripSensorComponent");
-					componentList.put(serverInst.getKey()+"_DeviceSkills", "SoftwareComponent");
-					componentList.put(serverInst.getKey()+"_MotorOutput", "beltOutVar");
-					componentList.put(serverInst.getKey()+"_Grip", "gripOutVar");
-					componentList.put(serverInst.getKey()+"_Top", "gripInVar");
-					componentList.put(serverInst.getKey()+"_Bottom", "gripInVar");
-					componentList.put(serverInst.getKey()+"_ReportCapabilities", "Method");
-					componentList.put(serverInst.getKey()+"_ToggleSensorReporting", "Method");
-					componentList.put(serverInst.getKey()+"_SomethingBySensor", "sensInVar");
-					componentList.put(serverInst.getKey()+"_Down", "gripOutVar");
-					skillList.put(serverInst.getKey()+"_BeltPauseOnSensor","BeltSensPause");
-					skillList.put(serverInst.getKey()+"_BeltRunWithoutPauses", "BeltRunWOPause");
-					skillList.put(serverInst.getKey()+"_GripperGripAndHold", "GripGripAndHold");
-					skillList.put(serverInst.getKey()+"_GripperGripAndPutDown", "GripGripPutDown");
-					break;
-				case "JackandSledgeServer":
-					//Components: "JackSledgeIceBlock", "SkillBridge", "JackSledge", "VertPistons", "HorzPiston"
-					// cont: "SledgePiston", "VaccumPump", "JackSledgeSensors", "JackSledgeSkills"
-					//Vars Out: Extend, Down, Vacuum, Sledge
-					//Vars In: Top, Bottom, Extended, Retracted
-					//Methods: Jack_Place, Jack_Remove
-					//Skill state machines:
-					parentList.put(serverInst.getKey()+"_JackSledgeController", "PLC");
-					parentList.put(serverInst.getKey()+"_SkillBridgeNode", "SkillBridge");
-					parentList.put(serverInst.getKey()+"_JackSledge", "ManipulatorDevice");
-					componentList.put(serverInst.getKey()+"_VertPiston", "PistonComponent");
-					componentList.put(serverInst.getKey()+"_HorzPiston", "PistonComponent");
-					componentList.put(serverInst.getKey()+"_SledgePiston", "PistonComponent");
-					componentList.put(serverInst.getKey()+"_VacuumPump", "GrippingComponent");
-					componentList.put(serverInst.getKey()+"_JackSledgeSensors", "SensorComponent");
-					componentList.put(serverInst.getKey()+"_DeviceSkills", "SoftwareComponent");
-					componentList.put(serverInst.getKey()+"_Extend", "outVar");
-					componentList.put(serverInst.getKey()+"_Down", "outVar");
-					componentList.put(serverInst.getKey()+"_Vacuum", "outVar");
-					componentList.put(serverInst.getKey()+"_Sledge", "outVar");
-					componentList.put(serverInst.getKey()+"_Top", "inVar");
-					componentList.put(serverInst.getKey()+"_Bottom", "inVar");
-					componentList.put(serverInst.getKey()+"_Extended", "inVar");
-					componentList.put(serverInst.getKey()+"_Retracted", "inVar");
-					componentList.put(serverInst.getKey()+"_ReportCapabilities", "Method");
-					skillList.put(serverInst.getKey()+"_JackFromBeltToSledgeOne", "JnSBtSOne");
-					skillList.put(serverInst.getKey()+"_JackFromBeltToSledgeTwo", "JnSBtSTwo");
-					skillList.put(serverInst.getKey()+"_JackFromSledgeOneToBelt", "JnSStBOne");
-					skillList.put(serverInst.getKey()+"_JackFromSledgeTwoToBelt", "JnSStBTwo");
-					skillList.put(serverInst.getKey()+"_BeltPauseOnSensor","BeltSensPause");
-					skillList.put(serverInst.getKey()+"_BeltRunWithoutPauses", "BeltRunWOPause");
-					break;
-				//For creating the digital only tank server if there is time to implement that.
-				case "VirtualTankServer":
-					parentList.put(serverInst.getKey()+"_VirtualTankController", "PLC");
-					parentList.put(serverInst.getKey()+"_ReactionTank", "ManipulatorDevice");
-					componentList.put(serverInst.getKey()+"_OutletTankValve", "ManipulatorDevice");
-					componentList.put(serverInst.getKey()+"_InletTankValve", "ManipulatorDevice");
-					componentList.put(serverInst.getKey()+"_DispenseMaterial", "Method");
-					break;
-				default:
-					System.out.println("An attempt to create a server with an invalid type was made.");
-			}
-			
-			//Iterate through list of parents that should've been saved in maps.
-			//Parents and their children are iterated separately due to strange behavior with timing and objects being created in the wrong order.
-			//Create to create objects and add the requisite relations.
-			for(Map.Entry<String,String> entry: parentList.entrySet()) {
-				switch(entry.getValue()) {
-					case "PLC":
-						createdObjects.put(entry.getKey(), createPLC(entry.getKey(), topParent, ns, baseObjectType, funcGroupType));
-						break;
-					case "SkillBridge":
-						//TODO: Update for multiple bridge support
-						//bridgeMap.put(entry.getKey(), createSkillBridge(entry.getKey(), ns));
-						spaceServer = createSkillBridge(entry.getKey(), ns, topParent);
-						break;
-					case "SoftwareComponent":
-						createdObjects.put(entry.getKey(),createSoftwareComponent(entry.getKey(), topParent, typeMap.get(entry.getValue()), baseObjectType, organizesType, funcGroupType, ns, true));
-						break;
-					case "SensorComponent":
-					case "ConveyorDevice":
-					case "ManipulatorDevice":
-						createdObjects.put(entry.getKey(),createDevice(entry.getKey(), topParent, typeMap.get(entry.getValue()), baseObjectType, funcGroupType, ns, true));
-						break;
-					default:
-						System.out.println("A parent with an unintended type was attempted to be created.");
-						logger.error("An attempt was made to create a parent object with an invalid type.");
-						break;
-				}
-			}
-			
-			//Iterate through the list of child components and create them, adding references to parents
-			//Done this way due to weird behavior with timing and the parent object being null.
-			//Switch to select the server type that is created with the interior switch for creating the correct type of object.
-			switch(serverInst.getValue()) {
-			case "BeltServer":
-				for(Map.Entry<String,String> entry: componentList.entrySet()) {
-					switch(entry.getValue()) {
-						case "BeltComponent":
-							createdObjects.put(entry.getKey(),createDevice(entry.getKey(), createdObjects.get(serverInst.getKey()+"_Belt"), typeMap.get(entry.getValue()), baseObjectType, funcGroupType, ns, true));
-							break;
-						case "SoftwareComponent":
-							if (entry.getKey().contains("DeviceSkills")) {
-								createdObjects.put(entry.getKey(),createSoftwareComponent(entry.getKey(), topParent, typeMap.get(entry.getValue()), baseObjectType, organizesType, funcGroupType, ns, false));
-								break;
-							}
-							else {
-								createdObjects.put(entry.getKey(),createSoftwareComponent(entry.getKey(), topParent, typeMap.get(entry.getValue()), baseObjectType, organizesType, funcGroupType, ns, true));
-								break;
-							}
-						case "outVar":
-							createdVariables.put(entry.getKey(), createVariable(entry.getKey(), createdObjects.get(serverInst.getKey()+"_Belt"), boolType, hasOutputsType, ns));
-							break;
-						case "inVar":
-							if (entry.getKey().equals("SomethingBySensor")) {
-								createdVariables.put(entry.getKey(), createVariable(entry.getKey(), createdObjects.get(serverInst.getKey()+"_OpticalSensor"), boolType, hasInputsType, ns));
-							}
-							else {
-								createdVariables.put(entry.getKey(), createVariable(entry.getKey(), createdObjects.get(serverInst.getKey()+"_Belt"), boolType, hasInputsType, ns));
-							}
-							break;
-						case "Method":
-							if(entry.getKey().equals("ToggleSensorReporting")) {
-								createdMethods.put(entry.getKey(), createMethod(entry.getKey(), entry.getKey(), createdObjects.get(serverInst.getKey()+"_OpticalSensor"), ns, true));
-							}
-							else {
-								createdMethods.put(entry.getKey(), createMethod(entry.getKey(), entry.getKey(), createdObjects.get(serverInst.getKey()+"_Belt"), ns, true));
-							}
-							break;
-						default:
-							System.out.println("\n\n A child with an invalid type was made: " + entry.getValue() + "\n\n");
-							logger.error("An attempt was made to create a child with an invalid type.");
-							break;
-					}
-				}
-				break;
-			case "JackandSledgeServer":
-				for(Map.Entry<String,String> entry: componentList.entrySet()) {
-					switch(entry.getValue()) {
-						case "SensorComponent":
-						case "GrippingComponent":
-						case "PistonComponent":
-						case "Sensorcomponent":
-							createdObjects.put(entry.getKey(),createDevice(entry.getKey(), createdObjects.get(serverInst.getKey()+"_JackSledge"), typeMap.get(entry.getValue()), baseObjectType, funcGroupType, ns, true));
-							break;
-						case "SoftwareComponent":
-						//createdObjects.put(entry.getKey(),createSoftwareComponent(entry.getKey(), createdObjects.get("JackSledge"), typeMap.get(entry.getValue()), baseObjectType, organizesType, funcGroupType, ns));
-							if (entry.getKey().contains("DeviceSkills")) {
-								createdObjects.put(entry.getKey(),createSoftwareComponent(entry.getKey(), topParent, typeMap.get(entry.getValue()), baseObjectType, organizesType, funcGroupType, ns, false));
-								break;
-							}
-							else {
-								createdObjects.put(entry.getKey(),createSoftwareComponent(entry.getKey(), topParent, typeMap.get(entry.getValue()), baseObjectType, organizesType, funcGroupType, ns, true));
-								break;
-							}
-						case "outVar":
-							createdVariables.put(entry.getKey(), createVariable(entry.getKey(), createdObjects.get(serverInst.getKey()+"_JackSledge"), boolType, hasOutputsType, ns));
-							break;
-						case "inVar":
-							createdVariables.put(entry.getKey(), createVariable(entry.getKey(), createdObjects.get(serverInst.getKey()+"_JackSledge"), boolType, hasInputsType, ns));
-							break;
-						case "Method":
-							createdMethods.put(entry.getKey(), createMethod(entry.getKey(), entry.getKey(), createdObjects.get(serverInst.getKey()+"_JackSledge"), ns, true));
-							break;
-						default:
-							System.out.println("\n\n A child with an invalid type was made: " + entry.getValue() + "\n\n");
-							logger.error("An attempt was made to create a child with an invalid type.");
-							break;
-					}
+		//The device sets share no nodes until they are attached to the DeviceSet, so their sub-trees can be built concurrently
+		//when buildParallelism allows it. The nodes are still created through this node manager, so it stays opt-in.
+		//A single server has only one device set and builds it on this thread.
+		List<DeviceSetTree> trees = new ArrayList<DeviceSetTree>();
+		if (serverList.size() > 1 && buildParallelism > 1) {
+			ForkJoinPool pool = new ForkJoinPool(Math.min(buildParallelism, serverList.size()));
+			try {
+				List<ForkJoinTask<DeviceSetTree>> tasks = new ArrayList<ForkJoinTask<DeviceSetTree>>();
+				for (Map.Entry<String,String> serverInst: serverList.entrySet()) {
+					tasks.add(pool.submit(() -> buildDeviceSet(serverInst.getKey(), serverInst.getValue(), combined, deviceSetNode, ns, typeMap,
+							baseObjectType, funcGroupType, organizesType, boolType, hasInputsType, hasOutputsType)));
 				}
-				break;
-			case "BeltandGripperServer":
-				for(Map.Entry<String,String> entry: componentList.entrySet()) {
-					switch(entry.getValue()) {
-						case "gripSensorComponent":
-							createdObjects.put(entry.getKey(),createDevice(entry.getKey(), createdObjects.get(serverInst.getKey()+"_PistonGripper"), typeMap.get("SensorComponent"), baseObjectType, funcGroupType, ns, true));
-							break;
-						case "PistonComponent":
-						case "GrippingComponent":
-							createdObjects.put(entry.getKey(),createDevice(entry.getKey(), createdObjects.get(serverInst.getKey()+"_PistonGripper"), typeMap.get(entry.getValue()), baseObjectType, funcGroupType, ns, true));
-							break;
-						case "beltSoftwareComponent":
-							createdObjects.put(entry.getKey(),createSoftwareComponent(entry.getKey(), createdObjects.get(serverInst.getKey()+"_Belt"), typeMap.get("SoftwareComponent"), baseObjectType, organizesType, funcGroupType, ns, true));
-							break;
-						case "gripSoftwareComponent":
-							createdObjects.put(entry.getKey(),createSoftwareComponent(entry.getKey(), createdObjects.get(serverInst.getKey()+"_PistonGripper"), typeMap.get("SoftwareComponent"), baseObjectType, organizesType, funcGroupType, ns, true));
-							break;
-						case "SoftwareComponent":
-							if (entry.getKey().contains("DeviceSkills")) {
-								createdObjects.put(entry.getKey(),createSoftwareComponent(entry.getKey(), topParent, typeMap.get(entry.getValue()), baseObjectType, organizesType, funcGroupType, ns, false));
-								break;
-							}
-							else {
-								createdObjects.put(entry.getKey(),createSoftwareComponent(entry.getKey(), topParent, typeMap.get(entry.getValue()), baseObjectType, organizesType, funcGroupType, ns, true));
-								break;
-							}
-						case "BeltComponent":
-							createdObjects.put(entry.getKey(),createDevice(entry.getKey(), createdObjects.get(serverInst.getKey()+"_Belt"), typeMap.get(entry.getValue()), baseObjectType, funcGroupType, ns, true));
-							break;
-						case "beltInVar":
-							createdVariables.put(entry.getKey(), createVariable(entry.getKey(), createdObjects.get(serverInst.getKey()+"_Belt"), boolType, hasInputsType, ns));
-							break;
-						case "beltOutVar":
-							createdVariables.put(entry.getKey(), createVariable(entry.getKey(), createdObjects.get(serverInst.getKey()+"_Belt"), boolType, hasOutputsType, ns));
-							break;
-						case "beltMethod":
-							createdMethods.put(entry.getKey(), createMethod(entry.getKey(), entry.getKey(),createdObjects.get(serverInst.getKey()+"_Belt"), ns, true));
-							break;
-						case "gripInVar":
-							createdVariables.put(entry.getKey(), createVariable(entry.getKey(), createdObjects.get(serverInst.getKey()+"_PistonGripper"), boolType, hasInputsType, ns));
-							break;
-						case "gripOutVar":
-							createdVariables.put(entry.getKey(), createVariable(entry.getKey(), createdObjects.get(serverInst.getKey()+"_PistonGripper"), boolType, hasOutputsType, ns));
-							break;
-						case "gripMethod":
-							createdMethods.put(entry.getKey(), createMethod(entry.getKey(), entry.getKey(), createdObjects.get(serverInst.getKey()+"_PistonGripper"), ns, true));
-							break;
-						case "sensMethod":
-							createdMethods.put(entry.getKey(), createMethod(entry.getKey(), entry.getKey(),createdObjects.get(serverInst.getKey()+"_OpticalSensor"), ns, true));
-							break;
-						case "sensInVar":
-							//System.out.println(entry.getKey());
-							createdVariables.put(entry.getKey(), createVariable(entry.getKey(), createdObjects.get(serverInst.getKey()+"_OpticalSensor"), boolType, hasInputsType, ns));
-							break;
-						case "Method":
-							createdMethods.put(entry.getKey(), createMethod(entry.getKey(), entry.getKey(),createdObjects.get(serverInst.getKey()+"_BeltGripperController"), ns, true));
-							break;
-						default:
-							System.out.println("\n\n A child with an invalid type was made: " + entry.getValue() + "\n\n");
-							logger.error("An attempt was made to create a child with an invalid type.");
-							break;
-					}
+				for (ForkJoinTask<DeviceSetTree> task: tasks) {
+					trees.add(task.get());
 				}
-				break;
-			case "VirtualTankServer":
-				for(Map.Entry<String,String> entry: componentList.entrySet()) {
-					switch(entry.getValue()) {
-					case "ManipulatorDevice":
-						createdObjects.put(entry.getKey(),createDevice(entry.getKey(), createdObjects.get(serverInst.getKey()+"_ReactionTank"), typeMap.get(entry.getValue()), baseObjectType, funcGroupType, ns, true));
-						break;
-					case "Method":
-						createdMethods.put(entry.getKey(), createMethod(entry.getKey(), entry.getKey(), createdObjects.get(serverInst.getKey()+"_ReactionTank"), ns, true));
-						break;
-					default:
-						System.out.println("\n\n A child with an invalid type was made: " + entry.getValue() + "\n\n");
-						logger.error("An attempt was made to create a child with an invalid type.");
-						break;
-					}
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new StatusException("Address space creation was interrupted", StatusCodes.Bad_Shutdown);
+			} catch (ExecutionException e) {
+				if (e.getCause() instanceof StatusException) {
+					throw (StatusException) e.getCause();
 				}
-				break;
+				logger.error("Failed to create a device set: " + e.getCause());
+				throw new StatusException("Failed to create a device set: " + e.getCause(), StatusCodes.Bad_InternalError);
+			} finally {
+				pool.shutdown();
 			}
-			//Make the skills separately due to additional issues with null references.
-			for(Map.Entry<String,String> entry: skillList.entrySet()) {			
-				createdSkills.put(entry.getValue(), createSkillObject(entry.getKey(), entry.getValue(), createdObjects.get(serverInst.getKey()+"_DeviceSkills"),typeMap.get("SkillObjectType"),ns));
-			}		
-			//Make the final references that could not be made during the loops because of fuckery.
-			//Making sure variables are also linked to the relevant sub-device.
-			//Without this step they would only be linked to the main device's functional group and paremeter set.
-			//This would not reflect the reality and would lead to an incomplete model.
-			for(Map.Entry<String,UaVariable> entry: createdVariables.entrySet()){
-				switch(entry.getKey()) {
-					case "MotorOutput":
-						entry.getValue().addReference(getSubObject(createdObjects.get(serverInst.getKey()+"_MotorBelt"),"ParameterSet"), hasOutputsType.getNodeId(), true);
-						entry.getValue().addReference(getSubObject(createdObjects.get(serverInst.getKey()+"_MotorBelt"),"FuncGroup"), Identifiers.Organizes, true);
-						if (serverInst.getValue().equals("BeltServer")) {
-							entry.getValue().addReference(getSubObject(createdObjects.get(serverInst.getKey()+"_BeltController"),"ParameterSet"), hasOutputsType.getNodeId(), true);
-							entry.getValue().addReference(getSubObject(createdObjects.get(serverInst.getKey()+"_BeltController"),"FuncGroup"), Identifiers.Organizes, true);
-						}
-						else if (serverInst.getValue().equals("BeltandGripperServer")) {
-							entry.getValue().addReference(getSubObject(createdObjects.get(serverInst.getKey()+"_BeltGripperController"),"ParameterSet"), hasOutputsType.getNodeId(), true);
-							entry.getValue().addReference(getSubObject(createdObjects.get(serverInst.getKey()+"_BeltGripperController"),"FuncGroup"), Identifiers.Organizes, true);
-						}
-						break;
-					case "Extend":
-						entry.getValue().addReference(getSubObject(createdObjects.get(serverInst.getKey()+"_VertPiston"),"ParameterSet"), hasOutputsType.getNodeId(), true);
-						entry.getValue().addReference(getSubObject(createdObjects.get(serverInst.getKey()+"_VertPiston"),"FuncGroup"), Identifiers.Organizes, true);
-						if (serverInst.getValue().equals("JackandSlegeServer")) {
-							entry.getValue().addReference(getSubObject(createdObjects.get(serverInst.getKey()+"_JackSledgeController"),"ParameterSet"), hasOutputsType.getNodeId(), true);
-							entry.getValue().addReference(getSubObject(createdObjects.get(serverInst.getKey()+"_JackSledgeController"),"FuncGroup"), Identifiers.Organizes, true);
-						}
-						break;
-					case "Down":
-						entry.getValue().addReference(getSubObject(createdObjects.get(serverInst.getKey()+"_HorzPiston"),"ParameterSet"), hasOutputsType.getNodeId(), true);
-						entry.getValue().addReference(getSubObject(createdObjects.get(serverInst.getKey()+"_HorzPiston"),"FuncGroup"), Identifiers.Organizes, true);
-						if (serverInst.getValue().equals("BeltandGripperServer")) {
-							entry.getValue().addReference(getSubObject(createdObjects.get(serverInst.getKey()+"_BeltGripperController"),"ParameterSet"), hasOutputsType.getNodeId(), true);
-							entry.getValue().addReference(getSubObject(createdObjects.get(serverInst.getKey()+"_BeltGripperController"),"FuncGroup"), Identifiers.Organizes, true);
-						}
-						else if (serverInst.getValue().equals("JackandSlegeServer")) {
-							entry.getValue().addReference(getSubObject(createdObjects.get(serverInst.getKey()+"_JackSledgeController"),"ParameterSet"), hasOutputsType.getNodeId(), true);
-							entry.getValue().addReference(getSubObject(createdObjects.get(serverInst.getKey()+"_JackSledgeController"),"FuncGroup"), Identifiers.Organizes, true);
-						}
-						break;
-					case "Grip":
-						entry.getValue().addReference(getSubObject(createdObjects.get(serverInst.getKey()+"_Gripper"),"ParameterSet"), hasOutputsType.getNodeId(), true);
-						entry.getValue().addReference(getSubObject(createdObjects.get(serverInst.getKey()+"_Gripper"),"FuncGroup"), Identifiers.Organizes, true);
-						if (serverInst.getValue().equals("BeltandGripperServer")) {
-							entry.getValue().addReference(getSubObject(createdObjects.get(serverInst.getKey()+"_BeltGripperController"),"ParameterSet"), hasOutputsType.getNodeId(), true);
-							entry.getValue().addReference(getSubObject(createdObjects.get(serverInst.getKey()+"_BeltGripperController"),"FuncGroup"), Identifiers.Organizes, true);
-						}
-						break;
-					case "Vacuum":
-						entry.getValue().addReference(getSubObject(createdObjects.get(serverInst.getKey()+"_VacuumPump"),"ParameterSet"), hasOutputsType.getNodeId(), true);
-						entry.getValue().addReference(getSubObject(createdObjects.get(serverInst.getKey()+"_VacuumPump"),"FuncGroup"), Identifiers.Organizes, true);
-						if (serverInst.getValue().equals("JackandSlegeServer")) {
-							entry.getValue().addReference(getSubObject(createdObjects.get(serverInst.getKey()+"_JackSledgeController"),"ParameterSet"), hasOutputsType.getNodeId(), true);
-							entry.getValue().addReference(getSubObject(createdObjects.get(serverInst.getKey()+"_JackSledgeController"),"FuncGroup"), Identifiers.Organizes, true);
-						}
-						break;
-					case "Sledge":
-						entry.getValue().addReference(getSubObject(createdObjects.get(serverInst.getKey()+"_SledgePiston"),"ParameterSet"), hasOutputsType.getNodeId(), true);
-						entry.getValue().addReference(getSubObject(createdObjects.get(serverInst.getKey()+"_SledgePiston"),"FuncGroup"), Identifiers.Organizes, true);
-						if (serverInst.getValue().equals("JackandSlegeServer")) {
-							entry.getValue().addReference(getSubObject(createdObjects.get(serverInst.getKey()+"_JackSledgeController"),"ParameterSet"), hasOutputsType.getNodeId(), true);
-							entry.getValue().addReference(getSubObject(createdObjects.get(serverInst.getKey()+"_JackSledgeController"),"FuncGroup"), Identifiers.Organizes, true);
-						}
-						break;
-					case "Top":
-					case "Bottom":
-						if(serverInst.getValue().equals("BeltandGripperServer")) {
-							entry.getValue().addReference(getSubObject(createdObjects.get(serverInst.getKey()+"_PistonGripperSensors"),"ParameterSet"), hasInputsType.getNodeId(), true);
-							entry.getValue().addReference(getSubObject(createdObjects.get(serverInst.getKey()+"_PistonGripperSensors"),"FuncGroup"), Identifiers.Organizes, true);
-							entry.getValue().addReference(getSubObject(createdObjects.get(serverInst.getKey()+"_BeltGripperController"),"ParameterSet"), hasInputsType.getNodeId(), true);
-							entry.getValue().addReference(getSubObject(createdObjects.get(serverInst.getKey()+"_BeltGripperController"),"FuncGroup"), Identifiers.Organizes, true);
-						}
-					case "Extended":
-					case "Retracted":
-						if(serverInst.getValue().equals("JackandSledgeServer")) {
-							entry.getValue().addReference(getSubObject(createdObjects.get(serverInst.getKey()+"_JackSledgeSensors"),"ParameterSet"), hasInputsType.getNodeId(), true);
-							entry.getValue().addReference(getSubObject(createdObjects.get(serverInst.getKey()+"_JackSledgeSensors"),"FuncGroup"), Identifiers.Organizes, true);
-							entry.getValue().addReference(getSubObject(createdObjects.get(serverInst.getKey()+"_JackSledgeController"),"ParameterSet"), hasInputsType.getNodeId(), true);
-							entry.getValue().addReference(getSubObject(createdObjects.get(serverInst.getKey()+"_JackSledgeController"),"FuncGroup"), Identifiers.Organizes, true);
-						}
-						break;
-				}
+		} else {
+			for (Map.Entry<String,String> serverInst: serverList.entrySet()) {
+				trees.add(buildDeviceSet(serverInst.getKey(), serverInst.getValue(), combined, deviceSetNode, ns, typeMap,
+						baseObjectType, funcGroupType, organizesType, boolType, hasInputsType, hasOutputsType));
+			}
+		}
+		
+		//Attach the sub-trees in the order of the model so the DeviceSet always lists them the same way.
+		//The skill bridges are created here as well, one after another, since they share the TCP IO Server
+		//and may ask the user for a port.
+		for (DeviceSetTree tree: trees) {
+			if (combined) {
+				deviceSet.addReference(tree.topParent, Identifiers.Organizes, false);
+				deviceSet.addReference(tree.topParent, Identifiers.HasNotifier, false);
 			}
+			if (tree.hasBridge) {
+				//All device sets share the one TCP IO Server, each device set gets its own listening port.
+				createSkillBridge(tree.name, ns, tree.topParent);
+			}
+			createdObjects.putAll(tree.objects);
+			createdVariables.putAll(tree.variables);
+			createdMethods.putAll(tree.methods);
+			createdSkills.putAll(tree.skills);
+			createdDeviceSkills.put(tree.name, tree.skills);
 		}
 		//Assign the created maps to their relevant places so they can be accessed by methods from other modules.
 		this.spaceMethods = createdMethods;
 		this.spaceObjects = createdObjects;
 		this.spaceVariables = createdVariables;
 		this.spaceSkills = createdSkills;
+		this.spaceDeviceSkills = createdDeviceSkills;
+	}
+	
+	//Builds the sub-tree of one device set. For a combined server the sub-tree gets its own organizing object,
+	//which is only attached to the DeviceSet afterwards, so device sets can be built on different threads.
+	private DeviceSetTree buildDeviceSet(String setName, String setType, boolean combined, UaNode deviceSet, int ns,
+			Map<String, UaObjectType> typeMap, UaType baseObjectType, UaType funcGroupType, UaType organizesType,
+			UaType boolType, UaType hasInputsType, UaType hasOutputsType) throws StatusException {
+		//If creating a singular server the nodes go straight under the DeviceSet.
+		//If creating a combined server create the subDeviceSet that organizes/separates the subserver.
+		UaNode topParent = deviceSet;
+		if (combined) {
+			NodeId topParentId= new NodeId(ns, setName+"_Set");
+			topParent = new UaObjectNode(this, topParentId, setName+"_Set", Locale.ENGLISH);
+		}
+		DeviceSetTree tree = new DeviceSetTree(setName, topParent);
+		
+		//Create the nodes in the order of the model, which lists every parent before its children.
+		//Node names get the device set name in front so the sub-servers of a combined server don't clash.
+		String prefix = setName+"_";
+		for (DeviceModel.Node node: deviceModel.getServer(setType).nodes) {
+			String fullName = prefix+node.name;
+			UaNode parent = node.parent != null ? tree.objects.get(prefix+node.parent) : topParent;
+			switch (node.kind) {
+				case PLC:
+					tree.objects.put(fullName, createPLC(fullName, topParent, ns, baseObjectType, funcGroupType, setName));
+					break;
+				case BRIDGE:
+					//Created when the sub-tree is attached.
+					tree.hasBridge = true;
+					break;
+				case DEVICE:
+					tree.objects.put(fullName, createDevice(fullName, parent, typeMap.get(node.type), baseObjectType, funcGroupType, ns, node.sets));
+					break;
+				case SOFTWARE:
+					tree.objects.put(fullName, createSoftwareComponent(fullName, parent, typeMap.get(node.type), baseObjectType, organizesType, funcGroupType, ns, node.sets));
+					break;
+				case VARIABLE:
+					//Variables are also listed under the sub-devices that drive or read them and the PLC.
+					//Without this they would only be linked to the main device's functional group and parameter set,
+					//which would not reflect the reality and would lead to an incomplete model.
+					UaType relation = node.output ? hasOutputsType : hasInputsType;
+					UaVariable variable = createVariable(fullName, parent, boolType, relation, ns);
+					for (String link: node.links) {
+						UaNode linked = tree.objects.get(prefix+link);
+						lazyNodes.pin(linked);
+						variable.addReference(findSubObject(linked, "ParameterSet"), relation.getNodeId(), true);
+						variable.addReference(findSubObject(linked, "FuncGroup"), Identifiers.Organizes, true);
+					}
+					tree.variables.put(fullName, variable);
+					break;
+				case METHOD:
+					tree.methods.put(fullName, createMethod(fullName, fullName, parent, ns, true, setName));
+					break;
+				case SKILL:
+					//Skills are also stored per device set since the same skill name exists on several sub-servers of a combined server.
+					tree.skills.put(node.type, createSkillObject(fullName, node.type, parent, typeMap.get("SkillObjectType"), ns, setName));
+					break;
+			}
+		}
+		return tree;
 	}
 	
 	//Utility function pile
@@ -678,6 +465,7 @@ public class ModularNodeManager extends NodeManagerUaNode{
 			DeviceTypeNode newDevice = this.createInstance(DeviceTypeNode.class, 
 					newDeviceId, new QualifiedName(ns, name),new LocalizedText(name,Locale.ENGLISH));
 			newDevice.setTypeDefinition(objType);
+			nodeIndex.putChild(parent, name, newDevice);
 			//Add relation between the new device and its parent
 			try {
 				if (parent.getBrowseName().getName().equals("DeviceSet")) {
@@ -691,33 +479,17 @@ public class ModularNodeManager extends NodeManagerUaNode{
 				logger.info("Something fucky happened: " + e);
 				System.out.println("Something happened: " + e);
 			}
-			//Create the functional group, methodset and parameterset
-			if (makeGroups) {
-				final NodeId funcGroupId = new NodeId(ns, name+"FuncGroup");
-				UaObjectNode funcGroup = new UaObjectNode(this,funcGroupId,name+"FuncGroup",Locale.ENGLISH);
-				funcGroup.setTypeDefinition(funcGroupType);
-				final NodeId paramSetId = new NodeId(ns, name+"ParameterSet");
-				final NodeId methodSetId = new NodeId(ns, name+"MethodSet");
-				UaObjectNode paramSet = new UaObjectNode(this, paramSetId, "ParameterSet",Locale.ENGLISH);
-				UaObjectNode methodSet = new UaObjectNode(this, methodSetId,"MethodSet",Locale.ENGLISH);
-				paramSet.setTypeDefinition(baseObjType);
-				methodSet.setTypeDefinition(baseObjType);
-				try {
-					newDevice.addReference(funcGroup, Identifiers.HasComponent, false);
-					newDevice.addReference(paramSet, Identifiers.HasComponent, false);
-					newDevice.addReference(methodSet, Identifiers.HasComponent, false);
-				}catch(Exception e) {
-					logger.info("Something fucky happened: " + e);
-					System.out.println("Something happened: " + e);
+			//Create the functional group, methodset and parameterset, and set the device info.
+			//In lazy mode they are created when a client first browses the device.
+			if (lazyNodes.isEnabled()) {
+				lazyNodes.add(newDevice, LazyNodes.Kind.DEVICE, name, name, null, makeGroups);
+			}
+			else {
+				if (makeGroups) {
+					createSets(newDevice, name, baseObjType, funcGroupType, ns);
 				}
+				setDeviceInfo(newDevice, name);
 			}
-			//Set the device info for the device.
-			newDevice.setManufacturer(new LocalizedText("Aalto Project",Locale.ENGLISH));
-			newDevice.setModel(new LocalizedText(name,Locale.ENGLISH));
-			newDevice.setSerialNumber("1111");
-			newDevice.setHardwareRevision("1.0");
-			newDevice.setSoftwareRevision("1.0");
-			newDevice.setDeviceRevision("1.0");
 		return newDevice;
 	}
 	private UaObjectNode createSoftwareComponent(String name, UaNode parent, UaObjectType objType, UaType baseObjType, 
@@ -727,6 +499,7 @@ public class ModularNodeManager extends NodeManagerUaNode{
 		SoftwareTypeNode newSoftwareNode = this.createInstance(SoftwareTypeNode.class, 
 				newSoftwareId, new QualifiedName(ns, name),new LocalizedText(name,Locale.ENGLISH));
 		newSoftwareNode.setTypeDefinition(objType);
+		nodeIndex.putChild(parent, name, newSoftwareNode);
 		//add a relation between the software node and its parent
 		try {
 			if (parent.getBrowseName().getName().equals("DeviceSet")) {
@@ -740,33 +513,102 @@ public class ModularNodeManager extends NodeManagerUaNode{
 			logger.info("Something fucky happened: " + e);
 			System.out.println("Something happened: " + e);
 		}
-		if (createSets) {
-			//Create functional group, method set and parameter set and add relations
-			final NodeId funcGroupId = new NodeId(ns, name+"FuncGroup");
-			UaObjectNode funcGroup = new UaObjectNode(this,funcGroupId,name+"FuncGroup",Locale.ENGLISH);
-			funcGroup.setTypeDefinition(funcGroupType);
-			final NodeId paramSetId = new NodeId(ns, name+"ParameterSet");
-			final NodeId methodSetId = new NodeId(ns, name+"MethodSet");
-			UaObjectNode paramSet = new UaObjectNode(this, paramSetId, "ParameterSet",Locale.ENGLISH);
-			UaObjectNode methodSet = new UaObjectNode(this, methodSetId,"MethodSet",Locale.ENGLISH);
-			paramSet.setTypeDefinition(baseObjType);
-			methodSet.setTypeDefinition(baseObjType);
-			try {
-				newSoftwareNode.addReference(funcGroup, Identifiers.HasComponent, false);
-				newSoftwareNode.addReference(paramSet, Identifiers.HasComponent, false);
-				newSoftwareNode.addReference(methodSet, Identifiers.HasComponent, false);
-			}catch(Exception e) {
-				logger.info("Something fucky happened: " + e);
-				System.out.println("Something happened: " + e);
+		//Create functional group, method set and parameter set and add relations, and set the software info.
+		//In lazy mode they are created when a client first browses the component.
+		if (lazyNodes.isEnabled()) {
+			lazyNodes.add(newSoftwareNode, LazyNodes.Kind.SOFTWARE, name, name, null, createSets);
+		}
+		else {
+			if (createSets) {
+				createSets(newSoftwareNode, name, baseObjType, funcGroupType, ns);
 			}
+			setSoftwareInfo(newSoftwareNode, name);
 		}
-		//Set the software info
-		newSoftwareNode.setManufacturer(new LocalizedText("Aalto Project", Locale.ENGLISH));
-		newSoftwareNode.setSoftwareRevision("1.0");
-		newSoftwareNode.setModel(new LocalizedText(name+" Skills Container", Locale.ENGLISH));
 		return newSoftwareNode;
 	}
-	private UaVariable createVariable(String name, UaNode parent, UaType varType, UaType relationType, int ns) {
+	//Creates the functional group, parameter set and method set of a device or software component.
+	//Returns the NodeIds of the sets.
+	private List<NodeId> createSets(UaNode owner, String name, UaType baseObjType, UaType funcGroupType, int ns) {
+		final NodeId funcGroupId = new NodeId(ns, name+"FuncGroup");
+		UaObjectNode funcGroup = new UaObjectNode(this,funcGroupId,name+"FuncGroup",Locale.ENGLISH);
+		funcGroup.setTypeDefinition(funcGroupType);
+		final NodeId paramSetId = new NodeId(ns, name+"ParameterSet");
+		final NodeId methodSetId = new NodeId(ns, name+"MethodSet");
+		UaObjectNode paramSet = new UaObjectNode(this, paramSetId, "ParameterSet",Locale.ENGLISH);
+		UaObjectNode methodSet = new UaObjectNode(this, methodSetId,"MethodSet",Locale.ENGLISH);
+		paramSet.setTypeDefinition(baseObjType);
+		methodSet.setTypeDefinition(baseObjType);
+		try {
+			owner.addReference(funcGroup, Identifiers.HasComponent, false);
+			owner.addReference(paramSet, Identifiers.HasComponent, false);
+			owner.addReference(methodSet, Identifiers.HasComponent, false);
+			indexSets(owner, funcGroup, paramSet, methodSet);
+		}catch(Exception e) {
+			logger.info("Something fucky happened: " + e);
+			System.out.println("Something happened: " + e);
+		}
+		List<NodeId> sets = new ArrayList<NodeId>(3);
+		sets.add(funcGroupId);
+		sets.add(paramSetId);
+		sets.add(methodSetId);
+		return sets;
+	}
+	private void setDeviceInfo(DeviceTypeNode device, String name) {
+		device.setManufacturer(new LocalizedText("Aalto Project",Locale.ENGLISH));
+		device.setModel(new LocalizedText(name,Locale.ENGLISH));
+		device.setSerialNumber("1111");
+		device.setHardwareRevision("1.0");
+		device.setSoftwareRevision("1.0");
+		device.setDeviceRevision("1.0");
+	}
+	private void setSoftwareInfo(SoftwareTypeNode software, String name) {
+		software.setManufacturer(new LocalizedText("Aalto Project", Locale.ENGLISH));
+		software.setSoftwareRevision("1.0");
+		software.setModel(new LocalizedText(name+" Skills Container", Locale.ENGLISH));
+	}
+	
+	//Creates the deferred sub-nodes of a lazy object, see LazyNodes. Returns the NodeIds of the created nodes.
+	List<NodeId> materialize(LazyNodes.LazyNode lazy) throws StatusException {
+		int ns = lazy.node.getNodeId().getNamespaceIndex();
+		List<NodeId> created = new ArrayList<NodeId>();
+		switch (lazy.kind) {
+			case DEVICE:
+				if (lazy.sets) {
+					created.addAll(createSets(lazy.node, lazy.name, lazyBaseObjectType, lazyFuncGroupType, ns));
+				}
+				if (!lazy.infoCreated) {
+					setDeviceInfo((DeviceTypeNode) lazy.node, lazy.name);
+				}
+				break;
+			case SOFTWARE:
+				if (lazy.sets) {
+					created.addAll(createSets(lazy.node, lazy.name, lazyBaseObjectType, lazyFuncGroupType, ns));
+				}
+				if (!lazy.infoCreated) {
+					setSoftwareInfo((SoftwareTypeNode) lazy.node, lazy.name);
+				}
+				break;
+			case SKILL:
+				created.addAll(createSkillMethods(lazy.node, lazy.name, lazy.simpleName, ns, lazy.deviceSet));
+				break;
+		}
+		return created;
+	}
+	//Deletes the sub-nodes of a lazy object again, leaving its descriptor.
+	void evict(LazyNodes.LazyNode lazy, List<NodeId> created) throws StatusException {
+		for (NodeId nodeId: created) {
+			methodDispatcher.unregister(nodeId);
+			deleteNode(nodeId, true, true);
+		}
+		if (lazy.kind != LazyNodes.Kind.SKILL && lazy.sets) {
+			nodeIndex.removeChild(lazy.node, "FuncGroup");
+			nodeIndex.removeChild(lazy.node, "ParameterSet");
+			nodeIndex.removeChild(lazy.node, "MethodSet");
+		}
+	}
+	private UaVariable createVariable(String name, UaNode parent, UaType varType, UaType relationType, int ns) throws StatusException {
+		//Variables are added to the sets of their parent, so a lazy parent gets its sets now and keeps them.
+		lazyNodes.pin(parent);
 		//Create the NodeId and the node.
 		final NodeId varId = new NodeId(ns, name);
 		PlainVariable<Boolean> newVar = new PlainVariable<Boolean>(this, varId, name, Locale.ENGLISH);
@@ -774,11 +616,15 @@ public class ModularNodeManager extends NodeManagerUaNode{
 		newVar.setDataTypeId(Identifiers.Boolean);
 		newVar.setTypeDefinition(varType);
 		//Add references to the parameter set and functional group
-		newVar.addReference(getSubObject(parent,"ParameterSet").getNodeId(), relationType.getNodeId(), true);
-		newVar.addReference(getSubObject(parent,"FuncGroup").getNodeId(), Identifiers.Organizes, true);
+		newVar.addReference(findSubObject(parent,"ParameterSet").getNodeId(), relationType.getNodeId(), true);
+		newVar.addReference(findSubObject(parent,"FuncGroup").getNodeId(), Identifiers.Organizes, true);
 		return newVar;
 	}
-	private UaMethod createMethod(String fullName, String simpleName, UaNode parent, int ns, boolean hasSets) throws StatusException {
+	//Utility methods get their route from the ending of their name.
+	private UaMethod createMethod(String fullName, String simpleName, UaNode parent, int ns, boolean hasSets, String deviceSet) throws StatusException {
+		return createMethod(fullName, simpleName, parent, ns, hasSets, MethodRoute.utility(deviceSet, simpleName));
+	}
+	private UaMethod createMethod(String fullName, String simpleName, UaNode parent, int ns, boolean hasSets, MethodRoute route) throws StatusException {
 		//Create the NodeId and new method node
 		final NodeId methodId = new NodeId(ns, fullName);
 		PlainMethod newMethod = new PlainMethod(this, methodId, simpleName, Locale.ENGLISH);
@@ -799,14 +645,13 @@ public class ModularNodeManager extends NodeManagerUaNode{
 		outputs[0].setArrayDimensions(null);
 		outputs[0].setDescription(new LocalizedText("Any resulting info from server method handler.", Locale.ENGLISH));
 		newMethod.setOutputArguments(outputs);
-		//Create the listener to hand
-		myDevicetMethodManagerListener = new ModularDeviceMethodManagerListener(newMethod, this);
-		MethodManagerUaNode m = (MethodManagerUaNode) this.getMethodManager();
-		m.addCallListener(myDevicetMethodManagerListener);
+		//Create the handler of the method and add it to the dispatcher.
+		methodDispatcher.register(methodId, new ModularDeviceMethodManagerListener(this, route));
 		//Add references to the parameter set and functional group.
 		if (hasSets) {
-			newMethod.addReference(getSubObject(parent,"MethodSet").getNodeId(), Identifiers.HasComponent, true);
-			newMethod.addReference(getSubObject(parent,"FuncGroup").getNodeId(), Identifiers.Organizes, true);
+			lazyNodes.pin(parent);
+			newMethod.addReference(findSubObject(parent,"MethodSet").getNodeId(), Identifiers.HasComponent, true);
+			newMethod.addReference(findSubObject(parent,"FuncGroup").getNodeId(), Identifiers.Organizes, true);
 		}
 		else {
 			newMethod.addReference(parent, Identifiers.HasComponent, true);
@@ -818,7 +663,7 @@ public class ModularNodeManager extends NodeManagerUaNode{
 	private void createStateEventNode(String name, int ns, UaNode source) throws StatusException {
 		//Create the event type since it is more involved than other types.
 		final NodeId eventTypeId = new NodeId(ns, MyStateEvent.MY_EVENT_ID);
-		UaObjectTypeNode stateEventType = new UaObjectTypeNode (this, eventTypeId, "MyStateEvent", LocalizedText.NO_LOCALE);
+		UaObjectTypeNode stateEventType = new UaObjectTypeNode (this, eventTypeId, SkillEventNames.STATE_EVENT_TYPE, LocalizedText.NO_LOCALE);
 		getServer().getNodeManagerRoot().getType(Identifiers.BaseEventType).addSubType(stateEventType);
 		
 		//Create the state machine name variable
@@ -837,6 +682,14 @@ public class ModularNodeManager extends NodeManagerUaNode{
 		myStateVar.addModellingRule(ModellingRule.Mandatory);
 		stateEventType.addComponent(myStateVar);
 		
+		//Create the typed fields of the event message.
+		createEventField(stateEventType, ns, MyStateEvent.MY_KIND_ID, MyStateEvent.MY_KIND_NAME, Identifiers.Int32);
+		createEventField(stateEventType, ns, MyStateEvent.MY_CALL_TYPE_ID, MyStateEvent.MY_CALL_TYPE_NAME, Identifiers.String);
+		createEventField(stateEventType, ns, MyStateEvent.MY_CALL_RESULT_ID, MyStateEvent.MY_CALL_RESULT_NAME, Identifiers.String);
+		createEventField(stateEventType, ns, MyStateEvent.MY_SEQUENCE_ID, MyStateEvent.MY_SEQUENCE_NAME, Identifiers.Int64);
+		createEventField(stateEventType, ns, MyStateEvent.MY_STATE_TEXT_ID, MyStateEvent.MY_STATE_TEXT_NAME, Identifiers.String);
+		createEventField(stateEventType, ns, MyStateEvent.MY_DEVICE_SET_ID, MyStateEvent.MY_DEVICE_SET_NAME, Identifiers.String);
+		
 		//Register the class
 		getServer().registerClass(MyStateEvent.class, eventTypeId);
 		
@@ -847,12 +700,24 @@ public class ModularNodeManager extends NodeManagerUaNode{
 		conf.addOptional(UaBrowsePath.from(expEventId, UaQualifiedName.standard("EventId")));
 		conf.addOptional(UaBrowsePath.from(expEventId, UaQualifiedName.standard(MyStateEvent.MY_MACHINE_NAME)));
 		conf.addOptional(UaBrowsePath.from(expEventId, UaQualifiedName.standard(MyStateEvent.MY_STATE_NAME)));
+		conf.addOptional(UaBrowsePath.from(expEventId, UaQualifiedName.standard(MyStateEvent.MY_KIND_NAME)));
+		conf.addOptional(UaBrowsePath.from(expEventId, UaQualifiedName.standard(MyStateEvent.MY_CALL_TYPE_NAME)));
+		conf.addOptional(UaBrowsePath.from(expEventId, UaQualifiedName.standard(MyStateEvent.MY_CALL_RESULT_NAME)));
+		conf.addOptional(UaBrowsePath.from(expEventId, UaQualifiedName.standard(MyStateEvent.MY_SEQUENCE_NAME)));
+		conf.addOptional(UaBrowsePath.from(expEventId, UaQualifiedName.standard(MyStateEvent.MY_STATE_TEXT_NAME)));
+		conf.addOptional(UaBrowsePath.from(expEventId, UaQualifiedName.standard(MyStateEvent.MY_DEVICE_SET_NAME)));
 		this.setNodeBuilderConfiguration(conf.build());
 		
 		//Add the type to the general map of types
-		typeMap.put("MyStateEvent", stateEventType);
+		typeMap.put(SkillEventNames.STATE_EVENT_TYPE, stateEventType);
+	}
+	private void createEventField(UaObjectTypeNode eventType, int ns, UnsignedInteger id, String name, NodeId dataType) {
+		PlainVariable<Object> fieldVar = new PlainVariable<Object>(this, new NodeId(ns, id), name, LocalizedText.NO_LOCALE);
+		fieldVar.setDataTypeId(dataType);
+		fieldVar.addModellingRule(ModellingRule.Mandatory);
+		eventType.addComponent(fieldVar);
 	}
-	private UaObjectNode createPLC(String name, UaNode parent, int ns, UaType baseObjectType, UaType funcGroupType) {
+	private UaObjectNode createPLC(String name, UaNode parent, int ns, UaType baseObjectType, UaType funcGroupType, String deviceSet) {
 		//This function creates the address space objects for the PLC.
 		//The common nodes (MethodSet, ParameterSet, various info nodes) aren't created
 		//in a loop simply because the structure would be a pain.
@@ -900,6 +765,7 @@ public class ModularNodeManager extends NodeManagerUaNode{
 			plc.addReference(funcGroup, Identifiers.HasComponent, false);
 			plc.addReference(paramSet, Identifiers.HasComponent, false);
 			plc.addReference(methodSet, Identifiers.HasComponent, false);
+			indexSets(plc, funcGroup, paramSet, methodSet);
 		}catch(Exception e) {
 			logger.info("Something fucky happened: " + e);
 			System.out.println("Something happened: " + e);
@@ -915,9 +781,9 @@ public class ModularNodeManager extends NodeManagerUaNode{
 		//Will eventually also set the alarm type nodes and configvars
 		//Probably, those are not known at this second.
 		try {	
-			createMethod(name+"_StartPLC", name+"_StartPLC", plc, ns, true);
-			createMethod(name+"_StopPLC", name+"_StopPLC", plc, ns, true);
-			createMethod(name+"_ResetPLC", name+"_ResetPLC", plc, ns, true);
+			createMethod(name+"_StartPLC", name+"_StartPLC", plc, ns, true, deviceSet);
+			createMethod(name+"_StopPLC", name+"_StopPLC", plc, ns, true, deviceSet);
+			createMethod(name+"_ResetPLC", name+"_ResetPLC", plc, ns, true, deviceSet);
 		}catch(Exception e) {
 			logger.info("Something fucky happened: " + e);
 			System.out.println("Something happened: " + e);
@@ -928,24 +794,78 @@ public class ModularNodeManager extends NodeManagerUaNode{
 		
 		return plc;
 	}
-	private TcpIOServer createSkillBridge(String name, int ns, UaNode parent) {
+	private void createSkillBridge(String deviceSet, int ns, UaNode parent) {
 		int tempPort = 5000+portIterator;
 		//One option is to allow the ports for the tcp io server sockets to be set manually.
 		//Alternatively they can just be set here while hoping for the best.
 		
-		System.out.print("Enter a port for the TCP IO Server: ");
-		try {
-			tempPort = Integer.parseInt(readInput());
-		} catch (Exception e) {
-			e.printStackTrace();
+		if (bridgePorts.containsKey(deviceSet)) {
+			tempPort = bridgePorts.get(deviceSet);
+		}
+		else if (promptBridgePorts) {
+			System.out.print("Enter a port for the TCP IO Server of " + deviceSet + ": ");
+			try {
+				tempPort = Integer.parseInt(readInput());
+			} catch (Exception e) {
+				e.printStackTrace();
+			}
 		}
 		
-		TcpIOServer tempServer =  new TcpIOServer(tempPort, this);
-		tempServer.start();
+		try {
+			//The selector thread is only started once, later device sets just add a listening port to it.
+			if (spaceServer == null) {
+				stateIngest = new SkillStateIngest(this);
+				stateIngest.start();
+				spaceServer = new TcpIOServer(this, executionMode);
+				spaceServer.start();
+			}
+			spaceServer.addBridgePort(tempPort, deviceSet);
+		} catch (IOException e) {
+			logger.error("Failed to open TCP IO Server port " + tempPort + " for " + deviceSet + ": " + e);
+			System.out.println("Failed to open TCP IO Server port " + tempPort + ": " + e);
+		}
 		portIterator+=1;
-		return tempServer;
 	}
-	private UaObjectNode createSkillObject(String fullName, String simpleName, UaNode parent, UaObjectType objType, int ns) throws StatusException{
+	
+	//The executor of the execution mode for the work of method calls that finishes after the call has returned to
+	//the client with asyncSkillCalls on, such as handling the answer of a PLC. The SDK's worker threads aren't kept
+	//waiting for it.
+	public synchronized ExecutorService callExecutor() {
+		if (callExecutor == null) {
+			callExecutor = executionMode.newExecutor("SkillCalls");
+		}
+		return callExecutor;
+	}
+	
+	//Bridge registry functions used by the TCP IO Server and the method listeners.
+	//Registering returns the bridge that was previously connected for the device set, if any.
+	public Bridge registerBridge(String deviceSet, Bridge bridge) {
+		logger.info("Skill bridge registered for device set: " + deviceSet);
+		return bridgeMap.put(deviceSet, bridge);
+	}
+	public void unregisterBridge(String deviceSet, Bridge bridge) {
+		if (bridgeMap.remove(deviceSet, bridge)) {
+			logger.info("Skill bridge removed for device set: " + deviceSet);
+		}
+	}
+	public Bridge getBridge(String deviceSet) {
+		if (deviceSet == null) {
+			return null;
+		}
+		return bridgeMap.get(deviceSet);
+	}
+	//Fetches the state property of a skill of a specific device set.
+	public PlainProperty<String> getSkillState(String deviceSet, String skillName) {
+		return nodeIndex.getSkillState(deviceSet, skillName);
+	}
+	//Fetches a skill object of a specific device set.
+	public UaObjectNode getSkill(String deviceSet, String skillName) {
+		if (spaceDeviceSkills == null || !spaceDeviceSkills.containsKey(deviceSet)) {
+			return null;
+		}
+		return spaceDeviceSkills.get(deviceSet).get(skillName);
+	}
+	private UaObjectNode createSkillObject(String fullName, String simpleName, UaNode parent, UaObjectType objType, int ns, String deviceSet) throws StatusException{
 		//Create the skill's nodeId and the skill object itself.
 		final NodeId tempSkillId = new NodeId(ns, fullName);
 		//SkillObject  tempSkill = this.createInstance(typeMap.get("SkillObjectType"), tempSkillId, new QualifiedName (ns, name), new LocalizedText(name, Locale.ENGLISH));
@@ -956,61 +876,56 @@ public class ModularNodeManager extends NodeManagerUaNode{
 		//Add a reference to the parent DeviceSkills object
 		parent.addReference(tempSkill, Identifiers.HasComponent, false);
 		
-		//Create the method nodes as per architecture proposal
-		createMethod(fullName + "_Start", simpleName + "_Start", tempSkill, ns, false);
-		createMethod(fullName + "_Suspend", simpleName + "_Suspend", tempSkill, ns, false);
-		createMethod(fullName + "_Resume", simpleName + "_Resume", tempSkill, ns, false);
-		createMethod(fullName + "_Stop", simpleName + "_Stop", tempSkill, ns, false);
-		createMethod(fullName + "_Reset", simpleName + "_Reset", tempSkill, ns, false);
+		//Create the method nodes as per architecture proposal.
+		//In lazy mode they are created when a client first browses the skill.
+		if (lazyNodes.isEnabled()) {
+			lazyNodes.add(tempSkill, LazyNodes.Kind.SKILL, fullName, simpleName, deviceSet, false);
+		}
+		else {
+			createSkillMethods(tempSkill, fullName, simpleName, ns, deviceSet);
+		}
 		
 		//Create the property for showing the state of the skill.
-		createProperty(ns, fullName+"_SkillState", simpleName+"_SkillState", tempSkill, "Ready");
+		//The property is indexed so the skill bridge and the state ingest can reach it directly.
+		PlainProperty<String> stateProperty = createProperty(ns, fullName+"_SkillState", simpleName+"_SkillState", tempSkill, "Ready");
+		nodeIndex.putChild(parent, simpleName, tempSkill);
+		nodeIndex.putChild(tempSkill, simpleName+"_SkillState", stateProperty);
+		nodeIndex.putSkillState(deviceSet, simpleName, stateProperty);
 		
 		return tempSkill;
 	}
+	//Creates the five methods of a skill. Returns the NodeIds of the methods.
+	//The route of each method is known here, so the method listener never has to work it out from the name.
+	private List<NodeId> createSkillMethods(UaNode skill, String fullName, String simpleName, int ns, String deviceSet) throws StatusException {
+		List<NodeId> methods = new ArrayList<NodeId>(5);
+		for (CallType callType: new CallType[] {CallType.START, CallType.SUSPEND, CallType.RESUME, CallType.STOP, CallType.RESET}) {
+			methods.add(createMethod(fullName + "_" + callType.methodSuffix, simpleName + "_" + callType.methodSuffix, skill, ns, false,
+					MethodRoute.skill(deviceSet, simpleName, callType)).getNodeId());
+		}
+		return methods;
+	}
 	
 	//Utility function for sending an event to clients.
 	//Overloaded so that either state change, call return or generic messages can be sent.
-	public void sendEvent(String skillName, String stateString) throws StatusException{
-		//Create the event and set the information.
-		final NodeId myEventNodeId = new NodeId(this.getNamespaceIndex(), "test.Events");
-		MyStateEvent newEvent = this.createInstance(MyStateEvent.class,myEventNodeId,
-				new QualifiedName(this.getNamespaceIndex(),"test.Events"), new LocalizedText ("test.Events", Locale.ENGLISH));
-		newEvent.setTypeDefinition(typeMap.get("MyStateEvent"));
-		newEvent.setMessage(new LocalizedText("StateChange;"+skillName+";"+stateString));
-		//newEvent.setStateNumVariable(stateNum);
-		newEvent.setMachineNameVariable(skillName);
-		
-		//Set the information for the event
-		final DateTime time = DateTime.currentTime();
-		ByteString newEventId = myDeviceEventManagerListener.getNextUserEventId();
-		newEvent.triggerEvent(time, time, newEventId);
+	//The events are sent by the event emitter, which reuses one event node for all of them.
+	//The skill events name the device set of the skill, since a combined server can have skills of the same name.
+	public void sendEvent(String deviceSet, String skillName, String stateString) throws StatusException{
+		eventEmitter.stateChange(deviceSet, skillName, stateString);
 	}
-	public void sendEvent(String skillName, String callType, String callResult) throws StatusException {
-		final NodeId myEventNodeId = new NodeId(this.getNamespaceIndex(), "test.Events");
-		MyStateEvent newEvent = this.createInstance(MyStateEvent.class,myEventNodeId,
-				new QualifiedName(this.getNamespaceIndex(),"test.Events"), new LocalizedText ("test.Events", Locale.ENGLISH));
-		newEvent.setTypeDefinition(typeMap.get("MyStateEvent"));
-		newEvent.setMessage(new LocalizedText("CallReturn;"+skillName+";"+callType+";"+callResult));
-		newEvent.setMachineNameVariable(skillName);
-		
-		//Set the information for the event
-		final DateTime time = DateTime.currentTime();
-		ByteString newEventId = myDeviceEventManagerListener.getNextUserEventId();
-		newEvent.triggerEvent(time, time, newEventId);
+	public void sendEvent(String deviceSet, String skillName, String callType, String callResult) throws StatusException {
+		eventEmitter.callReturn(deviceSet, skillName, callType, callResult);
 	}
 	public void sendEvent(String message) throws StatusException{
+		eventEmitter.serverMessage(message);
+	}
+	
+	//Creates an event node of the state event type. The event emitter creates one and keeps triggering it.
+	MyStateEvent createStateEvent() throws StatusException {
 		final NodeId myEventNodeId = new NodeId(this.getNamespaceIndex(), "test.Events");
 		MyStateEvent newEvent = this.createInstance(MyStateEvent.class,myEventNodeId,
 				new QualifiedName(this.getNamespaceIndex(),"test.Events"), new LocalizedText ("test.Events", Locale.ENGLISH));
-		newEvent.setTypeDefinition(typeMap.get("MyStateEvent"));
-		newEvent.setMessage(new LocalizedText("ServerMessage;"+message));
-		newEvent.setMachineNameVariable("Null");
-		
-		//Set the information for the event
-		final DateTime time = DateTime.currentTime();
-		ByteString newEventId = myDeviceEventManagerListener.getNextUserEventId();
-		newEvent.triggerEvent(time, time, newEventId);
+		newEvent.setTypeDefinition(typeMap.get(SkillEventNames.STATE_EVENT_TYPE));
+		return newEvent;
 	}
 	
 	//Utility methods for creating properties for objects.
@@ -1053,7 +968,8 @@ public class ModularNodeManager extends NodeManagerUaNode{
 	}
 	
 	//A small utility function for fetching a subtype of a type
-	private static UaType getSubType(UaType baseType, String target) {
+	//The lookup functions are package-private so the benchmarks can measure them.
+	static UaType getSubType(UaType baseType, String target) {
 		UaReference[] refs = baseType.getReferences(Identifiers.HasSubtype, false);
 		
 		for (UaReference tempRef:refs) {
@@ -1065,8 +981,23 @@ public class ModularNodeManager extends NodeManagerUaNode{
 		logger.error("Failed to find target subtype.");
 		return null;
 	}
+	//Finds the child of a node from the node index. Nodes the index doesn't know are searched from the references.
+	UaNode findSubObject(UaNode baseObject, String targetName) {
+		UaNode child = nodeIndex.getChild(baseObject, targetName);
+		if (child != null) {
+			return child;
+		}
+		return getSubObject(baseObject, targetName);
+	}
+	//Adds the sets of a device to the node index by their role.
+	private void indexSets(UaNode device, UaNode funcGroup, UaNode paramSet, UaNode methodSet) {
+		nodeIndex.putChild(device, "FuncGroup", funcGroup);
+		nodeIndex.putChild(device, "ParameterSet", paramSet);
+		nodeIndex.putChild(device, "MethodSet", methodSet);
+	}
 	//Small utility functions for doing things. Identical to similar utility functions elsewhere
-	private static UaObjectNode getSubObject(UaNode baseObject, String targetName) {
+	//Scans the references and matches the browse name with contains(). Only used for nodes missing from the node index.
+	static UaObjectNode getSubObject(UaNode baseObject, String targetName) {
 		UaReference[] refs = baseObject.getReferences();
 		
 		for (UaReference tempRef:refs) {
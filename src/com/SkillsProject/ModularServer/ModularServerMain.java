@@ -4,6 +4,10 @@
  * Actual server functionality is handled by the specific object.
  * 
  * Handles basic user inputs for turning the server off and potential other functionality.
+ * Given arguments or a config file (see ServerConfig) the server starts without asking anything, and a headless
+ * server doesn't read the console at all. Loading the certificates, the device model and the companion NodeSets
+ * are independent of each other and run side by side. The time each startup phase takes is reported once the
+ * server is serving.
  * 
  * Functionality related to security and certificates used as from the Prosys SDK tutorial as
  * that functionality is not the focus of the project.
@@ -15,12 +19,20 @@ import java.io.BufferedReader;
 import java.io.File;
 import java.io.IOException;
 import java.io.InputStreamReader;
+import java.io.InterruptedIOException;
 import java.net.URL;
 import java.util.EnumSet;
 import java.util.GregorianCalendar;
 import java.util.HashSet;
 import java.util.Locale;
 import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
 
 import com.prosysopc.ua.ApplicationIdentity;
 import com.prosysopc.ua.SecureIdentityException;
@@ -62,6 +74,18 @@ public class ModularServerMain {
 	protected ModularNodeManager serverNodeManager;
 	protected serverNodeManagerListener myNodeManagerListener = new serverNodeManagerListener();
 	protected static int serverTypeInt;
+	//The configuration given as arguments, null when the user was asked for it.
+	protected static ServerConfig config;
+	//How long each phase of the startup took, counted from when the configuration is known.
+	protected static StartupTimings timings = new StartupTimings();
+	
+	//Runs the independent startup phases side by side. Shut down once the server is serving.
+	private ExecutorService startupExecutor;
+	//The device model and the NodeSet copies being loaded while the server is initialized, null if not started early.
+	protected Future<DeviceModel> deviceModelPhase;
+	protected Future<Integer> nodeSetPhase;
+	//Released once a headless server has shut down, so the shutdown hook can let the process exit.
+	private final CountDownLatch stopped = new CountDownLatch(1);
 	
 	//Creating the logger
 	private static Logger logger = LoggerFactory.getLogger(ModularServerMain.class);
@@ -93,8 +117,70 @@ public class ModularServerMain {
 	    } while ((s == null) || (s.length() == 0));
 	    return s;
 	  }
+	//Takes the configuration from the arguments. Returns false if there are none, so the user is asked instead.
+	//Throws IllegalArgumentException if the arguments or the config file they name are invalid.
 	protected static boolean parseArgs(String [] args) {
-		return false;
+		config = ServerConfig.parse(args);
+		if (config == null) {
+			return false;
+		}
+		port = config.port;
+		httpsPort = config.httpsPort;
+		APP_NAME = config.appName;
+		serverType = config.serverType;
+		return true;
+	}
+	//Runs a startup phase on another thread and records how long it takes.
+	protected <T> Future<T> startPhase(String name, Callable<T> phase) {
+		if (startupExecutor == null) {
+			startupExecutor = Executors.newCachedThreadPool(runnable -> {
+				Thread thread = new Thread(runnable, "Startup");
+				thread.setDaemon(true);
+				return thread;
+			});
+		}
+		return startupExecutor.submit(() -> {
+			long begin = timings.begin();
+			try {
+				return phase.call();
+			} finally {
+				timings.end(name, begin);
+			}
+		});
+	}
+	//Waits for a startup phase and throws what it failed with.
+	protected static <T> T joinPhase(Future<T> phase) throws IOException, SecureIdentityException, UaServerException {
+		try {
+			return phase.get();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("Server startup was interrupted");
+		} catch (ExecutionException e) {
+			Throwable cause = e.getCause();
+			if (cause instanceof IOException) {
+				throw (IOException) cause;
+			} else if (cause instanceof SecureIdentityException) {
+				throw (SecureIdentityException) cause;
+			} else if (cause instanceof UaServerException) {
+				throw (UaServerException) cause;
+			} else if (cause instanceof RuntimeException) {
+				throw (RuntimeException) cause;
+			} else if (cause instanceof Error) {
+				throw (Error) cause;
+			}
+			throw new IOException("Startup phase failed: " + cause, cause);
+		}
+	}
+	//Starts loading the device model and preparing the companion NodeSets, which need nothing from the server.
+	protected void preloadModels() {
+		deviceModelPhase = startPhase("deviceModel", () -> DeviceModelLoader.fromProperties().load());
+		nodeSetPhase = startPhase("nodeSets", () -> {
+			NodeSetCache nodeSetCache = NodeSetCache.fromProperty();
+			for (URL nodeSet: ModularNodeManager.companionNodeSets()) {
+				nodeSetCache.resolve(nodeSet);
+			}
+			return ModularNodeManager.companionNodeSets().size();
+		});
 	}
 	public static String returnServerType() {
 		return serverType;
@@ -103,13 +189,41 @@ public class ModularServerMain {
 		return logger;
 	}
 	//Calls the address space creation function after creating the node manager.
+	//The device model and NodeSets are taken from the preload phases if they were started.
 	protected void createAddressSpace() throws StatusException {
+		long begin = timings.begin();
+		//The node manager loads the NodeSets when it's created, from the copies the preload prepared.
+		awaitPreload(nodeSetPhase, "companion NodeSets");
 		serverNodeManager = new ModularNodeManager(myServer, ModularNodeManager.NAMESPACE, serverType);
+		timings.end("nodeManager", begin);
+		DeviceModel model = awaitPreload(deviceModelPhase, "device model");
+		if (model != null) {
+			serverNodeManager.deviceModel = model;
+		}
+		if (config != null) {
+			serverNodeManager.bridgePorts.putAll(config.bridgePorts);
+			serverNodeManager.promptBridgePorts = false;
+			serverNodeManager.asyncSkillCalls = config.asyncSkillCalls;
+		}
+		begin = timings.begin();
 		serverNodeManager.addListener(myNodeManagerListener);
 		serverNodeManager.getIoManager().addListeners(new DeviceIoManagerListener());
 		serverNodeManager.createAddressSpace();
+		timings.end("addressSpace", begin);
 		logger.info("Address space created");
 	}
+	//A failed preload is only logged, the node manager then loads the model itself and reports what's wrong.
+	private static <T> T awaitPreload(Future<T> phase, String name) {
+		if (phase == null) {
+			return null;
+		}
+		try {
+			return joinPhase(phase);
+		} catch (Exception e) {
+			logger.warn("Preloading the " + name + " failed, loading it again: " + e);
+			return null;
+		}
+	}
 	
 	//Initializes info regarding the build.
 	//Saves relevant info about the build version, manufacturer and so on.
@@ -145,7 +259,9 @@ public class ModularServerMain {
 	//Initialize server with all info required for it to function.
 	//Also initializes the app description.
 	//Also initializes security relevant information
+	//The certificates are loaded, or created on the first start, on another thread while the server is set up.
 	protected void initializeServer (int port, int httpsPort, String appName) throws UaServerException, IOException, SecureIdentityException {
+		long begin = timings.begin();
 		//Create server
 		myServer = new UaServer();
 		myServer.setEnableIPv6(true);
@@ -189,18 +305,8 @@ public class ModularServerMain {
 	    // ...and react to validation results with a custom handler
 	    userCertificateValidator.setValidationListener(userCertificateValidationListener);
 	    //Certs
-	    File privatePath = new File(applicationCertificateStore.getBaseDir(), "private");
-	    KeyPair issuerCertificate =
-	            ApplicationIdentity.loadOrCreateIssuerCertificate("ProsysSampleCA", privatePath, "opcua", 3650, false);
-	    int[] keySizes = null;
-	    final ApplicationIdentity identity = ApplicationIdentity.loadOrCreateCertificate(appDescription,
-	            "Sample Organisation", /* Private Key Password */"opcua", /* Key File Path */privatePath,
-	            /* Issuer Certificate & Private Key */null,
-	            /* Key Sizes for instance certificates to create */keySizes,
-	            /* Enable renewing the certificate */true);
-	    String hostName = ApplicationIdentity.getActualHostName();
-	    identity.setHttpsCertificate(ApplicationIdentity.loadOrCreateHttpsCertificate(appDescription, hostName, "opcua",
-	        issuerCertificate, privatePath, true));
+	    final File privatePath = new File(applicationCertificateStore.getBaseDir(), "private");
+	    Future<ApplicationIdentity> identityPhase = startPhase("certificates", () -> loadIdentity(appDescription, privatePath));
 	    Set<SecurityPolicy> supportedSecurityPolicies = new HashSet<SecurityPolicy>();
 	    
 	    //This policy does not support any security. Should only be used in isolated networks.
@@ -246,7 +352,7 @@ public class ModularServerMain {
 	    // Define a validator for checking the user accounts
 	    myServer.setUserValidator(userValidator);
 	    
-	    myServer.setApplicationIdentity(identity);
+	    myServer.setApplicationIdentity(joinPhase(identityPhase));
 	    
 	    myServer.init();
 	    buildInfo();
@@ -255,8 +361,25 @@ public class ModularServerMain {
 	    myServer.getSessionManager().setMaxSessionTimeout(3600000); // one hour
 	    myServer.getSubscriptionManager().setMaxSubscriptionCount(50);
 	    
+	    timings.end("serverInit", begin);
 	    logger.info("Server initialized");
 	}
+	//Loads the application, issuer and HTTPS certificates, creating the ones that don't exist yet.
+	private static ApplicationIdentity loadIdentity(ApplicationDescription appDescription, File privatePath)
+			throws IOException, SecureIdentityException {
+	    KeyPair issuerCertificate =
+	            ApplicationIdentity.loadOrCreateIssuerCertificate("ProsysSampleCA", privatePath, "opcua", 3650, false);
+	    int[] keySizes = null;
+	    final ApplicationIdentity identity = ApplicationIdentity.loadOrCreateCertificate(appDescription,
+	            "Sample Organisation", /* Private Key Password */"opcua", /* Key File Path */privatePath,
+	            /* Issuer Certificate & Private Key */null,
+	            /* Key Sizes for instance certificates to create */keySizes,
+	            /* Enable renewing the certificate */true);
+	    String hostName = ApplicationIdentity.getActualHostName();
+	    identity.setHttpsCertificate(ApplicationIdentity.loadOrCreateHttpsCertificate(appDescription, hostName, "opcua",
+	        issuerCertificate, privatePath, true));
+	    return identity;
+	}
 	
 	//The menu function for the server.
 	//Handles user input. Presently primarily to shut the server down.
@@ -279,13 +402,45 @@ public class ModularServerMain {
 			}
 		}while(true);
 	}
+	//Headless servers run until the process is stopped, the shutdown hook waits for the clients to be notified.
+	protected void awaitShutdown() {
+		final CountDownLatch stopRequested = new CountDownLatch(1);
+		Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+			stopRequested.countDown();
+			try {
+				stopped.await(10, TimeUnit.SECONDS);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		}, "ServerShutdown"));
+		System.out.println("address: opc.tcp://localhost:"+port+"/"+myServer.getServerName());
+		logger.info("Running headless until the process is stopped");
+		do {
+			try {
+				stopRequested.await();
+				return;
+			} catch (InterruptedException e) {
+				//Only the shutdown hook stops a headless server.
+			}
+		} while(true);
+	}
 	//The function for running the server.
 	protected void run () throws UaServerException {
 		logger.info("Starting server");
 		//Start the server
+		long begin = timings.begin();
 		myServer.start();
-		//Start the main menu
-		menu();
+		timings.end("start", begin);
+		if (startupExecutor != null) {
+			startupExecutor.shutdown();
+		}
+		timings.report("Serving " + APP_NAME);
+		//Start the main menu, headless servers wait to be stopped instead.
+		if (config != null && config.headless) {
+			awaitShutdown();
+		} else {
+			menu();
+		}
 		//Notify clients about shutdown:
 		System.out.println("Shutting down the server.");
 		try {
@@ -295,6 +450,7 @@ public class ModularServerMain {
 			e.printStackTrace();
 		}
 		myServer.shutdown(5, new LocalizedText("Server shutting down", Locale.ENGLISH));
+		stopped.countDown();
 	}
 	
 	//Simple utility function for getting and (on an incredibly basic level) verifying user inputs
@@ -364,16 +520,22 @@ public class ModularServerMain {
 	public static void main(String [] args) throws StatusException, UaServerException, IOException, SecureIdentityException, InterruptedException {
 		//Check if arguments have been submitted which include necessary information.
 		//If they have not or the arguments are invalid gather necessary information from user.
+		//Invalid arguments stop the server, since a scripted start has nobody to answer the questions.
 		try {
 			if (!parseArgs(args)) {
 				getUserConfigInputs();
 			}
 		} catch (IllegalArgumentException e) {
-			getUserConfigInputs();
+			System.out.println("Invalid arguments: " + e.getMessage());
+			System.out.println(ServerConfig.usage());
+			logger.error("Invalid arguments: " + e.getMessage());
+			System.exit(2);
 		}
 		
-		//Create the new server and initialize it
+		timings = new StartupTimings();
+		//Create the new server and initialize it while the models load.
 		ModularServerMain  myDeviceServer= new ModularServerMain();
+		myDeviceServer.preloadModels();
 		myDeviceServer.initializeServer(port, httpsPort, APP_NAME);
 		myDeviceServer.createAddressSpace();
 		
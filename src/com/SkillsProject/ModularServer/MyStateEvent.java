@@ -2,13 +2,16 @@
  * 
  * Contains several variable objects in addition to the string message defined within the node manager method.
  * Contains a handful of utility methods for setting and reading the event object variables.
- * Said variables are presently largely there for testing as the event text is used to communicate relevant information.
+ * The variables carry the information of the message text as typed values (skill, state number, event kind,
+ * call type and result, sequence number, the state as the PLC reported it and the device set of the skill), so clients can select them in their
+ * event filter instead of parsing the text.
  * 
  * Loosely based on the tutorial implementation provided with the Prosys OPC UA SDK.
  */
 
 package com.SkillsProject.ModularServer;
 
+import com.SkillsProject.Common.SkillEventNames;
 import com.prosysopc.ua.StatusException;
 import com.prosysopc.ua.TypeDefinitionId;
 import com.prosysopc.ua.nodes.UaVariable;
@@ -22,11 +25,28 @@ import com.prosysopc.ua.types.opcua.server.BaseEventTypeNode;
 //Custom event type which contains additional info fields.
 @TypeDefinitionId(nsu = ModularNodeManager.NAMESPACE, i = MyStateEvent.MY_EVENT_ID)
 public class MyStateEvent extends BaseEventTypeNode{
+	//The browse names are shared with the clients, see SkillEventNames.
 	public static final int MY_EVENT_ID = 10000;
 	public static final UnsignedInteger MY_MACHINE_ID = UnsignedInteger.valueOf(10001);
-	public static final String MY_MACHINE_NAME = "MyMachineName";
+	public static final String MY_MACHINE_NAME = SkillEventNames.MACHINE_NAME;
 	public static final UnsignedInteger MY_STATE_ID = UnsignedInteger.valueOf(10002);
-	public static final String MY_STATE_NAME = "MyStateNumber";
+	public static final String MY_STATE_NAME = SkillEventNames.STATE_NUMBER;
+	public static final UnsignedInteger MY_KIND_ID = UnsignedInteger.valueOf(10003);
+	public static final String MY_KIND_NAME = SkillEventNames.EVENT_KIND;
+	public static final UnsignedInteger MY_CALL_TYPE_ID = UnsignedInteger.valueOf(10004);
+	public static final String MY_CALL_TYPE_NAME = SkillEventNames.CALL_TYPE;
+	public static final UnsignedInteger MY_CALL_RESULT_ID = UnsignedInteger.valueOf(10005);
+	public static final String MY_CALL_RESULT_NAME = SkillEventNames.CALL_RESULT;
+	public static final UnsignedInteger MY_SEQUENCE_ID = UnsignedInteger.valueOf(10006);
+	public static final String MY_SEQUENCE_NAME = SkillEventNames.SEQUENCE_NUMBER;
+	//The state text as the PLC reported it, for states that have no number, e.g. "Resetting".
+	public static final UnsignedInteger MY_STATE_TEXT_ID = UnsignedInteger.valueOf(10007);
+	public static final String MY_STATE_TEXT_NAME = SkillEventNames.STATE_TEXT;
+	//The device set of the skill, so skills of the same name on a combined server can be told apart.
+	public static final UnsignedInteger MY_DEVICE_SET_ID = UnsignedInteger.valueOf(10008);
+	public static final String MY_DEVICE_SET_NAME = SkillEventNames.DEVICE_SET;
+	//The browse names of all the typed fields, in the order the event emitter and the clients use them.
+	public static final String[] FIELD_NAMES = SkillEventNames.FIELD_NAMES;
 	
 	protected MyStateEvent(NodeManagerUaNode nodeManager, NodeId nodeId, QualifiedName browseName, 
 			LocalizedText displayName) {
@@ -63,12 +83,12 @@ public class MyStateEvent extends BaseEventTypeNode{
 		return var;
 	}
 	//Get state variable value
-	public String getStateNumVariable() {
+	public Integer getStateNumVariable() {
 		UaVariable varNode = getStateVariableNode();
 		if (varNode == null) {
 			return null;
 		}
-		return (String) varNode.getValue().getValue().getValue();
+		return (Integer) varNode.getValue().getValue().getValue();
 	}
 	//Set state variable value
 	public void setStateNumVariable(int stateNum) throws StatusException {
@@ -80,4 +100,10 @@ public class MyStateEvent extends BaseEventTypeNode{
 			System.out.println("Bad variable, something broke.");
 		}
 	}
+	
+	//Get any of the typed field variables by its browse name.
+	public UaVariable getFieldVariableNode(String fieldName) {
+		UaVariable var = (UaVariable) getComponent(new QualifiedName(getNodeManager().getNamespaceIndex(), fieldName));
+		return var;
+	}
 }
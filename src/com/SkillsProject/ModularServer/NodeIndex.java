@@ -0,0 +1,95 @@
+/* Index of the address space nodes the device server looks up by name.
+ *
+ * The node manager used to find a child node by scanning every reference of the parent and comparing the browse
+ * names with contains(), which also matched the wrong node when one name was part of another. The index is filled
+ * while the address space is built: every parent gets a map from the name of a child to the child, and every skill
+ * gets a direct handle to its state property. Lookups are a hash map access and match names exactly.
+ *
+ * Subtypes of the standard types are not created by the node manager, so they are found by scanning the type once
+ * and remembered after that.
+ *
+ * Written while the address space is built and read from any thread afterwards.
+ */
+
+package com.SkillsProject.ModularServer;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import com.prosysopc.ua.nodes.UaNode;
+import com.prosysopc.ua.nodes.UaReference;
+import com.prosysopc.ua.nodes.UaType;
+import com.prosysopc.ua.server.nodes.PlainProperty;
+import com.prosysopc.ua.stack.builtintypes.NodeId;
+import com.prosysopc.ua.stack.core.Identifiers;
+
+public final class NodeIndex {
+	//Children by parent and name.
+	private final Map<NodeId, Map<String, UaNode>> children = new ConcurrentHashMap<NodeId, Map<String, UaNode>>();
+	//Subtypes by type and browse name.
+	private final Map<NodeId, Map<String, UaType>> subTypes = new ConcurrentHashMap<NodeId, Map<String, UaType>>();
+	//State properties by device set and skill name.
+	private final Map<String, Map<String, PlainProperty<String>>> skillStates = new ConcurrentHashMap<String, Map<String, PlainProperty<String>>>();
+
+	//Adds a child under the name it's looked up with. That's usually the browse name, but the sets of a device are
+	//added by their role (ParameterSet, MethodSet, FuncGroup) since their browse names carry the device name.
+	public void putChild(UaNode parent, String name, UaNode child) {
+		if (parent == null) {
+			return;
+		}
+		Map<String, UaNode> parentChildren = children.get(parent.getNodeId());
+		if (parentChildren == null) {
+			children.putIfAbsent(parent.getNodeId(), new ConcurrentHashMap<String, UaNode>());
+			parentChildren = children.get(parent.getNodeId());
+		}
+		parentChildren.put(name, child);
+	}
+	public void removeChild(UaNode parent, String name) {
+		Map<String, UaNode> parentChildren = parent != null ? children.get(parent.getNodeId()) : null;
+		if (parentChildren != null) {
+			parentChildren.remove(name);
+		}
+	}
+	public UaNode getChild(UaNode parent, String name) {
+		if (parent == null) {
+			return null;
+		}
+		Map<String, UaNode> parentChildren = children.get(parent.getNodeId());
+		return parentChildren != null ? parentChildren.get(name) : null;
+	}
+
+	public void putSkillState(String deviceSet, String skillName, PlainProperty<String> stateProperty) {
+		Map<String, PlainProperty<String>> setStates = skillStates.get(deviceSet);
+		if (setStates == null) {
+			skillStates.putIfAbsent(deviceSet, new ConcurrentHashMap<String, PlainProperty<String>>());
+			setStates = skillStates.get(deviceSet);
+		}
+		setStates.put(skillName, stateProperty);
+	}
+	public PlainProperty<String> getSkillState(String deviceSet, String skillName) {
+		if (deviceSet == null) {
+			return null;
+		}
+		Map<String, PlainProperty<String>> setStates = skillStates.get(deviceSet);
+		return setStates != null ? setStates.get(skillName) : null;
+	}
+
+	//Finds a subtype of a type by its exact browse name. The subtypes of a type are scanned on its first lookup,
+	//and again when a name isn't found in case the subtype was added since.
+	public UaType getSubType(UaType baseType, String name) {
+		Map<String, UaType> types = subTypes.get(baseType.getNodeId());
+		UaType type = types != null ? types.get(name) : null;
+		if (type == null) {
+			types = new ConcurrentHashMap<String, UaType>();
+			for (UaReference ref: baseType.getReferences(Identifiers.HasSubtype, false)) {
+				UaNode subType = ref.getTargetNode();
+				if (subType instanceof UaType) {
+					types.put(subType.getBrowseName().getName(), (UaType) subType);
+				}
+			}
+			subTypes.put(baseType.getNodeId(), types);
+			type = types.get(name);
+		}
+		return type;
+	}
+}
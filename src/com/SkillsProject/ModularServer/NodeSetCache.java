@@ -0,0 +1,227 @@
+/* Keeps compacted copies of the companion specification NodeSets the device server loads at every start.
+ *
+ * The DI and PLC NodeSet2 files shipped with the SDK are large XML documents, mostly indentation, comments and
+ * Documentation elements that the address space doesn't use. The first start writes a copy of each NodeSet with
+ * those removed into the cache directory, and the node manager loads the copy instead of the original.
+ * The SDK only loads NodeSets as XML, so the copy is still XML, just much less of it.
+ *
+ * A copy is named after the size and modification time of the original, which for a NodeSet inside the SDK jar are
+ * those of the jar entry, so a new SDK version gets new copies without the original being read at every start.
+ * Only when the location of the original doesn't tell them is it read and the copy named after its SHA-256 hash.
+ * The hash of the copy itself is kept next to it and checked before the copy is used, so a damaged or half written
+ * copy is never loaded. Whenever the copy can't be used the original is loaded instead.
+ *
+ * The cache directory is "nodesets" under the working directory, or the "modularserver.nodeSetCache" system
+ * property, "none" turns the cache off. A NodeSet is only checked once per process, so the copies can be prepared
+ * on another thread while the server starts and the node manager then just picks them up.
+ */
+
+package com.SkillsProject.ModularServer;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URI;
+import java.net.URL;
+import java.net.URLConnection;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import javax.xml.stream.XMLEventReader;
+import javax.xml.stream.XMLEventWriter;
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLOutputFactory;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.events.XMLEvent;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+public final class NodeSetCache {
+	public static final String PROPERTY = "modularserver.nodeSetCache";
+	private static final Logger logger = LoggerFactory.getLogger(NodeSetCache.class);
+	//Elements only meant for people reading the NodeSet.
+	private static final String DOCUMENTATION = "Documentation";
+	//The copies already checked in this process, keyed by the cache directory and the original NodeSet.
+	private static final Map<String, URI> resolved = new ConcurrentHashMap<String, URI>();
+
+	//Where the copies are kept, null when the cache is off.
+	private final Path cacheDir;
+
+	public NodeSetCache(Path cacheDir) {
+		this.cacheDir = cacheDir;
+	}
+
+	//A cache in the directory of the system property.
+	public static NodeSetCache fromProperty() {
+		String dir = System.getProperty(PROPERTY);
+		if (dir == null) {
+			return new NodeSetCache(Paths.get("nodesets"));
+		}
+		return new NodeSetCache(dir.trim().equalsIgnoreCase("none") ? null : Paths.get(dir.trim()));
+	}
+
+	//Returns the URI of the compacted copy of a NodeSet, writing the copy first if there is none.
+	//Returns the URI of the original NodeSet if the cache is off or the copy can't be used.
+	public URI resolve(URL nodeSet) throws Exception {
+		URI original = nodeSet.toURI();
+		if (cacheDir == null) {
+			return original;
+		}
+		String key = cacheDir.toAbsolutePath() + "|" + nodeSet;
+		URI uri = resolved.get(key);
+		if (uri == null) {
+			uri = copyOf(nodeSet, original);
+			resolved.put(key, uri);
+		}
+		return uri;
+	}
+
+	private URI copyOf(URL nodeSet, URI original) {
+		try {
+			URLConnection connection = nodeSet.openConnection();
+			try (InputStream in = connection.getInputStream()) {
+				String name = fileName(nodeSet);
+				byte[] content = null;
+				long size = connection.getContentLengthLong();
+				long modified = connection.getLastModified();
+				String version;
+				if (size >= 0 && modified > 0) {
+					version = size + "-" + Long.toHexString(modified);
+				} else {
+					content = DeviceModelLoader.readAll(in);
+					version = DeviceModelLoader.toHex(DeviceModelLoader.hash(content));
+				}
+				Path copy = cacheDir.resolve(name + "-" + version + ".xml");
+				Path checksum = copy.resolveSibling(copy.getFileName() + ".sha256");
+				if (isValid(copy, checksum)) {
+					logger.debug("Using the compacted NodeSet " + copy);
+					return copy.toUri();
+				}
+				if (content == null) {
+					content = DeviceModelLoader.readAll(in);
+				}
+				long start = System.nanoTime();
+				byte[] compacted = compact(content);
+				write(copy, compacted);
+				write(checksum, DeviceModelLoader.toHex(DeviceModelLoader.hash(compacted)).getBytes(StandardCharsets.US_ASCII));
+				logger.info(String.format("Compacted NodeSet %s from %d to %d bytes in %.1f ms", name, content.length, compacted.length,
+						(System.nanoTime() - start) / 1e6));
+				return copy.toUri();
+			}
+		} catch (IOException | XMLStreamException e) {
+			logger.warn("Could not use a compacted copy of " + nodeSet + ", loading the original: " + e);
+			return original;
+		}
+	}
+
+	//Forgets the copies checked in this process, so the next resolve checks its copy again.
+	static void forgetResolved() {
+		resolved.clear();
+	}
+
+	//True if the copy exists and still has the hash written next to it.
+	private static boolean isValid(Path copy, Path checksum) throws IOException {
+		if (!Files.isRegularFile(copy) || !Files.isRegularFile(checksum)) {
+			return false;
+		}
+		byte[] expected = Files.readAllBytes(checksum);
+		byte[] actual = DeviceModelLoader.toHex(DeviceModelLoader.hash(Files.readAllBytes(copy))).getBytes(StandardCharsets.US_ASCII);
+		if (!Arrays.equals(expected, actual)) {
+			logger.warn("The compacted NodeSet " + copy + " doesn't match its checksum, writing it again");
+			return false;
+		}
+		return true;
+	}
+
+	//Copies a NodeSet without comments, whitespace between elements and Documentation elements.
+	static byte[] compact(byte[] content) throws XMLStreamException {
+		XMLInputFactory inputFactory = XMLInputFactory.newInstance();
+		//NodeSets don't use external entities, and they're not wanted when reading files.
+		inputFactory.setProperty(XMLInputFactory.SUPPORT_DTD, false);
+		XMLEventReader reader = inputFactory.createXMLEventReader(new ByteArrayInputStream(content));
+		ByteArrayOutputStream out = new ByteArrayOutputStream(content.length / 2);
+		XMLEventWriter writer = XMLOutputFactory.newInstance().createXMLEventWriter(out, "UTF-8");
+		try {
+			int skipDepth = 0;
+			//Whitespace is only dropped between elements, as the whole text of an element it's a value.
+			XMLEvent whitespace = null;
+			boolean afterStart = false;
+			while (reader.hasNext()) {
+				XMLEvent event = reader.nextEvent();
+				if (skipDepth > 0) {
+					if (event.isStartElement()) {
+						skipDepth++;
+					} else if (event.isEndElement()) {
+						skipDepth--;
+					}
+					continue;
+				}
+				switch (event.getEventType()) {
+					case XMLEvent.COMMENT:
+					case XMLEvent.SPACE:
+						continue;
+					case XMLEvent.CHARACTERS:
+						if (event.asCharacters().isWhiteSpace()) {
+							whitespace = afterStart ? event : null;
+							continue;
+						}
+						break;
+					case XMLEvent.START_ELEMENT:
+						if (event.asStartElement().getName().getLocalPart().equals(DOCUMENTATION)) {
+							skipDepth = 1;
+							whitespace = null;
+							afterStart = false;
+							continue;
+						}
+						break;
+					case XMLEvent.END_ELEMENT:
+						if (whitespace != null) {
+							writer.add(whitespace);
+						}
+						break;
+					default:
+						break;
+				}
+				whitespace = null;
+				afterStart = event.isStartElement();
+				writer.add(event);
+			}
+			writer.flush();
+		} finally {
+			writer.close();
+			reader.close();
+		}
+		return out.toByteArray();
+	}
+
+	private static String fileName(URL nodeSet) {
+		String path = nodeSet.getPath();
+		String name = path.substring(path.lastIndexOf('/') + 1);
+		return name.endsWith(".xml") ? name.substring(0, name.length() - 4) : name;
+	}
+
+	//Writes next to the target first so a half written file is never read.
+	private static void write(Path target, byte[] content) throws IOException {
+		Files.createDirectories(target.toAbsolutePath().getParent());
+		Path temp = Files.createTempFile(target.toAbsolutePath().getParent(), "nodeset", ".tmp");
+		try {
+			Files.write(temp, content);
+			try {
+				Files.move(temp, target, StandardCopyOption.ATOMIC_MOVE);
+			} catch (AtomicMoveNotSupportedException e) {
+				Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING);
+			}
+		} finally {
+			Files.deleteIfExists(temp);
+		}
+	}
+}
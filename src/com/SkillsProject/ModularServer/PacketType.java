@@ -0,0 +1,13 @@
+/* The packet types of the Skill Bridge line protocol.
+ * The enum name is the keyword in the second field of the packet.
+ */
+
+package com.SkillsProject.ModularServer;
+
+public enum PacketType {
+	INIT,
+	RET,
+	CALL,
+	CALLRET,
+	UPDATE
+}
@@ -0,0 +1,30 @@
+/* A skill call sent to the PLC which is waiting for its CALLRET packet.
+ *
+ * Each call gets a request id from the Skill Bridge. The id is sent along with the call when the PLC
+ * has announced support for it during INIT, in which case the PLC echoes it back in the CALLRET.
+ * The future is completed by the Skill Bridge once the matching CALLRET arrives.
+ */
+
+package com.SkillsProject.ModularServer;
+
+import java.util.concurrent.CompletableFuture;
+
+import com.SkillsProject.Common.CallType;
+
+class PendingCall {
+	final int requestId;
+	final String skillName;
+	final CallType callType;
+	final CompletableFuture<Boolean> future = new CompletableFuture<Boolean>();
+
+	PendingCall(int requestId, String skillName, CallType callType) {
+		this.requestId = requestId;
+		this.skillName = skillName;
+		this.callType = callType;
+	}
+
+	//Used to match CALLRET packets from PLCs that don't echo the request id.
+	boolean matches(String skillName, CallType callType) {
+		return this.skillName.equals(skillName) && this.callType == callType;
+	}
+}
@@ -0,0 +1,166 @@
+/* Configuration of a device server given on the command line or in a config file, so it starts without asking anything.
+ *
+ * The config file is a Java properties file:
+ *   port=52520
+ *   httpsPort=52443
+ *   name=BeltServer1
+ *   type=BeltServer
+ *   headless=true
+ *   asyncSkillCalls=false
+ *   bridge.BeltServer=5001
+ *
+ * The same keys are given as arguments, e.g. "--port 52520 --type=BeltServer --bridge BeltServer=5001", and
+ * "--config <file>" reads a config file. Arguments override the file. The type is a server type of the device model
+ * or the number of the type in the interactive menu. The HTTPS port defaults to the port plus one. Device sets
+ * without a bridge port get the default ports instead of asking for one. Headless servers don't read the console
+ * and run until the process is stopped. With asyncSkillCalls a skill method call returns once it's sent to the PLC and
+ * the answer only arrives as a CallReturn event, otherwise the call returns the answer of the PLC.
+ */
+
+package com.SkillsProject.ModularServer;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Properties;
+
+public final class ServerConfig {
+	//The server types of the interactive menu, by their number.
+	private static final String[] MENU_TYPES = {"BeltServer", "BeltandGripperServer", "JackandSledgeServer",
+			"VirtualTankServer", "CombinedServer"};
+	private static final String BRIDGE_PREFIX = "bridge.";
+
+	public final int port;
+	public final int httpsPort;
+	public final String appName;
+	public final String serverType;
+	public final boolean headless;
+	//Skill calls return once sent instead of once answered, off by default.
+	public final boolean asyncSkillCalls;
+	//Ports of the skill bridges keyed by device set.
+	public final Map<String, Integer> bridgePorts;
+
+	private ServerConfig(int port, int httpsPort, String appName, String serverType, boolean headless, boolean asyncSkillCalls,
+			Map<String, Integer> bridgePorts) {
+		this.port = port;
+		this.httpsPort = httpsPort;
+		this.appName = appName;
+		this.serverType = serverType;
+		this.headless = headless;
+		this.asyncSkillCalls = asyncSkillCalls;
+		this.bridgePorts = bridgePorts;
+	}
+
+	//Reads the configuration from the arguments and the config file they name.
+	//Returns null without arguments, throws IllegalArgumentException if they are invalid or incomplete.
+	public static ServerConfig parse(String[] args) {
+		if (args == null || args.length == 0) {
+			return null;
+		}
+		Properties arguments = new Properties();
+		for (int x = 0; x < args.length; x++) {
+			String arg = args[x];
+			if (!arg.startsWith("--") || arg.length() == 2) {
+				throw new IllegalArgumentException("Unexpected argument " + arg);
+			}
+			String key = arg.substring(2);
+			String value;
+			int equals = key.indexOf('=');
+			if (equals >= 0) {
+				value = key.substring(equals + 1);
+				key = key.substring(0, equals);
+			} else if (key.equals("headless") || key.equals("asyncSkillCalls")) {
+				value = "true";
+			} else if (x + 1 < args.length) {
+				value = args[++x];
+			} else {
+				throw new IllegalArgumentException("No value given for " + arg);
+			}
+			//"--bridge Set=port" is the "bridge.Set=port" key of the config file.
+			if (key.equals("bridge")) {
+				int split = value.indexOf('=');
+				if (split <= 0) {
+					throw new IllegalArgumentException("A bridge is given as <device set>=<port>, not " + value);
+				}
+				key = BRIDGE_PREFIX + value.substring(0, split);
+				value = value.substring(split + 1);
+			}
+			arguments.setProperty(key, value);
+		}
+
+		Properties config = new Properties();
+		String file = arguments.getProperty("config");
+		if (file != null) {
+			try (Reader reader = Files.newBufferedReader(Paths.get(file), StandardCharsets.UTF_8)) {
+				config.load(reader);
+			} catch (IOException e) {
+				throw new IllegalArgumentException("The config file " + file + " could not be read: " + e);
+			}
+		}
+		config.putAll(arguments);
+		return fromProperties(config);
+	}
+
+	static ServerConfig fromProperties(Properties config) {
+		int port = portOf(config, "port", null);
+		int httpsPort = portOf(config, "httpsPort", port + 1);
+		String appName = required(config, "name");
+		if (appName.contains(" ")) {
+			throw new IllegalArgumentException("The server name can't contain spaces: " + appName);
+		}
+		String serverType = required(config, "type");
+		if (serverType.matches("\\d+")) {
+			int number = Integer.parseInt(serverType);
+			if (number < 1 || number > MENU_TYPES.length) {
+				throw new IllegalArgumentException("Server type numbers are 1 to " + MENU_TYPES.length + ", not " + number);
+			}
+			serverType = MENU_TYPES[number - 1];
+		}
+		boolean headless = Boolean.parseBoolean(config.getProperty("headless", "false").trim());
+		boolean asyncSkillCalls = Boolean.parseBoolean(config.getProperty("asyncSkillCalls", "false").trim());
+		Map<String, Integer> bridgePorts = new LinkedHashMap<String, Integer>();
+		for (String key: config.stringPropertyNames()) {
+			if (key.startsWith(BRIDGE_PREFIX)) {
+				bridgePorts.put(key.substring(BRIDGE_PREFIX.length()), portOf(config, key, null));
+			} else if (!key.equals("config") && !key.equals("port") && !key.equals("httpsPort") && !key.equals("name")
+					&& !key.equals("type") && !key.equals("headless") && !key.equals("asyncSkillCalls")) {
+				throw new IllegalArgumentException("Unknown setting " + key);
+			}
+		}
+		return new ServerConfig(port, httpsPort, appName, serverType, headless, asyncSkillCalls, bridgePorts);
+	}
+
+	private static String required(Properties config, String key) {
+		String value = config.getProperty(key);
+		if (value == null || value.trim().isEmpty()) {
+			throw new IllegalArgumentException("No " + key + " given");
+		}
+		return value.trim();
+	}
+
+	private static int portOf(Properties config, String key, Integer defaultPort) {
+		String value = config.getProperty(key);
+		if (value == null && defaultPort != null) {
+			return defaultPort;
+		}
+		int port;
+		try {
+			port = Integer.parseInt(required(config, key));
+		} catch (NumberFormatException e) {
+			throw new IllegalArgumentException("The " + key + " is not a number: " + value);
+		}
+		if (port < 0 || port > 65535) {
+			throw new IllegalArgumentException("The " + key + " is not a port number: " + port);
+		}
+		return port;
+	}
+
+	public static String usage() {
+		return "Arguments: [--config <file>] --port <port> [--httpsPort <port>] --name <name> --type <server type>"
+				+ " [--bridge <device set>=<port>]... [--headless] [--asyncSkillCalls]";
+	}
+}
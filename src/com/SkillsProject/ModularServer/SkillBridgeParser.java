@@ -0,0 +1,401 @@
+/* Parser for the Skill Bridge line protocol.
+ *
+ * Works directly on the bytes read from the socket instead of decoding and splitting strings.
+ * A parse only records where each field starts and ends. The packet type, call type and call result are
+ * matched against their enum constants byte by byte, and skill names and states are looked up from a symbol
+ * table so the same String instance is returned for every packet that names the same skill.
+ * Once the symbol table has seen the names used by a PLC, parsing UPDATE and CALLRET packets doesn't allocate.
+ *
+ * The same accessors work for packets read from binary frames, see BinaryFrame for their layout.
+ *
+ * One parser is used per Skill Bridge and it is not thread safe. The fields are only valid until the next parse.
+ */
+
+package com.SkillsProject.ModularServer;
+
+import java.nio.charset.StandardCharsets;
+
+import com.SkillsProject.Common.CallResult;
+import com.SkillsProject.Common.CallType;
+
+public class SkillBridgeParser {
+	//The most fields any packet uses. Any further fields are ignored.
+	private static final int MAX_FIELDS = 8;
+
+	private static final PacketType[] PACKET_TYPES = PacketType.values();
+	private static final byte[][] PACKET_NAMES = names(PACKET_TYPES);
+	private static final CallType[] CALL_TYPES = CallType.values();
+	private static final byte[][] CALL_NAMES = names(CALL_TYPES);
+	private static final CallResult[] CALL_RESULTS = CallResult.values();
+	private static final byte[][] RESULT_NAMES = names(CALL_RESULTS);
+
+	private final int[] fieldStart = new int[MAX_FIELDS];
+	private final int[] fieldEnd = new int[MAX_FIELDS];
+	private final SymbolTable symbols = new SymbolTable(256);
+	private byte[] buf;
+	private int fields;
+	private PacketType packetType;
+	private CallType callType;
+	private CallResult callResult;
+	private int requestId;
+	private boolean hasRequestId;
+	private boolean binary;
+	//Start of the typed parameter of a binary CALL frame, -1 if there is none.
+	private int paramStart;
+
+	//Parses one packet from buf[start] up to but not including buf[end]. The line terminator must not be included.
+	//Returns false if the packet is malformed.
+	public boolean parse(byte[] buf, int start, int end) {
+		this.buf = buf;
+		fields = 0;
+		packetType = null;
+		callType = null;
+		callResult = null;
+		requestId = -1;
+		hasRequestId = false;
+		binary = false;
+		paramStart = -1;
+
+		//Record the field boundaries.
+		int fs = start;
+		for (int x = start; x <= end && fields < MAX_FIELDS; x++) {
+			if (x == end || buf[x] == ';') {
+				fieldStart[fields] = fs;
+				fieldEnd[fields] = x;
+				fields++;
+				fs = x + 1;
+			}
+		}
+		//Trailing empty fields are dropped the same way String.split does.
+		while (fields > 0 && fieldEnd[fields-1] == fieldStart[fields-1]) {
+			fields--;
+		}
+		if (fields < 2) {
+			return false;
+		}
+
+		packetType = match(PACKET_TYPES, PACKET_NAMES, 1);
+		if (packetType == null) {
+			return false;
+		}
+		switch (packetType) {
+			case CALL:
+			case CALLRET:
+				if (fields < 4) {
+					return false;
+				}
+				callType = match(CALL_TYPES, CALL_NAMES, 2);
+				if (packetType == PacketType.CALLRET) {
+					callResult = match(CALL_RESULTS, RESULT_NAMES, 3);
+				}
+				if (fields > 4) {
+					hasRequestId = true;
+					requestId = parseInt(4);
+				}
+				return callType != null;
+			case UPDATE:
+				return fields >= 3;
+			default:
+				return true;
+		}
+	}
+
+	//Parses one binary frame body from buf[start] up to but not including buf[end]. The length prefix must not be included.
+	//Returns false if the frame is malformed.
+	public boolean parseFrame(byte[] buf, int start, int end) {
+		this.buf = buf;
+		fields = 0;
+		packetType = null;
+		callType = null;
+		callResult = null;
+		requestId = -1;
+		hasRequestId = false;
+		binary = true;
+		paramStart = -1;
+
+		//Opcode and skill name
+		if (end - start < 2) {
+			return false;
+		}
+		int opcode = buf[start] & 0xFF;
+		if (opcode >= PACKET_TYPES.length) {
+			return false;
+		}
+		packetType = PACKET_TYPES[opcode];
+		int pos = start + 1;
+		if (!stringField(0, pos, end)) {
+			return false;
+		}
+		pos = fieldEnd[0];
+		//The keyword field is empty for frames, the opcode replaces it.
+		fieldStart[1] = pos;
+		fieldEnd[1] = pos;
+		fields = 2;
+
+		switch (packetType) {
+			case RET:
+				if (end - pos < 1) {
+					return false;
+				}
+				callResult = result(buf[pos] & 0xFF);
+				return true;
+			case CALL:
+				if (end - pos < 6) {
+					return false;
+				}
+				callType = callType(buf[pos] & 0xFF);
+				requestId = readInt(pos + 1);
+				hasRequestId = true;
+				paramStart = pos + 5;
+				return callType != null && parameterFits(end);
+			case CALLRET:
+				if (end - pos < 6) {
+					return false;
+				}
+				callType = callType(buf[pos] & 0xFF);
+				callResult = result(buf[pos+1] & 0xFF);
+				requestId = readInt(pos + 2);
+				hasRequestId = true;
+				return callType != null;
+			case UPDATE:
+				if (!stringField(2, pos, end)) {
+					return false;
+				}
+				fields = 3;
+				return true;
+			default:
+				return true;
+		}
+	}
+
+	public PacketType packetType() {
+		return packetType;
+	}
+	//The skill or program name in the first field.
+	public String skillName() {
+		return symbol(0);
+	}
+	//The state reported by an UPDATE packet.
+	public String state() {
+		return symbol(2);
+	}
+	//The call type of a CALL or CALLRET packet.
+	public CallType callType() {
+		return callType;
+	}
+	//The result of a CALLRET packet, null if the PLC sent something other than OK or FAILED.
+	public CallResult callResult() {
+		return callResult;
+	}
+	//The request id echoed by the PLC, -1 if the packet has none or it isn't a valid number.
+	public int requestId() {
+		return requestId;
+	}
+	public boolean hasRequestId() {
+		return hasRequestId;
+	}
+	//True if the packet was read from a binary frame.
+	public boolean isBinary() {
+		return binary;
+	}
+	//The typed start parameter of a binary CALL frame, or the parameter field of a text CALL packet.
+	//Allocates, the parameter is only needed by the PLC side.
+	public Object parameter() {
+		if (!binary) {
+			return packetType == PacketType.CALL ? field(3) : null;
+		}
+		if (paramStart < 0) {
+			return null;
+		}
+		switch (buf[paramStart]) {
+			case BinaryFrame.PARAM_STRING:
+				int length = ((buf[paramStart+1] & 0xFF) << 8) | (buf[paramStart+2] & 0xFF);
+				return new String(buf, paramStart + 3, length, StandardCharsets.UTF_8);
+			case BinaryFrame.PARAM_INT32:
+				return readInt(paramStart + 1);
+			case BinaryFrame.PARAM_INT64:
+				return ((long) readInt(paramStart + 1) << 32) | (readInt(paramStart + 5) & 0xFFFFFFFFL);
+			case BinaryFrame.PARAM_DOUBLE:
+				return Double.longBitsToDouble(((long) readInt(paramStart + 1) << 32) | (readInt(paramStart + 5) & 0xFFFFFFFFL));
+			case BinaryFrame.PARAM_BOOLEAN:
+				return buf[paramStart+1] != 0;
+			default:
+				return null;
+		}
+	}
+
+	public int fieldCount() {
+		return fields;
+	}
+	//Returns a field as a new string. Allocates, so only for rarely used fields.
+	public String field(int index) {
+		if (index >= fields) {
+			return null;
+		}
+		return new String(buf, fieldStart[index], fieldEnd[index] - fieldStart[index], StandardCharsets.US_ASCII);
+	}
+	//Returns a field as an interned string from the symbol table.
+	public String symbol(int index) {
+		if (index >= fields) {
+			return null;
+		}
+		return symbols.intern(buf, fieldStart[index], fieldEnd[index]);
+	}
+
+	//Returns the whole packet as a string, for logging. Binary frames are shown in the text form.
+	@Override
+	public String toString() {
+		if (fields == 0) {
+			return "";
+		}
+		if (binary) {
+			StringBuilder text = new StringBuilder(field(0)).append(';').append(packetType);
+			if (callType != null) {
+				text.append(';').append(callType);
+			}
+			if (packetType == PacketType.UPDATE) {
+				text.append(';').append(field(2));
+			}
+			if (callResult != null || packetType == PacketType.RET) {
+				text.append(';').append(callResult);
+			}
+			if (hasRequestId) {
+				text.append(';').append(requestId);
+			}
+			return text.toString();
+		}
+		return new String(buf, fieldStart[0], fieldEnd[fields-1] - fieldStart[0], StandardCharsets.US_ASCII);
+	}
+
+	//Matches a field against the names of enum constants.
+	private <E> E match(E[] values, byte[][] names, int index) {
+		int start = fieldStart[index];
+		int length = fieldEnd[index] - start;
+		for (int x = 0; x < values.length; x++) {
+			if (equalBytes(names[x], buf, start, length)) {
+				return values[x];
+			}
+		}
+		return null;
+	}
+	//Parses a non-negative decimal field, -1 if it isn't one.
+	private int parseInt(int index) {
+		int value = 0;
+		int end = fieldEnd[index];
+		for (int x = fieldStart[index]; x < end; x++) {
+			int digit = buf[x] - '0';
+			if (digit < 0 || digit > 9 || value > (Integer.MAX_VALUE - digit) / 10) {
+				return -1;
+			}
+			value = value * 10 + digit;
+		}
+		return value;
+	}
+
+	//Reads a string with a length byte at buf[pos] into the given field.
+	private boolean stringField(int index, int pos, int end) {
+		if (pos >= end) {
+			return false;
+		}
+		int length = buf[pos] & 0xFF;
+		if (pos + 1 + length > end) {
+			return false;
+		}
+		fieldStart[index] = pos + 1;
+		fieldEnd[index] = pos + 1 + length;
+		return true;
+	}
+	//Checks that the typed parameter of a CALL frame is complete.
+	private boolean parameterFits(int end) {
+		int remaining = end - paramStart - 1;
+		switch (buf[paramStart]) {
+			case BinaryFrame.PARAM_NONE:
+				return true;
+			case BinaryFrame.PARAM_STRING:
+				return remaining >= 2 && remaining - 2 >= (((buf[paramStart+1] & 0xFF) << 8) | (buf[paramStart+2] & 0xFF));
+			case BinaryFrame.PARAM_INT32:
+				return remaining >= 4;
+			case BinaryFrame.PARAM_INT64:
+			case BinaryFrame.PARAM_DOUBLE:
+				return remaining >= 8;
+			case BinaryFrame.PARAM_BOOLEAN:
+				return remaining >= 1;
+			default:
+				return false;
+		}
+	}
+	private int readInt(int pos) {
+		return ((buf[pos] & 0xFF) << 24) | ((buf[pos+1] & 0xFF) << 16) | ((buf[pos+2] & 0xFF) << 8) | (buf[pos+3] & 0xFF);
+	}
+	private static CallType callType(int ordinal) {
+		return ordinal < CALL_TYPES.length ? CALL_TYPES[ordinal] : null;
+	}
+	private static CallResult result(int ordinal) {
+		return ordinal < CALL_RESULTS.length ? CALL_RESULTS[ordinal] : null;
+	}
+
+	private static boolean equalBytes(byte[] name, byte[] buf, int start, int length) {
+		if (name.length != length) {
+			return false;
+		}
+		for (int x = 0; x < length; x++) {
+			if (name[x] != buf[start + x]) {
+				return false;
+			}
+		}
+		return true;
+	}
+	private static byte[][] names(Enum<?>[] values) {
+		byte[][] names = new byte[values.length][];
+		for (int x = 0; x < values.length; x++) {
+			names[x] = values[x].name().getBytes(StandardCharsets.US_ASCII);
+		}
+		return names;
+	}
+
+	//Open addressing table from byte sequences to strings.
+	//Once full, unknown names are still returned as new strings but no longer stored.
+	private static final class SymbolTable {
+		private final byte[][] keys;
+		private final String[] values;
+		private final int[] hashes;
+		private final int mask;
+		private final int maxSize;
+		private int size = 0;
+
+		SymbolTable(int capacity) {
+			int tableSize = Integer.highestOneBit(capacity * 2 - 1) * 2;
+			keys = new byte[tableSize][];
+			values = new String[tableSize];
+			hashes = new int[tableSize];
+			mask = tableSize - 1;
+			maxSize = capacity;
+		}
+
+		String intern(byte[] buf, int start, int end) {
+			int hash = 1;
+			for (int x = start; x < end; x++) {
+				hash = 31 * hash + buf[x];
+			}
+			int length = end - start;
+			int slot = (hash ^ (hash >>> 16)) & mask;
+			while (keys[slot] != null) {
+				if (hashes[slot] == hash && equalBytes(keys[slot], buf, start, length)) {
+					return values[slot];
+				}
+				slot = (slot + 1) & mask;
+			}
+			String value = new String(buf, start, length, StandardCharsets.US_ASCII);
+			if (size < maxSize) {
+				byte[] key = new byte[length];
+				System.arraycopy(buf, start, key, 0, length);
+				keys[slot] = key;
+				values[slot] = value.intern();
+				hashes[slot] = hash;
+				size++;
+				return values[slot];
+			}
+			return value;
+		}
+	}
+}
@@ -0,0 +1,192 @@
+/* Sends the skill events of a device server to its clients.
+ *
+ * The node manager used to create a new MyStateEvent node for every event, along with its NodeId, names and
+ * message text. The emitter creates the event node once and triggers it again with new values for every event.
+ * The event fields are copied into the notifications of the subscribed clients when the event is triggered,
+ * so the node is free for the next event right after. The message texts are built once per skill and state
+ * (or call type and result) and reused, which leaves the event id and time stamps as the only allocations
+ * of most events.
+ *
+ * Besides the message text every event carries its information in typed fields: the event kind, the skill,
+ * the numeric skill state, the call type and result, a sequence number that increases by one per event, the state
+ * text as the PLC reported it, which is all a client has of a state without a number, and the device set of the skill,
+ * since the device sets of a combined server can have skills of the same name.
+ * A field is only written to the event node when its value changes.
+ *
+ * The emitter is used by the state ingest thread and by the node manager's shutdown message, so all
+ * events are sent under the emitter's lock.
+ */
+
+package com.SkillsProject.ModularServer;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.SkillsProject.Common.SkillEventKind;
+import com.SkillsProject.Common.SkillState;
+import com.prosysopc.ua.StatusException;
+import com.prosysopc.ua.nodes.UaVariable;
+import com.prosysopc.ua.stack.builtintypes.ByteString;
+import com.prosysopc.ua.stack.builtintypes.DateTime;
+import com.prosysopc.ua.stack.builtintypes.LocalizedText;
+
+public class SkillEventEmitter {
+	private static final Logger logger = LoggerFactory.getLogger(SkillEventEmitter.class);
+	//Cached messages are dropped when there are more than this many, in case a PLC keeps reporting new states.
+	private static final int MAX_CACHED_MESSAGES = 4096;
+	//Indexes of the typed fields, in the order of MyStateEvent.FIELD_NAMES.
+	private static final int KIND = 0;
+	private static final int MACHINE_NAME = 1;
+	private static final int STATE_NUMBER = 2;
+	private static final int CALL_TYPE = 3;
+	private static final int CALL_RESULT = 4;
+	private static final int SEQUENCE_NUMBER = 5;
+	private static final int STATE_TEXT = 6;
+	private static final int DEVICE_SET = 7;
+
+	private final ModularNodeManager nodeManager;
+	private final DeviceEventManagerListener eventIds;
+	//The reused event node and its field variables, created on the first event.
+	private MyStateEvent event;
+	private final UaVariable[] fields = new UaVariable[MyStateEvent.FIELD_NAMES.length];
+	private final Object[] fieldValues = new Object[MyStateEvent.FIELD_NAMES.length];
+	//The events of every skill, keyed by device set and skill name.
+	private final Map<String, Map<String, SkillEvents>> skillEvents = new HashMap<String, Map<String, SkillEvents>>();
+	private int cachedEvents = 0;
+	private long sequenceNumber = 0;
+
+	public SkillEventEmitter(ModularNodeManager nodeManager, DeviceEventManagerListener eventIds) {
+		this.nodeManager = nodeManager;
+		this.eventIds = eventIds;
+	}
+
+	//Sends a state change of a skill of a device set.
+	public synchronized void stateChange(String deviceSet, String skillName, String state) throws StatusException {
+		SkillEvents events = events(deviceSet, skillName, false);
+		CachedEvent cached = events != null ? events.states.get(state) : null;
+		if (cached == null) {
+			//Room is made before the maps are looked up again, so the new event isn't put in a map just dropped.
+			makeRoom();
+			cached = new CachedEvent(SkillEventKind.STATE_CHANGE, deviceSet, skillName, "StateChange;"+skillName+";"+state,
+					SkillState.of(state).number, state, "", "");
+			events(deviceSet, skillName, true).states.put(state, cached);
+		}
+		trigger(cached);
+	}
+
+	//Sends the result of a call made to a skill of a device set.
+	public synchronized void callReturn(String deviceSet, String skillName, String callType, String callResult) throws StatusException {
+		callType = callType != null ? callType : "";
+		callResult = callResult != null ? callResult : "";
+		SkillEvents events = events(deviceSet, skillName, false);
+		Map<String, CachedEvent> results = events != null ? events.callReturns.get(callType) : null;
+		CachedEvent cached = results != null ? results.get(callResult) : null;
+		if (cached == null) {
+			makeRoom();
+			cached = new CachedEvent(SkillEventKind.CALL_RETURN, deviceSet, skillName, "CallReturn;"+skillName+";"+callType+";"+callResult,
+					SkillState.UNKNOWN.number, "", callType, callResult);
+			events(deviceSet, skillName, true).callReturns.computeIfAbsent(callType, key -> new HashMap<String, CachedEvent>())
+					.put(callResult, cached);
+		}
+		trigger(cached);
+	}
+
+	//Sends a generic message from the server. These are rare, so the message isn't cached.
+	public synchronized void serverMessage(String message) throws StatusException {
+		trigger(new CachedEvent(SkillEventKind.SERVER_MESSAGE, "", "Null", "ServerMessage;"+message, SkillState.UNKNOWN.number, "", "", ""));
+	}
+
+	//The number of events sent so far, which is also the sequence number of the last event.
+	public synchronized long getSentEvents() {
+		return sequenceNumber;
+	}
+
+	private void trigger(CachedEvent cached) throws StatusException {
+		MyStateEvent newEvent = event();
+		newEvent.setMessage(cached.message);
+		setField(KIND, cached.kindCode);
+		setField(MACHINE_NAME, cached.machineName);
+		setField(STATE_NUMBER, cached.stateNumber);
+		setField(CALL_TYPE, cached.callType);
+		setField(CALL_RESULT, cached.callResult);
+		setField(SEQUENCE_NUMBER, Long.valueOf(++sequenceNumber));
+		setField(STATE_TEXT, cached.stateText);
+		setField(DEVICE_SET, cached.deviceSet);
+		final DateTime time = DateTime.currentTime();
+		ByteString newEventId = eventIds.getNextUserEventId();
+		newEvent.triggerEvent(time, time, newEventId);
+	}
+
+	private void setField(int field, Object value) throws StatusException {
+		if (fields[field] != null && !value.equals(fieldValues[field])) {
+			fields[field].setValue(value);
+			fieldValues[field] = value;
+		}
+	}
+
+	private MyStateEvent event() throws StatusException {
+		if (event == null) {
+			event = nodeManager.createStateEvent();
+			for (int x = 0; x < fields.length; x++) {
+				fields[x] = event.getFieldVariableNode(MyStateEvent.FIELD_NAMES[x]);
+				if (fields[x] == null) {
+					logger.warn("The state event has no " + MyStateEvent.FIELD_NAMES[x] + " variable");
+				}
+			}
+		}
+		return event;
+	}
+
+	//The cached events of a skill, created if asked for. A null device set is kept as an empty one.
+	private SkillEvents events(String deviceSet, String skillName, boolean create) {
+		Map<String, SkillEvents> deviceEvents = skillEvents.get(deviceSet != null ? deviceSet : "");
+		SkillEvents events = deviceEvents != null ? deviceEvents.get(skillName) : null;
+		if (events == null && create) {
+			events = new SkillEvents();
+			skillEvents.computeIfAbsent(deviceSet != null ? deviceSet : "", key -> new HashMap<String, SkillEvents>()).put(skillName, events);
+		}
+		return events;
+	}
+
+	//Drops the cached events if the cache is full, then counts the event about to be added.
+	private void makeRoom() {
+		if (cachedEvents >= MAX_CACHED_MESSAGES) {
+			skillEvents.clear();
+			cachedEvents = 0;
+		}
+		cachedEvents++;
+	}
+
+	//The cached events of one skill, by state, and by call type and call result.
+	private static final class SkillEvents {
+		final Map<String, CachedEvent> states = new HashMap<String, CachedEvent>();
+		final Map<String, Map<String, CachedEvent>> callReturns = new HashMap<String, Map<String, CachedEvent>>();
+	}
+
+	//The values of an event that stay the same every time it's sent. Boxed once so sending doesn't box them again.
+	private static final class CachedEvent {
+		final Integer kindCode;
+		final String deviceSet;
+		final String machineName;
+		final LocalizedText message;
+		final Integer stateNumber;
+		final String stateText;
+		final String callType;
+		final String callResult;
+
+		CachedEvent(SkillEventKind kind, String deviceSet, String machineName, String message, int stateNumber, String stateText,
+				String callType, String callResult) {
+			this.kindCode = kind.code;
+			this.deviceSet = deviceSet != null ? deviceSet : "";
+			this.machineName = machineName;
+			this.message = new LocalizedText(message);
+			this.stateNumber = stateNumber;
+			this.stateText = stateText;
+			this.callType = callType;
+			this.callResult = callResult;
+		}
+	}
+}
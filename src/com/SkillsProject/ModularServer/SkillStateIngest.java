@@ -0,0 +1,264 @@
+/* Ingest stage between the Skill Bridges and the address space.
+ *
+ * The Skill Bridges are run by the TCP IO Server's selector thread, which must not wait for the address space.
+ * Instead of writing skill states and creating events themselves the bridges hand the parsed packets to this
+ * stage, which applies them on its own thread. Submitting never waits.
+ *
+ * Every skill has a slot holding its latest state. An UPDATE repeating the state the skill is already in only
+ * replaces the slot's value and is otherwise coalesced away. An UPDATE changing the state is a real transition and
+ * is queued in arrival order together with the call returns, so clients still get an event for every transition.
+ * The state property is written once per batch with the latest value of the slot, so a burst of transitions
+ * doesn't write every intermediate state to the property.
+ *
+ * The event queue has a soft capacity. If the address space falls so far behind that the backlog reaches it, the
+ * bridge that submitted last pauses reading its PLC's packets, see isSaturated() and resumeWhenDrained(), and the
+ * ingest thread lets it read again once the backlog has drained to half the capacity. The packets already read are
+ * still queued, so no transition is lost and the other bridges keep being served. The pauses are counted.
+ * Only a closed ingest stage drops what is submitted to it.
+ */
+
+package com.SkillsProject.ModularServer;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.SkillsProject.Common.CallType;
+import com.prosysopc.ua.server.nodes.PlainProperty;
+
+public class SkillStateIngest extends Thread {
+	//Default number of waiting events at which the bridges pause reading.
+	public static final int DEFAULT_CAPACITY = 16384;
+	//Most events applied in one batch.
+	private static final int MAX_BATCH = 256;
+
+	private final ModularNodeManager nodeManager;
+	private final BlockingQueue<IngestEvent> events = new LinkedBlockingQueue<IngestEvent>();
+	private final int capacity;
+	//Bridges that paused reading, resumed once the backlog has drained.
+	private final Queue<Runnable> pausedReaders = new ConcurrentLinkedQueue<Runnable>();
+	//Latest state of every skill, keyed by device set and skill name.
+	private final Map<String, Map<String, SkillSlot>> slots = new ConcurrentHashMap<String, Map<String, SkillSlot>>();
+	private volatile boolean operateIngest = true;
+	private final AtomicLong coalesced = new AtomicLong();
+	private final AtomicLong paused = new AtomicLong();
+	private final AtomicLong dropped = new AtomicLong();
+
+	private static Logger logger = LoggerFactory.getLogger(SkillStateIngest.class);
+
+	public SkillStateIngest(ModularNodeManager nodeMan) {
+		this(nodeMan, DEFAULT_CAPACITY);
+	}
+	public SkillStateIngest(ModularNodeManager nodeMan, int capacity) {
+		this.nodeManager = nodeMan;
+		this.capacity = capacity;
+		this.setName("SkillStateIngestThread");
+		this.setDaemon(true);
+	}
+
+	//Called by the Skill Bridges when a PLC reports a skill state.
+	public void submitState(String deviceSet, String skillName, String state) {
+		SkillSlot slot = slot(deviceSet, skillName);
+		synchronized (slot) {
+			slot.latestState = state;
+			if (state.equals(slot.lastState)) {
+				coalesced.incrementAndGet();
+				return;
+			}
+			slot.lastState = state;
+			slot.dirty.set(true);
+			enqueue(new IngestEvent(slot, deviceSet, skillName, state, null, null));
+		}
+	}
+	//Called by the Skill Bridges when a PLC answers a call. Queued with the state transitions to keep the event order.
+	public void submitCallReturn(String deviceSet, String skillName, CallType callType, String callResult) {
+		enqueue(new IngestEvent(null, deviceSet, skillName, null, callType, callResult));
+	}
+
+	//Main thread functionality
+	//Takes the waiting events in batches, writes the latest states and then sends the events in order.
+	public void run() {
+		List<IngestEvent> batch = new ArrayList<IngestEvent>(MAX_BATCH);
+		while (operateIngest) {
+			try {
+				batch.add(events.take());
+				events.drainTo(batch, MAX_BATCH - 1);
+				applyBatch(batch);
+				if (!pausedReaders.isEmpty() && isDrained()) {
+					resumeReaders();
+				}
+			} catch (InterruptedException e) {
+				if (operateIngest) {
+					logger.warn("Skill state ingest interrupted");
+				}
+			} catch (Exception e) {
+				logger.error("Skill state ingest error: " + e);
+				System.out.println("Skill state ingest error: " + e);
+			}
+			batch.clear();
+		}
+		resumeReaders();
+	}
+
+	private void applyBatch(List<IngestEvent> batch) {
+		//Latest value wins for the state property, each skill in the batch is written once.
+		for (IngestEvent event: batch) {
+			if (event.slot != null && event.slot.dirty.getAndSet(false)) {
+				writeState(event.slot);
+			}
+		}
+		for (IngestEvent event: batch) {
+			try {
+				if (event.slot != null) {
+					nodeManager.sendEvent(event.deviceSet, event.skillName, event.state);
+				}
+				else {
+					nodeManager.sendEvent(event.deviceSet, event.skillName, event.callType.name(), event.callResult);
+				}
+			} catch (Exception e) {
+				System.out.println("Issue with sending skill event.");
+				logger.error("Failed to send skill event: " + e);
+			}
+		}
+	}
+
+	//Handles updating skill object current state variable.
+	private void writeState(SkillSlot slot) {
+		try {
+			if (slot.stateProperty == null) {
+				slot.stateProperty = nodeManager.getSkillState(slot.deviceSet, slot.skillName);
+			}
+			if (slot.stateProperty != null) {
+				slot.stateProperty.setCurrentValue(slot.latestState);
+			}
+		} catch (Exception e) {
+			System.out.println("Issue with updating skill state.");
+			logger.error("Failed to update the state of " + slot.skillName + ": " + e);
+		}
+	}
+
+	//Queues an event. Never waits, the bridges check isSaturated() after handing over what they have read.
+	private void enqueue(IngestEvent event) {
+		if (!operateIngest) {
+			dropped.incrementAndGet();
+			return;
+		}
+		events.add(event);
+	}
+
+	//True when the backlog has reached the capacity and the calling bridge should pause reading.
+	public boolean isSaturated() {
+		return events.size() >= capacity;
+	}
+	private boolean isDrained() {
+		return events.size() <= capacity / 2;
+	}
+	//Runs resume once the backlog has drained to half the capacity, or when the ingest stage is closed.
+	//Called by a bridge that has paused reading. resume is run by the ingest thread, or right away if the backlog
+	//drained before the bridge was registered.
+	public void resumeWhenDrained(Runnable resume) {
+		//Log the first pause and then every thousandth to keep an overloaded server from flooding the log.
+		if (paused.incrementAndGet() % 1000 == 1) {
+			logger.warn("Skill state ingest backlog full, the bridges have paused reading " + paused.get() + " times so far");
+		}
+		pausedReaders.add(resume);
+		if (isDrained() || !operateIngest) {
+			resumeReaders();
+		}
+	}
+	private void resumeReaders() {
+		Runnable resume;
+		while ((resume = pausedReaders.poll()) != null) {
+			try {
+				resume.run();
+			} catch (Exception e) {
+				logger.error("Failed to resume a skill bridge: " + e);
+			}
+		}
+	}
+
+	private SkillSlot slot(String deviceSet, String skillName) {
+		Map<String, SkillSlot> deviceSlots = slots.get(deviceSet);
+		if (deviceSlots == null) {
+			slots.putIfAbsent(deviceSet, new ConcurrentHashMap<String, SkillSlot>());
+			deviceSlots = slots.get(deviceSet);
+		}
+		SkillSlot slot = deviceSlots.get(skillName);
+		if (slot == null) {
+			deviceSlots.putIfAbsent(skillName, new SkillSlot(deviceSet, skillName));
+			slot = deviceSlots.get(skillName);
+		}
+		return slot;
+	}
+
+	//Number of UPDATE packets that didn't change the state and were coalesced.
+	public long getCoalescedCount() {
+		return coalesced.get();
+	}
+	//Number of times a bridge paused reading because the backlog was full.
+	public long getPausedCount() {
+		return paused.get();
+	}
+	//Number of events dropped because the ingest stage was closed.
+	public long getDroppedCount() {
+		return dropped.get();
+	}
+	//Number of events waiting to be applied.
+	public int getBacklog() {
+		return events.size();
+	}
+
+	public void close() {
+		operateIngest = false;
+		this.interrupt();
+		resumeReaders();
+	}
+
+	//The state of a single skill.
+	private static final class SkillSlot {
+		final String deviceSet;
+		final String skillName;
+		//The last state queued as a transition. Guarded by the slot.
+		String lastState;
+		volatile String latestState;
+		//Set when the state property needs to be written.
+		final AtomicBoolean dirty = new AtomicBoolean();
+		//Resolved by the ingest thread on first use.
+		PlainProperty<String> stateProperty;
+
+		SkillSlot(String deviceSet, String skillName) {
+			this.deviceSet = deviceSet;
+			this.skillName = skillName;
+		}
+	}
+
+	//A state transition of a skill or a call return waiting to be sent to clients.
+	private static final class IngestEvent {
+		//The slot of a state transition, null for call returns.
+		final SkillSlot slot;
+		final String deviceSet;
+		final String skillName;
+		final String state;
+		final CallType callType;
+		final String callResult;
+
+		IngestEvent(SkillSlot slot, String deviceSet, String skillName, String state, CallType callType, String callResult) {
+			this.slot = slot;
+			this.deviceSet = deviceSet;
+			this.skillName = skillName;
+			this.state = state;
+			this.callType = callType;
+			this.callResult = callResult;
+		}
+	}
+}
@@ -0,0 +1,67 @@
+/* Records how long the phases of a device server's startup take.
+ *
+ * Phases are timed from the thread that runs them, so phases running at the same time are recorded side by side.
+ * The report lists every phase with its start and duration, counted from when the timings were created, and the
+ * time until the server was serving.
+ */
+
+package com.SkillsProject.ModularServer;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+public final class StartupTimings {
+	private static final Logger logger = LoggerFactory.getLogger(StartupTimings.class);
+
+	//A finished phase, with its start and end in nanoseconds since the timings were created.
+	public static final class Phase {
+		public final String name;
+		public final long startNanos;
+		public final long endNanos;
+
+		Phase(String name, long startNanos, long endNanos) {
+			this.name = name;
+			this.startNanos = startNanos;
+			this.endNanos = endNanos;
+		}
+
+		public double millis() {
+			return (endNanos - startNanos) / 1e6;
+		}
+	}
+
+	private final long origin = System.nanoTime();
+	private final List<Phase> phases = new ArrayList<Phase>();
+
+	//Returns the start of a phase, to be passed to end when it's done.
+	public long begin() {
+		return System.nanoTime();
+	}
+
+	public void end(String name, long begin) {
+		Phase phase = new Phase(name, begin - origin, System.nanoTime() - origin);
+		synchronized (phases) {
+			phases.add(phase);
+		}
+		logger.debug(String.format("Startup phase %s took %.1f ms", name, phase.millis()));
+	}
+
+	public List<Phase> phases() {
+		synchronized (phases) {
+			return new ArrayList<Phase>(phases);
+		}
+	}
+
+	//Prints and logs the phases and the time since the timings were created.
+	public void report(String title) {
+		StringBuilder report = new StringBuilder(String.format("%s in %.1f ms:", title, (System.nanoTime() - origin) / 1e6));
+		for (Phase phase: phases()) {
+			report.append(String.format("%n\t%-20s %8.1f ms (at %.1f ms)", phase.name, phase.millis(), phase.startNanos / 1e6));
+		}
+		System.out.println(report);
+		logger.info(report.toString());
+	}
+}
@@ -1,69 +1,208 @@
 /* The TCP IO Server half of the Skill Bridge module.
  * Based on the implementation developed during the Tracing Products in Flexible Systems project.
  * See: https://wiki.aalto.fi/display/AEEproject/Tracing+products+in+flexible+production+systems
- * 
- * The TCP IO server handles establishing a connection with the IEC-61499 program on the PLC.
- * When the connection is established a Skill Bridge object is created to handle communication.
+ *
+ * The TCP IO server handles establishing connections with the IEC-61499 programs on the PLCs.
+ * A single non-blocking selector loop serves every PLC connection of the device server.
+ * In the PLATFORM and VIRTUAL execution modes the selector only accepts connections and every connection is read
+ * by its own blocking reader thread instead, see ExecutionMode.
+ * Each device set gets its own listening port. When a connection is accepted on that port a Skill Bridge
+ * object is created to handle communication and registered in the node manager under the device set.
  */
 
 package com.SkillsProject.ModularServer;
 
 import java.io.IOException;
-import java.net.ServerSocket;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.channels.ClosedSelectorException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 public class TcpIOServer extends Thread {
 	//Declare variables
-	private final int port;
 	private final ModularNodeManager nodeManager;
-	private ServerSocket servSock;
-	private Bridge skillBridge = null;
-	private Boolean operateServer=true;
-	
+	private final ExecutionMode executionMode;
+	private final Selector selector;
+	//Operations on the selector made by other threads are queued and run by the selector thread.
+	private final Queue<Runnable> pendingOps = new ConcurrentLinkedQueue<Runnable>();
+	private final Map<String, ServerSocketChannel> listeners = new ConcurrentHashMap<String, ServerSocketChannel>();
+	private volatile boolean operateServer = true;
+
 	//Create the logger
 	private Logger logger = LoggerFactory.getLogger(TcpIOServer.class);
-	
+
 	//Initialization
-	public TcpIOServer(int port, ModularNodeManager nodeMan) {
+	public TcpIOServer(ModularNodeManager nodeMan) throws IOException {
+		this(nodeMan, ExecutionMode.SELECTOR);
+	}
+	public TcpIOServer(ModularNodeManager nodeMan, ExecutionMode executionMode) throws IOException {
 		this.nodeManager=nodeMan;
-		this.port = port;
+		this.executionMode = executionMode;
+		this.selector = Selector.open();
 		this.setName("TCPIOServerThread");
 	}
-	
+
+	//Opens a listening port for the PLC of a device set.
+	//The port is bound immediately so that errors are reported to the caller, registration happens on the selector thread.
+	public void addBridgePort(int port, String deviceSet) throws IOException {
+		final ServerSocketChannel servChannel = ServerSocketChannel.open();
+		servChannel.configureBlocking(false);
+		servChannel.bind(new InetSocketAddress(port));
+		listeners.put(deviceSet, servChannel);
+		runOnSelector(() -> {
+			try {
+				servChannel.register(selector, SelectionKey.OP_ACCEPT, deviceSet);
+			} catch (IOException e) {
+				logger.error("Failed to register TCP IO Server port " + port + ": " + e);
+			}
+		});
+		logger.info("Starting TCP IO Server for " + deviceSet + " at: " + port);
+	}
+
+	//The port the PLC of a device set connects to, -1 if the device set has none.
+	//Tells the actual port when the port was given as 0.
+	public int getBridgePort(String deviceSet) {
+		ServerSocketChannel servChannel = listeners.get(deviceSet);
+		if (servChannel == null) {
+			return -1;
+		}
+		try {
+			return ((InetSocketAddress) servChannel.getLocalAddress()).getPort();
+		} catch (IOException e) {
+			return -1;
+		}
+	}
+
 	//Main thread functionality
 	public void run() {
 		try {
-			//Start the socket and log
-			servSock = new ServerSocket(port);
-			logger.info("Starting TCP IO Server at: " + servSock.getLocalPort());
-			
 			//Core loop
-			//Create a new Skill Bridge when a device server connects. Set up this way so that a consolidated OPC UA server works as intended.
+			//Accept new PLC connections and pass readable and writable channels to the bridge attached to them.
 			while (operateServer) {
-				skillBridge = new Bridge(servSock.accept(), nodeManager);
-				skillBridge.start();
-				nodeManager.bridgeReady = true;
-				nodeManager.spaceBridge = skillBridge;
+				selector.select();
+				Runnable op;
+				while ((op = pendingOps.poll()) != null) {
+					op.run();
+				}
+				Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+				while (keys.hasNext()) {
+					SelectionKey key = keys.next();
+					keys.remove();
+					handleKey(key);
+				}
 			}
 		}
+		catch(ClosedSelectorException e) {
+			logger.info("TCP IO Server selector closed");
+		}
 		catch(Exception e) {
 			logger.error("TCP IO Server error: " + e);
 			System.out.println("TCP IO Server error: " + e);
 		}
 	}
-	
-	//Function for closing the socket
+
+	//Handles a single ready channel.
+	private void handleKey(SelectionKey key) {
+		if (key.attachment() instanceof Bridge) {
+			Bridge bridge = (Bridge) key.attachment();
+			try {
+				if (key.isValid() && key.isReadable() && !bridge.onReadable()) {
+					logger.info("PLC closed the connection of " + bridge.getDeviceSet());
+					bridge.close();
+					return;
+				}
+				if (key.isValid() && key.isWritable() && bridge.onWritable()) {
+					key.interestOps(key.interestOps() & ~SelectionKey.OP_WRITE);
+				}
+			} catch (IOException e) {
+				logger.warn("Skill bridge error on " + bridge.getDeviceSet() + ": " + e);
+				bridge.close();
+			}
+		}
+		else if (key.isValid() && key.isAcceptable()) {
+			try {
+				accept(key);
+			} catch (IOException e) {
+				logger.error("TCP IO Server accept failed: " + e);
+			}
+		}
+	}
+
+	//Create a new Skill Bridge when a PLC connects and register it for the device set of the port.
+	//A reconnecting PLC replaces the earlier bridge of the same device set only.
+	private void accept(SelectionKey key) throws IOException {
+		String deviceSet = (String) key.attachment();
+		SocketChannel channel = ((ServerSocketChannel) key.channel()).accept();
+		if (channel == null) {
+			return;
+		}
+		channel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+		Bridge skillBridge;
+		if (executionMode.threadPerConnection()) {
+			channel.configureBlocking(true);
+			skillBridge = new Bridge(channel, nodeManager, deviceSet, this);
+		}
+		else {
+			channel.configureBlocking(false);
+			skillBridge = new Bridge(channel, nodeManager, deviceSet, this);
+			skillBridge.setKey(channel.register(selector, SelectionKey.OP_READ, skillBridge));
+		}
+		Bridge previous = nodeManager.registerBridge(deviceSet, skillBridge);
+		if (previous != null) {
+			logger.warn("A new PLC connection replaced the skill bridge of " + deviceSet);
+			previous.close();
+		}
+		if (executionMode.threadPerConnection()) {
+			executionMode.newThread(skillBridge::serve, "SkillBridge-" + deviceSet).start();
+		}
+	}
+
+	//Asks the selector thread to flush the outbound queue of a bridge.
+	void requestWrite(SelectionKey key) {
+		runOnSelector(() -> {
+			if (key.isValid()) {
+				key.interestOps(key.interestOps() | SelectionKey.OP_WRITE);
+			}
+		});
+	}
+
+	//Asks the selector thread to read from a bridge again after it paused for the ingest stage.
+	void resumeRead(SelectionKey key) {
+		runOnSelector(() -> {
+			if (key.isValid()) {
+				key.interestOps(key.interestOps() | SelectionKey.OP_READ);
+			}
+		});
+	}
+
+	private void runOnSelector(Runnable op) {
+		pendingOps.add(op);
+		selector.wakeup();
+	}
+
+	//Function for closing the sockets
 	public void close() {
 		try {
 			logger.info("Closing TCP IO Server");
-			servSock.close();
 			operateServer=false;
-			
-			if (skillBridge != null && skillBridge.isAlive()) {
-				skillBridge.close();
+			for (Bridge bridge: nodeManager.bridgeMap.values()) {
+				bridge.close();
+			}
+			for (ServerSocketChannel servChannel: listeners.values()) {
+				servChannel.close();
 			}
+			selector.close();
 		} catch (IOException e) {
 			logger.error("TCP Server Close Failed: " + e);
 		}
@@ -0,0 +1,179 @@
+/* Runs any number of simulated PLCs from a single selector thread.
+ *
+ * Socket events and the timers of the simulated PLCs (call latencies, skill execution, periodic updates) are
+ * handled by the same loop, so a run with the same seed and settings makes the same decisions every time.
+ */
+
+package com.SkillsProject.PlcSimulator;
+
+import java.io.IOException;
+import java.nio.channels.ClosedSelectorException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Locale;
+import java.util.PriorityQueue;
+
+public class PlcSimulator extends Thread {
+	private final SimulatorConfig config;
+	private final Selector selector;
+	private final List<SimulatedPlc> plcs = new ArrayList<SimulatedPlc>();
+	private final PriorityQueue<Timer> timers = new PriorityQueue<Timer>();
+	private long timerSequence = 0;
+	private final long startNanos = System.nanoTime();
+	private volatile boolean operateSimulator = true;
+	final Stats stats = new Stats();
+
+	public PlcSimulator(SimulatorConfig config) throws IOException {
+		this.config = config;
+		this.selector = Selector.open();
+		this.setName("PlcSimulatorThread");
+		List<String> skills = config.skillsOf(config.serverType);
+		for (int x = 0; x < config.plcCount; x++) {
+			int port = config.firstPort + x % config.portCount;
+			plcs.add(new SimulatedPlc("SimPLC" + x, port, skills, this, config, config.seed + x));
+		}
+	}
+
+	public void run() {
+		for (SimulatedPlc plc: plcs) {
+			plc.connect(selector);
+		}
+		if (config.statsInterval > 0) {
+			scheduleStats();
+		}
+		try {
+			while (operateSimulator) {
+				//Sleep until the next timer is due or a socket is ready.
+				Timer next = timers.peek();
+				long wait = next == null ? 0 : next.due - now();
+				if (next == null) {
+					selector.select();
+				}
+				else if (wait > 0) {
+					selector.select(wait);
+				}
+				else {
+					selector.selectNow();
+				}
+				Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+				while (keys.hasNext()) {
+					SelectionKey key = keys.next();
+					keys.remove();
+					handleKey(key);
+				}
+				runDueTimers();
+			}
+		} catch (ClosedSelectorException e) {
+			//Closed by shutdown.
+		} catch (IOException e) {
+			System.out.println("PLC simulator error: " + e);
+		}
+	}
+
+	private void handleKey(SelectionKey key) {
+		SimulatedPlc plc = (SimulatedPlc) key.attachment();
+		try {
+			if (key.isValid() && key.isConnectable()) {
+				plc.onConnectable();
+			}
+			if (key.isValid() && key.isReadable() && !plc.onReadable()) {
+				System.out.println(plc.name + " was disconnected by the server");
+				plc.disconnected(selector);
+				return;
+			}
+			if (key.isValid() && key.isWritable() && plc.onWritable()) {
+				key.interestOps(SelectionKey.OP_READ);
+			}
+		} catch (IOException e) {
+			System.out.println(plc.name + " connection error on port " + plc.port + ": " + e);
+			plc.disconnected(selector);
+		}
+	}
+
+	private void runDueTimers() {
+		long now = now();
+		Timer timer;
+		while ((timer = timers.peek()) != null && timer.due <= now) {
+			timers.poll();
+			timer.action.run();
+		}
+	}
+
+	//Runs the action on the simulator thread after the delay. Must be called from the simulator thread.
+	void schedule(long delayMillis, Runnable action) {
+		timers.add(new Timer(now() + delayMillis, timerSequence++, action));
+	}
+
+	//Milliseconds since the simulator was created.
+	long now() {
+		return (System.nanoTime() - startNanos) / 1000000L;
+	}
+
+	private void scheduleStats() {
+		schedule(config.statsInterval * 1000, () -> {
+			System.out.println(stats.summary(now()));
+			scheduleStats();
+		});
+	}
+
+	public String summary() {
+		return stats.summary(now());
+	}
+
+	public void shutdown() {
+		operateSimulator = false;
+		try {
+			selector.close();
+		} catch (IOException e) {
+			System.out.println("PLC simulator close failed: " + e);
+		}
+		for (SimulatedPlc plc: plcs) {
+			plc.close();
+		}
+	}
+
+	//A timed action. Timers due at the same time run in the order they were scheduled.
+	private static final class Timer implements Comparable<Timer> {
+		final long due;
+		final long sequence;
+		final Runnable action;
+
+		Timer(long due, long sequence, Runnable action) {
+			this.due = due;
+			this.sequence = sequence;
+			this.action = action;
+		}
+
+		@Override
+		public int compareTo(Timer other) {
+			if (due != other.due) {
+				return Long.compare(due, other.due);
+			}
+			return Long.compare(sequence, other.sequence);
+		}
+	}
+
+	//Counters of the whole simulator. Only written by the simulator thread.
+	static final class Stats {
+		volatile long connects;
+		volatile long disconnects;
+		volatile long callsReceived;
+		volatile long callsAccepted;
+		volatile long callsRejected;
+		volatile long completed;
+		volatile long updatesSent;
+		volatile long bytesSent;
+		volatile long bytesReceived;
+
+		String summary(long elapsedMillis) {
+			double seconds = Math.max(elapsedMillis, 1) / 1000.0;
+			return String.format(Locale.ROOT,
+					"[%.1fs] connects %d, disconnects %d, calls %d (accepted %d, rejected %d), completed %d, updates %d (%.1f/s), sent %d B, received %d B",
+					seconds, connects, disconnects, callsReceived, callsAccepted, callsRejected, completed,
+					updatesSent, updatesSent / seconds, bytesSent, bytesReceived);
+		}
+	}
+}
@@ -0,0 +1,129 @@
+/* The main function of the PLC simulator.
+ *
+ * Stands in for the IEC-61499 programs of the ENaS demonstrator so the device servers can be run and load tested
+ * without the physical PLCs. Start the device server first, then point the simulator at its Skill Bridge ports.
+ *
+ * Usage: PlcSimulatorMain [options]
+ *   --host <host>            address of the device server (localhost)
+ *   --port <port>            first Skill Bridge port (5000)
+ *   --ports <count>          number of consecutive ports, PLC n connects to port + n % count (1)
+ *   --plcs <count>           number of simulated PLCs (1)
+ *   --server-type <type>     BeltServer, BeltandGripperServer or JackandSledgeServer (BeltServer)
+ *   --skills <a,b,...>       skill names, overrides the skills of the server type
+ *   --latency <ms>           time from a CALL to its CALLRET (20)
+ *   --execute <ms>           time a started skill executes (2000)
+ *   --complete <ms>          time a completed skill takes to become ready again (100)
+ *   --jitter <ms>            random variation of every delay (5)
+ *   --update-rate <hz>       extra state UPDATEs per second per skill (0)
+ *   --binary                 ask for binary frames in the INIT packet
+ *   --no-reqid               don't ask for request ids
+ *   --duration <s>           stop after this many seconds, 0 runs until Enter is pressed (0)
+ *   --stats <s>              seconds between printed statistics (5)
+ *   --seed <n>               seed of the random delays (1)
+ */
+
+package com.SkillsProject.PlcSimulator;
+
+import java.io.BufferedReader;
+import java.io.InputStreamReader;
+import java.util.Arrays;
+
+public class PlcSimulatorMain {
+	public static void main(String[] args) throws Exception {
+		SimulatorConfig config;
+		try {
+			config = parseArgs(args);
+		} catch (IllegalArgumentException e) {
+			System.out.println(e.getMessage());
+			System.out.println("See the comment at the top of PlcSimulatorMain for the options.");
+			return;
+		}
+		if (config.plcCount > config.portCount) {
+			System.out.println("Note: " + config.plcCount + " PLCs share " + config.portCount
+					+ " ports. A device server keeps one PLC per port, later connections replace earlier ones.");
+		}
+
+		PlcSimulator simulator = new PlcSimulator(config);
+		simulator.start();
+		System.out.println("Simulating " + config.plcCount + " " + config.serverType + " PLCs on " + config.host + ":"
+				+ config.firstPort + (config.portCount > 1 ? "-" + (config.firstPort + config.portCount - 1) : ""));
+		if (config.duration > 0) {
+			Thread.sleep(config.duration * 1000);
+		}
+		else {
+			System.out.println("Press Enter to stop.");
+			new BufferedReader(new InputStreamReader(System.in)).readLine();
+		}
+		simulator.shutdown();
+		simulator.join(1000);
+		System.out.println(simulator.summary());
+	}
+
+	static SimulatorConfig parseArgs(String[] args) {
+		SimulatorConfig config = new SimulatorConfig();
+		for (int x = 0; x < args.length; x++) {
+			switch (args[x]) {
+				case "--host":
+					config.host = value(args, ++x);
+					break;
+				case "--port":
+					config.firstPort = Integer.parseInt(value(args, ++x));
+					break;
+				case "--ports":
+					config.portCount = Math.max(1, Integer.parseInt(value(args, ++x)));
+					break;
+				case "--plcs":
+					config.plcCount = Math.max(1, Integer.parseInt(value(args, ++x)));
+					break;
+				case "--server-type":
+					config.serverType = value(args, ++x);
+					break;
+				case "--skills":
+					config.skills = Arrays.asList(value(args, ++x).split(","));
+					break;
+				case "--latency":
+					config.callLatency = Long.parseLong(value(args, ++x));
+					break;
+				case "--execute":
+					config.executeTime = Long.parseLong(value(args, ++x));
+					break;
+				case "--complete":
+					config.completeTime = Long.parseLong(value(args, ++x));
+					break;
+				case "--jitter":
+					config.jitter = Long.parseLong(value(args, ++x));
+					break;
+				case "--update-rate":
+					config.updateRate = Double.parseDouble(value(args, ++x));
+					break;
+				case "--binary":
+					config.binary = true;
+					break;
+				case "--no-reqid":
+					config.requestIds = false;
+					break;
+				case "--duration":
+					config.duration = Long.parseLong(value(args, ++x));
+					break;
+				case "--stats":
+					config.statsInterval = Long.parseLong(value(args, ++x));
+					break;
+				case "--seed":
+					config.seed = Long.parseLong(value(args, ++x));
+					break;
+				default:
+					throw new IllegalArgumentException("Unknown option: " + args[x]);
+			}
+		}
+		//Fails early on an unknown server type.
+		config.skillsOf(config.serverType);
+		return config;
+	}
+
+	private static String value(String[] args, int index) {
+		if (index >= args.length) {
+			throw new IllegalArgumentException("Missing value for " + args[index-1]);
+		}
+		return args[index];
+	}
+}
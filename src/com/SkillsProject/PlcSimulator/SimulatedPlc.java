@@ -0,0 +1,311 @@
+/* A single simulated PLC connected to a Skill Bridge.
+ *
+ * Plays the part of the IEC-61499 program: sends INIT when connected, answers every CALL with a CALLRET after the
+ * configured latency and reports the state transitions of its skills with UPDATE packets.
+ * Uses the device server's own SkillBridgeParser and BinaryFrame so both sides speak exactly the same protocol.
+ *
+ * All methods are run by the simulator's selector thread.
+ */
+
+package com.SkillsProject.PlcSimulator;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Random;
+
+import com.SkillsProject.Common.CallResult;
+import com.SkillsProject.Common.CallType;
+import com.SkillsProject.ModularServer.BinaryFrame;
+import com.SkillsProject.ModularServer.PacketType;
+import com.SkillsProject.ModularServer.SkillBridgeParser;
+
+class SimulatedPlc {
+	private static final int BUFFER_SIZE = 8192;
+	//Time between reconnection attempts.
+	private static final long RECONNECT_MILLIS = 1000;
+
+	final String name;
+	final int port;
+	private final PlcSimulator simulator;
+	private final SimulatorConfig config;
+	private final Random random;
+	private final Map<String, SimulatedSkill> skills = new LinkedHashMap<String, SimulatedSkill>();
+	private final SkillBridgeParser parser = new SkillBridgeParser();
+	private final ByteBuffer inBuffer = ByteBuffer.allocate(BUFFER_SIZE);
+	private final Queue<ByteBuffer> outQueue = new ArrayDeque<ByteBuffer>();
+	private SocketChannel channel;
+	private SelectionKey key;
+	private boolean initialized = false;
+	private boolean binary = false;
+	//Increased on every connection so that timers of an earlier connection are ignored.
+	private int connection = 0;
+
+	SimulatedPlc(String name, int port, List<String> skillNames, PlcSimulator simulator, SimulatorConfig config, long seed) {
+		this.name = name;
+		this.port = port;
+		this.simulator = simulator;
+		this.config = config;
+		this.random = new Random(seed);
+		for (String skill: skillNames) {
+			skills.put(skill, new SimulatedSkill(skill));
+		}
+	}
+
+	void connect(Selector selector) {
+		try {
+			connection++;
+			initialized = false;
+			binary = false;
+			inBuffer.clear();
+			outQueue.clear();
+			//A restarted PLC program starts with every skill ready.
+			for (SimulatedSkill skill: skills.values()) {
+				skill.ready();
+			}
+			channel = SocketChannel.open();
+			channel.configureBlocking(false);
+			channel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+			channel.connect(new InetSocketAddress(config.host, port));
+			key = channel.register(selector, SelectionKey.OP_CONNECT, this);
+		} catch (IOException e) {
+			System.out.println(name + " failed to connect to port " + port + ": " + e);
+			close();
+			reconnectLater(selector);
+		}
+	}
+
+	void onConnectable() throws IOException {
+		channel.finishConnect();
+		key.interestOps(SelectionKey.OP_READ);
+		simulator.stats.connects++;
+		String features = config.binary ? "REQID," + BinaryFrame.FEATURE : config.requestIds ? "REQID" : "";
+		sendText(name + ";INIT" + (features.isEmpty() ? "" : ";" + features));
+	}
+
+	//Returns false when the server closed the connection.
+	boolean onReadable() throws IOException {
+		int read = channel.read(inBuffer);
+		if (read < 0) {
+			return false;
+		}
+		simulator.stats.bytesReceived += read;
+		inBuffer.flip();
+		byte[] bytes = inBuffer.array();
+		int pos = inBuffer.position();
+		int limit = inBuffer.limit();
+		while (pos < limit) {
+			int next = binary ? readFrame(bytes, pos, limit) : readLine(bytes, pos, limit);
+			if (next < 0) {
+				break;
+			}
+			pos = next;
+		}
+		inBuffer.position(pos);
+		inBuffer.compact();
+		if (!inBuffer.hasRemaining()) {
+			throw new IOException("Packet too long");
+		}
+		return true;
+	}
+
+	private int readLine(byte[] bytes, int pos, int limit) {
+		for (int x = pos; x < limit; x++) {
+			if (bytes[x] == '\n') {
+				int lineEnd = x;
+				if (lineEnd > pos && bytes[lineEnd-1] == '\r') {
+					lineEnd--;
+				}
+				if (lineEnd > pos && parser.parse(bytes, pos, lineEnd)) {
+					handlePacket();
+				}
+				return x + 1;
+			}
+		}
+		return -1;
+	}
+	private int readFrame(byte[] bytes, int pos, int limit) {
+		int length = BinaryFrame.bodyLength(bytes, pos, limit);
+		int start = pos + BinaryFrame.HEADER_SIZE;
+		if (length < 0 || limit - start < length) {
+			return -1;
+		}
+		if (parser.parseFrame(bytes, start, start + length)) {
+			handlePacket();
+		}
+		return start + length;
+	}
+
+	private void handlePacket() {
+		switch (parser.packetType()) {
+			case RET:
+				onInitialized(parser.isBinary() ? null : parser.field(3));
+				break;
+			case CALL:
+				onCall(parser.skillName(), parser.callType(), parser.hasRequestId(), parser.requestId());
+				break;
+			default:
+				System.out.println(name + " received an unexpected packet: " + parser);
+				break;
+		}
+	}
+
+	//The server answered the INIT. Switches to binary frames if the server enabled them and reports the initial states.
+	private void onInitialized(String features) {
+		if (initialized) {
+			return;
+		}
+		initialized = true;
+		binary = features != null && features.contains(BinaryFrame.FEATURE);
+		for (SimulatedSkill skill: skills.values()) {
+			sendUpdate(skill);
+		}
+		if (config.updateRate > 0) {
+			long interval = Math.max((long) (1000 / config.updateRate), 1);
+			scheduleUpdates(interval, (long) (random.nextDouble() * interval));
+		}
+	}
+
+	//Answers the call after the call latency. The state is checked when the answer is sent.
+	private void onCall(String skillName, CallType callType, boolean hasRequestId, int requestId) {
+		simulator.stats.callsReceived++;
+		int callConnection = connection;
+		simulator.schedule(delay(config.callLatency), () -> {
+			if (callConnection != connection) {
+				return;
+			}
+			SimulatedSkill skill = skills.get(skillName);
+			boolean accepted = skill != null && skill.accepts(callType);
+			sendCallReturn(skillName, callType, accepted ? CallResult.OK : CallResult.FAILED, hasRequestId, requestId);
+			if (!accepted) {
+				simulator.stats.callsRejected++;
+				return;
+			}
+			simulator.stats.callsAccepted++;
+			long executeTime = skill.apply(callType, simulator.now(), delay(config.executeTime));
+			sendUpdate(skill);
+			if (executeTime >= 0) {
+				scheduleCompletion(skill, executeTime);
+			}
+		});
+	}
+
+	private void scheduleCompletion(SimulatedSkill skill, long executeTime) {
+		int generation = skill.generation;
+		int callConnection = connection;
+		simulator.schedule(executeTime, () -> {
+			if (callConnection != connection || generation != skill.generation) {
+				return;
+			}
+			skill.complete();
+			simulator.stats.completed++;
+			sendUpdate(skill);
+			int completedGeneration = skill.generation;
+			simulator.schedule(delay(config.completeTime), () -> {
+				if (callConnection == connection && completedGeneration == skill.generation) {
+					skill.ready();
+					sendUpdate(skill);
+				}
+			});
+		});
+	}
+
+	//Reports the states of all skills at the update rate.
+	private void scheduleUpdates(long interval, long firstDelay) {
+		int updateConnection = connection;
+		simulator.schedule(firstDelay, () -> {
+			if (updateConnection != connection) {
+				return;
+			}
+			for (SimulatedSkill skill: skills.values()) {
+				sendUpdate(skill);
+			}
+			scheduleUpdates(interval, interval);
+		});
+	}
+
+	private void sendCallReturn(String skillName, CallType callType, CallResult result, boolean hasRequestId, int requestId) {
+		if (binary) {
+			send(BinaryFrame.callReturn(skillName, callType, result, requestId));
+		}
+		else {
+			sendText(skillName + ";CALLRET;" + callType + ";" + result + (hasRequestId ? ";" + requestId : ""));
+		}
+	}
+	private void sendUpdate(SimulatedSkill skill) {
+		simulator.stats.updatesSent++;
+		if (binary) {
+			send(BinaryFrame.update(skill.name, skill.state));
+		}
+		else {
+			sendText(skill.name + ";" + PacketType.UPDATE + ";" + skill.state + ";0");
+		}
+	}
+	private void sendText(String packet) {
+		send(ByteBuffer.wrap((packet + "\n").getBytes(StandardCharsets.US_ASCII)));
+	}
+	private void send(ByteBuffer packet) {
+		if (key == null || !key.isValid()) {
+			return;
+		}
+		simulator.stats.bytesSent += packet.remaining();
+		outQueue.add(packet);
+		key.interestOps(key.interestOps() | SelectionKey.OP_WRITE);
+	}
+
+	//Returns true once everything queued has been written.
+	boolean onWritable() throws IOException {
+		ByteBuffer buf;
+		while ((buf = outQueue.peek()) != null) {
+			channel.write(buf);
+			if (buf.hasRemaining()) {
+				return false;
+			}
+			outQueue.poll();
+		}
+		return true;
+	}
+
+	//Closes the connection and tries to connect again after a while.
+	void disconnected(Selector selector) {
+		close();
+		simulator.stats.disconnects++;
+		reconnectLater(selector);
+	}
+	private void reconnectLater(Selector selector) {
+		simulator.schedule(RECONNECT_MILLIS, () -> connect(selector));
+	}
+
+	void close() {
+		connection++;
+		try {
+			if (key != null) {
+				key.cancel();
+			}
+			if (channel != null) {
+				channel.close();
+			}
+		} catch (IOException e) {
+			System.out.println(name + " close failed: " + e);
+		}
+		key = null;
+	}
+
+	//Randomizes a delay by up to the jitter in either direction.
+	private long delay(long base) {
+		if (config.jitter <= 0) {
+			return base;
+		}
+		return Math.max(0, base + (long) ((random.nextDouble() * 2 - 1) * config.jitter));
+	}
+}
@@ -0,0 +1,87 @@
+/* State machine of a single simulated skill.
+ *
+ * Ready --START--> Executing --(execute time)--> Completed --(complete time)--> Ready
+ * Executing --SUSPEND--> Suspended --RESUME--> Executing, continuing the remaining execute time
+ * Executing or Suspended --STOP--> Stopped --RESET--> Ready
+ * A completed skill can also be reset right away.
+ *
+ * The state names match the ones the device server checks before sending a call.
+ */
+
+package com.SkillsProject.PlcSimulator;
+
+import com.SkillsProject.Common.CallType;
+
+class SimulatedSkill {
+	static final String READY = "Ready";
+	static final String EXECUTING = "Executing";
+	static final String SUSPENDED = "Suspended";
+	static final String STOPPED = "Stopped";
+	static final String COMPLETED = "Completed";
+
+	final String name;
+	String state = READY;
+	//Time the current execution completes, and the time left of it while suspended.
+	long completesAt;
+	long remaining;
+	//Increased on every transition so that timers set for an earlier state are ignored.
+	int generation = 0;
+
+	SimulatedSkill(String name) {
+		this.name = name;
+	}
+
+	//True if the call is valid in the current state.
+	boolean accepts(CallType callType) {
+		switch (callType) {
+			case START:
+				return state == READY;
+			case SUSPEND:
+				return state == EXECUTING;
+			case RESUME:
+				return state == SUSPENDED;
+			case STOP:
+				return state == EXECUTING || state == SUSPENDED;
+			case RESET:
+				return state == STOPPED || state == COMPLETED;
+			default:
+				return false;
+		}
+	}
+
+	//Applies an accepted call. Returns the time until the execution completes when the skill starts executing, else -1.
+	long apply(CallType callType, long now, long executeTime) {
+		generation++;
+		switch (callType) {
+			case START:
+				state = EXECUTING;
+				completesAt = now + executeTime;
+				return executeTime;
+			case SUSPEND:
+				state = SUSPENDED;
+				remaining = Math.max(completesAt - now, 0);
+				return -1;
+			case RESUME:
+				state = EXECUTING;
+				completesAt = now + remaining;
+				return remaining;
+			case STOP:
+				state = STOPPED;
+				return -1;
+			case RESET:
+				state = READY;
+				return -1;
+			default:
+				return -1;
+		}
+	}
+
+	void complete() {
+		generation++;
+		state = COMPLETED;
+	}
+	void ready() {
+		generation++;
+		state = READY;
+	}
+}
@@ -0,0 +1,63 @@
+/* Settings of the PLC simulator.
+ *
+ * All times are in milliseconds. Every delay is randomized by up to the jitter in either direction.
+ * Filled in from the command line by PlcSimulatorMain.
+ */
+
+package com.SkillsProject.PlcSimulator;
+
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+public class SimulatorConfig {
+	//The skills of each server type, named as in the ModularNodeManager address space.
+	public static final Map<String, List<String>> SERVER_SKILLS = new LinkedHashMap<String, List<String>>();
+	static {
+		SERVER_SKILLS.put("BeltServer", Arrays.asList("BeltSensPause", "BeltRunWOPause"));
+		SERVER_SKILLS.put("BeltandGripperServer", Arrays.asList("BeltSensPause", "BeltRunWOPause", "GripGripAndHold", "GripGripPutDown"));
+		SERVER_SKILLS.put("JackandSledgeServer", Arrays.asList("JnSBtSOne", "JnSBtSTwo", "JnSStBOne", "JnSStBTwo", "BeltSensPause", "BeltRunWOPause"));
+	}
+
+	public String host = "localhost";
+	//The PLCs connect to the ports from firstPort on, PLC n uses firstPort + n % portCount.
+	public int firstPort = 5000;
+	public int portCount = 1;
+	public int plcCount = 1;
+	public String serverType = "BeltServer";
+	//Overrides the skills of the server type when set.
+	public List<String> skills = null;
+
+	//Time from receiving a CALL to sending its CALLRET.
+	public long callLatency = 20;
+	//Time a started skill executes before completing.
+	public long executeTime = 2000;
+	//Time a completed skill stays completed before it's ready again.
+	public long completeTime = 100;
+	public long jitter = 5;
+	//State UPDATE packets sent per second for every skill, in addition to the transitions. 0 disables them.
+	public double updateRate = 0;
+
+	//Protocol features requested in the INIT packet.
+	public boolean requestIds = true;
+	public boolean binary = false;
+
+	//Seconds to run, 0 runs until stopped.
+	public long duration = 0;
+	//Seconds between printed statistics.
+	public long statsInterval = 5;
+	//Seed of the random generators, the same seed gives the same delays.
+	public long seed = 1;
+
+	public List<String> skillsOf(String serverType) {
+		if (skills != null) {
+			return skills;
+		}
+		List<String> typeSkills = SERVER_SKILLS.get(serverType);
+		if (typeSkills == null) {
+			throw new IllegalArgumentException("Unknown server type: " + serverType + ", use one of " + SERVER_SKILLS.keySet());
+		}
+		return typeSkills;
+	}
+}